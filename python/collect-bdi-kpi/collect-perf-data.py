@@ -1,6 +1,7 @@
 import os
 import sys
 import argparse
+import time
 import requests
 from datetime import datetime, timedelta
 import json
@@ -19,6 +20,9 @@ def parse_args():
     parser.add_argument('--kpi_id', type=str, default='ALL', help='KPI ID (default: ALL)')
     parser.add_argument('--start_date', type=str, help='Start date (format: YYYY-MM-DD HH:MM:SS)')
     parser.add_argument('--end_date', type=str, help='End fine (format: YYYY-MM-DD HH:MM:SS)')
+    parser.add_argument('--priority', type=str, default='scheduled', help='ADX query priority: interactive, scheduled or backfill (default: scheduled)')
+    parser.add_argument('--progressive', action='store_true', help='Start a job and print each KPI as soon as it completes')
+    parser.add_argument('--timeout', type=int, default=900, help='Seconds to wait for a progressive job (default: 900)')
     return parser.parse_args()
 
 def get_default_dates():
@@ -28,13 +32,13 @@ def get_default_dates():
     end_date = datetime(yesterday.year, yesterday.month, yesterday.day, 23, 59, 59)
     return start_date, end_date
 
-def call_api(kpi_id, start, end):
+def call_api(kpi_id, start, end, priority):
     
     # set query params
     start_str = quote(start.strftime('%Y-%m-%d %H:%M:%S'))
     end_str = quote(end.strftime('%Y-%m-%d %H:%M:%S'))
     
-    url = f"{API_URL}?startDate={start_str}&endDate={end_str}&kpiId={kpi_id}"
+    url = f"{API_URL}?startDate={start_str}&endDate={end_str}&kpiId={kpi_id}&priority={priority}"
     
     headers = {
         'Ocp-Apim-Subscription-Key': API_KEY
@@ -53,6 +57,51 @@ def call_api(kpi_id, start, end):
         print(f"❌ EXCEPTION | Interval: {start} - {end} | Error: {str(e)}")
         return False
 
+def poll_job(job_url, headers, start, end, timeout):
+
+    # each poll returns the NDJSON lines appended since the previous one
+    since = 0
+    deadline = time.time() + timeout
+    while time.time() < deadline:
+        response = requests.get(f"{job_url}?since={since}", headers=headers)
+        if response.status_code != 200:
+            print(f"❌ ERROR | Interval: {start} - {end} | Job poll Status Code: {response.status_code}")
+            return False
+        for line in response.text.splitlines():
+            result = json.loads(line)
+            if "kpiId" in result:
+                outcome = f"value: {result['value']}" if result.get("error") is None else f"error: {result['error']}"
+                print(f"   {result['kpiId']} | {outcome} | {result['millis']} ms")
+        since = int(response.headers.get("X-Next-Since", since))
+        status = response.headers.get("X-Job-Status")
+        if status != "RUNNING":
+            return status == "COMPLETED"
+        time.sleep(2)
+    print(f"❌ TIMEOUT | Interval: {start} - {end} | KPIs still running after {timeout} s")
+    return False
+
+def call_api_progressive(kpi_id, start, end, priority, timeout):
+
+    start_str = quote(start.strftime('%Y-%m-%d %H:%M:%S'))
+    end_str = quote(end.strftime('%Y-%m-%d %H:%M:%S'))
+    url = f"{API_URL}?startDate={start_str}&endDate={end_str}&kpiId={kpi_id}&priority={priority}&progressive=true"
+    headers = {
+        'Ocp-Apim-Subscription-Key': API_KEY
+    }
+
+    try:
+        response = requests.post(url, headers=headers)
+        if response.status_code != 202:
+            print(f"❌ ERROR | Interval: {start} - {end} | Status Code: {response.status_code}")
+            return False
+        job_url = f"{API_URL}/jobs/{response.json()['jobId']}"
+        success = poll_job(job_url, headers, start, end, timeout)
+        print(f"{'✅ SUCCESS' if success else '❌ ERROR'} | Interval: {start} - {end}")
+        return success
+    except Exception as e:
+        print(f"❌ EXCEPTION | Interval: {start} - {end} | Error: {str(e)}")
+        return False
+
 def main():
     print("parsing arguments...")
     args = parse_args()
@@ -109,7 +158,10 @@ def main():
         current_end = min(current_start + delta, end_date)
 
         print(f"calling api: kpi_id[{kpi_id}] sart_date[{current_start}] end_date[{current_end}]")
-        success = call_api(kpi_id, current_start, current_end)
+        if args.progressive:
+            success = call_api_progressive(kpi_id, current_start, current_end, args.priority, args.timeout)
+        else:
+            success = call_api(kpi_id, current_start, current_end, args.priority)
 
         # update payload block
         print(f"updating payload block success[{success}]")
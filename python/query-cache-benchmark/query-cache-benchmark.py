@@ -0,0 +1,115 @@
+import os
+import sys
+import json
+import time
+import argparse
+from datetime import datetime, timedelta
+
+from azure.kusto.data import KustoClient, KustoConnectionStringBuilder, ClientRequestProperties
+
+# Compares literal queries (the interval is formatted in the query text, as done before the
+# introduction of KustoQueryTemplate) with parameterized queries (constant text, interval bound
+# through declare query_parameters) executing the PERF-02 query on the same intervals.
+# Each kind of query runs with and without query_results_cache_max_age, reported separately so the
+# effect of the constant text is not mixed with the one of the results cache option.
+# For each run the server side statistics of QueryCompletionInformation are collected:
+# execution time, cpu, results cache hits and shard cache hits.
+
+ADX_CLUSTER_URL = os.getenv("ADX_CLUSTER_URL")
+ADX_DATABASE_NAME = os.getenv("ADX_DATABASE_NAME", "re")
+ADX_SOURCE_TABLE = os.getenv("ADX_SOURCE_TABLE", "ReEvent")
+AZURE_AD_CLIENT_ID = os.getenv("AZURE_AD_CLIENT_ID")
+AZURE_AD_CLIENT_SECRET = os.getenv("AZURE_AD_CLIENT_SECRET")
+AZURE_AD_TENANT_ID = os.getenv("AZURE_AD_TENANT_ID")
+
+BODY = (
+    "{table} | where insertedTimestamp between (start .. end) "
+    "| where sottoTipoEvento == 'REQ' "
+    "| where categoriaEvento == 'INTERFACCIA' "
+    "| summarize count=count()"
+    "| project count"
+)
+
+
+def parse_args():
+    parser = argparse.ArgumentParser(description='Benchmark of literal vs parameterized KPI queries')
+    parser.add_argument('--start_date', type=str, required=True, help='Start date (format: YYYY-MM-DDTHH:MM:SS)')
+    parser.add_argument('--hours', type=int, default=24, help='Number of hourly intervals (default: 24)')
+    parser.add_argument('--repetitions', type=int, default=3, help='Executions of each interval (default: 3)')
+    parser.add_argument('--cache_max_age', type=str, default='00:10:00', help='query_results_cache_max_age of the cached runs of both kinds of query')
+    return parser.parse_args()
+
+
+def completion_info(response):
+    for table in response.tables:
+        if table.table_kind.name == "QueryCompletionInformation":
+            for row in table.rows:
+                if row["EventTypeName"] == "QueryResourceConsumption":
+                    return json.loads(row["Payload"])
+    return {}
+
+
+def run(client, query, properties):
+    started = time.perf_counter()
+    response = client.execute(ADX_DATABASE_NAME, query, properties)
+    elapsed = (time.perf_counter() - started) * 1000
+    info = completion_info(response)
+    cache = info.get("resource_usage", {}).get("cache", {})
+    return {
+        "client_ms": elapsed,
+        "execution_time": info.get("ExecutionTime", 0),
+        "total_cpu": info.get("resource_usage", {}).get("cpu", {}).get("total cpu", ""),
+        "results_cache_hit": cache.get("results_cache_origin") is not None,
+        "shards_hot_hits": cache.get("shards", {}).get("hot", {}).get("hitbytes", 0),
+        "shards_hot_misses": cache.get("shards", {}).get("hot", {}).get("missbytes", 0),
+    }
+
+
+def summarize(label, runs):
+    count = len(runs)
+    hits = sum(1 for r in runs if r["results_cache_hit"])
+    avg_client = sum(r["client_ms"] for r in runs) / count
+    avg_server = sum(r["execution_time"] for r in runs) / count
+    print(f"{label:<22} runs[{count}] results_cache_hits[{hits}] avg_client_ms[{avg_client:.1f}] avg_server_s[{avg_server:.3f}]")
+
+
+def main():
+    if not all([ADX_CLUSTER_URL, AZURE_AD_CLIENT_ID, AZURE_AD_CLIENT_SECRET, AZURE_AD_TENANT_ID]):
+        print("❌ Error: ADX credentials not present")
+        sys.exit(1)
+
+    args = parse_args()
+    kcsb = KustoConnectionStringBuilder.with_aad_application_key_authentication(
+        ADX_CLUSTER_URL, AZURE_AD_CLIENT_ID, AZURE_AD_CLIENT_SECRET, AZURE_AD_TENANT_ID)
+    client = KustoClient(kcsb)
+
+    start_date = datetime.strptime(args.start_date, '%Y-%m-%dT%H:%M:%S')
+    intervals = [(start_date + timedelta(hours=h), start_date + timedelta(hours=h + 1)) for h in range(args.hours)]
+    body = BODY.format(table=ADX_SOURCE_TABLE)
+
+    runs = {(kind, cached): [] for kind in ("literal", "parameterized") for cached in (False, True)}
+    for _ in range(args.repetitions):
+        for start, end in intervals:
+            for cached in (False, True):
+                # literal query, as built with String.format
+                properties = ClientRequestProperties()
+                if cached:
+                    properties.set_option("query_results_cache_max_age", args.cache_max_age)
+                literal = f"let start = datetime({start.isoformat()}); let end = datetime({end.isoformat()}); {body}"
+                runs[("literal", cached)].append(run(client, literal, properties))
+
+                # parameterized query, as built with KustoQueryTemplate
+                properties = ClientRequestProperties()
+                properties.set_parameter("start", f"datetime({start.isoformat()})")
+                properties.set_parameter("end", f"datetime({end.isoformat()})")
+                if cached:
+                    properties.set_option("query_results_cache_max_age", args.cache_max_age)
+                parameterized = f"declare query_parameters(start:datetime, end:datetime); {body}"
+                runs[("parameterized", cached)].append(run(client, parameterized, properties))
+
+    for (kind, cached), kind_runs in runs.items():
+        summarize(f"{kind}{' cached' if cached else ''}", kind_runs)
+
+
+if __name__ == '__main__':
+    main()
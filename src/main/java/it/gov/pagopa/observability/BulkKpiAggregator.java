@@ -0,0 +1,212 @@
+package it.gov.pagopa.observability;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+
+import it.gov.pagopa.observability.helper.AllocationMeter;
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.helper.Tracing;
+import it.gov.pagopa.observability.models.KpiAverages;
+import it.gov.pagopa.observability.models.QuarterOutcome;
+import it.gov.pagopa.observability.models.QueryPriority;
+import it.gov.pagopa.observability.service.PerfKpiService;
+import it.gov.pagopa.observability.service.WriteBehindSpool;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregation of a range of quarters, possibly spanning several years, with a single ADX query
+ * and the messages of all the quarters sent to the data lake in packed, compressed batches
+ */
+public class BulkKpiAggregator {
+
+    private static final Pattern QUARTER = Pattern.compile("(\\d{4})-?Q([1-4])", Pattern.CASE_INSENSITIVE);
+
+    @FunctionName("BulkKpiAggregator")
+    public HttpResponseMessage httpTrigger(
+            @HttpTrigger(name = "req", methods = {HttpMethod.POST},
+                authLevel = AuthorizationLevel.ANONYMOUS, route = "quarters")
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+        return Tracing.trace("BulkKpiAggregator", SpanKind.SERVER, span -> aggregate(request, span, context));
+    }
+
+    private HttpResponseMessage aggregate(HttpRequestMessage<Optional<String>> request, Span span, ExecutionContext context) {
+
+        StructuredLog log = StructuredLog.begin(context);
+        log.fine("function.started", "function", "BulkKpiAggregator");
+        AllocationMeter allocationMeter = AllocationMeter.start();
+
+        String from = request.getQueryParameters().get("from");
+        String to = Optional.ofNullable(request.getQueryParameters().get("to")).orElse(from);
+        String priority = request.getQueryParameters().get("priority");
+        boolean compress = !"none".equalsIgnoreCase(request.getQueryParameters().get("compression"));
+
+        try {
+            String maxQuarters = System.getenv("BULK_MAX_QUARTERS");
+            List<YearMonth> quarters = parseQuarterRange(from, to,
+                maxQuarters != null && !maxQuarters.isEmpty() ? Integer.parseInt(maxQuarters) : 40);
+
+            log.info("quarters.run.started", "from", from, "to", to, "quarters", quarters.size());
+            span.setAttribute("kpi.quarter.from", from);
+            span.setAttribute("kpi.quarter.to", to);
+            span.setAttribute("kpi.quarters", quarters.size());
+
+            // history is re-sent in the background, by default its queries yield to the scheduled ones
+            PerfKpiService service = new PerfKpiService();
+            service.setQueryPriority(priority != null ? QueryPriority.fromValue(priority) : QueryPriority.BACKFILL);
+            YearMonth firstMonth = quarters.get(0);
+            YearMonth lastMonth = quarters.get(quarters.size() - 1).plusMonths(2);
+            Map<YearMonth, KpiAverages> months = service.queryMonthlyKpis(firstMonth, lastMonth, context);
+
+            log.fine("quarters.kpis.computed", "from", from, "to", to, "months", months.size());
+
+            // one message per quarter, as the single quarter aggregation sends
+            List<byte[]> payloads = new ArrayList<>();
+            List<QuarterOutcome.QuarterOutcomeBuilder> outcomes = new ArrayList<>();
+            for (YearMonth quarterStart : quarters) {
+                String year = String.valueOf(quarterStart.getYear());
+                String quarter = "Q" + ((quarterStart.getMonthValue() - 1) / 3 + 1);
+                List<KpiAverages> data = quarterData(months, quarterStart);
+                byte[] payload = PerKpiAggregator.serializeToJson(year, quarter, data);
+                payloads.add(payload);
+                List<String> csv = new ArrayList<>();
+                for (KpiAverages record : data) {
+                    csv.add(record.toCsv());
+                }
+                outcomes.add(QuarterOutcome.builder().year(year).quarter(quarter).data(csv).messageBytes(payload.length));
+            }
+
+            List<QuarterOutcome> results = new ArrayList<>();
+            WriteBehindSpool spool = WriteBehindSpool.getInstance();
+            if (spool != null) {
+                for (int i = 0; i < payloads.size(); i++) {
+                    spool.appendMessage(payloads.get(i));
+                    results.add(outcomes.get(i).status(QuarterOutcome.JOURNALED).build());
+                }
+                log.info("quarters.kpis.journaled", "from", from, "to", to, "pending", spool.pendingCount());
+            } else {
+                log.fine("quarters.kpis.sending", "from", from, "to", to, "messages", payloads.size(), "compressed", compress);
+                List<String> errors = service.sendPackedToEventHub(payloads, compress, context);
+                for (int i = 0; i < payloads.size(); i++) {
+                    String error = errors.get(i);
+                    results.add(outcomes.get(i)
+                        .status(error == null ? QuarterOutcome.SENT : QuarterOutcome.FAILED)
+                        .error(error)
+                        .build());
+                }
+            }
+
+            service.flushQueryStats(context);
+
+            long failed = results.stream().filter(r -> QuarterOutcome.FAILED.equals(r.getStatus())).count();
+            span.setAttribute("kpi.quarters.failed", failed);
+            HttpStatus status = failed == 0 ? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR;
+            String message = String.format("BulkKpiAggregator - Processed quarters %s to %s, failed [%d] of [%d]",
+                from, to, failed, results.size());
+            String responseBody = JsonHelper.writeToString(generator -> {
+                generator.writeStartObject();
+                generator.writeStringField("status", String.valueOf(status));
+                generator.writeStringField("message", message);
+                generator.writePOJOField("quarters", results);
+                generator.writePOJOField("queryStats", service.getQueryStats());
+                generator.writeEndObject();
+            });
+
+            log.info("quarters.run.completed", "from", from, "to", to, "failed", failed,
+                "allocatedBytes", allocationMeter.allocatedBytes(), "logBytes", log.runBytes());
+
+            return request.createResponseBuilder(status)
+                    .header("Content-Type", "application/json")
+                    .body(responseBody)
+                    .build();
+
+        } catch (Exception e) {
+
+            log.severe("quarters.run.failed", "from", from, "to", to, "error", e.getMessage());
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR, e.getMessage());
+
+            String body;
+            try {
+                body = JsonHelper.writeStatusResponse(null,
+                        String.format("BulkKpiAggregator - error while quarters %s to %s elaboration", from, to),
+                        String.format("Error: %s", e.getMessage()));
+            } catch (Exception ex) {
+                body = String.format("BulkKpiAggregator - error while quarters %s to %s elaboration: %s", from, to, ex.getMessage());
+            }
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .header("Content-Type", "application/json")
+                    .body(body)
+                    .build();
+        } finally {
+            log.end();
+        }
+    }
+
+    /**
+     * @param months kpis of the months of the range
+     * @param quarterStart first month of the quarter
+     * @return the kpis of the months of the quarter in calendar order, as sent by {@link PerKpiAggregator}
+     */
+    public static List<KpiAverages> quarterData(Map<YearMonth, KpiAverages> months, YearMonth quarterStart) {
+        return List.of(
+            months.get(quarterStart),
+            months.get(quarterStart.plusMonths(1)),
+            months.get(quarterStart.plusMonths(2)));
+    }
+
+    /**
+     * @param from first quarter, es. 2024-Q1
+     * @param to last quarter, included
+     * @param maxQuarters maximum number of quarters of the range
+     * @return the first month of each quarter of the range, in order
+     * @throws IllegalArgumentException if a quarter is not valid, the range is empty or too large
+     */
+    public static List<YearMonth> parseQuarterRange(String from, String to, int maxQuarters) {
+        YearMonth first = parseQuarter(from);
+        YearMonth last = parseQuarter(to);
+        if (last.isBefore(first)) {
+            throw new IllegalArgumentException(String.format("quarter [%s] is before quarter [%s]", to, from));
+        }
+        List<YearMonth> quarters = new ArrayList<>();
+        for (YearMonth quarter = first; !quarter.isAfter(last); quarter = quarter.plusMonths(3)) {
+            quarters.add(quarter);
+        }
+        if (quarters.size() > maxQuarters) {
+            throw new IllegalArgumentException(String.format("the range contains [%d] quarters, at most [%d] are allowed",
+                quarters.size(), maxQuarters));
+        }
+        return quarters;
+    }
+
+    /**
+     * @param quarter quarter as year and quarter number, es. 2024-Q1 or 2024Q1
+     * @return the first month of the quarter
+     * @throws IllegalArgumentException if the quarter is not valid
+     */
+    public static YearMonth parseQuarter(String quarter) {
+        Matcher matcher = quarter != null ? QUARTER.matcher(quarter.trim()) : null;
+        if (matcher == null || !matcher.matches()) {
+            throw new IllegalArgumentException(String.format("quarter [%s] must be in the form YYYY-QN, es. 2024-Q1", quarter));
+        }
+        return YearMonth.of(Integer.parseInt(matcher.group(1)), (Integer.parseInt(matcher.group(2)) - 1) * 3 + 1);
+    }
+}
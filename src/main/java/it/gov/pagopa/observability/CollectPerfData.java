@@ -1,12 +1,16 @@
 package it.gov.pagopa.observability;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.functions.HttpMethod;
 import com.microsoft.azure.functions.HttpRequestMessage;
@@ -16,24 +20,47 @@ import com.microsoft.azure.functions.annotation.AuthorizationLevel;
 import com.microsoft.azure.functions.annotation.FunctionName;
 import com.microsoft.azure.functions.annotation.HttpTrigger;
 
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+
+import it.gov.pagopa.observability.helper.AllocationMeter;
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.StandaloneExecutionContext;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.helper.Tracing;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.QueryPriority;
+import it.gov.pagopa.observability.service.KpiJobRegistry;
+import it.gov.pagopa.observability.service.KpiRegistry;
 import it.gov.pagopa.observability.service.PerfKpiService;
 
 public class CollectPerfData {
 
+    private static final List<String> ALL_KPI = List.of("ALL", "ALL_KPI");
+
     @FunctionName("CollectPerfData")
     public HttpResponseMessage httpTrigger(
                 @HttpTrigger(name = "req", methods = {HttpMethod.POST}, 
                     authLevel = AuthorizationLevel.ANONYMOUS, route = "perf-data")
                 HttpRequestMessage<Optional<String>> request,
                 final ExecutionContext context) {
+        return Tracing.trace("CollectPerfData", SpanKind.SERVER, span -> collectPerfData(request, span, context));
+    }
+
+    private HttpResponseMessage collectPerfData(HttpRequestMessage<Optional<String>> request, Span span, ExecutionContext context) {
 
-        context.getLogger().info(String.format("CollectPerfData - HTTP triggered, processing input parameters"));
+        StructuredLog log = StructuredLog.begin(context);
+        log.fine("function.started", "function", "CollectPerfData");
+        AllocationMeter allocationMeter = AllocationMeter.start();
 
         // get query parameters
         String startDateInput = request.getQueryParameters().get("startDate");
         String endDateInput = request.getQueryParameters().get("endDate");
         String kpiId = Optional.ofNullable(request.getQueryParameters().get("kpiId")).orElse("ALL_KPI");
         boolean saveData = Optional.ofNullable(request.getQueryParameters().get("saveData")).orElse("true").equalsIgnoreCase("true");
+        String priority = request.getQueryParameters().get("priority");
+        boolean progressive = "true".equalsIgnoreCase(request.getQueryParameters().get("progressive"));
 
         try {
             
@@ -58,87 +85,56 @@ public class CollectPerfData {
                 endDate = startDate.plusMonths(1).minusSeconds(1);
             }
 
-            context.getLogger().info(String.format("CollectPerfData - Processing interval: %s to %s, kpiId: %s, saveData: %s", startDate, endDate, kpiId, saveData));
+            log.info("kpi.run.started", "kpiId", kpiId, "start", startDate, "end", endDate, "saveData", saveData);
+            span.setAttribute("kpi.ids", kpiId);
+            span.setAttribute("kpi.interval.start", startDate.toString());
+            span.setAttribute("kpi.interval.end", endDate.toString());
+            span.setAttribute("kpi.save_data", saveData);
             
             // getting service instance        
             PerfKpiService service = new PerfKpiService();
+            service.setQueryPriority(QueryPriority.fromValue(priority));
+            KpiRegistry registry = service.getKpiRegistry();
+
+            // if no kpiId has been specified, all kpis wil be collected,
+            // otherwise kpiId can be a single kpi or a comma separated list of kpis
+            List<String> kpiIds = ALL_KPI.contains(kpiId.toUpperCase())
+                ? registry.getKpiIds()
+                : Arrays.stream(kpiId.split(",")).map(String::trim).collect(Collectors.toList());
+
+            if (KpiRegistry.PERF_02E.equals(kpiId)) {
+                // if startDate is not specified then startDate is now minus one hour
+                if (startDateInput != null && !startDateInput.isEmpty()) {
+                    startDate = LocalDateTime.parse(startDateInput, formatter);
+                } else {
+                    startDate = LocalDateTime.now().minusHours(1).withMinute(0).withSecond(0);
+                }
+                endDate = startDate.plusHours(1);
+                log.info("kpi.run.interval", "kpiId", kpiId, "start", startDate, "end", endDate);
+            }
+
+            List<KpiRequest> kpiRequests = new ArrayList<>();
+            for (String id : kpiIds) {
+                kpiRequests.add(KpiRequest.builder()
+                    .definition(registry.get(id))
+                    .startDate(startDate)
+                    .endDate(endDate)
+                    .build());
+            }
 
-            // if no kpiId has been specified, all kpis wil be collected
-            String rtPerf01  = "0.00";
-            String rtPerf02  = "0";
-            String rtPerf02E = "0";
-            String rtPerf03  = "0";
-            String rtPerf04  = "0";
-            String rtPerf05  = "0";
-            String rtPerf06  = "0";
-            String rtOneKpi  = "0";  
-
-            switch (kpiId) {
-                case "PERF-01":
-                    rtOneKpi = service.executePerf01Kpi(startDate, endDate, saveData, context);
-                    break;
-                case "PERF-02":
-                    rtOneKpi = service.executePerf02Kpi(startDate, endDate, saveData, context);
-                    break;
-                case "PERF-02E":
-                    // if startDate is not specified then startDate is now minus one hour
-                    if (startDateInput != null && !startDateInput.isEmpty()) {
-                        startDate = LocalDateTime.parse(startDateInput, formatter);
-                    } else {
-                        startDate = LocalDateTime.now().minusHours(1).withMinute(0).withSecond(0);
-                    }
-                    endDate = startDate.plusHours(1);
-                    context.getLogger().info(String.format("CollectPerf02EData - PERF-02E HTTP triggered. " +
-                        "Processing interval: %s to %s", startDate, endDate));                
-                    rtOneKpi = service.executePerf02EKpi(startDate, endDate, saveData, context);
-                    break;
-                case "PERF-03":
-                    rtOneKpi = service.executePerfKpi(startDate, endDate, "PERF-03", saveData, context);
-                    break;
-                case "PERF-04":
-                    rtOneKpi = service.executePerfKpi(startDate, endDate, "PERF-04", saveData, context);
-                    break;
-                case "PERF-05":
-                    rtOneKpi = service.executePerfKpi(startDate, endDate, "PERF-05", saveData, context);
-                    break;
-                case "PERF-06":
-                    rtOneKpi = service.executePerfKpi(startDate, endDate, "PERF-06", saveData, context);
-                    break;
-                default: // collect all kpis
-                    rtPerf01 = service.executePerf01Kpi(startDate, endDate, saveData, context);
-                    rtPerf02 = service.executePerf02Kpi(startDate, endDate, saveData, context);
-                    rtPerf02E = service.executePerf02EKpi(startDate, endDate, saveData, context);
-                    rtPerf03 = service.executePerfKpi(startDate, endDate, "PERF-03", saveData, context);
-                    rtPerf04 = service.executePerfKpi(startDate, endDate, "PERF-04", saveData, context);
-                    rtPerf05 = service.executePerfKpi(startDate, endDate, "PERF-05", saveData, context);
-                    rtPerf06 = service.executePerfKpi(startDate, endDate, "PERF-06", saveData, context);
-                    break;
+            if (progressive) {
+                return startJob(request, service, kpiRequests, saveData, kpiId, startDate, endDate, log);
             }
+
+            // kpis sharing the same source are computed with a single query
+            Map<String, String> values = service.executeKpis(kpiRequests, saveData, context);
             
             // Build OK response
-            context.getLogger().info(String.format("CollectPerfData - Execution completed"));
-
-            // Build response details
-            StringBuffer details = new StringBuffer().append("KPI: [").append(kpiId).append("]");
-            if ("ALL".equalsIgnoreCase(kpiId)) {
-                details.append(" values: [").append(rtPerf01)
-                    .append(" | ").append(rtPerf02)
-                    .append(" | ").append(rtPerf02E)
-                    .append(" | ").append(rtPerf03)
-                    .append(" | ").append(rtPerf04)
-                    .append(" | ").append(rtPerf05)
-                    .append(" | ").append(rtPerf06)
-                    .append("]");
-            } else {
-                details.append(" value: [").append(rtOneKpi).append("]");
-            }
+            log.info("kpi.run.completed", "kpiId", kpiId, "start", startDate, "end", endDate,
+                "allocatedBytes", allocationMeter.allocatedBytes(), "logBytes", log.runBytes());
 
-            ObjectMapper objectMapper = new ObjectMapper();
-            ObjectNode rootNode = objectMapper.createObjectNode();
-            rootNode.put("status", String.valueOf(HttpStatus.OK));
-            rootNode.put("message", String.format("Processed interval: %s to %s", startDate, endDate));
-            rootNode.put("details", details.toString());
-            String responseBody = objectMapper.writeValueAsString(rootNode);
+            service.flushQueryStats(context);
+            String responseBody = responseBody(service, kpiId, startDate, endDate, values);
             return request.createResponseBuilder(HttpStatus.OK)
                     .header("Content-Type", "application/json")
                     .body(responseBody)
@@ -146,31 +142,89 @@ public class CollectPerfData {
 
         } catch (Exception e) {
 
-            context.getLogger().severe(String.format("CollectPerfData - HTTP triggered. " +
-                    "Error: %s", e.getMessage()));
+            log.severe("kpi.run.failed", "kpiId", kpiId, "error", e.getMessage());
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR, e.getMessage());
 
             // Build KO response
-            ObjectMapper objectMapper = new ObjectMapper();
-            ObjectNode rootNode = objectMapper.createObjectNode();
-            rootNode.put("status", String.valueOf(HttpStatus.INTERNAL_SERVER_ERROR));
-            rootNode.put("message", String.format("CollectPerformanceData - HTTP triggered. Error: %s", e.getMessage()));
-            rootNode.put("details", String.format("CollectPerfData - Error: %s ", e.getMessage()));
-
             try {
-                String responseBody = objectMapper.writeValueAsString(rootNode);
+                String responseBody = JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.INTERNAL_SERVER_ERROR),
+                        String.format("CollectPerformanceData - HTTP triggered. Error: %s", e.getMessage()),
+                        String.format("CollectPerfData - Error: %s ", e.getMessage()));
                 return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
                         .header("Content-Type", "application/json")
                         .body(responseBody)
                         .build();
-            } catch (JsonProcessingException jpe) {
-                context.getLogger().severe("CollectPerformanceData - HTTP triggered. " +
-                        "Error while serializing error response");
+            } catch (IOException jpe) {
+                log.severe("kpi.run.response_failed", "kpiId", kpiId, "error", jpe.getMessage());
                 return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
                         .header("Content-Type", "application/json")
                         .body(String.format("CollectPerfData - generic error during elaboration: %s",
                                 jpe.getMessage()))
                         .build();
             }
+        } finally {
+            log.end();
+        }
+    }
+
+    /**
+     * Starts the kpi run as a {@link KpiJobRegistry} job, whose kpis are polled from {@link KpiJobs} as soon as
+     * each one completes. The last line of the job is the response of the synchronous run
+     */
+    private HttpResponseMessage startJob(HttpRequestMessage<Optional<String>> request, PerfKpiService service,
+            List<KpiRequest> kpiRequests, boolean saveData, String kpiId, LocalDateTime startDate, LocalDateTime endDate,
+            StructuredLog log) throws IOException {
+
+        KpiJobRegistry.Job job;
+        try {
+            job = KpiJobRegistry.getInstance().start(running -> {
+                // the job outlives the invocation, so it does not log through the invocation context
+                ExecutionContext jobContext = new StandaloneExecutionContext("CollectPerfData");
+                Map<String, String> values = service.executeKpis(kpiRequests, saveData, running::append, jobContext);
+                StructuredLog.of(jobContext).info("kpi.run.completed", "jobId", running.getId(), "kpiId", kpiId,
+                    "start", startDate, "end", endDate);
+                service.flushQueryStats(jobContext);
+                return responseBody(service, kpiId, startDate, endDate, values);
+            });
+        } catch (IllegalStateException e) {
+            log.warning("kpi.job.rejected", "kpiId", kpiId, "error", e.getMessage());
+            return request.createResponseBuilder(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Content-Type", "application/json")
+                    .header("Retry-After", "30")
+                    .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.TOO_MANY_REQUESTS),
+                        String.format("CollectPerfData - Error: %s", e.getMessage()), "retry later"))
+                    .build();
         }
+
+        log.info("kpi.job.started", "jobId", job.getId(), "kpiId", kpiId, "start", startDate, "end", endDate);
+        String location = "perf-data/jobs/" + job.getId();
+        return request.createResponseBuilder(HttpStatus.ACCEPTED)
+                .header("Content-Type", "application/json")
+                .header("Location", location)
+                .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.ACCEPTED),
+                    String.format("Started interval: %s to %s", startDate, endDate),
+                    String.format("KPI: [%s] results at: %s", kpiId, location),
+                    "jobId", job.getId()))
+                .build();
+    }
+
+    private static String responseBody(PerfKpiService service, String kpiId, LocalDateTime startDate, LocalDateTime endDate,
+            Map<String, String> values) throws IOException {
+
+        // Build response details
+        StringBuffer details = new StringBuffer().append("KPI: [").append(kpiId).append("]");
+        if (values.size() > 1) {
+            details.append(" values: [").append(String.join(" | ", values.values())).append("]");
+        } else {
+            details.append(" value: [").append(values.values().iterator().next()).append("]");
+        }
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("queryStats", service.getQueryStats());
+        // only set when the re events are federated across several targets
+        fields.put("targets", service.getTargetOutcomes().isEmpty() ? null : service.getTargetOutcomes());
+        return JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.OK),
+            String.format("Processed interval: %s to %s", startDate, endDate), details.toString(), fields);
     }
 }
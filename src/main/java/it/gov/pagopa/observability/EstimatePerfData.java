@@ -0,0 +1,120 @@
+package it.gov.pagopa.observability;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.models.KpiDefinition;
+import it.gov.pagopa.observability.models.KpiEstimate;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.KpiSource;
+import it.gov.pagopa.observability.models.QueryPriority;
+import it.gov.pagopa.observability.service.KpiRegistry;
+import it.gov.pagopa.observability.service.PerfKpiService;
+
+/**
+ * Approximate kpis for exploratory runs, computed on sampled rows with their confidence interval.
+ * The estimates are never persisted, the official values are only written by {@link CollectPerfData}
+ */
+public class EstimatePerfData {
+
+    private static final List<String> ALL_KPI = List.of("ALL", "ALL_KPI");
+
+    @FunctionName("EstimatePerfData")
+    public HttpResponseMessage run(
+            @HttpTrigger(name = "req", methods = {HttpMethod.POST},
+                authLevel = AuthorizationLevel.ANONYMOUS, route = "perf-data/estimate")
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        StructuredLog log = StructuredLog.of(context);
+        String startDateInput = request.getQueryParameters().get("startDate");
+        String endDateInput = request.getQueryParameters().get("endDate");
+        String kpiId = Optional.ofNullable(request.getQueryParameters().get("kpiId")).orElse("ALL_KPI");
+        String sampleRate = Optional.ofNullable(request.getQueryParameters().get("sampleRate"))
+            .orElse(Optional.ofNullable(System.getenv("ESTIMATE_SAMPLE_RATE")).orElse("0.1"));
+        boolean compare = "true".equalsIgnoreCase(request.getQueryParameters().get("compare"));
+        String priority = request.getQueryParameters().get("priority");
+
+        try {
+            if (startDateInput == null || endDateInput == null) {
+                throw new IllegalArgumentException("startDate and endDate are required");
+            }
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+            LocalDateTime startDate = LocalDateTime.parse(startDateInput, formatter);
+            LocalDateTime endDate = LocalDateTime.parse(endDateInput, formatter);
+            double rate = Double.parseDouble(sampleRate);
+
+            PerfKpiService service = new PerfKpiService();
+            // exploratory runs yield to the official collections
+            service.setQueryPriority(priority != null ? QueryPriority.fromValue(priority) : QueryPriority.BACKFILL);
+            KpiRegistry registry = service.getKpiRegistry();
+
+            // the status page availability is cheap and not sampled, ALL only covers the query sources
+            List<KpiDefinition> definitions = new ArrayList<>();
+            if (ALL_KPI.contains(kpiId.toUpperCase())) {
+                for (String id : registry.getKpiIds()) {
+                    if (registry.get(id).getSource() != KpiSource.STATUS_PAGE) {
+                        definitions.add(registry.get(id));
+                    }
+                }
+            } else {
+                for (String id : Arrays.stream(kpiId.split(",")).map(String::trim).collect(Collectors.toList())) {
+                    definitions.add(registry.get(id));
+                }
+            }
+
+            List<KpiRequest> kpiRequests = new ArrayList<>();
+            for (KpiDefinition definition : definitions) {
+                kpiRequests.add(KpiRequest.builder()
+                    .definition(definition)
+                    .startDate(startDate)
+                    .endDate(endDate)
+                    .build());
+            }
+
+            log.info("kpi.estimate.started", "kpiId", kpiId, "start", startDate, "end", endDate, "sampleRate", rate,
+                "compare", compare);
+            List<KpiEstimate> estimates = service.estimateKpis(kpiRequests, rate, compare, context);
+
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.OK),
+                        String.format("Estimated interval: %s to %s", startDate, endDate),
+                        String.format("KPI: [%s] sampleRate: [%s] not persisted", kpiId, sampleRate),
+                        "estimates", estimates))
+                    .build();
+
+        } catch (Exception e) {
+            log.severe("kpi.estimate.failed", "kpiId", kpiId, "error", e.getMessage());
+            HttpStatus status = e instanceof IllegalArgumentException ? HttpStatus.BAD_REQUEST : HttpStatus.INTERNAL_SERVER_ERROR;
+            String body;
+            try {
+                body = JsonHelper.writeStatusResponse(String.valueOf(status),
+                    String.format("EstimatePerfData - HTTP triggered. Error: %s", e.getMessage()),
+                    String.format("EstimatePerfData - Error: %s ", e.getMessage()));
+            } catch (Exception jpe) {
+                body = String.format("EstimatePerfData - generic error during elaboration: %s", e.getMessage());
+            }
+            return request.createResponseBuilder(status)
+                    .header("Content-Type", "application/json")
+                    .body(body)
+                    .build();
+        }
+    }
+}
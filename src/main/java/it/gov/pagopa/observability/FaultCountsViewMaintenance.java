@@ -0,0 +1,33 @@
+package it.gov.pagopa.observability;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.TimerTrigger;
+
+import it.gov.pagopa.observability.models.MaterializedViewStatus;
+import it.gov.pagopa.observability.service.PerfKpiService;
+
+/**
+ * Keeps the ADX materialized view of the hourly PERF-02 and PERF-02E counts created, aligned and enabled
+ */
+public class FaultCountsViewMaintenance {
+
+    @FunctionName("FaultCountsViewMaintenance")
+    public void run(
+            @TimerTrigger(name = "timer", schedule = "%FAULT_COUNTS_VIEW_SCHEDULE%") String timerInfo,
+            final ExecutionContext context) {
+
+        context.getLogger().info("FaultCountsViewMaintenance - Timer triggered");
+
+        try {
+            MaterializedViewStatus status = new PerfKpiService().maintainFaultCountsView(context);
+            if (status != null) {
+                context.getLogger().info(String.format("FaultCountsViewMaintenance - view [%s] enabled[%s] healthy[%s] materializedTo[%s] validFrom[%s]",
+                    status.getName(), status.isEnabled(), status.isHealthy(), status.getMaterializedTo(), status.getValidFrom()));
+            }
+        } catch (Exception e) {
+            // the kpis keep scanning the raw events until the view is available
+            context.getLogger().severe(String.format("FaultCountsViewMaintenance - Error: %s", e.getMessage()));
+        }
+    }
+}
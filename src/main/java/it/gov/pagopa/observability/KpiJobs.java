@@ -0,0 +1,82 @@
+package it.gov.pagopa.observability;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.BindingName;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.service.KpiJobRegistry;
+
+/**
+ * Progressive results of a kpi run started by {@link CollectPerfData} with progressive=true, as NDJSON:
+ * one line per kpi as soon as its query completes, then the response of the synchronous run.
+ * The caller polls with since set to the X-Next-Since of the previous poll until X-Job-Status is not RUNNING
+ */
+public class KpiJobs {
+
+    @FunctionName("KpiJobs")
+    public HttpResponseMessage run(
+            @HttpTrigger(name = "req", methods = {HttpMethod.GET},
+                authLevel = AuthorizationLevel.ANONYMOUS, route = "perf-data/jobs/{jobId}")
+            HttpRequestMessage<Optional<String>> request,
+            @BindingName("jobId") String jobId,
+            final ExecutionContext context) {
+
+        StructuredLog log = StructuredLog.of(context);
+        String since = Optional.ofNullable(request.getQueryParameters().get("since")).orElse("0");
+
+        try {
+            KpiJobRegistry.Job job = KpiJobRegistry.getInstance().get(jobId);
+            if (job == null) {
+                // the jobs are only known to the instance that started them, until KPI_JOB_TTL_SECONDS
+                return request.createResponseBuilder(HttpStatus.NOT_FOUND)
+                        .header("Content-Type", "application/json")
+                        .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.NOT_FOUND),
+                            String.format("KpiJobs - job %s not found", jobId), "unknown, expired or started by another instance"))
+                        .build();
+            }
+
+            // the status is read before the lines, a finished job has all its lines
+            KpiJobRegistry.Status status = job.getStatus();
+            int offset = Integer.parseInt(since);
+            List<String> lines = job.linesSince(offset);
+            log.fine("kpi.job.polled", "jobId", jobId, "since", offset, "lines", lines.size(), "status", status);
+
+            StringBuilder body = new StringBuilder();
+            lines.forEach(line -> body.append(line).append('\n'));
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/x-ndjson")
+                    .header("Cache-Control", "no-store")
+                    .header("X-Job-Status", status.name())
+                    .header("X-Next-Since", String.valueOf(offset + lines.size()))
+                    .body(body.toString())
+                    .build();
+
+        } catch (Exception e) {
+            log.severe("kpi.job.poll_failed", "jobId", jobId, "error", e.getMessage());
+            HttpStatus status = e instanceof IllegalArgumentException ? HttpStatus.BAD_REQUEST : HttpStatus.INTERNAL_SERVER_ERROR;
+            String body;
+            try {
+                body = JsonHelper.writeStatusResponse(String.valueOf(status),
+                    String.format("KpiJobs - HTTP triggered. Error: %s", e.getMessage()),
+                    String.format("KpiJobs - Error: %s ", e.getMessage()));
+            } catch (Exception jpe) {
+                body = String.format("KpiJobs - generic error during elaboration: %s", e.getMessage());
+            }
+            return request.createResponseBuilder(status)
+                    .header("Content-Type", "application/json")
+                    .body(body)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package it.gov.pagopa.observability;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.models.CachedResponse;
+import it.gov.pagopa.observability.models.PerfKpiRow;
+import it.gov.pagopa.observability.service.KpiLookupCache;
+import it.gov.pagopa.observability.service.PerfKpiService;
+
+/**
+ * Read-only lookup of the kpi values already stored on ADX, served from an in-memory cache
+ * with entity tags so that pollers get a 304 while the values do not change
+ */
+public class KpiLookup {
+
+    private static final List<String> ALL_KPI = List.of("ALL", "ALL_KPI");
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @FunctionName("KpiLookup")
+    public HttpResponseMessage run(
+            @HttpTrigger(name = "req", methods = {HttpMethod.GET},
+                authLevel = AuthorizationLevel.ANONYMOUS, route = "kpis")
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        StructuredLog log = StructuredLog.of(context);
+        log.fine("function.started", "function", "KpiLookup");
+
+        String startDateInput = request.getQueryParameters().get("startDate");
+        String endDateInput = request.getQueryParameters().get("endDate");
+        String kpiId = Optional.ofNullable(request.getQueryParameters().get("kpiId")).orElse("ALL_KPI");
+
+        try {
+            if (startDateInput == null || endDateInput == null) {
+                throw new IllegalArgumentException("startDate and endDate are required");
+            }
+            LocalDateTime startDate = LocalDateTime.parse(startDateInput, FORMATTER);
+            LocalDateTime endDate = LocalDateTime.parse(endDateInput, FORMATTER);
+            String kpi = ALL_KPI.contains(kpiId.toUpperCase()) ? null : kpiId.trim();
+
+            KpiLookupCache cache = KpiLookupCache.getInstance();
+            String key = String.join("|", String.valueOf(kpi), startDate.toString(), endDate.toString());
+            CachedResponse response = cache.get(key);
+            if (response == null) {
+                List<PerfKpiRow> rows = new PerfKpiService().queryStoredKpis(kpi, startDate, endDate, context);
+                response = cache.put(key, serialize(kpiId, startDate, endDate, rows));
+                log.info("kpi.lookup.loaded", "kpiId", kpiId, "start", startDate, "end", endDate,
+                    "rows", rows.size(), "etag", response.getEtag());
+            }
+
+            if (KpiLookupCache.matches(header(request, "If-None-Match"), response.getEtag())) {
+                return request.createResponseBuilder(HttpStatus.NOT_MODIFIED)
+                        .header("ETag", response.getEtag())
+                        .header("Cache-Control", String.format("max-age=%d", cache.ttlSeconds()))
+                        .build();
+            }
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .header("ETag", response.getEtag())
+                    .header("Cache-Control", String.format("max-age=%d", cache.ttlSeconds()))
+                    .body(response.getBody())
+                    .build();
+
+        } catch (Exception e) {
+            log.severe("kpi.lookup.failed", "kpiId", kpiId, "error", e.getMessage());
+            String body;
+            try {
+                body = JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.INTERNAL_SERVER_ERROR),
+                    String.format("KpiLookup - HTTP triggered. Error: %s", e.getMessage()),
+                    String.format("KpiLookup - Error: %s ", e.getMessage()));
+            } catch (Exception jpe) {
+                body = String.format("KpiLookup - generic error during elaboration: %s", e.getMessage());
+            }
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .header("Content-Type", "application/json")
+                    .body(body)
+                    .build();
+        }
+    }
+
+    /**
+     * @param kpiId requested kpi
+     * @param startDate interval start
+     * @param endDate interval end
+     * @param rows stored kpi rows
+     * @return the response body
+     * @throws Exception
+     */
+    public static String serialize(String kpiId, LocalDateTime startDate, LocalDateTime endDate, List<PerfKpiRow> rows) throws Exception {
+        return JsonHelper.writeToString(generator -> {
+            generator.writeStartObject();
+            generator.writeStringField("status", String.valueOf(HttpStatus.OK));
+            generator.writeStringField("message", String.format("Stored kpis interval: %s to %s", startDate, endDate));
+            generator.writeStringField("kpiId", kpiId);
+            generator.writeArrayFieldStart("kpis");
+            for (PerfKpiRow row : rows) {
+                generator.writeStartObject();
+                generator.writeStringField("startDate", row.getStartDate() != null ? row.getStartDate().format(FORMATTER) : null);
+                generator.writeStringField("endDate", row.getEndDate() != null ? row.getEndDate().format(FORMATTER) : null);
+                generator.writeStringField("kpiId", row.getKpiId());
+                generator.writeStringField("kpiValue", row.getKpiValue());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+    }
+
+    private static String header(HttpRequestMessage<Optional<String>> request, String name) {
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package it.gov.pagopa.observability;
+
+import java.util.Optional;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+
+/**
+ * Exposes the in-memory metrics of the process (latencies and counters)
+ */
+public class Metrics {
+
+    @FunctionName("Metrics")
+    public HttpResponseMessage run(
+            @HttpTrigger(name = "MetricsTrigger", methods = {HttpMethod.GET},
+                authLevel = AuthorizationLevel.ANONYMOUS, route = "metrics")
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        context.getLogger().info("Metrics - HTTP triggered");
+
+        try {
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonHelper.writer().writeValueAsString(MetricsRegistry.snapshot()))
+                    .build();
+        } catch (Exception e) {
+            context.getLogger().severe(String.format("Metrics - error while serializing metrics: %s", e.getMessage()));
+            return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .header("Content-Type", "application/json")
+                    .body(String.format("Metrics - error while serializing metrics: %s", e.getMessage()))
+                    .build();
+        }
+    }
+}
@@ -10,17 +10,26 @@ import com.microsoft.azure.functions.annotation.BindingName;
 import com.microsoft.azure.functions.annotation.FunctionName;
 import com.microsoft.azure.functions.annotation.HttpTrigger;
 
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+
+import it.gov.pagopa.observability.helper.AllocationMeter;
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.helper.Tracing;
+import it.gov.pagopa.observability.models.KpiAverages;
+import it.gov.pagopa.observability.models.QueryPriority;
 import it.gov.pagopa.observability.service.PerfKpiService;
+import it.gov.pagopa.observability.service.WriteBehindSpool;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
 
 public class PerKpiAggregator {
@@ -32,8 +41,14 @@ public class PerKpiAggregator {
             HttpRequestMessage<Optional<String>> request,
             @BindingName("quarter") String quarter, 
             final ExecutionContext context) {
+        return Tracing.trace("PerKpiAggregator", SpanKind.SERVER, span -> aggregate(request, quarter, span, context));
+    }
+
+    private HttpResponseMessage aggregate(HttpRequestMessage<Optional<String>> request, String quarter, Span span, ExecutionContext context) {
 
-        context.getLogger().info(String.format("PerKpiAggregator - HTTP triggered, processing input parameters"));
+        StructuredLog log = StructuredLog.begin(context);
+        log.fine("function.started", "function", "PerKpiAggregator");
+        AllocationMeter allocationMeter = AllocationMeter.start();
         
         // if year query param is not specified, the current year is taken into account
         String year = request.getQueryParameters().get("year");
@@ -42,84 +57,63 @@ public class PerKpiAggregator {
         }
 
         // calculating the qaurter to compute
-        String firstMonthString = "";
-        String secondMonthString = "";
-        String thirdMonthString = "";
         try {
             List<String> quarters = Arrays.asList("q1", "q2", "q3", "q4", "last");
             if (quarters.stream().noneMatch(s -> s.equalsIgnoreCase(quarter))) {
                 throw new Exception("quarter parm must be one of 'Q1', 'Q2', 'Q3', 'Q4' or 'LAST'");
             }
 
-            LocalDateTime firstMonth;
-            LocalDateTime secondMonth;
-            LocalDateTime thirdMonth;
-
-            if ("last".equalsIgnoreCase(quarter)) { // get the last quarter
-                LocalDateTime now = LocalDateTime.now();
-                firstMonth = now.minusMonths(3).withDayOfMonth(1).withHour(0).withMinute(0).withSecond(0);
-                secondMonth = now.minusMonths(2).withDayOfMonth(1).withHour(0).withMinute(0).withSecond(0);
-                thirdMonth = now.minusMonths(1).withDayOfMonth(1).withHour(0).withMinute(0).withSecond(0);
-
-            } else { // get specific quarter, year matters
-
-                LocalDateTime now = LocalDateTime.of(Integer.parseInt(year), 1, 1,0,0);
-                int offset = 0;
-                switch (quarter.toLowerCase()) {
-                    case "q1":
-                        offset += 2;
-                        break;
-                    case "q2":
-                        offset += 5;
-                        break;
-                    case "q3":
-                        offset += 8;
-                        break;
-                    case "q4":
-                        offset += 11;
-                        break;
-                }
-
-                firstMonth = now.plusMonths(offset).withDayOfMonth(1).withHour(0).withMinute(0).withSecond(0);
-                secondMonth = now.plusMonths((offset - 1)).withDayOfMonth(1).withHour(0).withMinute(0).withSecond(0);
-                thirdMonth = now.plusMonths((offset - 2)).withDayOfMonth(1).withHour(0).withMinute(0).withSecond(0);
-            }
+            // months of the quarter in calendar order, as labelled by serializeToJson
+            List<LocalDateTime> months = quarterMonths(year, quarter, LocalDateTime.now());
+            LocalDateTime firstMonth = months.get(0);
+            LocalDateTime lastMonth = months.get(2);
 
-            context.getLogger().info(String.format("PerKpiAggregator - Calculating kpis for quarter [%s] year [%s]", quarter, year));
+            log.info("quarter.run.started", "year", year, "quarter", quarter);
+            span.setAttribute("kpi.quarter", quarter);
+            span.setAttribute("kpi.year", year);
+            span.setAttribute("kpi.interval.start", firstMonth.toString());
+            span.setAttribute("kpi.interval.end", lastMonth.plusMonths(1).minusSeconds(1).toString());
             
             PerfKpiService service = new PerfKpiService();
-            firstMonthString = service.queryKpiAverages(firstMonth, firstMonth.plusMonths(1).minusSeconds(1), context);
-            secondMonthString = service.queryKpiAverages(secondMonth, secondMonth.plusMonths(1).minusSeconds(1), context);
-            thirdMonthString = service.queryKpiAverages(thirdMonth, thirdMonth.plusMonths(1).minusSeconds(1), context);
-            
-            context.getLogger().info(String.format("PerKpiAggregator - kpis calculated"));
-            
+            service.setQueryPriority(QueryPriority.fromValue(request.getQueryParameters().get("priority")));
             // building message to send to evh
-            List<String> data = List.of(
-                firstMonthString,
-                secondMonthString,
-                thirdMonthString
-                );
+            List<KpiAverages> data = new ArrayList<>();
+            for (LocalDateTime month : months) {
+                data.add(service.queryMonthlyKpis(month, month.plusMonths(1).minusSeconds(1), context));
+            }
+            
+            log.fine("quarter.kpis.computed", "year", year, "quarter", quarter);
                 
-            // Serialize to JSON and send to evh
-            String jsonString = serializeToJson(year, quarter, data);
-            context.getLogger().info(String.format("PerKpiAggregator - Sending kpis to evh"));
-            service.sendToEventHub(jsonString, context);
+            // Serialize to JSON and send to evh, the months are labelled from the upper case quarter
+            byte[] payload = serializeToJson(year, quarter.toUpperCase(), data);
+            WriteBehindSpool spool = WriteBehindSpool.getInstance();
+            if (spool != null) {
+                spool.appendMessage(payload);
+                log.info("quarter.kpis.journaled", "year", year, "quarter", quarter, "pending", spool.pendingCount());
+            } else {
+                log.fine("quarter.kpis.sending", "year", year, "quarter", quarter, "bytes", payload.length);
+                service.sendToEventHub(payload, context);
+            }
+
+            service.flushQueryStats(context);
 
             // Build OK response
-            ObjectMapper objectMapper = new ObjectMapper();
-            ObjectNode rootNode = objectMapper.createObjectNode();
-            rootNode.put("status", String.valueOf(HttpStatus.OK));
-            rootNode.put("message", String.format("PerKpiAggregator - Processed quarter %s/%s", year, quarter));
-
-            ArrayNode dataArray = objectMapper.createArrayNode();
-            for (String record : data) {
-                dataArray.add(record);
-            }
-            rootNode.set("data", dataArray);
-            String responseBody = objectMapper.writeValueAsString(rootNode);
+            String message = String.format("PerKpiAggregator - Processed quarter %s/%s", year, quarter);
+            String responseBody = JsonHelper.writeToString(generator -> {
+                generator.writeStartObject();
+                generator.writeStringField("status", String.valueOf(HttpStatus.OK));
+                generator.writeStringField("message", message);
+                generator.writeArrayFieldStart("data");
+                for (KpiAverages record : data) {
+                    generator.writeString(record.toCsv());
+                }
+                generator.writeEndArray();
+                generator.writePOJOField("queryStats", service.getQueryStats());
+                generator.writeEndObject();
+            });
 
-            context.getLogger().info(String.format("PerKpiAggregator - Execution completed"));
+            log.info("quarter.run.completed", "year", year, "quarter", quarter,
+                "allocatedBytes", allocationMeter.allocatedBytes(), "logBytes", log.runBytes());
 
             return request.createResponseBuilder(HttpStatus.OK)
                     .header("Content-Type", "application/json")
@@ -128,35 +122,72 @@ public class PerKpiAggregator {
 
         } catch (Exception e) {
 
-            context.getLogger().severe(String.format("PerKpiAggregator - error while quarter %s elaboration: %s"
-                    ,quarter, e.getMessage()));
+            log.severe("quarter.run.failed", "year", year, "quarter", quarter, "error", e.getMessage());
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR, e.getMessage());
 
             // Build KO response
-            ObjectMapper objectMapper = new ObjectMapper();
-            ObjectNode rootNode = objectMapper.createObjectNode();
-            rootNode.put("message", String.format("PerKpiAggregator - error while quarter %s elaboration", quarter));
-            rootNode.put("details", String.format("Error: %s", e.getMessage()));
             try {
-                String responseBody = objectMapper.writeValueAsString(rootNode);
+                String responseBody = JsonHelper.writeStatusResponse(null,
+                        String.format("PerKpiAggregator - error while quarter %s elaboration", quarter),
+                        String.format("Error: %s", e.getMessage()));
                 return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
                         .header("Content-Type", "application/json")
                         .body(responseBody)
                         .build();
             } catch (Exception ex) {
-                context.getLogger().severe(String.format("PerKpiAggregator - error while quarter %s elaboration: %s"
-                        ,quarter, ex.getMessage()));
+                log.severe("quarter.run.response_failed", "year", year, "quarter", quarter, "error", ex.getMessage());
                 return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
                         .header("Content-Type", "application/json")
                         .body(String.format("PerKpiAggregator - error while quarter %s elaboration: %s"
                                 ,quarter, ex.getMessage()))
                         .build();
             }
+        } finally {
+            log.end();
+        }
+    }
+
+    /**
+     * @param year year of the quarter, ignored for the last quarter
+     * @param quarter quarter (Q1, Q2, Q3, Q4 or LAST, case insensitive)
+     * @param now current time, the last quarter is the one of the three months before it
+     * @return the first instant of each month of the quarter, in calendar order
+     */
+    public static List<LocalDateTime> quarterMonths(String year, String quarter, LocalDateTime now) {
+        LocalDateTime firstMonth;
+        if ("last".equalsIgnoreCase(quarter)) {
+            firstMonth = now.minusMonths(3);
+        } else {
+            int quarterNumber = Integer.parseInt(quarter.substring(1));
+            firstMonth = LocalDateTime.of(Integer.parseInt(year), (quarterNumber - 1) * 3 + 1, 1, 0, 0);
         }
+        firstMonth = firstMonth.withDayOfMonth(1).withHour(0).withMinute(0).withSecond(0).withNano(0);
+        return List.of(firstMonth, firstMonth.plusMonths(1), firstMonth.plusMonths(2));
     }
 
-    public static String serializeToJson(String year, String quarter, List<String> data) throws Exception {
+    /**
+     * Serializes the kpis of the months of a quarter as the JSON message expected by the data lake
+     * @param year year of the quarter
+     * @param quarter quarter (Q1, Q2, Q3, Q4)
+     * @param data kpis of the months of the quarter, in calendar order
+     * @return the UTF-8 encoded message
+     * @throws Exception
+     */
+    public static byte[] serializeToJson(String year, String quarter, List<KpiAverages> data) throws Exception {
+        return serializeToJson(year, quarter, data, LocalDateTime.now());
+    }
+
+    /**
+     * @param year year of the quarter
+     * @param quarter quarter (Q1, Q2, Q3, Q4)
+     * @param data kpis of the months of the quarter, in calendar order
+     * @param now creation date of the message
+     * @return the UTF-8 encoded message
+     * @throws Exception
+     */
+    public static byte[] serializeToJson(String year, String quarter, List<KpiAverages> data, LocalDateTime now) throws Exception {
 
-        LocalDateTime now = LocalDateTime.now();
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
         String createDate = now.format(formatter);
 
@@ -179,30 +210,27 @@ public class PerKpiAggregator {
                 break;
         }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        ArrayNode rootNode = objectMapper.createArrayNode();
-        ObjectNode dataNode;
-        for (String record : data) {
-            
-            dataNode = objectMapper.createObjectNode();
-            dataNode.put("create_date", createDate);
-            dataNode.put("year", year);
-            dataNode.put("quarter", quarter);
-            dataNode.put("month", String.format("%02d", startMonth));
-
-            String[] kpis = record.split(",");
-            dataNode.put("PERF_01", kpis[0]);
-            dataNode.put("PERF_02", kpis[1]);
-            dataNode.put("PERF_02E", kpis[2]);
-            dataNode.put("PERF_03", kpis[3]);
-            dataNode.put("PERF_04", kpis[4]);
-            dataNode.put("PERF_05", kpis[5]);
-            dataNode.put("PERF_06", kpis[6]);
-
-            rootNode.add(dataNode);
-            startMonth++;
-        }
-
-        return objectMapper.writeValueAsString(rootNode);
+        final int firstMonth = startMonth;
+        return JsonHelper.writeToBytes(generator -> {
+            int month = firstMonth;
+            generator.writeStartArray();
+            for (KpiAverages record : data) {
+                generator.writeStartObject();
+                generator.writeStringField("create_date", createDate);
+                generator.writeStringField("year", year);
+                generator.writeStringField("quarter", quarter);
+                generator.writeStringField("month", String.format("%02d", month));
+                generator.writeStringField("PERF_01", record.getPerf01());
+                generator.writeStringField("PERF_02", record.getPerf02());
+                generator.writeStringField("PERF_02E", record.getPerf02E());
+                generator.writeStringField("PERF_03", record.getPerf03());
+                generator.writeStringField("PERF_04", record.getPerf04());
+                generator.writeStringField("PERF_05", record.getPerf05());
+                generator.writeStringField("PERF_06", record.getPerf06());
+                generator.writeEndObject();
+                month++;
+            }
+            generator.writeEndArray();
+        });
     }
-}
\ No newline at end of file
+}
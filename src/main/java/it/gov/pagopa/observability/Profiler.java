@@ -0,0 +1,84 @@
+package it.gov.pagopa.observability;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+
+import it.gov.pagopa.observability.helper.FlightRecorderProfiler;
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.models.ProfileSummary;
+
+/**
+ * On-demand Java Flight Recorder session of the instance serving the request, protected by the function key.
+ * The recording is written in JFR_OUTPUT_DIR and summarized in the response
+ */
+public class Profiler {
+
+    @FunctionName("Profiler")
+    public HttpResponseMessage run(
+            @HttpTrigger(name = "ProfilerTrigger", methods = {HttpMethod.POST},
+                authLevel = AuthorizationLevel.FUNCTION, route = "profile")
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        StructuredLog log = StructuredLog.of(context);
+        String durationInput = Optional.ofNullable(request.getQueryParameters().get("durationSeconds")).orElse("30");
+        String settings = Optional.ofNullable(request.getQueryParameters().get("settings")).orElse("default");
+
+        HttpStatus status;
+        String body;
+        try {
+            log.info("jfr.started", "durationSeconds", durationInput, "settings", settings);
+            ProfileSummary summary;
+            try {
+                summary = FlightRecorderProfiler.fromEnvironment().record(Duration.ofSeconds(Long.parseLong(durationInput)), settings);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("invalid durationSeconds [%s]", durationInput));
+            }
+            log.info("jfr.completed", "path", summary.getPath(), "sizeBytes", summary.getSizeBytes(),
+                "allocationBytesPerSecond", summary.getAllocationBytesPerSecond(), "gcPauses", summary.getGcPauses(),
+                "gcPauseMaxMillis", summary.getGcPauseMaxMillis());
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.OK),
+                        String.format("Profiler - recording written to %s", summary.getPath()),
+                        String.format("settings: [%s] duration: [%d ms]", settings, summary.getDurationMillis()),
+                        "profile", summary))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            status = HttpStatus.BAD_REQUEST;
+            body = e.getMessage();
+        } catch (IllegalStateException e) {
+            status = HttpStatus.CONFLICT;
+            body = e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+            body = "recording interrupted";
+        } catch (Exception e) {
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+            body = e.getMessage();
+        }
+
+        log.severe("jfr.failed", "status", status.value(), "error", body);
+        try {
+            body = JsonHelper.writeStatusResponse(String.valueOf(status), "Profiler - HTTP triggered. Error: " + body,
+                String.format("Profiler - Error: %s ", body));
+        } catch (Exception jpe) {
+            body = String.format("Profiler - generic error during elaboration: %s", body);
+        }
+        return request.createResponseBuilder(status)
+                .header("Content-Type", "application/json")
+                .body(body)
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+package it.gov.pagopa.observability;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+import com.microsoft.azure.functions.annotation.TimerTrigger;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.StandaloneExecutionContext;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.models.QueryPriority;
+import it.gov.pagopa.observability.models.RollingWindow;
+import it.gov.pagopa.observability.service.PerfKpiService;
+import it.gov.pagopa.observability.service.RollingKpiWindow;
+
+/**
+ * Near real time kpis of the last hours, kept in the in-memory {@link RollingKpiWindow}
+ * by small incremental queries and served without querying ADX
+ */
+public class RollingKpis {
+
+    @FunctionName("RollingKpiWindowRefresh")
+    public void refresh(
+            @TimerTrigger(name = "timer", schedule = "%ROLLING_WINDOW_SCHEDULE%") String timerInfo,
+            final ExecutionContext context) {
+
+        StructuredLog log = StructuredLog.of(context);
+        try {
+            RollingKpiWindow window = RollingKpiWindow.getInstance();
+            boolean refreshed = window.refresh(loader(context), LocalDateTime.now(ZoneOffset.UTC));
+            log.info("kpi.rolling.timer", "refreshed", refreshed);
+        } catch (Exception e) {
+            // the window keeps the previous counts, the next run queries again since the last refresh
+            log.severe("kpi.rolling.timer_failed", "error", e.getMessage());
+        }
+    }
+
+    @FunctionName("RollingKpis")
+    public HttpResponseMessage run(
+            @HttpTrigger(name = "req", methods = {HttpMethod.GET},
+                authLevel = AuthorizationLevel.ANONYMOUS, route = "kpis/rolling")
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        StructuredLog log = StructuredLog.of(context);
+        RollingKpiWindow window = RollingKpiWindow.getInstance();
+        String hours = Optional.ofNullable(request.getQueryParameters().get("hours")).orElse(String.valueOf(window.getHours()));
+        String kpiId = request.getQueryParameters().get("kpiId");
+        boolean withBuckets = "true".equalsIgnoreCase(request.getQueryParameters().get("buckets"));
+
+        try {
+            LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+            // the instances not running the timer keep their own window up to date
+            window.refreshIfStale(loader(new StandaloneExecutionContext("RollingKpiWindowRefresh")), now);
+            if (!window.isLoaded()) {
+                return request.createResponseBuilder(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header("Content-Type", "application/json")
+                        .header("Retry-After", "30")
+                        .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.SERVICE_UNAVAILABLE),
+                            "RollingKpis - the rolling window is loading", "retry later"))
+                        .build();
+            }
+
+            List<String> kpis = kpiId == null || kpiId.isEmpty()
+                ? null
+                : Arrays.stream(kpiId.split(",")).map(String::trim).collect(Collectors.toList());
+            RollingWindow snapshot = window.snapshot(Integer.parseInt(hours), kpis, withBuckets, now);
+            log.fine("kpi.rolling.served", "hours", hours, "kpiId", kpiId, "missingBuckets", snapshot.getMissingBuckets());
+
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .header("Cache-Control", String.format("max-age=%d", window.getBucket().getSeconds()))
+                    .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.OK),
+                        String.format("Rolling window: %s to %s", snapshot.getStart(), snapshot.getEnd()),
+                        String.format("refreshed at: %s", snapshot.getRefreshedAt()),
+                        "window", snapshot))
+                    .build();
+
+        } catch (Exception e) {
+            log.severe("kpi.rolling.failed", "hours", hours, "kpiId", kpiId, "error", e.getMessage());
+            HttpStatus status = e instanceof IllegalArgumentException ? HttpStatus.BAD_REQUEST : HttpStatus.INTERNAL_SERVER_ERROR;
+            String body;
+            try {
+                body = JsonHelper.writeStatusResponse(String.valueOf(status),
+                    String.format("RollingKpis - HTTP triggered. Error: %s", e.getMessage()),
+                    String.format("RollingKpis - Error: %s ", e.getMessage()));
+            } catch (Exception jpe) {
+                body = String.format("RollingKpis - generic error during elaboration: %s", e.getMessage());
+            }
+            return request.createResponseBuilder(status)
+                    .header("Content-Type", "application/json")
+                    .body(body)
+                    .build();
+        }
+    }
+
+    private static RollingKpiWindow.BucketLoader loader(ExecutionContext context) {
+        return (start, end) -> {
+            PerfKpiService service = new PerfKpiService();
+            // background refresh, nobody waits on it
+            service.setQueryPriority(QueryPriority.SCHEDULED);
+            RollingKpiWindow window = RollingKpiWindow.getInstance();
+            return service.queryKpiBuckets(window.definitions(service.getKpiRegistry()), window.getBucket(), start, end, context);
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package it.gov.pagopa.observability;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.HttpMethod;
+import com.microsoft.azure.functions.HttpRequestMessage;
+import com.microsoft.azure.functions.HttpResponseMessage;
+import com.microsoft.azure.functions.HttpStatus;
+import com.microsoft.azure.functions.annotation.AuthorizationLevel;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.HttpTrigger;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.QueryPriority;
+import it.gov.pagopa.observability.models.ShadowComparison;
+import it.gov.pagopa.observability.service.KpiRegistry;
+import it.gov.pagopa.observability.service.ShadowExecutionService;
+
+/**
+ * Shadow execution of a candidate query path next to the reference one, nothing is persisted
+ */
+public class ShadowExecution {
+
+    private static final List<String> ALL_KPI = List.of("ALL", "ALL_KPI");
+
+    @FunctionName("ShadowRun")
+    public HttpResponseMessage run(
+            @HttpTrigger(name = "req", methods = {HttpMethod.POST},
+                authLevel = AuthorizationLevel.ANONYMOUS, route = "shadow")
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        context.getLogger().info("ShadowRun - HTTP triggered, processing input parameters");
+
+        String startDateInput = request.getQueryParameters().get("startDate");
+        String endDateInput = request.getQueryParameters().get("endDate");
+        String kpiId = Optional.ofNullable(request.getQueryParameters().get("kpiId")).orElse("ALL_KPI");
+        String candidate = Optional.ofNullable(request.getQueryParameters().get("candidate")).orElse(ShadowExecutionService.PLANNER);
+        String priority = request.getQueryParameters().get("priority");
+
+        try {
+            if (startDateInput == null || endDateInput == null) {
+                throw new IllegalArgumentException("startDate and endDate are required");
+            }
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+            LocalDateTime startDate = LocalDateTime.parse(startDateInput, formatter);
+            LocalDateTime endDate = LocalDateTime.parse(endDateInput, formatter);
+
+            context.getLogger().info(String.format("ShadowRun - Processing interval: %s to %s, kpiId: %s, candidate: %s",
+                startDate, endDate, kpiId, candidate));
+
+            KpiRegistry registry = KpiRegistry.fromEnvironment();
+            List<String> kpiIds = ALL_KPI.contains(kpiId.toUpperCase())
+                ? registry.getKpiIds()
+                : Arrays.stream(kpiId.split(",")).map(String::trim).collect(Collectors.toList());
+
+            List<KpiRequest> kpiRequests = new ArrayList<>();
+            for (String id : kpiIds) {
+                kpiRequests.add(KpiRequest.builder()
+                    .definition(registry.get(id))
+                    .startDate(startDate)
+                    .endDate(endDate)
+                    .build());
+            }
+
+            // the shadow runs are extra load on the cluster, by default they yield to the other queries
+            List<ShadowComparison> comparisons = ShadowExecutionService.fromEnvironment().run(candidate, kpiRequests,
+                priority != null ? QueryPriority.fromValue(priority) : QueryPriority.BACKFILL, context);
+
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.OK),
+                        String.format("Shadow run interval: %s to %s", startDate, endDate),
+                        String.format("KPI: [%s] candidate: [%s] mismatches: [%d]", kpiId, candidate,
+                            comparisons.stream().filter(c -> !c.isMatch()).count()),
+                        "comparisons", comparisons))
+                    .build();
+
+        } catch (Exception e) {
+            context.getLogger().severe(String.format("ShadowRun - Error: %s", e.getMessage()));
+            return errorResponse(request, "ShadowRun", e);
+        }
+    }
+
+    @FunctionName("ShadowReport")
+    public HttpResponseMessage report(
+            @HttpTrigger(name = "req", methods = {HttpMethod.GET},
+                authLevel = AuthorizationLevel.ANONYMOUS, route = "shadow/report")
+            HttpRequestMessage<Optional<String>> request,
+            final ExecutionContext context) {
+
+        context.getLogger().info("ShadowReport - HTTP triggered");
+
+        try {
+            ShadowExecutionService service = ShadowExecutionService.fromEnvironment();
+            return request.createResponseBuilder(HttpStatus.OK)
+                    .header("Content-Type", "application/json")
+                    .body(JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.OK),
+                        "Shadow report since the instance start",
+                        String.format("candidates: %s", service.getCandidates()),
+                        "kpis", service.report()))
+                    .build();
+        } catch (Exception e) {
+            context.getLogger().severe(String.format("ShadowReport - Error: %s", e.getMessage()));
+            return errorResponse(request, "ShadowReport", e);
+        }
+    }
+
+    private HttpResponseMessage errorResponse(HttpRequestMessage<Optional<String>> request, String function, Exception e) {
+        String body;
+        try {
+            body = JsonHelper.writeStatusResponse(String.valueOf(HttpStatus.INTERNAL_SERVER_ERROR),
+                String.format("%s - HTTP triggered. Error: %s", function, e.getMessage()),
+                String.format("%s - Error: %s ", function, e.getMessage()));
+        } catch (Exception jpe) {
+            body = String.format("%s - generic error during elaboration: %s", function, e.getMessage());
+        }
+        return request.createResponseBuilder(HttpStatus.INTERNAL_SERVER_ERROR)
+                .header("Content-Type", "application/json")
+                .body(body)
+                .build();
+    }
+}
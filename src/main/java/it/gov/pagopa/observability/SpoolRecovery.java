@@ -0,0 +1,32 @@
+package it.gov.pagopa.observability;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.annotation.FunctionName;
+import com.microsoft.azure.functions.annotation.TimerTrigger;
+
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.service.WriteBehindSpool;
+
+/**
+ * Opens the write-behind spool soon after the worker starts, so the entries journaled before a restart
+ * are replayed and drained without waiting for a new kpi run. Nothing to do unless SPOOL_DIR is set
+ */
+public class SpoolRecovery {
+
+    @FunctionName("SpoolRecovery")
+    public void run(
+            @TimerTrigger(name = "timer", schedule = "%SPOOL_RECOVERY_SCHEDULE%") String timerInfo,
+            final ExecutionContext context) {
+
+        StructuredLog log = StructuredLog.of(context);
+        try {
+            WriteBehindSpool spool = WriteBehindSpool.getInstance();
+            if (spool != null) {
+                log.fine("spool.recovery.checked", "pending", spool.pendingCount());
+            }
+        } catch (Exception e) {
+            // the next run opens the spool again, the journal is left as it is
+            log.severe("spool.recovery.failed", "error", e.getMessage());
+        }
+    }
+}
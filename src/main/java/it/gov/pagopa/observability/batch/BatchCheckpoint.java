@@ -0,0 +1,81 @@
+package it.gov.pagopa.observability.batch;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Slots completed by a batch run, one start date per line. The slots complete out of order,
+ * so a resumed run skips exactly the recorded ones and recomputes the failed or interrupted ones
+ */
+public class BatchCheckpoint implements AutoCloseable {
+
+    private final Set<LocalDateTime> done = ConcurrentHashMap.newKeySet();
+    private final BufferedWriter writer;
+
+    private BatchCheckpoint(Set<LocalDateTime> done, BufferedWriter writer) {
+        this.done.addAll(done);
+        this.writer = writer;
+    }
+
+    /**
+     * @param path checkpoint file, created if missing, null to keep the completed slots in memory only
+     * @return the checkpoint with the slots completed by the previous runs
+     */
+    public static BatchCheckpoint open(Path path) throws IOException {
+        if (path == null) {
+            return new BatchCheckpoint(Set.of(), null);
+        }
+        Set<LocalDateTime> done = new HashSet<>();
+        if (Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                try {
+                    done.add(LocalDateTime.parse(line.trim()));
+                } catch (DateTimeParseException e) {
+                    // a line truncated by a crash, the slot is just recomputed
+                }
+            }
+        }
+        BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (Files.size(path) > 0 && !Files.readString(path, StandardCharsets.UTF_8).endsWith("\n")) {
+            writer.newLine();
+        }
+        return new BatchCheckpoint(done, writer);
+    }
+
+    public boolean isDone(LocalDateTime slotStart) {
+        return done.contains(slotStart);
+    }
+
+    public int size() {
+        return done.size();
+    }
+
+    /**
+     * Records a slot as completed, to be called once its rows are written
+     * @param slotStart start of the slot
+     */
+    public synchronized void markDone(LocalDateTime slotStart) throws IOException {
+        if (done.add(slotStart) && writer != null) {
+            writer.write(slotStart.toString());
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package it.gov.pagopa.observability.batch;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import it.gov.pagopa.observability.models.QueryPriority;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Options of a {@link KpiBatchRunner} run, parsed from --name=value arguments
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class BatchOptions {
+
+    public static final String USAGE = "KpiBatchRunner --from=yyyy-MM-dd HH:mm:ss --to=yyyy-MM-dd HH:mm:ss"
+        + " [--step=MONTHS|DAYS|HOURS] [--kpis=ALL|PERF-02,PERF-02E] [--workers=4]"
+        + " [--output=ADX|FILE] [--outputDir=batch-output] [--checkpoint=batch.checkpoint] [--priority=BACKFILL]"
+        + " [--runId=recompute-1]";
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    public enum Output {
+        /** rows ingested in the kpi tables as soon as a slot is computed, once per slot thanks to the ingest-by tag */
+        ADX,
+        /** rows written as CSV files, one per table and slot, for a later bulk ingestion */
+        FILE
+    }
+
+    /** start of the first slot */
+    private LocalDateTime from;
+    /** end (excluded) of the last slot */
+    private LocalDateTime to;
+    private ChronoUnit step;
+    /** kpis to compute, null for all the registered kpis */
+    private List<String> kpiIds;
+    private int workers;
+    private Output output;
+    private Path outputDir;
+    /** completed slots, null to run without checkpoint */
+    private Path checkpoint;
+    private QueryPriority priority;
+    /** part of the ADX ingest-by tags, a new run id ingests again the slots already ingested, null for none */
+    private String runId;
+
+    /**
+     * @param args --name=value arguments, see {@link #USAGE}
+     * @return the options of the run
+     * @throws IllegalArgumentException on missing or invalid arguments
+     */
+    public static BatchOptions parse(String... args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException(String.format("BatchOptions - invalid argument [%s], usage: %s", arg, USAGE));
+            }
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        if (!values.containsKey("from") || !values.containsKey("to")) {
+            throw new IllegalArgumentException("BatchOptions - from and to are required, usage: " + USAGE);
+        }
+
+        String kpis = values.getOrDefault("kpis", "ALL");
+        BatchOptions options = BatchOptions.builder()
+            .from(parseDate(values.get("from")))
+            .to(parseDate(values.get("to")))
+            .step(ChronoUnit.valueOf(values.getOrDefault("step", "MONTHS").toUpperCase()))
+            .kpiIds(List.of("ALL", "ALL_KPI").contains(kpis.toUpperCase())
+                ? null
+                : Arrays.stream(kpis.split(",")).map(String::trim).collect(Collectors.toList()))
+            .workers(Integer.parseInt(values.getOrDefault("workers", "4")))
+            .output(Output.valueOf(values.getOrDefault("output", "ADX").toUpperCase()))
+            .outputDir(Path.of(values.getOrDefault("outputDir", "batch-output")))
+            .checkpoint(values.containsKey("checkpoint") && !values.get("checkpoint").isEmpty() ? Path.of(values.get("checkpoint")) : null)
+            .priority(QueryPriority.fromValue(values.getOrDefault("priority", "BACKFILL")))
+            .runId(values.containsKey("runId") && !values.get("runId").isEmpty() ? values.get("runId") : null)
+            .build();
+
+        if (!options.from.isBefore(options.to)) {
+            throw new IllegalArgumentException("BatchOptions - from must be before to");
+        }
+        if (!List.of(ChronoUnit.MONTHS, ChronoUnit.DAYS, ChronoUnit.HOURS).contains(options.step)) {
+            throw new IllegalArgumentException(String.format("BatchOptions - unsupported step [%s]", options.step));
+        }
+        if (options.workers < 1) {
+            throw new IllegalArgumentException("BatchOptions - workers must be at least 1");
+        }
+        return options;
+    }
+
+    private static LocalDateTime parseDate(String value) {
+        try {
+            return LocalDateTime.parse(value, FORMATTER);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(String.format("BatchOptions - invalid date [%s], expected yyyy-MM-dd HH:mm:ss", value));
+        }
+    }
+}
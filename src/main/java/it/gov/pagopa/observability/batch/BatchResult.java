@@ -0,0 +1,26 @@
+package it.gov.pagopa.observability.batch;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Outcome of a {@link KpiBatchRunner} run
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class BatchResult {
+
+    private int slots;
+    /** slots already completed by a previous run */
+    private int skipped;
+    private int completed;
+    private List<LocalDateTime> failed;
+    private long rows;
+    private long millis;
+}
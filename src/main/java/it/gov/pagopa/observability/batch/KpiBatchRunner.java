@@ -0,0 +1,249 @@
+package it.gov.pagopa.observability.batch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.microsoft.azure.functions.ExecutionContext;
+
+import it.gov.pagopa.observability.helper.StandaloneExecutionContext;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.models.KpiDefinition;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.PerfKpiRow;
+import it.gov.pagopa.observability.service.KpiRegistry;
+import it.gov.pagopa.observability.service.PerfKpiService;
+
+/**
+ * Command line entry point recomputing the kpis over a long period without the functions host.
+ * The period is split in slots (months, days or hours) computed by a pool of workers with the same
+ * {@link PerfKpiService} logic of the triggers. Every completed slot is recorded in the checkpoint,
+ * so a failed or interrupted run is resumed by launching it again with the same arguments.
+ * The ADX queries of the process are still limited by ADX_QUERY_CONCURRENCY and the ADX bulkhead,
+ * to be raised together with the workers. Usage: see {@link BatchOptions#USAGE}
+ */
+public class KpiBatchRunner {
+
+    private static final DateTimeFormatter FILE_SLOT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    /**
+     * Computes the kpi values of one slot
+     */
+    @FunctionalInterface
+    public interface KpiEngine {
+        Map<String, String> compute(List<KpiRequest> requests, ExecutionContext context) throws Exception;
+    }
+
+    /**
+     * Writes the rows of one slot into a kpi table, must be idempotent as a resumed slot is written again
+     */
+    @FunctionalInterface
+    public interface RowWriter {
+        void write(String table, LocalDateTime slotStart, List<PerfKpiRow> rows, ExecutionContext context) throws Exception;
+    }
+
+    private final BatchOptions options;
+    private final KpiRegistry registry;
+    private final KpiEngine engine;
+    private final RowWriter writer;
+
+    public KpiBatchRunner(BatchOptions options, KpiRegistry registry, KpiEngine engine, RowWriter writer) {
+        this.options = options;
+        this.registry = registry;
+        this.engine = engine;
+        this.writer = writer;
+    }
+
+    /**
+     * @param options options of the run
+     * @return the runner computing the kpis with {@link PerfKpiService} and writing them as configured
+     */
+    public static KpiBatchRunner fromOptions(BatchOptions options) {
+        KpiEngine engine = (requests, context) -> {
+            PerfKpiService service = new PerfKpiService();
+            service.setQueryPriority(options.getPriority());
+            return service.executeKpis(requests, false, context);
+        };
+        RowWriter writer = options.getOutput() == BatchOptions.Output.FILE
+            ? fileWriter(options.getOutputDir())
+            : (table, slotStart, rows, context) -> new PerfKpiService().writePerfKpiRows(table, rows,
+                ingestTag(table, slotStart, options.getStep(), rows.stream().map(PerfKpiRow::getKpiId).collect(Collectors.toList()),
+                    options.getRunId()), context);
+        return new KpiBatchRunner(options, KpiRegistry.fromEnvironment(), engine, writer);
+    }
+
+    /**
+     * The ingest-by tag of the rows of a slot, the rows are not ingested if a previous run ingested the same tag.
+     * Runs with other kpis or another step ingest their rows, recomputing the same slots needs a new run id
+     * @param table kpi table
+     * @param slotStart start of the slot
+     * @param step step of the run
+     * @param kpiIds kpis of the rows
+     * @param runId run id, null for none
+     * @return the tag, es. batch|BDI_PERF_KPI|DAYS|PERF-02,PERF-02E|20240101000000
+     */
+    public static String ingestTag(String table, LocalDateTime slotStart, ChronoUnit step, Collection<String> kpiIds, String runId) {
+        String tag = String.format("batch|%s|%s|%s|%s", table, step.name(), String.join(",", new TreeSet<>(kpiIds)),
+            slotStart.format(FILE_SLOT));
+        return runId != null ? tag + "|" + runId : tag;
+    }
+
+    /**
+     * @param outputDir root of the CSV files, one directory per table and one file per slot
+     * @return the writer of the CSV files, in the format ingested in the kpi tables
+     */
+    public static RowWriter fileWriter(Path outputDir) {
+        return (table, slotStart, rows, context) -> {
+            Path dir = Files.createDirectories(outputDir.resolve(table));
+            Path file = dir.resolve(slotStart.format(FILE_SLOT) + ".csv");
+            Path tmp = dir.resolve(file.getFileName() + ".tmp");
+            Files.writeString(tmp, PerfKpiService.toCsv(rows, LocalDateTime.now()), StandardCharsets.UTF_8);
+            // a slot file is either complete or missing
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        BatchOptions options;
+        try {
+            options = BatchOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        BatchResult result = fromOptions(options).run(new StandaloneExecutionContext("KpiBatchRunner"));
+        System.exit(result.getFailed().isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * @return the slots of the period, each one from its start to the last second before the next one
+     */
+    public List<LocalDateTime> slots() {
+        List<LocalDateTime> slots = new ArrayList<>();
+        for (LocalDateTime start = options.getFrom(); start.isBefore(options.getTo()); start = start.plus(1, options.getStep())) {
+            slots.add(start);
+        }
+        return slots;
+    }
+
+    /**
+     * Computes and writes the slots not yet recorded in the checkpoint
+     * @param context context of the run, used for logging
+     * @return the outcome of the run, the failed slots are left to the next run
+     */
+    public BatchResult run(ExecutionContext context) throws IOException, InterruptedException {
+        StructuredLog log = StructuredLog.of(context);
+        long startedAt = System.nanoTime();
+        List<String> kpiIds = options.getKpiIds() != null ? options.getKpiIds() : registry.getKpiIds();
+        List<KpiDefinition> definitions = new ArrayList<>();
+        for (String kpiId : kpiIds) {
+            definitions.add(registry.get(kpiId));
+        }
+
+        List<LocalDateTime> slots = slots();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicLong rows = new AtomicLong();
+        List<LocalDateTime> failed = Collections.synchronizedList(new ArrayList<>());
+        int skipped;
+
+        ExecutorService workers = Executors.newFixedThreadPool(options.getWorkers());
+        try (BatchCheckpoint checkpoint = BatchCheckpoint.open(options.getCheckpoint())) {
+            List<LocalDateTime> pending = new ArrayList<>();
+            for (LocalDateTime slot : slots) {
+                if (!checkpoint.isDone(slot)) {
+                    pending.add(slot);
+                }
+            }
+            skipped = slots.size() - pending.size();
+            log.info("batch.started", "from", options.getFrom(), "to", options.getTo(), "step", options.getStep(),
+                "kpis", kpiIds, "workers", options.getWorkers(), "output", options.getOutput(), "slots", slots.size(),
+                "skipped", skipped);
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (LocalDateTime slot : pending) {
+                futures.add(workers.submit(() -> {
+                    try {
+                        rows.addAndGet(runSlot(slot, definitions, context));
+                        checkpoint.markDone(slot);
+                        log.info("batch.slot.completed", "start", slot, "completed", completed.incrementAndGet(),
+                            "pending", pending.size());
+                    } catch (Exception e) {
+                        failed.add(slot);
+                        log.severe("batch.slot.failed", "start", slot, "error", e.getMessage());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // handled by the task
+                }
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        List<LocalDateTime> failedSlots = new ArrayList<>(failed);
+        Collections.sort(failedSlots);
+        BatchResult result = BatchResult.builder()
+            .slots(slots.size())
+            .skipped(skipped)
+            .completed(completed.get())
+            .failed(failedSlots)
+            .rows(rows.get())
+            .millis((System.nanoTime() - startedAt) / 1_000_000)
+            .build();
+        log.info("batch.completed", "slots", result.getSlots(), "skipped", result.getSkipped(),
+            "completed", result.getCompleted(), "failed", failedSlots.size(), "rows", result.getRows(),
+            "millis", result.getMillis());
+        return result;
+    }
+
+    private int runSlot(LocalDateTime slot, List<KpiDefinition> definitions, ExecutionContext context) throws Exception {
+        LocalDateTime end = slot.plus(1, options.getStep()).minusSeconds(1);
+        List<KpiRequest> requests = new ArrayList<>();
+        for (KpiDefinition definition : definitions) {
+            requests.add(KpiRequest.builder().definition(definition).startDate(slot).endDate(end).build());
+        }
+        Map<String, String> values = engine.compute(requests, context);
+
+        Map<String, List<PerfKpiRow>> rowsByTable = new LinkedHashMap<>();
+        for (KpiDefinition definition : definitions) {
+            rowsByTable.computeIfAbsent(definition.getTargetTable(), t -> new ArrayList<>()).add(PerfKpiRow.builder()
+                .startDate(slot)
+                .endDate(end)
+                .kpiId(definition.getKpiId())
+                .kpiValue(values.get(definition.getKpiId()))
+                .build());
+        }
+        int rows = 0;
+        for (Map.Entry<String, List<PerfKpiRow>> entry : rowsByTable.entrySet()) {
+            writer.write(entry.getKey(), slot, entry.getValue(), context);
+            rows += entry.getValue().size();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,46 @@
+package it.gov.pagopa.observability.helper;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the heap bytes allocated by the current thread, used to track the allocation of a request
+ */
+public class AllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = initThreadMXBean();
+
+    private final long start;
+
+    private AllocationMeter() {
+        this.start = current();
+    }
+
+    private static com.sun.management.ThreadMXBean initThreadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            if (threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return threadMXBean;
+            }
+        }
+        return null;
+    }
+
+    private static long current() {
+        return THREAD_MX_BEAN != null ? THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * @return a meter counting the allocations of the current thread from now on
+     */
+    public static AllocationMeter start() {
+        return new AllocationMeter();
+    }
+
+    /**
+     * @return bytes allocated by the current thread since the meter start, -1 if not supported by the JVM
+     */
+    public long allocatedBytes() {
+        return THREAD_MX_BEAN != null ? current() - start : -1;
+    }
+}
@@ -0,0 +1,100 @@
+package it.gov.pagopa.observability.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Regular expression matching the base64 encoded text of a payload that can contain a token once decoded,
+ * so that the payloads that cannot contain it are dropped without being decoded.
+ * A token starting at byte k of the decoded text is encoded differently for each of the three values of k mod 3;
+ * for each alignment the pattern contains the base64 characters fully determined by the token bits, each one
+ * as the class of the characters produced by the upper and lower case variants of the token letters.
+ * A payload whose decoded text contains the token, in any case, always matches: the prefilter is exact
+ * when followed by the original check on the decoded text
+ */
+public class Base64Prefilter {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    /** url safe alphabet replacements of + and / */
+    private static final char[] URL_SAFE = {'-', '_'};
+
+    private Base64Prefilter() {
+    }
+
+    /**
+     * @param token ASCII token searched case insensitively in the decoded text
+     * @return the regular expression (RE2 and java compatible) to search in the encoded text
+     */
+    public static String regex(String token) {
+        return String.join("|", alignmentPatterns(token));
+    }
+
+    /**
+     * @param column column holding the base64 encoded payload
+     * @param token ASCII token searched case insensitively in the decoded payload
+     * @return the Kusto predicate keeping only the rows that can contain the token
+     */
+    public static String kustoPredicate(String column, String token) {
+        return String.format("%s matches regex @'%s'", column, regex(token));
+    }
+
+    /**
+     * @param token ASCII token
+     * @return the patterns of the three alignments of the token in the decoded text
+     */
+    public static List<String> alignmentPatterns(String token) {
+        byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length < 3) {
+            throw new IllegalArgumentException("Base64Prefilter - the token must be at least 3 characters long");
+        }
+        List<String> patterns = new ArrayList<>(3);
+        for (int offset = 0; offset < 3; offset++) {
+            int startBit = offset * 8;
+            int endBit = startBit + bytes.length * 8;
+            StringBuilder pattern = new StringBuilder();
+            // characters whose 6 bits all come from the token
+            for (int c = (startBit + 5) / 6; (c + 1) * 6 <= endBit; c++) {
+                pattern.append(characterClass(bytes, startBit, c * 6));
+            }
+            patterns.add(pattern.toString());
+        }
+        return patterns;
+    }
+
+    private static String characterClass(byte[] token, int startBit, int firstBit) {
+        int firstByte = (firstBit - startBit) / 8;
+        int lastByte = (firstBit + 5 - startBit) / 8;
+        int bitOffset = (firstBit - startBit) % 8;
+        TreeSet<Character> characters = new TreeSet<>();
+        for (byte first : caseVariants(token[firstByte])) {
+            for (byte last : firstByte == lastByte ? new byte[] {0} : caseVariants(token[lastByte])) {
+                // 16 bits window starting at the first byte, the character takes 6 bits from bitOffset
+                int window = ((first & 0xff) << 8) | (last & 0xff);
+                int value = (window >> (10 - bitOffset)) & 0x3f;
+                characters.add(ALPHABET.charAt(value));
+                if (value >= 62) {
+                    characters.add(URL_SAFE[value - 62]);
+                }
+            }
+        }
+        StringBuilder characterClass = new StringBuilder();
+        for (char character : characters) {
+            if (Character.isLetterOrDigit(character)) {
+                characterClass.append(character);
+            } else {
+                characterClass.append('\\').append(character);
+            }
+        }
+        return characters.size() == 1 ? characterClass.toString() : "[" + characterClass + "]";
+    }
+
+    private static byte[] caseVariants(byte b) {
+        char c = (char) b;
+        if (Character.isLetter(c)) {
+            return new byte[] {(byte) Character.toLowerCase(c), (byte) Character.toUpperCase(c)};
+        }
+        return new byte[] {b};
+    }
+}
@@ -0,0 +1,179 @@
+package it.gov.pagopa.observability.helper;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import io.opentelemetry.context.Context;
+
+import it.gov.pagopa.observability.models.Dependency;
+
+/**
+ * Bounded executor dedicated to the calls of a downstream dependency.
+ * The calls run on the bulkhead threads while the caller waits at most the overall deadline:
+ * a hung dependency holds only its own threads, and once its slots and queue are full the
+ * further calls fail immediately instead of piling up on the invocation threads
+ */
+public class Bulkhead {
+
+    private static final Map<Dependency, Bulkhead> BULKHEADS = new EnumMap<>(Dependency.class);
+
+    static {
+        for (Dependency dependency : Dependency.values()) {
+            String prefix = "BULKHEAD_" + dependency.name() + "_";
+            BULKHEADS.put(dependency, new Bulkhead(dependency.name().toLowerCase(),
+                intEnv(prefix + "CONCURRENCY", dependency.getConcurrency()),
+                intEnv(prefix + "QUEUE", dependency.getQueue()),
+                intEnv(prefix + "CONNECT_TIMEOUT_MS", dependency.getConnectTimeoutMillis()),
+                intEnv(prefix + "TIMEOUT_MS", dependency.getTimeoutMillis())));
+        }
+    }
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final int connectTimeoutMillis;
+    private final int timeoutMillis;
+
+    public Bulkhead(String name, int concurrency, int queue, int connectTimeoutMillis, int timeoutMillis) {
+        if (concurrency < 1 || queue < 0 || timeoutMillis < 1) {
+            throw new IllegalArgumentException(String.format("Bulkhead - invalid configuration of [%s]", name));
+        }
+        this.name = name;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.timeoutMillis = timeoutMillis;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+            queue > 0 ? new ArrayBlockingQueue<>(queue) : new SynchronousQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, String.format("bulkhead-%s-%d", name, threads.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param dependency downstream dependency
+     * @return the process wide bulkhead of the dependency
+     */
+    public static Bulkhead of(Dependency dependency) {
+        return BULKHEADS.get(dependency);
+    }
+
+    /**
+     * Runs a call on the bulkhead, the tracing context of the caller is propagated
+     * @param call the call to the dependency
+     * @return the call result
+     * @throws IllegalStateException if the bulkhead is saturated
+     * @throws TimeoutException if the call is not completed within the deadline, the call is interrupted
+     * @throws Exception the exception thrown by the call
+     */
+    public <T> T call(Callable<T> call) throws Exception {
+        Future<T> future = submit(call, null);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            MetricsRegistry.increment("bulkhead." + name + ".timeouts");
+            throw new TimeoutException(String.format("Bulkhead - [%s] call not completed within [%d] ms", name, timeoutMillis));
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Submits a call without waiting for it, the tracing context of the caller is propagated
+     * @param call the call to the dependency
+     * @param onCompletion notified with the future once the call is completed or cancelled, can be null
+     * @return the future of the call, the caller is responsible for bounding the wait with {@link #getTimeoutMillis()}
+     * @throws IllegalStateException if the bulkhead is saturated
+     */
+    public <T> Future<T> submit(Callable<T> call, Consumer<Future<T>> onCompletion) {
+        FutureTask<T> task = new FutureTask<T>(Context.current().wrap(call)) {
+            @Override
+            protected void done() {
+                if (onCompletion != null) {
+                    onCompletion.accept(this);
+                }
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            MetricsRegistry.increment("bulkhead." + name + ".rejected");
+            throw new IllegalStateException(String.format("Bulkhead - [%s] is saturated, running [%d] queued [%d]",
+                name, executor.getActiveCount(), executor.getQueue().size()));
+        }
+        return task;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the maximum number of concurrent calls
+     */
+    public int getConcurrency() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public Duration getConnectTimeout() {
+        return Duration.ofMillis(connectTimeoutMillis);
+    }
+
+    public Duration getTimeout() {
+        return Duration.ofMillis(timeoutMillis);
+    }
+
+    /**
+     * @return the calls currently running
+     */
+    public int running() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the calls waiting for a free slot
+     */
+    public int queued() {
+        return executor.getQueue().size();
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,207 @@
+package it.gov.pagopa.observability.helper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import it.gov.pagopa.observability.models.ProfileSummary;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Bounded Java Flight Recorder sessions of the running instance. One session at a time, the duration and
+ * size are capped by JFR_MAX_DURATION_SECONDS and JFR_MAX_SIZE_MB, the recordings are written in JFR_OUTPUT_DIR
+ * and only the last JFR_KEEP_RECORDINGS are kept
+ */
+public class FlightRecorderProfiler {
+
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmssSSS");
+    private static final AtomicBoolean RECORDING = new AtomicBoolean();
+
+    private final Path outputDir;
+    private final Duration maxDuration;
+    private final long maxSizeBytes;
+    private final int keepRecordings;
+    private final int topMethods;
+
+    public FlightRecorderProfiler(Path outputDir, Duration maxDuration, long maxSizeBytes, int keepRecordings, int topMethods) {
+        this.outputDir = outputDir;
+        this.maxDuration = maxDuration;
+        this.maxSizeBytes = maxSizeBytes;
+        this.keepRecordings = keepRecordings;
+        this.topMethods = topMethods;
+    }
+
+    public static FlightRecorderProfiler fromEnvironment() {
+        String outputDir = System.getenv("JFR_OUTPUT_DIR");
+        return new FlightRecorderProfiler(
+            outputDir != null && !outputDir.isEmpty() ? Path.of(outputDir) : Path.of(System.getProperty("java.io.tmpdir"), "jfr"),
+            Duration.ofSeconds(intEnv("JFR_MAX_DURATION_SECONDS", 60)),
+            intEnv("JFR_MAX_SIZE_MB", 50) * 1024L * 1024L,
+            intEnv("JFR_KEEP_RECORDINGS", 5),
+            intEnv("JFR_TOP_METHODS", 10));
+    }
+
+    /**
+     * Records the instance for the given duration, the calling thread waits for the end of the session
+     * @param duration duration of the session, at most the configured maximum
+     * @param settings JFR settings, "default" (low overhead) or "profile"
+     * @return the summary of the recording
+     * @throws IllegalArgumentException on an invalid duration or unknown settings
+     * @throws IllegalStateException if another session is running on the instance
+     */
+    public ProfileSummary record(Duration duration, String settings) throws IOException, ParseException, InterruptedException {
+        if (duration.isNegative() || duration.isZero() || duration.compareTo(maxDuration) > 0) {
+            throw new IllegalArgumentException(String.format("FlightRecorderProfiler - duration must be between 1 and %d seconds",
+                maxDuration.getSeconds()));
+        }
+        if (!List.of("default", "profile").contains(settings)) {
+            throw new IllegalArgumentException(String.format("FlightRecorderProfiler - unknown settings [%s], use default or profile", settings));
+        }
+        if (!RECORDING.compareAndSet(false, true)) {
+            throw new IllegalStateException("FlightRecorderProfiler - a recording is already running on this instance");
+        }
+        try {
+            Files.createDirectories(outputDir);
+            Path path = outputDir.resolve(String.format("bdi-%s-%s.jfr", LocalDateTime.now().format(FILE_TIMESTAMP), settings));
+            long started = System.nanoTime();
+            try (Recording recording = new Recording(Configuration.getConfiguration(settings))) {
+                recording.setName("bdi-observability-" + settings);
+                recording.setMaxSize(maxSizeBytes);
+                recording.setToDisk(true);
+                recording.setDestination(path);
+                recording.start();
+                Thread.sleep(duration.toMillis());
+                recording.stop();
+            }
+            long durationMillis = (System.nanoTime() - started) / 1_000_000;
+            MetricsRegistry.increment("jfr.recordings");
+            prune();
+            return summarize(path, settings, durationMillis, topMethods);
+        } finally {
+            RECORDING.set(false);
+        }
+    }
+
+    /**
+     * @param path JFR file
+     * @param settings JFR settings of the recording
+     * @param durationMillis duration of the recording
+     * @param topMethods number of hot methods to report
+     * @return hottest methods, allocation rate, GC pauses, lock and socket read times of the recording
+     */
+    public static ProfileSummary summarize(Path path, String settings, long durationMillis, int topMethods) throws IOException {
+        long events = 0;
+        long executionSamples = 0;
+        Map<String, Long> topFrames = new HashMap<>();
+        long allocatedBytes = 0;
+        long gcPauses = 0;
+        long gcPauseTotalNanos = 0;
+        long gcPauseMaxNanos = 0;
+        long heapUsedMax = 0;
+        long monitorBlockedNanos = 0;
+        long socketReadNanos = 0;
+
+        try (RecordingFile recording = new RecordingFile(path)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                events++;
+                switch (event.getEventType().getName()) {
+                    case "jdk.ExecutionSample":
+                        executionSamples++;
+                        String frame = topFrame(event.getStackTrace());
+                        if (frame != null) {
+                            topFrames.merge(frame, 1L, Long::sum);
+                        }
+                        break;
+                    case "jdk.ObjectAllocationSample":
+                        allocatedBytes += event.getLong("weight");
+                        break;
+                    case "jdk.GarbageCollection":
+                        long pause = event.getDuration("sumOfPauses").toNanos();
+                        gcPauses++;
+                        gcPauseTotalNanos += pause;
+                        gcPauseMaxNanos = Math.max(gcPauseMaxNanos, pause);
+                        break;
+                    case "jdk.GCHeapSummary":
+                        heapUsedMax = Math.max(heapUsedMax, event.getLong("heapUsed"));
+                        break;
+                    case "jdk.JavaMonitorEnter":
+                        monitorBlockedNanos += event.getDuration().toNanos();
+                        break;
+                    case "jdk.SocketRead":
+                        socketReadNanos += event.getDuration().toNanos();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        Map<String, Long> hotMethods = topFrames.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+            .limit(topMethods)
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+
+        return ProfileSummary.builder()
+            .path(path.toString())
+            .settings(settings)
+            .durationMillis(durationMillis)
+            .sizeBytes(Files.size(path))
+            .events(events)
+            .executionSamples(executionSamples)
+            .hotMethods(hotMethods)
+            .allocatedBytes(allocatedBytes)
+            .allocationBytesPerSecond(durationMillis > 0 ? allocatedBytes * 1000 / durationMillis : 0)
+            .gcPauses(gcPauses)
+            .gcPauseTotalMillis(gcPauseTotalNanos / 1_000_000)
+            .gcPauseMaxMillis(gcPauseMaxNanos / 1_000_000)
+            .heapUsedMaxBytes(heapUsedMax)
+            .monitorBlockedMillis(monitorBlockedNanos / 1_000_000)
+            .socketReadMillis(socketReadNanos / 1_000_000)
+            .build();
+    }
+
+    private static String topFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return null;
+        }
+        RecordedFrame frame = stackTrace.getFrames().get(0);
+        RecordedMethod method = frame.getMethod();
+        return method.getType().getName() + "." + method.getName();
+    }
+
+    private void prune() throws IOException {
+        List<Path> recordings;
+        try (Stream<Path> files = Files.list(outputDir)) {
+            recordings = files.filter(file -> file.getFileName().toString().startsWith("bdi-") && file.toString().endsWith(".jfr"))
+                .sorted(Comparator.comparing(Path::getFileName).reversed())
+                .collect(Collectors.toList());
+        }
+        for (Path old : recordings.subList(Math.min(keepRecordings, recordings.size()), recordings.size())) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
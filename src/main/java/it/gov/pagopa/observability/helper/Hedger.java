@@ -0,0 +1,241 @@
+package it.gov.pagopa.observability.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged requests: when the first attempt of a call is slower than a delay (by default the observed p95
+ * latency) a duplicate attempt is started and the first successful response wins, the other attempt is cancelled.
+ * The duplicates are capped to a share of the calls so that a slow dependency is not hit by twice the load.
+ * The attempts run on the bulkhead of the dependency, which bounds the whole call with its deadline
+ */
+public class Hedger {
+
+    /** samples needed before the observed percentile is trusted as delay */
+    private static final int MIN_SAMPLES = 20;
+
+    private final String name;
+    private final boolean enabled;
+    private final long fixedDelayMillis;
+    private final long defaultDelayMillis;
+    private final double percentile;
+    private final double maxHedgeRatio;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+    /**
+     * Attempt of a hedged call
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+        /**
+         * @param cancellation to register how to abort the attempt when another one has won (es. close the connection)
+         */
+        T run(Cancellation cancellation) throws Exception;
+    }
+
+    /**
+     * Cancellation of an attempt, the blocking I/O of the attempt is not always interruptible
+     */
+    public static final class Cancellation {
+        private volatile Runnable hook;
+        private volatile boolean cancelled;
+
+        public void onCancel(Runnable hook) {
+            this.hook = hook;
+            if (cancelled) {
+                hook.run();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Runnable current = hook;
+            if (current != null) {
+                current.run();
+            }
+        }
+    }
+
+    /**
+     * @param name name of the hedged call, used for the latency timer and the metrics
+     * @param enabled false to run a single attempt
+     * @param fixedDelayMillis delay before the duplicate attempt, 0 to use the observed percentile
+     * @param defaultDelayMillis delay used until enough latencies are observed
+     * @param percentile observed latency percentile used as delay (es. 95)
+     * @param maxHedgeRatio maximum share of calls with a duplicate attempt (es. 0.1)
+     */
+    public Hedger(String name, boolean enabled, long fixedDelayMillis, long defaultDelayMillis,
+            double percentile, double maxHedgeRatio) {
+        this.name = name;
+        this.enabled = enabled;
+        this.fixedDelayMillis = fixedDelayMillis;
+        this.defaultDelayMillis = defaultDelayMillis;
+        this.percentile = percentile;
+        this.maxHedgeRatio = maxHedgeRatio;
+        MetricsRegistry.gauge(name + ".hedge.rate", this::hedgeRate);
+        MetricsRegistry.gauge(name + ".hedge.win_rate", this::hedgeWinRate);
+    }
+
+    /**
+     * @param name name of the hedged call
+     * @param envPrefix prefix of the configuration variables: _HEDGING, _HEDGE_DELAY_MS, _HEDGE_PERCENTILE, _HEDGE_MAX_RATIO
+     * @return the hedger configured from the environment, disabled by default
+     */
+    public static Hedger fromEnvironment(String name, String envPrefix) {
+        return new Hedger(name,
+            Boolean.parseBoolean(System.getenv(envPrefix + "_HEDGING")),
+            (long) doubleEnv(envPrefix + "_HEDGE_DELAY_MS", 0),
+            2_000,
+            doubleEnv(envPrefix + "_HEDGE_PERCENTILE", 95),
+            doubleEnv(envPrefix + "_HEDGE_MAX_RATIO", 0.1));
+    }
+
+    /**
+     * @return the delay after which the duplicate attempt is started
+     */
+    public long hedgeDelayMillis() {
+        if (fixedDelayMillis > 0) {
+            return fixedDelayMillis;
+        }
+        String timer = name + ".latency";
+        return MetricsRegistry.timerCount(timer) >= MIN_SAMPLES
+            ? Math.max(1, MetricsRegistry.percentile(timer, percentile))
+            : defaultDelayMillis;
+    }
+
+    /**
+     * Runs the call, hedged if enabled
+     * @param bulkhead bulkhead of the dependency
+     * @param attempt the call to the dependency, it can run twice concurrently
+     * @return the result of the first successful attempt
+     * @throws TimeoutException if no attempt is completed within the bulkhead deadline
+     * @throws Exception the exception of the first attempt if all the attempts have failed
+     */
+    public <T> T call(Bulkhead bulkhead, Attempt<T> attempt) throws Exception {
+        calls.incrementAndGet();
+        MetricsRegistry.increment(name + ".calls");
+        if (!enabled) {
+            return bulkhead.call(() -> timed(attempt, new Cancellation()));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(bulkhead.getTimeoutMillis());
+        BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+        List<Future<T>> futures = new ArrayList<>(2);
+        List<Cancellation> cancellations = new ArrayList<>(2);
+
+        Cancellation primaryCancellation = new Cancellation();
+        Future<T> primary = bulkhead.submit(() -> timed(attempt, primaryCancellation), completed::add);
+        futures.add(primary);
+        cancellations.add(primaryCancellation);
+
+        Future<T> done = completed.poll(Math.min(hedgeDelayMillis(), remainingMillis(deadline)), TimeUnit.MILLISECONDS);
+        if (done == null) {
+            startHedge(bulkhead, attempt, completed, futures, cancellations);
+        }
+
+        Exception failure = null;
+        int pending = futures.size();
+        try {
+            while (true) {
+                if (done == null) {
+                    done = completed.poll(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        MetricsRegistry.increment("bulkhead." + bulkhead.getName() + ".timeouts");
+                        throw new TimeoutException(String.format("Hedger - [%s] call not completed within [%d] ms",
+                            name, bulkhead.getTimeoutMillis()));
+                    }
+                }
+                pending--;
+                try {
+                    T result = done.get();
+                    if (done != primary) {
+                        MetricsRegistry.increment(name + ".hedge.won");
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                    if (pending == 0) {
+                        throw failure;
+                    }
+                }
+                done = null;
+            }
+        } finally {
+            // the losing attempt is of no use anymore
+            for (int i = 0; i < futures.size(); i++) {
+                if (!futures.get(i).isDone()) {
+                    cancellations.get(i).cancel();
+                    futures.get(i).cancel(true);
+                }
+            }
+        }
+    }
+
+    private <T> void startHedge(Bulkhead bulkhead, Attempt<T> attempt, BlockingQueue<Future<T>> completed,
+            List<Future<T>> futures, List<Cancellation> cancellations) {
+        // the cap keeps the duplicates within the configured share of the calls
+        if (hedges.get() + 1 > maxHedgeRatio * calls.get()) {
+            MetricsRegistry.increment(name + ".hedge.capped");
+            return;
+        }
+        try {
+            Cancellation hedgeCancellation = new Cancellation();
+            futures.add(bulkhead.submit(() -> timed(attempt, hedgeCancellation), completed::add));
+            cancellations.add(hedgeCancellation);
+            hedges.incrementAndGet();
+            MetricsRegistry.increment(name + ".hedge.sent");
+        } catch (IllegalStateException e) {
+            // a saturated bulkhead is no place for duplicates
+            MetricsRegistry.increment(name + ".hedge.rejected");
+        }
+    }
+
+    private <T> T timed(Attempt<T> attempt, Cancellation cancellation) throws Exception {
+        long start = System.nanoTime();
+        T result = attempt.run(cancellation);
+        if (!cancellation.isCancelled()) {
+            MetricsRegistry.recordTime(name + ".latency", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return result;
+    }
+
+    /**
+     * @return the share of calls that have been hedged since the process start
+     */
+    public double hedgeRate() {
+        long total = calls.get();
+        return total > 0 ? (double) hedges.get() / total : 0;
+    }
+
+    /**
+     * @return the share of duplicate attempts that have won over the first attempt
+     */
+    public double hedgeWinRate() {
+        long sent = hedges.get();
+        return sent > 0 ? (double) MetricsRegistry.counter(name + ".hedge.won") / sent : 0;
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private static double doubleEnv(String name, double defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Double.parseDouble(value) : defaultValue;
+    }
+}
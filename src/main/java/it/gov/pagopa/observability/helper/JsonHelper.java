@@ -0,0 +1,146 @@
+package it.gov.pagopa.observability.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ * Shared Jackson components. ObjectReader, ObjectWriter and JsonFactory are immutable and thread safe,
+ * they are built once per process instead of creating an ObjectMapper on each request.
+ * Small fixed shape documents are written with a streaming JsonGenerator, without building a tree.
+ */
+public class JsonHelper {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader READER = MAPPER.reader();
+    private static final ObjectWriter WRITER = MAPPER.writer();
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    private JsonHelper() {
+    }
+
+    /**
+     * Writes the content of a JSON document on a streaming generator
+     */
+    @FunctionalInterface
+    public interface JsonContent {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * @param content JSON document
+     * @return the document tree, a missing node if the document is empty
+     * @throws IOException
+     */
+    public static JsonNode readTree(String content) throws IOException {
+        JsonNode node = READER.readTree(content);
+        return node != null ? node : MissingNode.getInstance();
+    }
+
+    /**
+     * @param content JSON document
+     * @return the document tree, a missing node if the document is empty
+     * @throws IOException
+     */
+    public static JsonNode readTree(InputStream content) throws IOException {
+        JsonNode node = READER.readTree(content);
+        return node != null ? node : MissingNode.getInstance();
+    }
+
+    public static ObjectWriter writer() {
+        return WRITER;
+    }
+
+    /**
+     * @param content document content
+     * @return the JSON document as string
+     * @throws IOException
+     */
+    public static String writeToString(JsonContent content) throws IOException {
+        StringWriter out = new StringWriter(256);
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            content.write(generator);
+        }
+        return out.toString();
+    }
+
+    /**
+     * @param content document content
+     * @return the JSON document as UTF-8 bytes
+     * @throws IOException
+     */
+    public static byte[] writeToBytes(JsonContent content) throws IOException {
+        try (ByteArrayBuilder out = new ByteArrayBuilder(512)) {
+            try (JsonGenerator generator = FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+                content.write(generator);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Writes the standard response of the functions
+     * @param status response status, omitted if null
+     * @param message response message
+     * @param details response details
+     * @return the JSON response
+     * @throws IOException
+     */
+    public static String writeStatusResponse(String status, String message, String details) throws IOException {
+        return writeStatusResponse(status, message, details, null, null);
+    }
+
+    /**
+     * Writes the standard response of the functions with an additional field
+     * @param status response status, omitted if null
+     * @param message response message
+     * @param details response details
+     * @param fieldName name of the additional field
+     * @param value value of the additional field serialized by databind, omitted if null
+     * @return the JSON response
+     * @throws IOException
+     */
+    public static String writeStatusResponse(String status, String message, String details,
+            String fieldName, Object value) throws IOException {
+        return writeStatusResponse(status, message, details, Collections.singletonMap(fieldName, value));
+    }
+
+    /**
+     * Writes the standard response of the functions with additional fields
+     * @param status response status, omitted if null
+     * @param message response message
+     * @param details response details
+     * @param fields additional fields in order, serialized by databind, the null ones are omitted
+     * @return the JSON response
+     * @throws IOException
+     */
+    public static String writeStatusResponse(String status, String message, String details,
+            Map<String, Object> fields) throws IOException {
+        return writeToString(generator -> {
+            generator.writeStartObject();
+            if (status != null) {
+                generator.writeStringField("status", status);
+            }
+            generator.writeStringField("message", message);
+            generator.writeStringField("details", details);
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                if (field.getValue() != null) {
+                    generator.writePOJOField(field.getKey(), field.getValue());
+                }
+            }
+            generator.writeEndObject();
+        });
+    }
+}
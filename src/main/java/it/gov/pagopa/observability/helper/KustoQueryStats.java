@@ -0,0 +1,93 @@
+package it.gov.pagopa.observability.helper;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.kusto.data.KustoOperationResult;
+import com.microsoft.azure.kusto.data.KustoResultSetTable;
+import com.microsoft.azure.kusto.data.WellKnownDataSet;
+
+import it.gov.pagopa.observability.models.QueryStats;
+
+/**
+ * Extracts the resource consumption from the QueryCompletionInformation table of a query result
+ */
+public class KustoQueryStats {
+
+    private static final String RESOURCE_CONSUMPTION_EVENT = "QueryResourceConsumption";
+
+    private KustoQueryStats() {
+    }
+
+    /**
+     * @param queryName name of the query (es. kpi ids)
+     * @param startDate interval start of the query
+     * @param endDate interval end of the query
+     * @param result query result
+     * @return the query statistics, null if the result has no resource consumption event
+     * @throws IOException if the event payload is not valid JSON
+     */
+    public static QueryStats parse(String queryName, LocalDateTime startDate, LocalDateTime endDate,
+            KustoOperationResult result) throws IOException {
+
+        for (KustoResultSetTable table : result.getResultTables()) {
+            if (table.getTableKind() != WellKnownDataSet.QueryCompletionInformation) {
+                continue;
+            }
+            while (table.next()) {
+                if (RESOURCE_CONSUMPTION_EVENT.equals(table.getString("EventTypeName"))) {
+                    return parse(queryName, startDate, endDate, JsonHelper.readTree(table.getString("Payload")));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param payload payload of the QueryResourceConsumption event
+     */
+    public static QueryStats parse(String queryName, LocalDateTime startDate, LocalDateTime endDate, JsonNode payload) {
+        JsonNode usage = payload.path("resource_usage");
+        JsonNode hotShards = usage.path("cache").path("shards").path("hot");
+        JsonNode dataset = payload.path("input_dataset_statistics");
+
+        return QueryStats.builder()
+            .queryName(queryName)
+            .startDate(startDate)
+            .endDate(endDate)
+            .executionTimeMillis(Math.round(payload.path("ExecutionTime").asDouble() * 1000))
+            .cpuTimeMillis(timespanToMillis(usage.path("cpu").path("total cpu").asText("")))
+            .memoryPeakBytes(usage.path("memory").path("peak_per_node").asLong())
+            .extentsTotal(dataset.path("extents").path("total").asLong())
+            .extentsScanned(dataset.path("extents").path("scanned").asLong())
+            .rowsTotal(dataset.path("rows").path("total").asLong())
+            .rowsScanned(dataset.path("rows").path("scanned").asLong())
+            .cacheHitBytes(hotShards.path("hitbytes").asLong())
+            .cacheMissBytes(hotShards.path("missbytes").asLong())
+            .build();
+    }
+
+    /**
+     * @param timespan Kusto timespan ([d.]hh:mm:ss[.fffffff])
+     * @return the timespan in milliseconds, 0 if empty
+     */
+    static long timespanToMillis(String timespan) {
+        if (timespan == null || timespan.isEmpty()) {
+            return 0;
+        }
+        String[] parts = timespan.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException(String.format("Invalid Kusto timespan [%s]", timespan));
+        }
+        String hours = parts[0];
+        long days = 0;
+        int dayIndex = hours.indexOf('.');
+        if (dayIndex >= 0) {
+            days = Long.parseLong(hours.substring(0, dayIndex));
+            hours = hours.substring(dayIndex + 1);
+        }
+        double seconds = Double.parseDouble(parts[2]);
+        return ((days * 24 + Long.parseLong(hours)) * 60 + Long.parseLong(parts[1])) * 60_000 + Math.round(seconds * 1000);
+    }
+}
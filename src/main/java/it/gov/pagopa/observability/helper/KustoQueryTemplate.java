@@ -0,0 +1,118 @@
+package it.gov.pagopa.observability.helper;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import com.microsoft.azure.kusto.data.ClientRequestProperties;
+
+/**
+ * Kusto query compiled once and executed many times.
+ * The values changing between executions (es. the interval) are declared through
+ * {@code declare query_parameters} and bound through {@link ClientRequestProperties},
+ * so the query text stays the same and the cluster can reuse query plans and cached results.
+ */
+public class KustoQueryTemplate {
+
+    private static final Map<String, KustoQueryTemplate> COMPILED = new ConcurrentHashMap<>();
+
+    private final String text;
+    private final Map<String, String> parameters;
+
+    private KustoQueryTemplate(String text, Map<String, String> parameters) {
+        this.text = text;
+        this.parameters = Collections.unmodifiableMap(new LinkedHashMap<>(parameters));
+    }
+
+    /**
+     * Compiles a query template, the same template instance is returned for the same query
+     * @param parameters parameter names and Kusto types (es. start -> datetime), in declaration order
+     * @param body query body referencing the parameters by name
+     * @return the compiled template
+     */
+    public static KustoQueryTemplate compile(Map<String, String> parameters, String body) {
+        return COMPILED.computeIfAbsent(text(parameters, body), t -> new KustoQueryTemplate(t, parameters));
+    }
+
+    /**
+     * Compiles a query template without keeping it, for the queries whose text changes between executions
+     * (es. values inlined as the target takes no parameters), which would grow the compiled templates without bound
+     * @param parameters parameter names and Kusto types, in declaration order
+     * @param body query body referencing the parameters by name
+     * @return a new template
+     */
+    public static KustoQueryTemplate compileUncached(Map<String, String> parameters, String body) {
+        return new KustoQueryTemplate(text(parameters, body), parameters);
+    }
+
+    private static String text(Map<String, String> parameters, String body) {
+        String declaration = parameters.isEmpty() ? "" : parameters.entrySet().stream()
+            .map(p -> p.getKey() + ":" + p.getValue())
+            .collect(Collectors.joining(", ", "declare query_parameters(", "); "));
+        return declaration + body;
+    }
+
+    /**
+     * Compiles a query template with the {@code start} and {@code end} datetime parameters
+     * @param body query body referencing start and end
+     * @return the compiled template
+     */
+    public static KustoQueryTemplate compileInterval(String body) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("start", "datetime");
+        parameters.put("end", "datetime");
+        return compile(parameters, body);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Map<String, String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Binds the values of the declared parameters
+     * @param values parameter values by name
+     * @return the request properties to execute the query with
+     * @throws IllegalArgumentException if a declared parameter is not bound or its type is not supported
+     */
+    public ClientRequestProperties bind(Map<String, Object> values) {
+        ClientRequestProperties properties = new ClientRequestProperties();
+        for (String name : parameters.keySet()) {
+            Object value = values.get(name);
+            if (value == null) {
+                throw new IllegalArgumentException(String.format("KustoQueryTemplate - parameter [%s] not bound", name));
+            } else if (value instanceof LocalDateTime) {
+                properties.setParameter(name, (LocalDateTime) value);
+            } else if (value instanceof String) {
+                properties.setParameter(name, (String) value);
+            } else if (value instanceof Long || value instanceof Integer) {
+                properties.setParameter(name, ((Number) value).longValue());
+            } else if (value instanceof Double) {
+                properties.setParameter(name, (double) value);
+            } else {
+                throw new IllegalArgumentException(String.format("KustoQueryTemplate - parameter [%s] type %s not supported",
+                    name, value.getClass().getSimpleName()));
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Binds the {@code start} and {@code end} parameters
+     * @param startDate interval start
+     * @param endDate interval end
+     * @return the request properties to execute the query with
+     */
+    public ClientRequestProperties bindInterval(LocalDateTime startDate, LocalDateTime endDate) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("start", startDate);
+        values.put("end", endDate);
+        return bind(values);
+    }
+}
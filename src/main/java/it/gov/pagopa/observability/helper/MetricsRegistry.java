@@ -0,0 +1,139 @@
+package it.gov.pagopa.observability.helper;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import it.gov.pagopa.observability.models.TimerSnapshot;
+
+/**
+ * Process wide in-memory metrics (timers and counters), exposed by the Metrics function
+ */
+public class MetricsRegistry {
+
+    private static final int SAMPLES = 512;
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, DoubleSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    private static class Timer {
+
+        private final long[] samples = new long[SAMPLES];
+        private long count;
+        private long total;
+        private long max;
+
+        synchronized void record(long millis) {
+            samples[(int) (count % SAMPLES)] = millis;
+            count++;
+            total += millis;
+            max = Math.max(max, millis);
+        }
+
+        synchronized long percentile(double percentile) {
+            int size = (int) Math.min(count, SAMPLES);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            return sorted[Math.max(0, Math.min(index, size - 1))];
+        }
+
+        synchronized TimerSnapshot snapshot() {
+            return TimerSnapshot.builder()
+                .count(count)
+                .totalMillis(total)
+                .maxMillis(max)
+                .avgMillis(count > 0 ? (double) total / count : 0)
+                .p50Millis(percentile(50))
+                .p95Millis(percentile(95))
+                .p99Millis(percentile(99))
+                .build();
+        }
+    }
+
+    /**
+     * Records a duration
+     * @param name timer name (es. adx.ingestion.queued)
+     * @param millis duration in milliseconds
+     */
+    public static void recordTime(String name, long millis) {
+        TIMERS.computeIfAbsent(name, n -> new Timer()).record(millis);
+    }
+
+    /**
+     * @param name timer name
+     * @param percentile percentile to compute (es. 95)
+     * @return the percentile of the recent samples of the timer, 0 if the timer has no samples
+     */
+    public static long percentile(String name, double percentile) {
+        Timer timer = TIMERS.get(name);
+        return timer != null ? timer.percentile(percentile) : 0;
+    }
+
+    /**
+     * @param name timer name
+     * @return the number of samples recorded by the timer
+     */
+    public static long timerCount(String name) {
+        Timer timer = TIMERS.get(name);
+        return timer != null ? timer.snapshot().getCount() : 0;
+    }
+
+    /**
+     * Increments a counter
+     * @param name counter name
+     * @param delta value to add
+     */
+    public static void increment(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+    }
+
+    public static void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * @param name counter name
+     * @return the counter value, 0 if never incremented
+     */
+    public static long counter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Registers a value computed when the metrics are read, a gauge with the same name is replaced
+     * @param name gauge name
+     * @param value supplier of the current value
+     */
+    public static void gauge(String name, DoubleSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * @return timers, counters and gauges sorted by name
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> timers = new TreeMap<>();
+        TIMERS.forEach((name, timer) -> timers.put(name, timer.snapshot()));
+        Map<String, Object> counters = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> counters.put(name, counter.sum()));
+        Map<String, Object> gauges = new TreeMap<>();
+        GAUGES.forEach((name, gauge) -> gauges.put(name, gauge.getAsDouble()));
+        Map<String, Object> snapshot = new TreeMap<>();
+        snapshot.put("timers", timers);
+        snapshot.put("counters", counters);
+        snapshot.put("gauges", gauges);
+        return snapshot;
+    }
+}
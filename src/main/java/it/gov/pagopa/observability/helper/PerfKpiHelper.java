@@ -1,5 +1,11 @@
 package it.gov.pagopa.observability.helper;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import com.azure.core.http.HttpClient;
+import com.azure.core.util.HttpClientOptions;
 import com.azure.identity.DefaultAzureCredentialBuilder;
 import com.azure.security.keyvault.secrets.SecretClient;
 import com.azure.security.keyvault.secrets.SecretClientBuilder;
@@ -8,11 +14,26 @@ import com.microsoft.azure.kusto.data.auth.ConnectionStringBuilder;
 public class PerfKpiHelper {
 
     public static ConnectionStringBuilder getConnectionStringBuilder() throws Exception {
+        return getConnectionStringBuilder(System.getenv("ADX_CLUSTER_URL"));
+    }
+
+    /**
+     * @param clusterUrl cluster to connect to, es. one of the federated source targets
+     * @return the connection string of the cluster with the credentials of the function app
+     * @throws Exception
+     */
+    public static ConnectionStringBuilder getConnectionStringBuilder(String clusterUrl) throws Exception {
 
-        final String ADX_CLUSTER_URL = System.getenv( "ADX_CLUSTER_URL");
+        final String ADX_CLUSTER_URL = clusterUrl;
         final String AZURE_AD_CLIENT_ID = System.getenv( "AZURE_AD_CLIENT_ID");
         final String AZURE_AD_CLIENT_SECRET = System.getenv( "AZURE_AD_CLIENT_SECRET");
         final String AZURE_AD_TENANT_ID = System.getenv( "AZURE_AD_TENANT_ID");
+        final String ADX_ACCESS_TOKEN = System.getenv("ADX_ACCESS_TOKEN");
+
+        // static token, only meant for local stand-ins of the cluster (es. the startup training)
+        if (ADX_CLUSTER_URL != null && ADX_ACCESS_TOKEN != null && !ADX_ACCESS_TOKEN.isEmpty()) {
+            return ConnectionStringBuilder.createWithAadAccessTokenAuthentication(ADX_CLUSTER_URL, ADX_ACCESS_TOKEN);
+        }
 
         if (ADX_CLUSTER_URL == null || AZURE_AD_CLIENT_ID == null || AZURE_AD_CLIENT_SECRET == null || AZURE_AD_TENANT_ID == null) {
             throw new IllegalArgumentException("Environment variables for Azure Data Explorer credentials are not set.");
@@ -29,6 +50,17 @@ public class PerfKpiHelper {
         return csb;
     }
 
+    /**
+     * @param bulkhead bulkhead of the dependency called through the client
+     * @return an http client with the connect timeout of the bulkhead, responses are bounded by its deadline
+     */
+    public static HttpClient createHttpClient(Bulkhead bulkhead) {
+        return HttpClient.createDefault(new HttpClientOptions()
+            .setConnectTimeout(bulkhead.getConnectTimeout())
+            .setResponseTimeout(bulkhead.getTimeout())
+            .setReadTimeout(bulkhead.getTimeout()));
+    }
+
     public static String getKVSecret(String secretName) {
     
         String keyVaultUrl = System.getenv("KEYVAULT_URI");
@@ -41,4 +73,17 @@ public class PerfKpiHelper {
         String secretValue = secretClient.getSecret(secretName).getValue();
         return secretValue;
     }
-}
\ No newline at end of file
+
+    /**
+     * @param data content to compress
+     * @return the gzip compressed content
+     * @throws IOException
+     */
+    public static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,158 @@
+package it.gov.pagopa.observability.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import it.gov.pagopa.observability.models.QueryPriority;
+
+/**
+ * Process wide concurrency budget for the ADX queries.
+ * When the budget is exhausted the callers wait in queue, a free slot goes to the waiter with
+ * the best priority; the priority of a waiter improves by one class every ADX_QUERY_AGING_MS
+ * so that backfills are never starved by a steady flow of interactive queries
+ */
+public class QueryGovernor {
+
+    private static final QueryGovernor INSTANCE = new QueryGovernor(
+        intEnv("ADX_QUERY_CONCURRENCY", 4),
+        intEnv("ADX_QUERY_AGING_MS", 10_000),
+        intEnv("ADX_QUERY_QUEUE_TIMEOUT_MS", 120_000));
+
+    private final int concurrency;
+    private final long agingMillis;
+    private final long queueTimeoutMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private int running;
+
+    private class Waiter {
+        private final QueryPriority priority;
+        private final long enqueuedAt = System.nanoTime();
+        private final Condition granted = lock.newCondition();
+        private boolean ready;
+
+        Waiter(QueryPriority priority) {
+            this.priority = priority;
+        }
+
+        double effectiveRank(long now) {
+            return priority.getRank() - (double) TimeUnit.NANOSECONDS.toMillis(now - enqueuedAt) / agingMillis;
+        }
+    }
+
+    /**
+     * Slot of the concurrency budget, to be closed when the query completes
+     */
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    public QueryGovernor(int concurrency, long agingMillis, long queueTimeoutMillis) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("QueryGovernor - concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+        this.agingMillis = Math.max(1, agingMillis);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    public static QueryGovernor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits for a slot of the budget
+     * @param priority priority class of the query
+     * @return the permit to close once the query is completed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if no slot is granted within ADX_QUERY_QUEUE_TIMEOUT_MS
+     */
+    public Permit acquire(QueryPriority priority) throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (running < concurrency && waiters.isEmpty()) {
+                running++;
+            } else {
+                Waiter waiter = new Waiter(priority);
+                waiters.add(waiter);
+                long remaining = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+                boolean acquired = false;
+                try {
+                    while (!waiter.ready) {
+                        if (remaining <= 0) {
+                            MetricsRegistry.increment("adx.query.queue_timeouts." + priority.name().toLowerCase());
+                            throw new IllegalStateException(String.format(
+                                "QueryGovernor - no ADX query slot within %d ms, priority [%s]", queueTimeoutMillis, priority));
+                        }
+                        remaining = waiter.granted.awaitNanos(remaining);
+                    }
+                    acquired = true;
+                } finally {
+                    if (!waiter.ready) {
+                        waiters.remove(waiter);
+                    } else if (!acquired) {
+                        // the slot was handed over while the wait was interrupted, no permit returns it
+                        release();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        MetricsRegistry.recordTime("adx.query.queue_wait." + priority.name().toLowerCase(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                release();
+            }
+        };
+    }
+
+    /**
+     * @return number of queries waiting for a slot
+     */
+    public int queued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            if (waiters.isEmpty()) {
+                running--;
+                return;
+            }
+            // hand the slot over to the best waiter, ties are served in arrival order
+            long now = System.nanoTime();
+            Waiter next = waiters.get(0);
+            for (Waiter waiter : waiters) {
+                if (waiter.effectiveRank(now) < next.effectiveRank(now)) {
+                    next = waiter;
+                }
+            }
+            waiters.remove(next);
+            next.ready = true;
+            next.granted.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,59 @@
+package it.gov.pagopa.observability.helper;
+
+import it.gov.pagopa.observability.models.KpiEstimate;
+
+/**
+ * Estimates of the kpis computed on a Bernoulli sample of the source rows (each row kept with
+ * probability equal to the sample rate), with the 95% normal approximation confidence interval
+ */
+public final class SampleEstimator {
+
+    public static final double CONFIDENCE = 0.95;
+    private static final double Z = 1.959964;
+
+    private SampleEstimator() {
+    }
+
+    /**
+     * @param kpiId estimated kpi
+     * @param sampled rows counted in the sample
+     * @param sampleRate probability of a row to be sampled
+     * @return the estimate of the total count
+     */
+    public static KpiEstimate count(String kpiId, long sampled, double sampleRate) {
+        double estimate = sampled / sampleRate;
+        // Var(sampled / p) = N (1 - p) / p, with N estimated by sampled / p
+        double halfWidth = Z * Math.sqrt(sampled * (1 - sampleRate)) / sampleRate;
+        return KpiEstimate.builder()
+            .kpiId(kpiId)
+            .value(estimate)
+            .lower(Math.max(0, estimate - halfWidth))
+            .upper(estimate + halfWidth)
+            .confidence(CONFIDENCE)
+            .sampleRate(sampleRate)
+            .sampledRows(sampled)
+            .build();
+    }
+
+    /**
+     * @param kpiId estimated kpi
+     * @param sampled rows in the sample
+     * @param mean sample average
+     * @param sd sample standard deviation
+     * @param sampleRate probability of a row to be sampled, also used as finite population correction
+     * @return the estimate of the average
+     */
+    public static KpiEstimate mean(String kpiId, long sampled, double mean, double sd, double sampleRate) {
+        double halfWidth = sampled > 0 ? Z * sd / Math.sqrt(sampled) * Math.sqrt(1 - sampleRate) : 0;
+        double value = sampled > 0 ? mean : 0;
+        return KpiEstimate.builder()
+            .kpiId(kpiId)
+            .value(value)
+            .lower(value - halfWidth)
+            .upper(value + halfWidth)
+            .confidence(CONFIDENCE)
+            .sampleRate(sampleRate)
+            .sampledRows(sampled)
+            .build();
+    }
+}
@@ -0,0 +1,38 @@
+package it.gov.pagopa.observability.helper;
+
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import com.microsoft.azure.functions.ExecutionContext;
+
+/**
+ * Execution context for the work done outside a function invocation (es. background tasks),
+ * logs go to the java.util.logging logger named as the task
+ */
+public class StandaloneExecutionContext implements ExecutionContext {
+
+    private final String functionName;
+    private final String invocationId;
+    private final Logger logger;
+
+    public StandaloneExecutionContext(String functionName) {
+        this.functionName = functionName;
+        this.invocationId = UUID.randomUUID().toString();
+        this.logger = Logger.getLogger(functionName);
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    @Override
+    public String getInvocationId() {
+        return invocationId;
+    }
+
+    @Override
+    public String getFunctionName() {
+        return functionName;
+    }
+}
@@ -0,0 +1,160 @@
+package it.gov.pagopa.observability.helper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Training run of the function app for the AppCDS archive of the container image (see startup/train.sh).
+ * Serves local stand-ins of ADX, App Insights, Azure AD and Betterstack, waits for the functions host
+ * started against them and calls each function a few times so that the classes of the whole request
+ * path are loaded. Time to ready and first request latency of each function are appended to the report
+ *
+ * Usage: StartupTrainer [label] [report file]
+ */
+public class StartupTrainer {
+
+    private static final String INTERVAL_START = "2024-05-01 00:00:00";
+    private static final String INTERVAL_END = "2024-05-01 00:59:59";
+
+    private static final String KUSTO_EMPTY_RESULT =
+        "[{\"FrameType\":\"DataSetHeader\",\"IsProgressive\":false,\"Version\":\"v2.0\"}," +
+        "{\"FrameType\":\"DataTable\",\"TableId\":0,\"TableKind\":\"PrimaryResult\",\"TableName\":\"PrimaryResult\"," +
+        "\"Columns\":[{\"ColumnName\":\"count\",\"ColumnType\":\"long\"}],\"Rows\":[]}," +
+        "{\"FrameType\":\"DataSetCompletion\",\"HasErrors\":false,\"Cancelled\":false}]";
+    private static final String KUSTO_EMPTY_COMMAND = "{\"Tables\":[{\"TableName\":\"Table_0\",\"Columns\":[],\"Rows\":[]}]}";
+    private static final String APP_INSIGHTS_RESULT =
+        "{\"tables\":[{\"name\":\"PrimaryResult\",\"columns\":[{\"name\":\"avg_duration\",\"type\":\"real\"}],\"rows\":[[120.5]]}]}";
+    private static final String AAD_TOKEN = "{\"token_type\":\"Bearer\",\"expires_in\":3600,\"access_token\":\"startup-training\"}";
+    private static final String BETTERSTACK_RESULT = "{\"data\":{\"attributes\":{\"availability\":99.99,\"total_downtime\":8}}}";
+
+    public static void main(String[] args) throws Exception {
+        String label = args.length > 0 ? args[0] : "training";
+        Path report = args.length > 1 ? Path.of(args[1]) : null;
+        String host = env("TRAINING_HOST_URL", "http://localhost:80");
+        int rounds = Integer.parseInt(env("TRAINING_ROUNDS", "3"));
+        long readyTimeoutMillis = Long.parseLong(env("TRAINING_READY_TIMEOUT_SECONDS", "180")) * 1000;
+
+        long startedAt = System.nanoTime();
+        HttpServer standIns = startStandIns(Integer.parseInt(env("STANDIN_PORT", "7199")));
+        try {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            long readyMillis = awaitReady(client, host, startedAt, readyTimeoutMillis);
+
+            Map<String, Long> firstRequestMillis = new LinkedHashMap<>();
+            for (int round = 0; round < rounds; round++) {
+                for (Map.Entry<String, HttpRequest> call : calls(host).entrySet()) {
+                    long callStart = System.nanoTime();
+                    int status = client.send(call.getValue(), HttpResponse.BodyHandlers.discarding()).statusCode();
+                    long millis = (System.nanoTime() - callStart) / 1_000_000;
+                    firstRequestMillis.putIfAbsent(call.getKey(), millis);
+                    // the stand-ins do not cover every dependency (es. Event Hub), errors are expected
+                    System.out.println(StructuredLog.format("startup.training.call", 1, "round", round,
+                        "function", call.getKey(), "status", status, "millis", millis));
+                }
+            }
+
+            List<Object> fields = new ArrayList<>(List.of("label", label, "readyMillis", readyMillis));
+            firstRequestMillis.forEach((function, millis) -> {
+                fields.add("first" + function + "Millis");
+                fields.add(millis);
+            });
+            String line = StructuredLog.format("startup.measured", 1, fields.toArray());
+            System.out.println(line);
+            if (report != null) {
+                Files.writeString(report, line + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } finally {
+            standIns.stop(0);
+        }
+    }
+
+    private static long awaitReady(HttpClient client, String host, long startedAt, long timeoutMillis) throws Exception {
+        HttpRequest info = HttpRequest.newBuilder(URI.create(host + "/info")).timeout(Duration.ofSeconds(5)).GET().build();
+        while (true) {
+            long elapsed = (System.nanoTime() - startedAt) / 1_000_000;
+            try {
+                if (client.send(info, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return elapsed;
+                }
+            } catch (IOException e) {
+                // host not listening yet
+            }
+            if (elapsed > timeoutMillis) {
+                throw new IllegalStateException(String.format("StartupTrainer - functions host not ready after %d ms", elapsed));
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    private static Map<String, HttpRequest> calls(String host) {
+        String interval = "startDate=" + encode(INTERVAL_START) + "&endDate=" + encode(INTERVAL_END);
+        Map<String, HttpRequest> calls = new LinkedHashMap<>();
+        calls.put("CollectPerfData", post(host + "/perf-data?kpiId=ALL_KPI&saveData=false&" + interval));
+        calls.put("PerKpiAggregator", post(host + "/quarter/Q1?year=2024"));
+        calls.put("BulkKpiAggregator", post(host + "/quarters?from=2024-Q1&to=2024-Q2"));
+        calls.put("KpiLookup", HttpRequest.newBuilder(URI.create(host + "/kpis?" + interval)).GET().build());
+        calls.put("Metrics", HttpRequest.newBuilder(URI.create(host + "/metrics")).GET().build());
+        return calls;
+    }
+
+    private static HttpRequest post(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofMinutes(2))
+            .POST(HttpRequest.BodyPublishers.noBody()).build();
+    }
+
+    /**
+     * @param port port of the stand-ins, the host has to be configured with http://localhost:port as
+     *        ADX_CLUSTER_URL, APP_INSIGHTS_BASE_URL, AZURE_AD_LOGIN_URL and BETTERSTACK_API_URL/betterstack
+     */
+    private static HttpServer startStandIns(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/v2/rest/query", exchange -> respond(exchange, 200, KUSTO_EMPTY_RESULT));
+        server.createContext("/v1/rest/mgmt", exchange -> respond(exchange, 200, KUSTO_EMPTY_COMMAND));
+        server.createContext("/v1/apps/", exchange -> respond(exchange, 200, APP_INSIGHTS_RESULT));
+        server.createContext("/betterstack", exchange -> respond(exchange, 200, BETTERSTACK_RESULT));
+        server.createContext("/", exchange -> {
+            boolean token = exchange.getRequestURI().getPath().endsWith("/oauth2/v2.0/token");
+            respond(exchange, token ? 200 : 404, token ? AAD_TOKEN : "{}");
+        });
+        server.start();
+        return server;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+}
@@ -0,0 +1,259 @@
+package it.gov.pagopa.observability.helper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.microsoft.azure.functions.ExecutionContext;
+
+/**
+ * Structured logging on top of the function logger. Each line is an event with a stable name
+ * followed by key=value fields (es. event=kpi.computed kpiId=PERF-02 start=... end=... value=42).
+ * Nothing is formatted unless the level is enabled, both by the logger and by LOG_LEVEL, and the
+ * values given as {@link Supplier} are computed only then. High volume events can be sampled,
+ * one every LOG_SAMPLE_EVERY is written. The written bytes are counted per function run
+ */
+public final class StructuredLog {
+
+    private static final Level MIN_LEVEL = parseLevel(System.getenv("LOG_LEVEL"), Level.INFO);
+    private static final int SAMPLE_EVERY = Math.max(1, intEnv("LOG_SAMPLE_EVERY", 100));
+    private static final int MAX_VALUE_LENGTH = intEnv("LOG_MAX_VALUE_LENGTH", 512);
+
+    private static final Map<String, AtomicLong> SAMPLED = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> RUN_BYTES = new ConcurrentHashMap<>();
+
+    private final Logger logger;
+    private final String runId;
+
+    private StructuredLog(Logger logger, String runId) {
+        this.logger = logger;
+        this.runId = runId;
+    }
+
+    /**
+     * @param context Azure function context
+     * @return the log of the invocation, its bytes are counted in the run started by {@link #begin}, if any
+     */
+    public static StructuredLog of(ExecutionContext context) {
+        return new StructuredLog(context.getLogger(), context.getInvocationId());
+    }
+
+    /**
+     * @param logger logger of the work done outside a function invocation
+     * @return the log writing on the logger
+     */
+    public static StructuredLog of(Logger logger) {
+        return new StructuredLog(logger, null);
+    }
+
+    /**
+     * Starts counting the log bytes written for the invocation, to be closed with {@link #end()}
+     * @param context Azure function context
+     * @return the log of the invocation
+     */
+    public static StructuredLog begin(ExecutionContext context) {
+        if (context.getInvocationId() != null) {
+            RUN_BYTES.put(context.getInvocationId(), new LongAdder());
+        }
+        return of(context);
+    }
+
+    /**
+     * Stops counting the log bytes of the run started by {@link #begin}
+     * @return the bytes written during the run
+     */
+    public long end() {
+        LongAdder bytes = runId != null ? RUN_BYTES.remove(runId) : null;
+        if (bytes == null) {
+            return 0;
+        }
+        MetricsRegistry.increment("log.runs");
+        MetricsRegistry.increment("log.run_bytes", bytes.sum());
+        return bytes.sum();
+    }
+
+    /**
+     * @return the bytes written so far by the current run, 0 if no run was started
+     */
+    public long runBytes() {
+        LongAdder bytes = runId != null ? RUN_BYTES.get(runId) : null;
+        return bytes != null ? bytes.sum() : 0;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.intValue() >= MIN_LEVEL.intValue() && logger.isLoggable(level);
+    }
+
+    public void finest(String event, Object... fields) {
+        log(Level.FINEST, event, fields);
+    }
+
+    public void fine(String event, Object... fields) {
+        log(Level.FINE, event, fields);
+    }
+
+    public void info(String event, Object... fields) {
+        log(Level.INFO, event, fields);
+    }
+
+    public void warning(String event, Object... fields) {
+        log(Level.WARNING, event, fields);
+    }
+
+    public void severe(String event, Object... fields) {
+        log(Level.SEVERE, event, fields);
+    }
+
+    /**
+     * @param level level of the event
+     * @param event stable event name
+     * @param fields alternating field names and values
+     */
+    public void log(Level level, String event, Object... fields) {
+        if (isEnabled(level)) {
+            write(level, format(event, 1, fields));
+        }
+    }
+
+    /**
+     * Writes one every LOG_SAMPLE_EVERY occurrences of a high volume event, the first one included
+     * @param level level of the event
+     * @param event stable event name, the occurrences are counted by name
+     * @param fields alternating field names and values
+     */
+    public void sampled(Level level, String event, Object... fields) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long occurrence = SAMPLED.computeIfAbsent(event, e -> new AtomicLong()).getAndIncrement();
+        if (occurrence % SAMPLE_EVERY != 0) {
+            MetricsRegistry.increment("log.sampled_out");
+            return;
+        }
+        write(level, format(event, SAMPLE_EVERY, fields));
+    }
+
+    private void write(Level level, String line) {
+        long bytes = utf8Length(line);
+        MetricsRegistry.increment("log.bytes", bytes);
+        MetricsRegistry.increment("log.events." + level.getName().toLowerCase());
+        LongAdder runBytes = runId != null ? RUN_BYTES.get(runId) : null;
+        if (runBytes != null) {
+            runBytes.add(bytes);
+        }
+        logger.log(level, line);
+    }
+
+    /**
+     * @param event stable event name
+     * @param sampleEvery sampling rate of the event, 1 if not sampled
+     * @param fields alternating field names and values
+     * @return the event line
+     */
+    public static String format(String event, int sampleEvery, Object... fields) {
+        if (fields.length % 2 != 0) {
+            throw new IllegalArgumentException(String.format("StructuredLog - odd number of fields for event [%s]", event));
+        }
+        StringBuilder line = new StringBuilder(32 + fields.length * 16).append("event=").append(event);
+        for (int i = 0; i < fields.length; i += 2) {
+            line.append(' ').append(fields[i]).append('=');
+            appendValue(line, fields[i + 1]);
+        }
+        if (sampleEvery > 1) {
+            line.append(" sampleEvery=").append(sampleEvery);
+        }
+        return line.toString();
+    }
+
+    private static void appendValue(StringBuilder line, Object value) {
+        if (value instanceof Supplier) {
+            value = ((Supplier<?>) value).get();
+        }
+        String text = String.valueOf(value);
+        if (text.length() > MAX_VALUE_LENGTH) {
+            text = text.substring(0, MAX_VALUE_LENGTH) + "...(" + text.length() + " chars)";
+        }
+        boolean quote = text.isEmpty();
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ' ' || c == '"' || c == '=' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(text);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c == '\r') {
+                line.append("\\r");
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private static long utf8Length(String text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @param value level name, java.util.logging or the usual aliases (TRACE, DEBUG, INFORMATION, WARN, ERROR)
+     * @param defaultValue level of a missing or unknown value, an unknown value is reported as a warning
+     * @return the level
+     */
+    public static Level parseLevel(String value, Level defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        switch (value.trim().toUpperCase()) {
+            case "TRACE":
+                return Level.FINEST;
+            case "DEBUG":
+                return Level.FINE;
+            case "INFORMATION":
+                return Level.INFO;
+            case "WARN":
+                return Level.WARNING;
+            case "ERROR":
+                return Level.SEVERE;
+            default:
+                try {
+                    return Level.parse(value.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    // a typo in the app settings must not fail the class initialization of every function
+                    Logger.getLogger(StructuredLog.class.getName()).warning(String.format(
+                        "StructuredLog - unknown log level [%s], using %s", value, defaultValue));
+                    return defaultValue;
+                }
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
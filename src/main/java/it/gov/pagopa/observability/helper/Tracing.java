@@ -0,0 +1,97 @@
+package it.gov.pagopa.observability.helper;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.exporter.logging.LoggingSpanExporter;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+
+/**
+ * OpenTelemetry spans for the triggers and the outbound calls.
+ * With OTEL_TRACES_EXPORTER=logging the spans are written to the function log, otherwise the
+ * global OpenTelemetry is used (es. the one installed by the Application Insights agent, no-op if missing).
+ * The span is made current while the call runs, so the Azure SDK clients (through
+ * azure-core-tracing-opentelemetry) create their spans as children of it
+ */
+public class Tracing {
+
+    private static final String INSTRUMENTATION_NAME = "it.gov.pagopa.observability";
+
+    private static volatile OpenTelemetry openTelemetry;
+
+    private Tracing() {
+    }
+
+    /**
+     * Call executed inside a span
+     */
+    public interface SpanCall<T, E extends Exception> {
+        T call(Span span) throws E;
+    }
+
+    /**
+     * Replaces the OpenTelemetry instance, used by tests and benchmarks to export spans in memory
+     * @param instance OpenTelemetry instance to use
+     */
+    public static void install(OpenTelemetry instance) {
+        openTelemetry = instance;
+    }
+
+    public static Tracer tracer() {
+        if (openTelemetry == null) {
+            synchronized (Tracing.class) {
+                if (openTelemetry == null) {
+                    openTelemetry = fromEnvironment();
+                }
+            }
+        }
+        return openTelemetry.getTracer(INSTRUMENTATION_NAME);
+    }
+
+    /**
+     * Runs a call inside a new span, child of the current one.
+     * A failure of the call is recorded on the span and rethrown
+     * @param name span name (es. adx.query)
+     * @param kind span kind
+     * @param call call to execute, it receives the span to set its attributes
+     * @return the value returned by the call
+     */
+    public static <T, E extends Exception> T trace(String name, SpanKind kind, SpanCall<T, E> call) throws E {
+        Span span = tracer().spanBuilder(name).setSpanKind(kind).startSpan();
+        Scope scope = span.makeCurrent();
+        try {
+            return call.call(span);
+        } catch (Exception e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR, e.getMessage());
+            throw e;
+        } finally {
+            scope.close();
+            span.end();
+        }
+    }
+
+    private static OpenTelemetry fromEnvironment() {
+        if (!"logging".equalsIgnoreCase(System.getenv("OTEL_TRACES_EXPORTER"))) {
+            return GlobalOpenTelemetry.get();
+        }
+        OpenTelemetrySdk sdk = OpenTelemetrySdk.builder()
+            .setTracerProvider(SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(LoggingSpanExporter.create()))
+                .build())
+            .build();
+        try {
+            // registered as global so that azure-core picks it up for the SDK client spans
+            GlobalOpenTelemetry.set(sdk);
+        } catch (IllegalStateException e) {
+            // a global instance is already installed (es. by an agent), spans are still exported by ours
+        }
+        return sdk;
+    }
+}
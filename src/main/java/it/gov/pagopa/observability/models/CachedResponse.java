@@ -0,0 +1,24 @@
+package it.gov.pagopa.observability.models;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Response body kept in memory together with its entity tag
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class CachedResponse {
+
+    private String body;
+
+    /** strong entity tag of the body, quoted as in the ETag header */
+    private String etag;
+
+    /** size of the body in bytes, counted against the cache size limit */
+    private int bytes;
+    private long createdAtMillis;
+}
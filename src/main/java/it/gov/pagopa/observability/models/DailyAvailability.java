@@ -0,0 +1,21 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDate;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * NDP availability of a single day (UTC) as reported by the status page
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class DailyAvailability {
+
+    private LocalDate day;
+    private double outageSeconds;
+    private long daySeconds;
+}
@@ -0,0 +1,27 @@
+package it.gov.pagopa.observability.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Downstream dependency called by the functions, each one is isolated in its own bulkhead.
+ * The defaults can be overridden by BULKHEAD_&lt;NAME&gt;_CONCURRENCY, _QUEUE, _CONNECT_TIMEOUT_MS and _TIMEOUT_MS
+ */
+@Getter
+@AllArgsConstructor
+public enum Dependency {
+
+    ADX(8, 16, 10_000, 240_000),
+    APP_INSIGHTS(4, 8, 10_000, 60_000),
+    AAD(2, 8, 5_000, 15_000),
+    BETTERSTACK(2, 8, 5_000, 30_000),
+    EVENT_HUB(2, 4, 10_000, 60_000);
+
+    /** calls running at the same time */
+    private final int concurrency;
+    /** calls waiting for a free slot, further calls fail fast */
+    private final int queue;
+    private final int connectTimeoutMillis;
+    /** overall deadline of a call, waiting in queue included */
+    private final int timeoutMillis;
+}
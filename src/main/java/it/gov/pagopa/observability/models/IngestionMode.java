@@ -0,0 +1,16 @@
+package it.gov.pagopa.observability.models;
+
+/**
+ * How the computed kpis are ingested into ADX
+ */
+public enum IngestionMode {
+
+    /** queued ingestion: blob upload and queue message, rows are visible after the batching policy */
+    QUEUED,
+
+    /** managed streaming ingestion: rows are visible in seconds, falls back to queued on transient errors */
+    MANAGED_STREAMING,
+
+    /** managed streaming for small batches, queued for the ones larger than ADX_STREAMING_MAX_BYTES */
+    AUTO
+}
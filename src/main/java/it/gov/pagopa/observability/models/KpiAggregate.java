@@ -0,0 +1,16 @@
+package it.gov.pagopa.observability.models;
+
+/**
+ * Aggregation applied to the rows of a kpi source matching the kpi filter
+ */
+public enum KpiAggregate {
+
+    /** number of matching rows */
+    COUNT,
+
+    /** average of the aggregate column over the matching rows, 0 when no row matches */
+    AVG,
+
+    /** availability percentage returned by the status page */
+    AVAILABILITY
+}
@@ -0,0 +1,68 @@
+package it.gov.pagopa.observability.models;
+
+import java.text.DecimalFormat;
+import java.util.Map;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Kpi values of a month sent to the data lake, already formatted
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class KpiAverages {
+
+    private String perf01;
+    private String perf02;
+    private String perf02E;
+    private String perf03;
+    private String perf04;
+    private String perf05;
+    private String perf06;
+
+    /**
+     * @return values used when no kpi has been computed in the month
+     */
+    public static KpiAverages empty() {
+        return KpiAverages.builder()
+            .perf01("0.0").perf02("0.0").perf02E("0.0").perf03("0.0").perf04("0.0").perf05("0.0").perf06("0.0")
+            .build();
+    }
+
+    /**
+     * Formats the kpi totals of a month as sent to the data lake: PERF-01 is the average availability with
+     * two decimals, PERF-02 and PERF-02E are the floor of the sums, the others the floor of the averages
+     * @param totals totals by exact kpi id, a missing kpi has no stored values in the month
+     * @return the kpi values of the month
+     */
+    public static KpiAverages fromTotals(Map<String, KpiTotals> totals) {
+        KpiTotals perf01 = totals.get("PERF-01");
+        return KpiAverages.builder()
+            .perf01(perf01 != null && perf01.getCount() > 0 ? new DecimalFormat("#.00").format(perf01.getAverage()) : "0.00")
+            .perf02(floor(totals.get("PERF-02"), true))
+            .perf02E(floor(totals.get("PERF-02E"), true))
+            .perf03(floor(totals.get("PERF-03"), false))
+            .perf04(floor(totals.get("PERF-04"), false))
+            .perf05(floor(totals.get("PERF-05"), false))
+            .perf06(floor(totals.get("PERF-06"), false))
+            .build();
+    }
+
+    private static String floor(KpiTotals totals, boolean sum) {
+        if (totals == null || totals.getCount() == 0) {
+            return "0";
+        }
+        return String.valueOf((long) Math.floor(sum ? totals.getSum() : totals.getAverage()));
+    }
+
+    /**
+     * @return the comma separated values: PERF-01, PERF-02, PERF-02E, PERF-03, PERF-04, PERF-05, PERF-06
+     */
+    public String toCsv() {
+        return String.join(",", perf01, perf02, perf02E, perf03, perf04, perf05, perf06);
+    }
+}
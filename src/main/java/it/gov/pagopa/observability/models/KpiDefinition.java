@@ -0,0 +1,39 @@
+package it.gov.pagopa.observability.models;
+
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Declarative definition of a performance kpi: where it is read from, which rows
+ * it considers, how they are aggregated and where the computed value is persisted.
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class KpiDefinition {
+
+    private String kpiId;
+    private KpiSource source;
+
+    /** Kusto predicates (in AND) selecting the source rows of the kpi, cheapest first */
+    private List<String> filters;
+
+    private KpiAggregate aggregate;
+
+    /** column aggregated by AVG kpis */
+    private String aggregateColumn;
+
+    /** ADX table the computed value is written into */
+    private String targetTable;
+
+    /**
+     * @return the column name used for this kpi inside merged query results (es. PERF_02E)
+     */
+    public String getColumnName() {
+        return kpiId.replace('-', '_');
+    }
+}
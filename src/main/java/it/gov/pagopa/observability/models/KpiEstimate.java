@@ -0,0 +1,42 @@
+package it.gov.pagopa.observability.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Approximate value of a kpi computed on sampled rows, never persisted
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class KpiEstimate {
+
+    private String kpiId;
+    private double value;
+    /** bounds of the confidence interval of the value */
+    private double lower;
+    private double upper;
+    private double confidence;
+    private double sampleRate;
+    private long sampledRows;
+    /** percentiles of the sampled durations (t-digest sketch), AVG kpis only */
+    private Double p50;
+    private Double p95;
+
+    /** elapsed time and ADX cpu time of the sampled query */
+    private long estimateMillis;
+    private Long estimateCpuMillis;
+
+    /** exact value and cost, only when the comparison is requested */
+    private String exactValue;
+    private Long exactMillis;
+    private Long exactCpuMillis;
+    private Boolean withinInterval;
+    /** 1 - estimate cost / exact cost, on the ADX cpu time when available, on the elapsed time otherwise */
+    private Double costSaving;
+}
@@ -0,0 +1,34 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Result of a kpi as soon as its query completes, one line of the progressive response of a kpi job
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class KpiProgress {
+
+    private String kpiId;
+    private KpiSource source;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private LocalDateTime startDate;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private LocalDateTime endDate;
+    /** computed value, null if the query failed */
+    private String value;
+    /** time spent on the query of the kpi, shared by the kpis of the same plan */
+    private long millis;
+    private String error;
+}
@@ -0,0 +1,36 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import it.gov.pagopa.observability.helper.KustoQueryTemplate;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Group of kpis sharing source and interval, computed with a single query.
+ * The query result has one column per kpi, named as {@link KpiDefinition#getColumnName()}.
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class KpiQueryPlan {
+
+    private KpiSource source;
+    private LocalDateTime startDate;
+    private LocalDateTime endDate;
+    private List<KpiDefinition> kpis;
+
+    /** merged query template, null for sources that are not queried (es. status page) */
+    private KustoQueryTemplate template;
+
+    /**
+     * @return the merged query text, null for sources that are not queried
+     */
+    public String getQuery() {
+        return template != null ? template.getText() : null;
+    }
+}
@@ -0,0 +1,21 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * A kpi to compute over a given interval
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class KpiRequest {
+
+    private KpiDefinition definition;
+    private LocalDateTime startDate;
+    private LocalDateTime endDate;
+}
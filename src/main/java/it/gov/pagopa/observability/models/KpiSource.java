@@ -0,0 +1,24 @@
+package it.gov.pagopa.observability.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Data sources the performance kpis are computed from.
+ * KPIs sharing the same source and interval can be computed by a single query.
+ */
+@Getter
+@AllArgsConstructor
+public enum KpiSource {
+
+    /** ADX re events table (ADX_SOURCE_TABLE) */
+    RE_EVENT("insertedTimestamp"),
+
+    /** Application Insights requests table, queried through the REST api */
+    APP_INSIGHTS("timestamp"),
+
+    /** Betterstack status page SLA api, not a query source */
+    STATUS_PAGE(null);
+
+    private final String timeColumn;
+}
@@ -0,0 +1,22 @@
+package it.gov.pagopa.observability.models;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Aggregation of the stored values of a kpi over an interval
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class KpiTotals {
+
+    private String kpiId;
+
+    /** stored values of the kpi in the interval */
+    private long count;
+    private double sum;
+    private double average;
+}
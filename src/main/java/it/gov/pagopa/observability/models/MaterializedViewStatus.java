@@ -0,0 +1,26 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * State of an ADX materialized view, from the output of the .show materialized-views command
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class MaterializedViewStatus {
+
+    private String name;
+    private String query;
+    private boolean enabled;
+    private boolean healthy;
+    private LocalDateTime effectiveDateTime;
+    private LocalDateTime materializedTo;
+    /** start of the rows computed with the current definition, null if all of them are */
+    private LocalDateTime validFrom;
+}
@@ -0,0 +1,27 @@
+package it.gov.pagopa.observability.models;
+
+/**
+ * How the PERF-02E query finds the responses with a fault in their base64 encoded payload
+ */
+public enum Perf02EStrategy {
+
+    /** every payload is decoded and searched */
+    DECODE_ALL,
+    /** only the payloads whose encoded text can contain the fault token are decoded */
+    PREFILTER;
+
+    /**
+     * @param value strategy name, case insensitive
+     * @return the matching strategy, PREFILTER if the value is missing
+     */
+    public static Perf02EStrategy fromValue(String value) {
+        if (value == null || value.isEmpty()) {
+            return PREFILTER;
+        }
+        try {
+            return Perf02EStrategy.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid PERF-02E strategy [%s], expected one of DECODE_ALL, PREFILTER", value));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Row of the ADX kpi table (BDI_PERF_KPI)
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class PerfKpiRow {
+
+    private LocalDateTime startDate;
+    private LocalDateTime endDate;
+    private String kpiId;
+    private String kpiValue;
+}
@@ -0,0 +1,37 @@
+package it.gov.pagopa.observability.models;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Summary of a Java Flight Recorder session, the full recording is left in the file
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProfileSummary {
+
+    private String path;
+    private String settings;
+    private long durationMillis;
+    private long sizeBytes;
+    private long events;
+    private long executionSamples;
+    // top frame of the execution samples -> samples, hottest first
+    private Map<String, Long> hotMethods;
+    private long allocatedBytes;
+    private long allocationBytesPerSecond;
+    private long gcPauses;
+    private long gcPauseTotalMillis;
+    private long gcPauseMaxMillis;
+    private long heapUsedMaxBytes;
+    private long monitorBlockedMillis;
+    private long socketReadMillis;
+}
@@ -0,0 +1,32 @@
+package it.gov.pagopa.observability.models;
+
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Outcome of a quarter processed by a bulk aggregation
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class QuarterOutcome {
+
+    public static final String SENT = "SENT";
+    public static final String JOURNALED = "JOURNALED";
+    public static final String FAILED = "FAILED";
+
+    private String year;
+    private String quarter;
+    private String status;
+
+    /** kpi values of the months of the quarter, comma separated as in the single quarter response */
+    private List<String> data;
+
+    /** size of the uncompressed message */
+    private int messageBytes;
+    private String error;
+}
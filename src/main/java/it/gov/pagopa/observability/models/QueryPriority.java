@@ -0,0 +1,36 @@
+package it.gov.pagopa.observability.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Priority class of the ADX queries, lower rank is served first
+ */
+@Getter
+@AllArgsConstructor
+public enum QueryPriority {
+
+    /** a user waiting on the http response */
+    INTERACTIVE(0),
+    /** the daily/quarterly scheduled collection */
+    SCHEDULED(1),
+    /** recomputation of past periods */
+    BACKFILL(2);
+
+    private final int rank;
+
+    /**
+     * @param value priority name, case insensitive
+     * @return the matching priority, INTERACTIVE if the value is missing
+     */
+    public static QueryPriority fromValue(String value) {
+        if (value == null || value.isEmpty()) {
+            return INTERACTIVE;
+        }
+        try {
+            return QueryPriority.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid priority [%s], expected one of INTERACTIVE, SCHEDULED, BACKFILL", value));
+        }
+    }
+}
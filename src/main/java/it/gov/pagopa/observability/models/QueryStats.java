@@ -0,0 +1,35 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Resource consumption of an ADX query, from the QueryResourceConsumption event of the
+ * QueryCompletionInformation table
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class QueryStats {
+
+    private String queryName;
+    @JsonIgnore
+    private LocalDateTime startDate;
+    @JsonIgnore
+    private LocalDateTime endDate;
+    private long executionTimeMillis;
+    private long cpuTimeMillis;
+    private long memoryPeakBytes;
+    private long extentsTotal;
+    private long extentsScanned;
+    private long rowsTotal;
+    private long rowsScanned;
+    private long cacheHitBytes;
+    private long cacheMissBytes;
+}
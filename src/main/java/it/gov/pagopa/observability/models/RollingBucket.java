@@ -0,0 +1,25 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Kpi counts of one bucket of the rolling window
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class RollingBucket {
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private LocalDateTime start;
+    private Map<String, Long> counts;
+}
@@ -0,0 +1,39 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Kpi totals of the last hours, served from the in-memory rolling window. The last bucket is still open
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RollingWindow {
+
+    @JsonSerialize(using = ToStringSerializer.class)
+    private LocalDateTime start;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private LocalDateTime end;
+    private long bucketMinutes;
+    /** last incremental refresh, the counts are up to this time */
+    @JsonSerialize(using = ToStringSerializer.class)
+    private LocalDateTime refreshedAt;
+    /** buckets of the window not loaded yet (es. right after the instance start) */
+    private int missingBuckets;
+    private Map<String, Long> totals;
+    /** PERF-02E over PERF-02, when both are in the window */
+    private Double errorRate;
+    private List<RollingBucket> buckets;
+}
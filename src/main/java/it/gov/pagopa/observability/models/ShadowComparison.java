@@ -0,0 +1,29 @@
+package it.gov.pagopa.observability.models;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Result of a kpi computed both by the reference path and by a candidate path
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ShadowComparison {
+
+    private String kpiId;
+    private String candidate;
+    private String startDate;
+    private String endDate;
+    private String referenceValue;
+    private String candidateValue;
+    private boolean match;
+    private double absoluteDifference;
+    private double relativeDifference;
+    private long referenceMillis;
+    private long candidateMillis;
+    private long referenceCpuMillis;
+    private long candidateCpuMillis;
+}
@@ -0,0 +1,34 @@
+package it.gov.pagopa.observability.models;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Shadow runs of a candidate path for a kpi, aggregated since the process start
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ShadowKpiReport {
+
+    /** SAFE: enough runs and no mismatch, UNSAFE: at least one mismatch, INSUFFICIENT_DATA otherwise */
+    public enum Verdict {
+        SAFE, UNSAFE, INSUFFICIENT_DATA
+    }
+
+    private String kpiId;
+    private String candidate;
+    private long runs;
+    private long mismatches;
+    private double maxAbsoluteDifference;
+    private double maxRelativeDifference;
+    private double avgReferenceMillis;
+    private double avgCandidateMillis;
+    private double avgReferenceCpuMillis;
+    private double avgCandidateCpuMillis;
+    private boolean faster;
+    private Verdict verdict;
+    private ShadowComparison lastMismatch;
+}
@@ -0,0 +1,29 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * A cluster, database and table holding a share of the re events, es. a region or a time range
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SourceTarget {
+
+    private String name;
+    private String clusterUrl;
+    private String database;
+    private String table;
+    /** first event time held by the target, null if unbounded */
+    private LocalDateTime from;
+    /** event time (excluded) after the last one held by the target, null if unbounded */
+    private LocalDateTime to;
+}
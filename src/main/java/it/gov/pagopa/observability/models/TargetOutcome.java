@@ -0,0 +1,35 @@
+package it.gov.pagopa.observability.models;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Outcome of the query of a plan on one of the federated source targets
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TargetOutcome {
+
+    private String target;
+    private String kpis;
+    /** interval queried on the target, clipped to the time range it holds */
+    @JsonSerialize(using = ToStringSerializer.class)
+    private LocalDateTime startDate;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private LocalDateTime endDate;
+    private long millis;
+    /** partial counts by kpi id, null if the query failed */
+    private Map<String, Long> counts;
+    private String error;
+}
@@ -0,0 +1,26 @@
+package it.gov.pagopa.observability.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Statistics of a timer of the metrics registry, percentiles are computed on the most recent samples
+ */
+@Getter
+@Builder(toBuilder = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TimerSnapshot {
+
+    private long count;
+    private long totalMillis;
+    private long maxMillis;
+    private double avgMillis;
+    private long p50Millis;
+    private long p95Millis;
+    private long p99Millis;
+}
@@ -0,0 +1,72 @@
+package it.gov.pagopa.observability.service;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.gov.pagopa.observability.models.DailyAvailability;
+
+/**
+ * Process wide cache of the daily NDP availability used by PERF-01.
+ * Only closed days are cached: the current day is still changing and is always fetched again
+ */
+public class AvailabilityCache {
+
+    private static final int MAX_DAYS = 1000;
+
+    private static final AvailabilityCache INSTANCE = new AvailabilityCache();
+
+    private final Map<LocalDate, DailyAvailability> days = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LocalDate, DailyAvailability> eldest) {
+            return size() > MAX_DAYS;
+        }
+    };
+
+    public static AvailabilityCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param day day to look up
+     * @return the cached availability of the day, null if missing
+     */
+    public synchronized DailyAvailability get(LocalDate day) {
+        return days.get(day);
+    }
+
+    /**
+     * Caches the availability of a day, ignored if the day is not closed yet
+     * @param availability availability of the day
+     */
+    public synchronized void put(DailyAvailability availability) {
+        if (availability.getDay().isBefore(LocalDate.now(ZoneOffset.UTC))) {
+            days.put(availability.getDay(), availability);
+        }
+    }
+
+    public synchronized void clear() {
+        days.clear();
+    }
+
+    /**
+     * Composes the availability of a range as time-weighted average of its days
+     * @param availabilities availability of each day of the range
+     * @return the availability percentage, rounded to 3 decimals
+     */
+    public static double compose(List<DailyAvailability> availabilities) {
+        double outageSeconds = 0;
+        long totalSeconds = 0;
+        for (DailyAvailability availability : availabilities) {
+            outageSeconds += availability.getOutageSeconds();
+            totalSeconds += availability.getDaySeconds();
+        }
+        if (totalSeconds == 0) {
+            throw new IllegalArgumentException("compose - no availability data for the given range");
+        }
+        double percentage = 100.0 * (1.0 - Math.min(outageSeconds, totalSeconds) / totalSeconds);
+        return Math.round(percentage * 1000) / 1000.0;
+    }
+}
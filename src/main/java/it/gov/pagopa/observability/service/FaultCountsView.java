@@ -0,0 +1,225 @@
+package it.gov.pagopa.observability.service;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Callable;
+
+import it.gov.pagopa.observability.helper.Base64Prefilter;
+import it.gov.pagopa.observability.models.MaterializedViewStatus;
+
+/**
+ * ADX materialized view with the hourly counts of the interface requests (PERF-02) and of the
+ * faulted interface responses (PERF-02E) of the ReEvent table.
+ * The view is created and kept aligned with its definition by {@link PerfKpiService#maintainFaultCountsView},
+ * the kpi queries read it only for the hour aligned intervals it fully covers and scan the raw events otherwise
+ */
+public class FaultCountsView {
+
+    public static final String REQUESTS = "requests";
+    public static final String FAULTS = "faults";
+
+    private static final String VALID_FROM = "validFrom=";
+    private static final DateTimeFormatter KUSTO_DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private static final FaultCountsView INSTANCE = new FaultCountsView(
+        System.getenv("ADX_FAULT_COUNTS_VIEW"),
+        System.getenv("ADX_SOURCE_TABLE"),
+        dateEnv("ADX_FAULT_COUNTS_VIEW_FROM"),
+        intEnv("FAULT_COUNTS_VIEW_STATUS_TTL_SECONDS", 600) * 1000L);
+
+    private final String name;
+    private final String sourceTable;
+    private final LocalDateTime backfillFrom;
+    private final long statusTtlMillis;
+
+    private MaterializedViewStatus status;
+    private boolean statusLoaded;
+    private long statusLoadedAt;
+
+    /**
+     * @param name view name, the view is disabled if empty
+     * @param sourceTable ReEvent table the view is computed on
+     * @param backfillFrom oldest event included in the view on creation, null for all the retained events
+     * @param statusTtlMillis how long the view status is reused before being read again
+     */
+    public FaultCountsView(String name, String sourceTable, LocalDateTime backfillFrom, long statusTtlMillis) {
+        this.name = name;
+        this.sourceTable = sourceTable;
+        this.backfillFrom = backfillFrom;
+        this.statusTtlMillis = statusTtlMillis;
+    }
+
+    public static FaultCountsView getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return name != null && !name.isEmpty() && sourceTable != null && !sourceTable.isEmpty();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the query of the view, the fault filter is the same of the PERF-02E raw query
+     */
+    public String definition() {
+        return sourceTable +
+            "| where categoriaEvento == 'INTERFACCIA' and sottoTipoEvento in ('REQ', 'RESP')" +
+            "| extend fault = sottoTipoEvento == 'RESP'" +
+            "      and tipoEvento !in ('cdInfoWisp', 'mod3CancelV2', 'mod3CancelV1', 'parkedList-v1')" +
+            "      and isnotempty(payload)" +
+            "      and " + Base64Prefilter.kustoPredicate("payload", KpiRegistry.FAULT_TOKEN) +
+            "      and base64_decode_tostring(payload) contains '" + KpiRegistry.FAULT_TOKEN + "'" +
+            "| summarize " + REQUESTS + " = countif(sottoTipoEvento == 'REQ'), " + FAULTS + " = countif(fault)" +
+            " by hour = bin(insertedTimestamp, 1h)";
+    }
+
+    /**
+     * @return the query reading the counts of the hours in [start, end)
+     */
+    public String countsQuery() {
+        return "materialized_view(" + KpiRegistry.toKustoString(name) + ")" +
+            "| where hour >= start and hour < end" +
+            "| summarize " + REQUESTS + " = sum(" + REQUESTS + "), " + FAULTS + " = sum(" + FAULTS + ")" +
+            "| project " + REQUESTS + " = coalesce(" + REQUESTS + ", tolong(0)), " + FAULTS + " = coalesce(" + FAULTS + ", tolong(0))";
+    }
+
+    public String showCommand() {
+        return ".show materialized-views" +
+            "| where Name == " + KpiRegistry.toKustoString(name) +
+            "| project Name, Query, IsEnabled, IsHealthy, EffectiveDateTime, MaterializedTo, DocString";
+    }
+
+    /**
+     * @return the command creating the view, the events already ingested are backfilled asynchronously
+     */
+    public String createCommand() {
+        String properties = "backfill=true";
+        if (backfillFrom != null) {
+            properties += ", effectiveDateTime=datetime(" + backfillFrom.format(KUSTO_DATETIME) + ")";
+        }
+        return ".create async ifnotexists materialized-view with (" + properties + ") " +
+            name + " on table " + sourceTable + " { " + definition() + " }";
+    }
+
+    /**
+     * @return the command replacing the definition of the view, the rows already materialized are not recomputed
+     */
+    public String alterCommand() {
+        return ".alter materialized-view " + name + " on table " + sourceTable + " { " + definition() + " }";
+    }
+
+    /**
+     * @param validFrom start of the rows computed with the current definition
+     * @return the command recording it in the view docstring
+     */
+    public String validFromCommand(LocalDateTime validFrom) {
+        return ".alter materialized-view " + name + " docstring " +
+            KpiRegistry.toKustoString(VALID_FROM + validFrom.format(KUSTO_DATETIME));
+    }
+
+    public String enableCommand() {
+        return ".enable materialized-view " + name;
+    }
+
+    /**
+     * @param docString docstring of the view
+     * @return the start of the rows computed with the current definition, null if not recorded
+     */
+    public static LocalDateTime parseValidFrom(String docString) {
+        if (docString == null || !docString.startsWith(VALID_FROM)) {
+            return null;
+        }
+        return LocalDateTime.parse(docString.substring(VALID_FROM.length()), KUSTO_DATETIME);
+    }
+
+    /**
+     * @param status state of the view
+     * @return true if the view is computed with the current definition
+     */
+    public boolean hasCurrentDefinition(MaterializedViewStatus status) {
+        return status.getQuery() != null && normalize(status.getQuery()).equals(normalize(definition()));
+    }
+
+    /**
+     * Tells whether the view can replace the raw scan of an interval. The interval bounds must fall on hour
+     * boundaries, the end may also be the last second of an hour as in the monthly intervals, and the interval
+     * must be already materialized: {@link #countsQuery()} reads only the materialized part of the view
+     * @param status state of the view, null if the view does not exist
+     * @param startDate interval start
+     * @param endDate interval end
+     * @param now current UTC time
+     * @return the exclusive end of the last hour of the interval, null if the view does not cover it
+     */
+    public LocalDateTime coveredEnd(MaterializedViewStatus status, LocalDateTime startDate, LocalDateTime endDate,
+            LocalDateTime now) {
+        if (status == null || !status.isEnabled() || !status.isHealthy() || !hasCurrentDefinition(status)) {
+            return null;
+        }
+        LocalDateTime bucketEnd = isHourAligned(endDate) ? endDate
+            : isHourAligned(endDate.plusSeconds(1)) ? endDate.plusSeconds(1) : null;
+        if (!isHourAligned(startDate) || bucketEnd == null || !bucketEnd.isAfter(startDate) || bucketEnd.isAfter(now)) {
+            return null;
+        }
+        // the hours closed but not materialized yet would be undercounted
+        if (status.getMaterializedTo() == null || bucketEnd.isAfter(status.getMaterializedTo())) {
+            return null;
+        }
+        for (LocalDateTime coverageStart : new LocalDateTime[] { status.getEffectiveDateTime(), status.getValidFrom() }) {
+            if (coverageStart != null && startDate.isBefore(coverageStart)) {
+                return null;
+            }
+        }
+        return bucketEnd;
+    }
+
+    /**
+     * @param loader reads the state of the view from the cluster
+     * @return the state of the view, reused for the configured ttl
+     * @throws Exception
+     */
+    public synchronized MaterializedViewStatus status(Callable<MaterializedViewStatus> loader) throws Exception {
+        long now = System.currentTimeMillis();
+        if (!statusLoaded || now - statusLoadedAt >= statusTtlMillis) {
+            status = loader.call();
+            statusLoaded = true;
+            statusLoadedAt = now;
+        }
+        return status;
+    }
+
+    public synchronized void invalidate() {
+        statusLoaded = false;
+        status = null;
+    }
+
+    /**
+     * @param time a point in time
+     * @return the first hour boundary not before it
+     */
+    public static LocalDateTime nextHour(LocalDateTime time) {
+        LocalDateTime hour = time.truncatedTo(ChronoUnit.HOURS);
+        return hour.equals(time) ? hour : hour.plusHours(1);
+    }
+
+    private static boolean isHourAligned(LocalDateTime time) {
+        return time.truncatedTo(ChronoUnit.HOURS).equals(time);
+    }
+
+    private static String normalize(String query) {
+        return query.replaceAll("\\s+", "");
+    }
+
+    private static LocalDateTime dateEnv(String name) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? LocalDateTime.parse(value) : null;
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,198 @@
+package it.gov.pagopa.observability.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import io.opentelemetry.context.Context;
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+import it.gov.pagopa.observability.helper.StructuredLog;
+
+/**
+ * Kpi runs started by a request and polled by the caller, whose results are appended as NDJSON lines as soon
+ * as each kpi completes. The functions Java worker buffers the whole HTTP response, so the progressive results
+ * are read back by polling instead of being streamed. Jobs live in the memory of the instance that started them,
+ * at most KPI_JOB_MAX_RUNNING at a time, and are dropped KPI_JOB_TTL_SECONDS after their start
+ */
+public class KpiJobRegistry {
+
+    private static final StructuredLog LOG = StructuredLog.of(Logger.getLogger(KpiJobRegistry.class.getName()));
+
+    private static final KpiJobRegistry INSTANCE = new KpiJobRegistry(
+        intEnv("KPI_JOB_MAX_RUNNING", 4),
+        intEnv("KPI_JOB_TTL_SECONDS", 900) * 1000L);
+
+    static {
+        MetricsRegistry.gauge("kpi.jobs.running", INSTANCE::running);
+    }
+
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    /**
+     * Work of a job, appends its partial results to the job
+     */
+    @FunctionalInterface
+    public interface Task {
+        /**
+         * @param job job to append the partial results to
+         * @return the last line of the job, es. the same response of a synchronous run
+         * @throws Exception on failure, the job is then FAILED with a standard error response as last line
+         */
+        String run(Job job) throws Exception;
+    }
+
+    public static class Job {
+
+        private final String id;
+        private final long createdAtMillis;
+        private final List<String> lines = new ArrayList<>();
+        private Status status = Status.RUNNING;
+
+        Job(String id, long createdAtMillis) {
+            this.id = id;
+            this.createdAtMillis = createdAtMillis;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getCreatedAtMillis() {
+            return createdAtMillis;
+        }
+
+        public synchronized Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @param value partial result, written as a JSON line
+         */
+        public void append(Object value) {
+            String line;
+            try {
+                line = JsonHelper.writer().writeValueAsString(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            synchronized (this) {
+                lines.add(line);
+            }
+        }
+
+        synchronized void finish(Status status, String lastLine) {
+            lines.add(lastLine);
+            this.status = status;
+        }
+
+        /**
+         * @param since number of lines already read by the caller
+         * @return the lines appended after the first ones already read
+         */
+        public synchronized List<String> linesSince(int since) {
+            if (since < 0) {
+                throw new IllegalArgumentException("KpiJobRegistry - since must not be negative");
+            }
+            return since >= lines.size() ? List.of() : List.copyOf(lines.subList(since, lines.size()));
+        }
+    }
+
+    private final int maxRunning;
+    private final long ttlMillis;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final ExecutorService executor;
+
+    public KpiJobRegistry(int maxRunning, long ttlMillis) {
+        this.maxRunning = maxRunning;
+        this.ttlMillis = ttlMillis;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxRunning), runnable -> {
+            Thread thread = new Thread(runnable, "kpi-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static KpiJobRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a job in background
+     * @param task work of the job
+     * @return the started job
+     * @throws IllegalStateException if KPI_JOB_MAX_RUNNING jobs are already running
+     */
+    public synchronized Job start(Task task) {
+        evictExpired();
+        if (running() >= maxRunning) {
+            MetricsRegistry.increment("kpi.jobs.rejected");
+            throw new IllegalStateException(String.format("KpiJobRegistry - %d jobs already running, retry later", maxRunning));
+        }
+        Job job = new Job(UUID.randomUUID().toString(), System.currentTimeMillis());
+        jobs.put(job.getId(), job);
+        Runnable run = () -> {
+            long startTime = System.nanoTime();
+            try {
+                job.finish(Status.COMPLETED, task.run(job));
+            } catch (Exception e) {
+                MetricsRegistry.increment("kpi.jobs.errors");
+                LOG.warning("kpi.job.failed", "jobId", job.getId(), "error", e.getMessage());
+                job.finish(Status.FAILED, errorLine(e));
+            }
+            MetricsRegistry.recordTime("kpi.jobs.duration", (System.nanoTime() - startTime) / 1_000_000);
+        };
+        executor.execute(Context.current().wrap(run));
+        return job;
+    }
+
+    /**
+     * @param id job id
+     * @return the job, null if unknown to this instance or expired
+     */
+    public synchronized Job get(String id) {
+        evictExpired();
+        return jobs.get(id);
+    }
+
+    private synchronized double running() {
+        return jobs.values().stream().filter(job -> job.getStatus() == Status.RUNNING).count();
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        // jobs are kept in start order, a running job past its ttl keeps running but can no longer be polled
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().getCreatedAtMillis() < ttlMillis) {
+                break;
+            }
+            it.remove();
+        }
+    }
+
+    private static String errorLine(Exception e) {
+        try {
+            return JsonHelper.writeStatusResponse("500 INTERNAL_SERVER_ERROR",
+                String.format("KpiJob - Error: %s", e.getMessage()), String.format("KpiJob - Error: %s ", e.getMessage()));
+        } catch (IOException jpe) {
+            return "{}";
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
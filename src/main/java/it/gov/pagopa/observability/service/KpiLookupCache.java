@@ -0,0 +1,160 @@
+package it.gov.pagopa.observability.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+import it.gov.pagopa.observability.models.CachedResponse;
+
+/**
+ * Process wide LRU cache of the kpi lookup responses, bounded both by number of entries and by total size.
+ * Entries expire after KPI_LOOKUP_CACHE_TTL_SECONDS since the stored kpis can be appended by a new collection
+ */
+public class KpiLookupCache {
+
+    private static final KpiLookupCache INSTANCE = new KpiLookupCache(
+        intEnv("KPI_LOOKUP_CACHE_ENTRIES", 500),
+        intEnv("KPI_LOOKUP_CACHE_MAX_BYTES", 8 * 1024 * 1024),
+        intEnv("KPI_LOOKUP_CACHE_TTL_SECONDS", 300) * 1000L);
+
+    static {
+        MetricsRegistry.gauge("kpi.lookup.cache.bytes", INSTANCE::bytes);
+        MetricsRegistry.gauge("kpi.lookup.cache.entries", INSTANCE::size);
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    public KpiLookupCache(int maxEntries, long maxBytes, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static KpiLookupCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param key lookup key
+     * @return the cached response, null if missing or expired
+     */
+    public synchronized CachedResponse get(String key) {
+        CachedResponse response = entries.get(key);
+        if (response != null && System.currentTimeMillis() - response.getCreatedAtMillis() >= ttlMillis) {
+            remove(key);
+            response = null;
+        }
+        MetricsRegistry.increment(response != null ? "kpi.lookup.cache.hits" : "kpi.lookup.cache.misses");
+        return response;
+    }
+
+    /**
+     * Caches a response body, the least recently used entries are evicted to stay within the limits.
+     * A body larger than the whole cache is not cached
+     * @param key lookup key
+     * @param body response body
+     * @return the response with its entity tag
+     */
+    public synchronized CachedResponse put(String key, String body) {
+        CachedResponse response = CachedResponse.builder()
+            .body(body)
+            .etag(etag(body))
+            .bytes(body.getBytes(StandardCharsets.UTF_8).length)
+            .createdAtMillis(System.currentTimeMillis())
+            .build();
+        if (response.getBytes() > maxBytes) {
+            return response;
+        }
+        remove(key);
+        entries.put(key, response);
+        bytes += response.getBytes();
+
+        Iterator<Map.Entry<String, CachedResponse>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().getBytes();
+            eldest.remove();
+            MetricsRegistry.increment("kpi.lookup.cache.evictions");
+        }
+        return response;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return the validity of a cached response in seconds
+     */
+    public long ttlSeconds() {
+        return ttlMillis / 1000;
+    }
+
+    /**
+     * @param body response body
+     * @return the strong entity tag of the body: quoted hex of the first 16 bytes of its SHA-256
+     */
+    public static String etag(String body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+            StringBuilder etag = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++) {
+                etag.append(String.format("%02x", digest[i]));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("KpiLookupCache - SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * @param ifNoneMatch value of the If-None-Match request header
+     * @param etag entity tag of the current response
+     * @return true if the client copy is still valid
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // the weak comparison is the one defined for If-None-Match
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void remove(String key) {
+        CachedResponse removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.getBytes();
+        }
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,221 @@
+package it.gov.pagopa.observability.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import it.gov.pagopa.observability.helper.KustoQueryTemplate;
+import it.gov.pagopa.observability.models.KpiAggregate;
+import it.gov.pagopa.observability.models.KpiDefinition;
+import it.gov.pagopa.observability.models.KpiQueryPlan;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.KpiSource;
+
+/**
+ * Merges the requested kpis sharing source and interval into the fewest possible queries.
+ * The filters common to all the kpis of a group are applied once to the source rows,
+ * the remaining ones become conditional aggregates (countif, avgif) of a single summarize.
+ */
+public class KpiQueryPlanner {
+
+    public static final String BUCKET_COLUMN = "bucket";
+
+    private final String sourceTable;
+
+    /**
+     * @param sourceTable ADX re events table (es. ReEvent)
+     */
+    public KpiQueryPlanner(String sourceTable) {
+        this.sourceTable = sourceTable;
+    }
+
+    private record PlanKey(KpiSource source, LocalDateTime startDate, LocalDateTime endDate) {}
+
+    /**
+     * Groups the requests by source and interval
+     * @param requests kpis to compute
+     * @return one plan for each source and interval, in request order
+     */
+    public List<KpiQueryPlan> plan(List<KpiRequest> requests) {
+
+        Map<PlanKey, Map<String, KpiDefinition>> groups = new LinkedHashMap<>();
+        for (KpiRequest request : requests) {
+            KpiDefinition definition = request.getDefinition();
+            PlanKey key = new PlanKey(definition.getSource(), request.getStartDate(), request.getEndDate());
+            groups.computeIfAbsent(key, k -> new LinkedHashMap<>()).putIfAbsent(definition.getKpiId(), definition);
+        }
+
+        List<KpiQueryPlan> plans = new ArrayList<>();
+        for (Map.Entry<PlanKey, Map<String, KpiDefinition>> group : groups.entrySet()) {
+            PlanKey key = group.getKey();
+            List<KpiDefinition> kpis = new ArrayList<>(group.getValue().values());
+            plans.add(KpiQueryPlan.builder()
+                .source(key.source())
+                .startDate(key.startDate())
+                .endDate(key.endDate())
+                .kpis(kpis)
+                .template(buildTemplate(key.source(), kpis))
+                .build());
+        }
+        return plans;
+    }
+
+    /**
+     * Builds the merged query template of a group of kpis sharing source and interval.
+     * The interval is not part of the query text: ADX queries declare the start and end parameters,
+     * App Insights queries get it through the timespan of the api request
+     * @return the query template, null if the source is not queryable
+     */
+    KustoQueryTemplate buildTemplate(KpiSource source, List<KpiDefinition> kpis) {
+        return buildTemplate(source, kpis, null);
+    }
+
+    /**
+     * Builds the merged query of ADX kpis counted per time bucket, es. for the rolling window
+     * @param kpis COUNT kpis of the re events
+     * @param bucket bucket size, in whole minutes
+     * @return the query template declaring start and end, one row per non-empty bucket (bucket column first)
+     */
+    public KustoQueryTemplate bucketedTemplate(List<KpiDefinition> kpis, Duration bucket) {
+        for (KpiDefinition kpi : kpis) {
+            if (kpi.getSource() != KpiSource.RE_EVENT || kpi.getAggregate() != KpiAggregate.COUNT) {
+                throw new IllegalArgumentException(String.format("KpiQueryPlanner - kpi %s cannot be computed per bucket", kpi.getKpiId()));
+            }
+        }
+        return buildTemplate(KpiSource.RE_EVENT, kpis, bucket);
+    }
+
+    /**
+     * Builds the sampled query of a kpi for the estimate mode. The rows are sampled before any kpi filter,
+     * so the expensive ones (es. the PERF-02E payload decoding) only see the sampled rows.
+     * COUNT kpis return the sampled count, AVG kpis the sampled count, average, standard deviation
+     * and the p50 and p95 of the t-digest percentile sketch
+     * @param kpi kpi to estimate, of the re events or App Insights
+     * @param sampleRate fraction of the rows scanned, in (0, 1]
+     * @return the query template, App Insights queries have the rate inlined as they take no parameters
+     * and are not kept among the compiled templates, as each rate gives a different text
+     */
+    public KustoQueryTemplate estimateTemplate(KpiDefinition kpi, double sampleRate) {
+        if (sampleRate <= 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("KpiQueryPlanner - sample rate must be in (0, 1]");
+        }
+        StringBuilder query = new StringBuilder();
+        Map<String, String> parameters = new LinkedHashMap<>();
+        switch (kpi.getSource()) {
+            case RE_EVENT:
+                parameters.put("start", "datetime");
+                parameters.put("end", "datetime");
+                parameters.put("rate", "real");
+                query.append(sourceTable)
+                    .append(String.format(" | where %s between (start .. end)", kpi.getSource().getTimeColumn()))
+                    .append(" | where rand() < rate");
+                break;
+            case APP_INSIGHTS:
+                query.append("requests")
+                    .append(String.format(Locale.ROOT, " | where rand() < %.6f", sampleRate));
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("KpiQueryPlanner - kpi %s cannot be estimated", kpi.getKpiId()));
+        }
+        for (String filter : kpi.getFilters()) {
+            query.append(" | where ").append(filter);
+        }
+        switch (kpi.getAggregate()) {
+            case COUNT:
+                query.append(" | summarize sampled = count()");
+                break;
+            case AVG:
+                query.append(String.format(" | summarize sampled = count(), mean = avg(%1$s), sd = stdev(%1$s),"
+                    + " p50 = percentile(%1$s, 50), p95 = percentile(%1$s, 95)", kpi.getAggregateColumn()));
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("KpiQueryPlanner - kpi %s cannot be estimated", kpi.getKpiId()));
+        }
+        return kpi.getSource() == KpiSource.RE_EVENT
+            ? KustoQueryTemplate.compile(parameters, query.toString())
+            : KustoQueryTemplate.compileUncached(parameters, query.toString());
+    }
+
+    private KustoQueryTemplate buildTemplate(KpiSource source, List<KpiDefinition> kpis, Duration bucket) {
+
+        StringBuilder query = new StringBuilder();
+        switch (source) {
+            case RE_EVENT:
+                query.append(sourceTable)
+                    .append(String.format(" | where %s between (start .. end)", source.getTimeColumn()));
+                break;
+            case APP_INSIGHTS:
+                query.append("requests");
+                break;
+            default:
+                return null;
+        }
+
+        // filters shared by every kpi of the group are applied once
+        List<String> common = new ArrayList<>(kpis.get(0).getFilters());
+        for (KpiDefinition kpi : kpis) {
+            common.retainAll(kpi.getFilters());
+        }
+        for (String filter : common) {
+            query.append(" | where ").append(filter);
+        }
+
+        // the first residual filter of each kpi (the cheapest by convention) narrows the rows to aggregate
+        List<String> narrowing = new ArrayList<>();
+        for (KpiDefinition kpi : kpis) {
+            kpi.getFilters().stream().filter(f -> !common.contains(f)).findFirst()
+                .ifPresent(f -> narrowing.add("(" + f + ")"));
+        }
+        if (kpis.size() > 1 && narrowing.size() == kpis.size()) {
+            query.append(" | where ").append(narrowing.stream().distinct().collect(Collectors.joining(" or ")));
+        }
+
+        List<String> aggregates = new ArrayList<>();
+        List<String> extensions = new ArrayList<>();
+        for (KpiDefinition kpi : kpis) {
+            String residual = kpi.getFilters().stream()
+                .filter(f -> !common.contains(f))
+                .collect(Collectors.joining(" and "));
+            aggregates.add(kpi.getColumnName() + " = " + toAggregate(kpi, residual));
+            if (kpi.getAggregate() == KpiAggregate.AVG) {
+                extensions.add(String.format("%1$s = iff(isnan(%1$s), 0.0, %1$s)", kpi.getColumnName()));
+            }
+        }
+        query.append(" | summarize ").append(String.join(", ", aggregates));
+        if (bucket != null) {
+            query.append(String.format(" by %s = bin(%s, %dm)", BUCKET_COLUMN, source.getTimeColumn(), bucket.toMinutes()));
+        }
+        if (!extensions.isEmpty()) {
+            query.append(" | extend ").append(String.join(", ", extensions));
+        }
+        query.append(" | project ");
+        if (bucket != null) {
+            query.append(BUCKET_COLUMN).append(", ");
+        }
+        query.append(kpis.stream().map(KpiDefinition::getColumnName).collect(Collectors.joining(", ")));
+
+        return source == KpiSource.RE_EVENT
+            ? KustoQueryTemplate.compileInterval(query.toString())
+            : KustoQueryTemplate.compile(Map.of(), query.toString());
+    }
+
+    private String toAggregate(KpiDefinition kpi, String residual) {
+        boolean conditional = !residual.isEmpty();
+        switch (kpi.getAggregate()) {
+            case COUNT:
+                return conditional ? String.format("countif(%s)", residual) : "count()";
+            case AVG:
+                return conditional
+                    ? String.format("avgif(%s, %s)", kpi.getAggregateColumn(), residual)
+                    : String.format("avg(%s)", kpi.getAggregateColumn());
+            default:
+                throw new IllegalArgumentException(String.format("KpiQueryPlanner - aggregate %s not supported by source %s",
+                    kpi.getAggregate(), kpi.getSource()));
+        }
+    }
+}
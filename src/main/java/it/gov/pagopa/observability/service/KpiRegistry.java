@@ -0,0 +1,160 @@
+package it.gov.pagopa.observability.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import it.gov.pagopa.observability.helper.Base64Prefilter;
+import it.gov.pagopa.observability.models.KpiAggregate;
+import it.gov.pagopa.observability.models.KpiDefinition;
+import it.gov.pagopa.observability.models.KpiSource;
+import it.gov.pagopa.observability.models.Perf02EStrategy;
+
+/**
+ * Registry of the performance kpis sent to BDI.
+ * Each kpi is declared by source, filter, aggregate and persistence target, adding a kpi
+ * that reads an already known source does not require new code nor new queries.
+ */
+public class KpiRegistry {
+
+    public static final String PERF_01 = "PERF-01";
+    public static final String PERF_02 = "PERF-02";
+    public static final String PERF_02E = "PERF-02E";
+    public static final String PERF_03 = "PERF-03";
+    public static final String PERF_04 = "PERF-04";
+    public static final String PERF_05 = "PERF-05";
+    public static final String PERF_06 = "PERF-06";
+
+    /** token of the PERF-02E payloads reporting a fault */
+    public static final String FAULT_TOKEN = "faultCode";
+
+    private final Map<String, KpiDefinition> definitions = new LinkedHashMap<>();
+    private final Map<String, String> misconfigured = new LinkedHashMap<>();
+
+    /**
+     * @param perfTable ADX table where the computed kpis are written
+     * @param cloudRoleName App Insights cloud role name of the NDP apim
+     * @param operationNames resolves the App Insights operation name of a response time kpi
+     */
+    public KpiRegistry(String perfTable, String cloudRoleName, UnaryOperator<String> operationNames) {
+        this(perfTable, cloudRoleName, operationNames, Perf02EStrategy.PREFILTER);
+    }
+
+    /**
+     * @param perfTable ADX table where the computed kpis are written
+     * @param cloudRoleName App Insights cloud role name of the NDP apim
+     * @param operationNames resolves the App Insights operation name of a response time kpi
+     * @param perf02EStrategy how the PERF-02E payloads are searched for faults
+     */
+    public KpiRegistry(String perfTable, String cloudRoleName, UnaryOperator<String> operationNames,
+            Perf02EStrategy perf02EStrategy) {
+
+        register(KpiDefinition.builder()
+            .kpiId(PERF_01)
+            .source(KpiSource.STATUS_PAGE)
+            .filters(List.of())
+            .aggregate(KpiAggregate.AVAILABILITY)
+            .targetTable(perfTable)
+            .build());
+
+        // number of messages managed by the platform
+        register(KpiDefinition.builder()
+            .kpiId(PERF_02)
+            .source(KpiSource.RE_EVENT)
+            .filters(List.of(
+                "categoriaEvento == 'INTERFACCIA'",
+                "sottoTipoEvento == 'REQ'"))
+            .aggregate(KpiAggregate.COUNT)
+            .targetTable(perfTable)
+            .build());
+
+        // number of messages in error managed by the platform
+        List<String> perf02EFilters = new ArrayList<>(List.of(
+            "categoriaEvento == 'INTERFACCIA'",
+            "sottoTipoEvento == 'RESP'",
+            "tipoEvento !in ('cdInfoWisp', 'mod3CancelV2', 'mod3CancelV1', 'parkedList-v1')",
+            "isnotempty(payload)"));
+        if (perf02EStrategy == Perf02EStrategy.PREFILTER) {
+            perf02EFilters.add(Base64Prefilter.kustoPredicate("payload", FAULT_TOKEN));
+        }
+        perf02EFilters.add(String.format("base64_decode_tostring(payload) contains '%s'", FAULT_TOKEN));
+        register(KpiDefinition.builder()
+            .kpiId(PERF_02E)
+            .source(KpiSource.RE_EVENT)
+            .filters(perf02EFilters)
+            .aggregate(KpiAggregate.COUNT)
+            .targetTable(perfTable)
+            .build());
+
+        // response time of the NDP primitives
+        for (String kpiId : List.of(PERF_03, PERF_04, PERF_05, PERF_06)) {
+            String operationName = operationNames.apply(kpiId);
+            if (operationName == null || operationName.isEmpty()) {
+                misconfigured.put(kpiId, "operationName not set for KPI: " + kpiId);
+            }
+            register(KpiDefinition.builder()
+                .kpiId(kpiId)
+                .source(KpiSource.APP_INSIGHTS)
+                .filters(List.of(
+                    String.format("cloud_RoleName == %s", toKustoString(cloudRoleName)),
+                    String.format("operation_Name == %s", toKustoString(operationName))))
+                .aggregate(KpiAggregate.AVG)
+                .aggregateColumn("duration")
+                .targetTable(perfTable)
+                .build());
+        }
+    }
+
+    /**
+     * Builds the registry reading the configuration from the environment
+     * @return the registry of the kpis
+     */
+    public static KpiRegistry fromEnvironment() {
+        return new KpiRegistry(
+            System.getenv("ADX_PERF_TABLE"),
+            System.getenv("CLOUD_ROLE_NAME"),
+            kpiId -> System.getenv(kpiId + "_OPERATION_NAME"),
+            Perf02EStrategy.fromValue(System.getenv("PERF02E_STRATEGY")));
+    }
+
+    private void register(KpiDefinition definition) {
+        definitions.put(definition.getKpiId(), definition);
+    }
+
+    /**
+     * @param kpiId kpi identifier (es. PERF-02E)
+     * @return the kpi definition
+     * @throws IllegalArgumentException if the kpi is unknown or not properly configured
+     */
+    public KpiDefinition get(String kpiId) {
+        KpiDefinition definition = definitions.get(kpiId);
+        if (definition == null) {
+            throw new IllegalArgumentException("KpiRegistry - unknown KPI: " + kpiId);
+        }
+        if (misconfigured.containsKey(kpiId)) {
+            throw new IllegalArgumentException("KpiRegistry - " + misconfigured.get(kpiId));
+        }
+        return definition;
+    }
+
+    /**
+     * @return the identifiers of all the registered kpis, in declaration order
+     */
+    public List<String> getKpiIds() {
+        return new ArrayList<>(definitions.keySet());
+    }
+
+    /**
+     * Quotes a value as a Kusto string literal
+     * @param value value to quote
+     * @return the Kusto string literal
+     */
+    public static String toKustoString(String value) {
+        if (value == null) {
+            return "''";
+        }
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+}
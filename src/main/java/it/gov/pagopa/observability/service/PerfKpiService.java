@@ -1,29 +1,53 @@
 package it.gov.pagopa.observability.service;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
 import java.net.http.HttpClient;
 import java.nio.charset.StandardCharsets;
-import java.text.DecimalFormat;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
+import com.azure.core.amqp.AmqpRetryOptions;
 import com.azure.core.credential.AzureNamedKeyCredential;
 import com.azure.messaging.eventhubs.EventData;
 import com.azure.messaging.eventhubs.EventDataBatch;
 import com.azure.messaging.eventhubs.EventHubClientBuilder;
 import com.azure.messaging.eventhubs.EventHubProducerClient;
+import com.azure.messaging.eventhubs.models.CreateBatchOptions;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.kusto.data.Client;
 import com.microsoft.azure.kusto.data.ClientFactory;
+import com.microsoft.azure.kusto.data.ClientRequestProperties;
 import com.microsoft.azure.kusto.data.KustoOperationResult;
 import com.microsoft.azure.kusto.data.KustoResultSetTable;
 import com.microsoft.azure.kusto.data.auth.ConnectionStringBuilder;
@@ -32,20 +56,99 @@ import com.microsoft.azure.kusto.ingest.IngestClientFactory;
 import com.microsoft.azure.kusto.ingest.IngestionProperties;
 import com.microsoft.azure.kusto.ingest.source.StreamSourceInfo;
 
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+
+import it.gov.pagopa.observability.helper.Base64Prefilter;
+import it.gov.pagopa.observability.helper.Bulkhead;
+import it.gov.pagopa.observability.helper.Hedger;
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.KustoQueryStats;
+import it.gov.pagopa.observability.helper.KustoQueryTemplate;
+import it.gov.pagopa.observability.helper.MetricsRegistry;
 import it.gov.pagopa.observability.helper.PerfKpiHelper;
+import it.gov.pagopa.observability.helper.QueryGovernor;
+import it.gov.pagopa.observability.helper.SampleEstimator;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.helper.Tracing;
+import it.gov.pagopa.observability.models.DailyAvailability;
+import it.gov.pagopa.observability.models.Dependency;
+import it.gov.pagopa.observability.models.IngestionMode;
+import it.gov.pagopa.observability.models.KpiAggregate;
+import it.gov.pagopa.observability.models.KpiAverages;
+import it.gov.pagopa.observability.models.KpiDefinition;
+import it.gov.pagopa.observability.models.KpiEstimate;
+import it.gov.pagopa.observability.models.KpiProgress;
+import it.gov.pagopa.observability.models.KpiQueryPlan;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.KpiSource;
+import it.gov.pagopa.observability.models.KpiTotals;
+import it.gov.pagopa.observability.models.MaterializedViewStatus;
+import it.gov.pagopa.observability.models.Perf02EStrategy;
+import it.gov.pagopa.observability.models.PerfKpiRow;
+import it.gov.pagopa.observability.models.QueryPriority;
+import it.gov.pagopa.observability.models.QueryStats;
+import it.gov.pagopa.observability.models.SourceTarget;
+import it.gov.pagopa.observability.models.TargetOutcome;
 
 public class PerfKpiService {
 
+    private static final HttpClient BETTERSTACK_CLIENT = HttpClient.newBuilder()
+        .connectTimeout(Bulkhead.of(Dependency.BETTERSTACK).getConnectTimeout())
+        .build();
+    // the days of a fetch are requested concurrently, the requests in flight are bounded as the bulkhead calls
+    private static final Semaphore BETTERSTACK_IN_FLIGHT = new Semaphore(Bulkhead.of(Dependency.BETTERSTACK).getConcurrency());
+    private static final int EVENT_HUB_MAX_RETRIES = 3;
+    private static final int STORED_KPIS_MAX_ROWS = 10_000;
+    private static final Hedger APP_INSIGHTS_HEDGER = Hedger.fromEnvironment("appinsights.query", "APP_INSIGHTS");
+    // plans of the progressive runs, the ADX queries are still bounded by the QueryGovernor
+    private static final ExecutorService PLAN_EXECUTOR = Executors.newFixedThreadPool(
+        Integer.parseInt(Optional.ofNullable(System.getenv("KPI_PLAN_THREADS")).filter(v -> !v.isEmpty()).orElse("8")),
+        runnable -> {
+            Thread thread = new Thread(runnable, "kpi-plan");
+            thread.setDaemon(true);
+            return thread;
+        });
+
     private String ADX_DB_NAME;
     private String ADX_SOURCE_TABLE;
     private String ADX_PERF_TABLE;
     private String BETTERSTACK_API_URL;
     private String BETTERSTACK_API_KEY;
+    private String APP_INSIGHTS_BASE_URL;
+    private String AZURE_AD_LOGIN_URL;
     private String CLOUD_ROLE_NAME;
     private String EVENT_HUB_NAME;
     private String EVENT_HUB_NAMESPACE;
     private String EVENT_HUB_KEY_NAME;
     private String EVENT_HUB_KEY;
+    private int EVENT_HUB_MAX_BATCH_BYTES;
+
+    private String ADX_RESULTS_CACHE_MAX_AGE;
+    private IngestionMode ADX_INGESTION_MODE;
+    private int ADX_STREAMING_MAX_BYTES;
+
+    private String ADX_QUERY_STATS_TABLE;
+
+    private QueryPriority queryPriority = QueryPriority.INTERACTIVE;
+    private Perf02EStrategy perf02EStrategy;
+    private boolean faultCountsViewEnabled = true;
+    private final List<QueryStats> queryStats = new CopyOnWriteArrayList<>();
+    private final List<TargetOutcome> targetOutcomes = new CopyOnWriteArrayList<>();
+    private int flushedQueryStats;
+
+    private KpiRegistry kpiRegistry;
+    private KpiQueryPlanner kpiQueryPlanner;
+    private FaultCountsView faultCountsView;
+    private SourceFederation sourceFederation;
+
+    private KustoQueryTemplate perf02Template;
+    private KustoQueryTemplate perf02ETemplate;
+    private KustoQueryTemplate perf02EPrefilterTemplate;
+    private KustoQueryTemplate kpiAveragesTemplate;
+    private KustoQueryTemplate monthlyKpisTemplate;
+    private KustoQueryTemplate storedKpisTemplate;
+    private KustoQueryTemplate faultCountsTemplate;
 
     public PerfKpiService() {
 
@@ -63,11 +166,641 @@ public class PerfKpiService {
         this.ADX_PERF_TABLE = System.getenv("ADX_PERF_TABLE");
         this.BETTERSTACK_API_URL = System.getenv("BETTERSTACK_API_URL");
         this.BETTERSTACK_API_KEY = System.getenv("BETTERSTACK_API_KEY");
+        // public cloud endpoints unless overridden (es. local stand-ins of the startup training)
+        // APP_INSIGHTS_API_URL holds the full query url of the app and is not read here
+        this.APP_INSIGHTS_BASE_URL = Optional.ofNullable(System.getenv("APP_INSIGHTS_BASE_URL")).filter(url -> !url.isEmpty())
+            .orElse("https://api.applicationinsights.io");
+        this.AZURE_AD_LOGIN_URL = Optional.ofNullable(System.getenv("AZURE_AD_LOGIN_URL")).filter(url -> !url.isEmpty())
+            .orElse("https://login.microsoftonline.com");
         this.CLOUD_ROLE_NAME = System.getenv("CLOUD_ROLE_NAME");
         this.EVENT_HUB_NAME = System.getenv("EVENT_HUB_NAME");
         this.EVENT_HUB_NAMESPACE = System.getenv("EVENT_HUB_NAMESPACE");
         this.EVENT_HUB_KEY_NAME = System.getenv("EVENT_HUB_KEY_NAME");
         this.EVENT_HUB_KEY = System.getenv("EVENT_HUB_KEY");
+        String maxBatchBytes = System.getenv("EVENT_HUB_MAX_BATCH_BYTES");
+        this.EVENT_HUB_MAX_BATCH_BYTES = maxBatchBytes != null && !maxBatchBytes.isEmpty() ? Integer.parseInt(maxBatchBytes) : 0;
+
+        this.ADX_RESULTS_CACHE_MAX_AGE = System.getenv("ADX_RESULTS_CACHE_MAX_AGE");
+        this.ADX_QUERY_STATS_TABLE = System.getenv("ADX_QUERY_STATS_TABLE");
+        String ingestionMode = System.getenv("ADX_INGESTION_MODE");
+        this.ADX_INGESTION_MODE = ingestionMode != null && !ingestionMode.isEmpty()
+            ? IngestionMode.valueOf(ingestionMode.toUpperCase())
+            : IngestionMode.QUEUED;
+        String streamingMaxBytes = System.getenv("ADX_STREAMING_MAX_BYTES");
+        this.ADX_STREAMING_MAX_BYTES = streamingMaxBytes != null && !streamingMaxBytes.isEmpty()
+            ? Integer.parseInt(streamingMaxBytes)
+            : 1024 * 1024;
+
+        this.perf02EStrategy = Perf02EStrategy.fromValue(System.getenv("PERF02E_STRATEGY"));
+        this.kpiRegistry = KpiRegistry.fromEnvironment();
+        this.kpiQueryPlanner = new KpiQueryPlanner(ADX_SOURCE_TABLE);
+        this.faultCountsView = FaultCountsView.getInstance();
+        this.sourceFederation = SourceFederation.getInstance();
+
+        // queries are compiled once, the interval is bound as query parameter on each execution
+        this.perf02Template = KustoQueryTemplate.compileInterval(
+            ADX_SOURCE_TABLE + " | where insertedTimestamp between (start .. end) " +
+            "| where sottoTipoEvento == 'REQ' " +
+            "| where categoriaEvento == 'INTERFACCIA' " +
+            "| summarize count=count()" + 
+            "| project count");
+        String perf02EFilter =
+            ADX_SOURCE_TABLE + 
+            "| where insertedTimestamp between (start .. end)" + 
+            "      and sottoTipoEvento == 'RESP'" + 
+            "      and categoriaEvento == 'INTERFACCIA'" + 
+            "      and tipoEvento !in ('cdInfoWisp', 'mod3CancelV2', 'mod3CancelV1', 'parkedList-v1')" + 
+            "      and isnotempty(payload)";
+        String perf02ECount =
+            "| extend payloadDec = base64_decode_tostring(payload)" + 
+            "| where payloadDec contains '" + KpiRegistry.FAULT_TOKEN + "'" + 
+            "| summarize count=count()" + 
+            "| project count";
+        this.perf02ETemplate = KustoQueryTemplate.compileInterval(perf02EFilter + perf02ECount);
+        // the payloads that cannot contain the token once decoded are dropped before decoding
+        this.perf02EPrefilterTemplate = KustoQueryTemplate.compileInterval(perf02EFilter +
+            "| where " + Base64Prefilter.kustoPredicate("payload", KpiRegistry.FAULT_TOKEN) +
+            perf02ECount);
+        if (faultCountsView.isEnabled()) {
+            this.faultCountsTemplate = KustoQueryTemplate.compileInterval(faultCountsView.countsQuery());
+        }
+        // exact kpi ids use the term index and keep PERF-02 apart from PERF-02E, values are aggregated as reals
+        String kpiTotals =
+            "| where kpiId in ('PERF-01', 'PERF-02', 'PERF-02E', 'PERF-03', 'PERF-04', 'PERF-05', 'PERF-06')" +
+            "| extend value = toreal(kpiValue)" +
+            "| summarize kpiCount = count(), kpiSum = sum(value), kpiAvg = avg(value)";
+        this.kpiAveragesTemplate = KustoQueryTemplate.compileInterval(
+            ADX_PERF_TABLE +
+            "| where startDate>= start and endDate <= end" +
+            kpiTotals + " by kpiId" +
+            "| project kpiId, kpiCount, kpiSum, kpiAvg");
+        // same totals of all the months of an interval in a single scan, a row counts in the month
+        // it starts in only if it also ends within that month, as in the single month query
+        this.monthlyKpisTemplate = KustoQueryTemplate.compileInterval(
+            ADX_PERF_TABLE +
+            "| where startDate>= start and endDate <= end" +
+            "| extend month = startofmonth(startDate)" +
+            "| where endDate <= datetime_add('month', 1, month) - 1s" +
+            kpiTotals + " by month, kpiId" +
+            "| project month, kpiId, kpiCount, kpiSum, kpiAvg");
+        Map<String, String> lookupParameters = new LinkedHashMap<>();
+        lookupParameters.put("start", "datetime");
+        lookupParameters.put("end", "datetime");
+        lookupParameters.put("kpi", "string");
+        this.storedKpisTemplate = KustoQueryTemplate.compile(lookupParameters,
+            ADX_PERF_TABLE +
+            "| where startDate >= start and endDate <= end" +
+            "| where isempty(kpi) or kpiId == kpi" +
+            "| project startDate, endDate, kpiId, kpiValue = tostring(kpiValue)" +
+            "| order by startDate asc, kpiId asc" +
+            "| take " + STORED_KPIS_MAX_ROWS);
+    }
+
+    public KpiRegistry getKpiRegistry() {
+        return kpiRegistry;
+    }
+
+    /**
+     * @param perf02EStrategy how {@link #executePerf02EKpi} searches the payloads for faults
+     */
+    public void setPerf02EStrategy(Perf02EStrategy perf02EStrategy) {
+        this.perf02EStrategy = perf02EStrategy;
+    }
+
+    /**
+     * @param faultCountsViewEnabled false to always scan the raw events for PERF-02 and PERF-02E
+     */
+    public void setFaultCountsViewEnabled(boolean faultCountsViewEnabled) {
+        this.faultCountsViewEnabled = faultCountsViewEnabled;
+    }
+
+    /**
+     * @param queryPriority priority class of the ADX queries issued by this service, see {@link QueryGovernor}
+     */
+    public void setQueryPriority(QueryPriority queryPriority) {
+        this.queryPriority = queryPriority;
+    }
+
+    /**
+     * Computes a set of kpis declared in the {@link KpiRegistry}.
+     * The requests sharing source and interval are merged into a single query by the
+     * {@link KpiQueryPlanner}, the query result is then split back per kpi
+     * @param requests kpis and intervals to compute
+     * @param saveData tells if the computed values have to be written on the kpi target table
+     * @param context Azure function context
+     * @return the computed values by kpi id, in request order
+     * @throws Exception
+     */
+    public Map<String, String> executeKpis(
+        List<KpiRequest> requests,
+        boolean saveData,
+        ExecutionContext context) throws Exception {
+
+        Map<String, String> values = new HashMap<>();
+        Map<String, List<PerfKpiRow>> rowsByTable = new LinkedHashMap<>();
+        for (KpiQueryPlan plan : kpiQueryPlanner.plan(requests)) {
+
+            Map<String, String> planValues = executePlan(plan, context);
+
+            StructuredLog.of(context).info("kpi.plan.computed", "source", plan.getSource(), "values", planValues,
+                "start", plan.getStartDate(), "end", plan.getEndDate());
+
+            addRows(plan, planValues, saveData, rowsByTable, context);
+            values.putAll(planValues);
+        }
+
+        writeRows(rowsByTable, context);
+        return ordered(requests, values);
+    }
+
+    /**
+     * Computes a set of kpis as {@link #executeKpis(List, boolean, ExecutionContext)}, with the queries of the
+     * plans running in parallel and each kpi reported as soon as its plan completes. A failed plan does not stop
+     * the other ones, but nothing is written unless all the plans succeed, as in the sequential run
+     * @param requests kpis and intervals to compute
+     * @param saveData tells if the computed values have to be written on the kpi target table
+     * @param listener receives the value or the error of each kpi, from the thread of its plan
+     * @param context Azure function context
+     * @return the computed values by kpi id, in request order
+     * @throws Exception the error of the first failed plan
+     */
+    public Map<String, String> executeKpis(
+        List<KpiRequest> requests,
+        boolean saveData,
+        Consumer<KpiProgress> listener,
+        ExecutionContext context) throws Exception {
+
+        Map<KpiQueryPlan, Future<Map<String, String>>> futures = new LinkedHashMap<>();
+        for (KpiQueryPlan plan : kpiQueryPlanner.plan(requests)) {
+            Callable<Map<String, String>> call = () -> {
+                long startTime = System.nanoTime();
+                Map<String, String> planValues = null;
+                String error = null;
+                try {
+                    planValues = executePlan(plan, context);
+                    StructuredLog.of(context).info("kpi.plan.computed", "source", plan.getSource(), "values", planValues,
+                        "start", plan.getStartDate(), "end", plan.getEndDate());
+                    return planValues;
+                } catch (Exception e) {
+                    error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                    throw e;
+                } finally {
+                    long millis = (System.nanoTime() - startTime) / 1_000_000;
+                    for (KpiDefinition kpi : plan.getKpis()) {
+                        listener.accept(KpiProgress.builder()
+                            .kpiId(kpi.getKpiId())
+                            .source(plan.getSource())
+                            .startDate(plan.getStartDate())
+                            .endDate(plan.getEndDate())
+                            .value(planValues != null ? planValues.get(kpi.getKpiId()) : null)
+                            .millis(millis)
+                            .error(error)
+                            .build());
+                    }
+                }
+            };
+            futures.put(plan, PLAN_EXECUTOR.submit(Context.current().wrap(call)));
+        }
+
+        Map<String, String> values = new HashMap<>();
+        Map<String, List<PerfKpiRow>> rowsByTable = new LinkedHashMap<>();
+        Exception failure = null;
+        for (Map.Entry<KpiQueryPlan, Future<Map<String, String>>> entry : futures.entrySet()) {
+            try {
+                Map<String, String> planValues = entry.getValue().get();
+                addRows(entry.getKey(), planValues, saveData, rowsByTable, context);
+                values.putAll(planValues);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        writeRows(rowsByTable, context);
+        return ordered(requests, values);
+    }
+
+    private void addRows(KpiQueryPlan plan, Map<String, String> planValues, boolean saveData,
+            Map<String, List<PerfKpiRow>> rowsByTable, ExecutionContext context) {
+        for (KpiDefinition kpi : plan.getKpis()) {
+            if (saveData) {
+                rowsByTable.computeIfAbsent(kpi.getTargetTable(), t -> new ArrayList<>()).add(PerfKpiRow.builder()
+                    .startDate(plan.getStartDate())
+                    .endDate(plan.getEndDate())
+                    .kpiId(kpi.getKpiId())
+                    .kpiValue(planValues.get(kpi.getKpiId()))
+                    .build());
+            } else {
+                StructuredLog.of(context).fine("kpi.persistence.skipped", "kpiId", kpi.getKpiId());
+            }
+        }
+    }
+
+    private void writeRows(Map<String, List<PerfKpiRow>> rowsByTable, ExecutionContext context) throws Exception {
+        // write kpis to db, one ingestion per target table (journaled and written behind when the spool is enabled)
+        WriteBehindSpool spool = rowsByTable.isEmpty() ? null : WriteBehindSpool.getInstance();
+        for (Map.Entry<String, List<PerfKpiRow>> entry : rowsByTable.entrySet()) {
+            if (spool != null) {
+                spool.appendRows(entry.getKey(), entry.getValue());
+                StructuredLog.of(context).info("kpi.rows.journaled", "table", entry.getKey(), "rows", entry.getValue().size(),
+                    "pending", spool.pendingCount());
+            } else {
+                writePerfKpiRows(entry.getKey(), entry.getValue(), context);
+            }
+        }
+    }
+
+    private static Map<String, String> ordered(List<KpiRequest> requests, Map<String, String> values) {
+        Map<String, String> orderedValues = new LinkedHashMap<>();
+        for (KpiRequest request : requests) {
+            String kpiId = request.getDefinition().getKpiId();
+            orderedValues.put(kpiId, values.get(kpiId));
+        }
+        return orderedValues;
+    }
+
+    /**
+     * Executes the merged query of a plan and splits its result per kpi
+     * @param plan kpis sharing source and interval
+     * @param context Azure function context
+     * @return the computed values by kpi id
+     * @throws Exception
+     */
+    private Map<String, String> executePlan(KpiQueryPlan plan, ExecutionContext context) throws Exception {
+
+        return Tracing.trace("kpi.plan", SpanKind.INTERNAL, span -> {
+            span.setAttribute("kpi.source", plan.getSource().name());
+            span.setAttribute("kpi.ids", plan.getKpis().stream().map(KpiDefinition::getKpiId).collect(Collectors.joining(",")));
+            span.setAttribute("kpi.interval.start", plan.getStartDate().toString());
+            span.setAttribute("kpi.interval.end", plan.getEndDate().toString());
+
+            switch (plan.getSource()) {
+                case RE_EVENT:
+                    if (sourceFederation.isEnabled()) {
+                        return executeFederatedPlan(plan, context);
+                    }
+                    Map<String, Long> faultCounts = readFaultCounts(plan.getStartDate(), plan.getEndDate(), context);
+                    if (faultCounts != null && plan.getKpis().stream().allMatch(kpi -> faultCounts.containsKey(kpi.getKpiId()))) {
+                        Map<String, String> counts = new HashMap<>();
+                        for (KpiDefinition kpi : plan.getKpis()) {
+                            counts.put(kpi.getKpiId(), String.valueOf(faultCounts.get(kpi.getKpiId())));
+                        }
+                        return counts;
+                    }
+                    return splitKustoResult(plan, runKustoQuery(
+                        plan.getKpis().stream().map(KpiDefinition::getKpiId).collect(Collectors.joining(",")), plan.getTemplate(), plan.getStartDate(), plan.getEndDate()));
+                case APP_INSIGHTS:
+                    return splitAppInsightsResult(plan, queryAppInsights(plan.getQuery(),
+                        toTimespan(plan.getStartDate(), plan.getEndDate()), String.valueOf(plan.getSource()), context));
+                case STATUS_PAGE:
+                    Map<String, String> values = new HashMap<>();
+                    for (KpiDefinition kpi : plan.getKpis()) {
+                        values.put(kpi.getKpiId(), fetchAvailability(plan.getStartDate(), plan.getEndDate(), context));
+                    }
+                    return values;
+                default:
+                    throw new IllegalArgumentException("executePlan - unsupported kpi source: " + plan.getSource());
+            }
+        });
+    }
+
+    /**
+     * Executes a re events plan on each federated source target holding a part of its interval and sums
+     * the partial counts. The fault counts view only covers the default table and is not used
+     * @param plan re events kpis sharing the interval, COUNT kpis only
+     * @param context Azure function context
+     * @return the merged counts by kpi id
+     * @throws Exception
+     */
+    private Map<String, String> executeFederatedPlan(KpiQueryPlan plan, ExecutionContext context) throws Exception {
+        for (KpiDefinition kpi : plan.getKpis()) {
+            if (kpi.getAggregate() != KpiAggregate.COUNT) {
+                // averages of the targets cannot be merged without their counts
+                throw new IllegalArgumentException(String.format("executePlan - kpi %s is not a COUNT, not supported on federated sources", kpi.getKpiId()));
+            }
+        }
+        List<String> kpiIds = plan.getKpis().stream().map(KpiDefinition::getKpiId).collect(Collectors.toList());
+        String queryName = String.join(",", kpiIds);
+        List<TargetOutcome> outcomes = new ArrayList<>();
+        Map<String, Long> counts;
+        try {
+            counts = sourceFederation.count(kpiIds, plan.getStartDate(), plan.getEndDate(), (target, start, end) -> {
+                KustoQueryTemplate template = new KpiQueryPlanner(target.getTable()).buildTemplate(KpiSource.RE_EVENT, plan.getKpis());
+                KustoResultSetTable resultSet = runKustoQuery(target, queryName, template,
+                    template.bindInterval(start, end), start, end).getPrimaryResults();
+                boolean hasRow = resultSet.next();
+                Map<String, Long> partial = new HashMap<>();
+                for (KpiDefinition kpi : plan.getKpis()) {
+                    partial.put(kpi.getKpiId(), hasRow ? resultSet.getLong(kpi.getColumnName()) : 0L);
+                }
+                return partial;
+            }, outcomes);
+        } finally {
+            targetOutcomes.addAll(outcomes);
+            StructuredLog log = StructuredLog.of(context);
+            for (TargetOutcome outcome : outcomes) {
+                if (outcome.getError() != null) {
+                    log.warning("adx.federation.target_failed", "target", outcome.getTarget(), "kpis", queryName,
+                        "millis", outcome.getMillis(), "error", outcome.getError());
+                } else {
+                    log.fine("adx.federation.target", "target", outcome.getTarget(), "kpis", queryName,
+                        "millis", outcome.getMillis(), "counts", outcome.getCounts());
+                }
+            }
+        }
+        Map<String, String> values = new HashMap<>();
+        counts.forEach((kpiId, count) -> values.put(kpiId, String.valueOf(count)));
+        return values;
+    }
+
+    private Map<String, String> splitKustoResult(KpiQueryPlan plan, KustoOperationResult result) {
+        Map<String, String> values = new HashMap<>();
+        KustoResultSetTable resultSet = result.getPrimaryResults();
+        boolean hasRow = resultSet.next();
+        for (KpiDefinition kpi : plan.getKpis()) {
+            String value = hasRow ? resultSet.getString(kpi.getColumnName()) : null;
+            values.put(kpi.getKpiId(), value != null ? value : "0");
+        }
+        return values;
+    }
+
+    private Map<String, String> splitAppInsightsResult(KpiQueryPlan plan, JsonNode table) {
+        Map<String, String> values = new HashMap<>();
+        JsonNode columns = table.path("columns");
+        JsonNode firstRow = table.path("rows").path(0);
+        for (KpiDefinition kpi : plan.getKpis()) {
+            String value = "0";
+            for (int i = 0; i < columns.size(); i++) {
+                if (kpi.getColumnName().equals(columns.get(i).path("name").asText()) && firstRow.has(i)) {
+                    value = firstRow.get(i).asText();
+                }
+            }
+            values.put(kpi.getKpiId(), value);
+        }
+        return values;
+    }
+
+    /**
+     * Estimates kpis on a sample of their source rows, see {@link KpiQueryPlanner#estimateTemplate}.
+     * The estimates are only returned, they are never written on the kpi tables
+     * @param requests kpis and intervals to estimate, of the re events or App Insights
+     * @param sampleRate fraction of the source rows scanned, in (0, 1]
+     * @param compare tells if the exact query is run too, to measure the actual error and cost saving
+     * @param context Azure function context
+     * @return the estimates, in request order
+     * @throws Exception
+     */
+    public List<KpiEstimate> estimateKpis(List<KpiRequest> requests, double sampleRate, boolean compare,
+            ExecutionContext context) throws Exception {
+
+        List<KpiEstimate> estimates = new ArrayList<>();
+        for (KpiRequest request : requests) {
+            KpiDefinition kpi = request.getDefinition();
+            LocalDateTime startDate = request.getStartDate();
+            LocalDateTime endDate = request.getEndDate();
+            KustoQueryTemplate template = kpiQueryPlanner.estimateTemplate(kpi, sampleRate);
+
+            long startTime = System.nanoTime();
+            KpiEstimate estimate;
+            Long cpuMillis = null;
+            if (kpi.getSource() == KpiSource.RE_EVENT) {
+                Map<String, Object> values = new HashMap<>();
+                values.put("start", startDate);
+                values.put("end", endDate);
+                values.put("rate", sampleRate);
+                KustoOperationResult result = runKustoQuery("ESTIMATE_" + kpi.getColumnName(), template, values, startDate, endDate);
+                KustoResultSetTable resultSet = result.getPrimaryResults();
+                estimate = SampleEstimator.count(kpi.getKpiId(), resultSet.next() ? resultSet.getLong("sampled") : 0, sampleRate);
+                cpuMillis = cpuMillis(KustoQueryStats.parse(kpi.getKpiId(), startDate, endDate, result));
+            } else {
+                Map<String, JsonNode> row = firstRow(queryAppInsights(template.getText(), toTimespan(startDate, endDate),
+                    "ESTIMATE_" + kpi.getColumnName(), context));
+                long sampled = row.containsKey("sampled") ? row.get("sampled").asLong() : 0;
+                estimate = SampleEstimator.mean(kpi.getKpiId(), sampled,
+                        row.containsKey("mean") ? row.get("mean").asDouble() : 0,
+                        row.containsKey("sd") ? row.get("sd").asDouble() : 0, sampleRate).toBuilder()
+                    .p50(row.containsKey("p50") ? row.get("p50").asDouble() : null)
+                    .p95(row.containsKey("p95") ? row.get("p95").asDouble() : null)
+                    .build();
+            }
+            estimate = estimate.toBuilder()
+                .estimateMillis((System.nanoTime() - startTime) / 1_000_000)
+                .estimateCpuMillis(cpuMillis)
+                .build();
+            if (compare) {
+                estimate = compareWithExact(estimate, request, context);
+            }
+
+            MetricsRegistry.increment("kpi.estimates");
+            StructuredLog.of(context).info("kpi.estimated", "kpiId", kpi.getKpiId(), "start", startDate, "end", endDate,
+                "value", estimate.getValue(), "lower", estimate.getLower(), "upper", estimate.getUpper(),
+                "sampleRate", sampleRate, "exactValue", estimate.getExactValue(), "costSaving", estimate.getCostSaving());
+            estimates.add(estimate);
+        }
+        return estimates;
+    }
+
+    private KpiEstimate compareWithExact(KpiEstimate estimate, KpiRequest request, ExecutionContext context) throws Exception {
+        KpiQueryPlan plan = kpiQueryPlanner.plan(List.of(request)).get(0);
+        String kpiId = request.getDefinition().getKpiId();
+
+        long startTime = System.nanoTime();
+        String exactValue;
+        Long cpuMillis = null;
+        if (plan.getSource() == KpiSource.RE_EVENT) {
+            // the raw events are scanned even when the fault counts view could serve the kpi, to compare like with like
+            KustoOperationResult result = runKustoQuery(kpiId, plan.getTemplate(), plan.getStartDate(), plan.getEndDate());
+            exactValue = splitKustoResult(plan, result).get(kpiId);
+            cpuMillis = cpuMillis(KustoQueryStats.parse(kpiId, plan.getStartDate(), plan.getEndDate(), result));
+        } else {
+            exactValue = splitAppInsightsResult(plan, queryAppInsights(plan.getQuery(),
+                toTimespan(plan.getStartDate(), plan.getEndDate()), String.valueOf(plan.getSource()), context)).get(kpiId);
+        }
+        long exactMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+        Double costSaving = null;
+        if (cpuMillis != null && estimate.getEstimateCpuMillis() != null && cpuMillis > 0) {
+            costSaving = 1 - (double) estimate.getEstimateCpuMillis() / cpuMillis;
+        } else if (exactMillis > 0) {
+            costSaving = 1 - (double) estimate.getEstimateMillis() / exactMillis;
+        }
+        double exact = Double.parseDouble(exactValue);
+        return estimate.toBuilder()
+            .exactValue(exactValue)
+            .exactMillis(exactMillis)
+            .exactCpuMillis(cpuMillis)
+            .withinInterval(exact >= estimate.getLower() && exact <= estimate.getUpper())
+            .costSaving(costSaving)
+            .build();
+    }
+
+    private static Long cpuMillis(QueryStats stats) {
+        return stats != null ? stats.getCpuTimeMillis() : null;
+    }
+
+    private static Map<String, JsonNode> firstRow(JsonNode table) {
+        Map<String, JsonNode> row = new HashMap<>();
+        JsonNode columns = table.path("columns");
+        JsonNode firstRow = table.path("rows").path(0);
+        for (int i = 0; i < columns.size(); i++) {
+            if (firstRow.has(i) && !firstRow.get(i).isNull()) {
+                row.put(columns.get(i).path("name").asText(), firstRow.get(i));
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Executes a query template on the ADX database over the given interval
+     * @param template compiled query declaring the start and end parameters
+     * @param startDate interval start
+     * @param endDate interval end
+     * @return the query result
+     * @throws Exception
+     */
+    private KustoOperationResult runKustoQuery(String queryName, KustoQueryTemplate template,
+            LocalDateTime startDate, LocalDateTime endDate) throws Exception {
+        return runKustoQuery(queryName, template, template.bindInterval(startDate, endDate), startDate, endDate);
+    }
+
+    /**
+     * Executes a query template on the ADX database
+     * @param template compiled query
+     * @param values values of the parameters declared by the template
+     * @param startDate interval start, used for tracing and query stats
+     * @param endDate interval end, used for tracing and query stats
+     * @return the query result
+     * @throws Exception
+     */
+    private KustoOperationResult runKustoQuery(String queryName, KustoQueryTemplate template, Map<String, Object> values,
+            LocalDateTime startDate, LocalDateTime endDate) throws Exception {
+        return runKustoQuery(queryName, template, template.bind(values), startDate, endDate);
+    }
+
+    private KustoOperationResult runKustoQuery(String queryName, KustoQueryTemplate template, ClientRequestProperties properties,
+            LocalDateTime startDate, LocalDateTime endDate) throws Exception {
+        return runKustoQuery(null, queryName, template, properties, startDate, endDate);
+    }
+
+    /**
+     * Executes a bound query template on a federated source target
+     * @param target cluster and database to query, ADX_CLUSTER_URL and ADX_DATABASE_NAME if null
+     */
+    private KustoOperationResult runKustoQuery(SourceTarget target, String queryName, KustoQueryTemplate template,
+            ClientRequestProperties properties, LocalDateTime startDate, LocalDateTime endDate) throws Exception {
+        String database = target != null ? target.getDatabase() : ADX_DB_NAME;
+        if (ADX_RESULTS_CACHE_MAX_AGE != null && !ADX_RESULTS_CACHE_MAX_AGE.isEmpty()) {
+            // identical query text and parameters can be served from the query results cache
+            properties.setOption("query_results_cache_max_age", ADX_RESULTS_CACHE_MAX_AGE);
+        }
+        // the cluster cancels the query itself once the caller has stopped waiting for it
+        Bulkhead adx = Bulkhead.of(Dependency.ADX);
+        properties.setTimeoutInMilliSec((long) adx.getTimeoutMillis());
+        properties.setClientRequestId("observability-bdi;" + UUID.randomUUID());
+        ConnectionStringBuilder csb = target != null
+            ? PerfKpiHelper.getConnectionStringBuilder(target.getClusterUrl())
+            : PerfKpiHelper.getConnectionStringBuilder();
+        Client kustoClient = ClientFactory.createClient(csb, PerfKpiHelper.createHttpClient(adx));
+
+        return Tracing.trace("adx.query", SpanKind.CLIENT, span -> {
+            span.setAttribute("db.system", "kusto");
+            span.setAttribute("db.name", database);
+            span.setAttribute("adx.query.name", queryName);
+            if (target != null) {
+                span.setAttribute("adx.target", target.getName());
+            }
+            span.setAttribute("kpi.interval.start", startDate.toString());
+            span.setAttribute("kpi.interval.end", endDate.toString());
+            span.setAttribute("adx.query.priority", queryPriority.name());
+
+            // the cluster query concurrency is shared by all the callers of the process
+            long queuedAt = System.nanoTime();
+            QueryGovernor.Permit permit = QueryGovernor.getInstance().acquire(queryPriority);
+            try {
+                long startTime = System.nanoTime();
+                span.setAttribute("adx.query.queue_wait_ms", (startTime - queuedAt) / 1_000_000);
+                span.setAttribute("adx.client_request_id", properties.getClientRequestId());
+                KustoOperationResult result = adx.call(() -> kustoClient.executeQuery(database, template.getText(), properties));
+                MetricsRegistry.recordTime("adx.query.execution", (System.nanoTime() - startTime) / 1_000_000);
+                span.setAttribute("adx.result.rows", result.getPrimaryResults().count());
+
+                QueryStats stats = KustoQueryStats.parse(queryName, startDate, endDate, result);
+                if (stats != null) {
+                    recordQueryStats(stats);
+                    span.setAttribute("adx.query.cpu_ms", stats.getCpuTimeMillis());
+                    span.setAttribute("adx.query.memory_peak_bytes", stats.getMemoryPeakBytes());
+                    span.setAttribute("adx.query.extents_scanned", stats.getExtentsScanned());
+                }
+                return result;
+            } finally {
+                permit.close();
+            }
+        });
+    }
+
+    private void recordQueryStats(QueryStats stats) {
+        queryStats.add(stats);
+        String name = stats.getQueryName();
+        MetricsRegistry.recordTime("adx.query.cpu." + name, stats.getCpuTimeMillis());
+        MetricsRegistry.recordTime("adx.query.server_time." + name, stats.getExecutionTimeMillis());
+        MetricsRegistry.increment("adx.query.extents_scanned." + name, stats.getExtentsScanned());
+        MetricsRegistry.increment("adx.query.rows_scanned." + name, stats.getRowsScanned());
+        MetricsRegistry.increment("adx.query.cache_miss_bytes." + name, stats.getCacheMissBytes());
+    }
+
+    /**
+     * @return the resource consumption of the ADX queries executed by this service instance
+     */
+    public List<QueryStats> getQueryStats() {
+        return queryStats;
+    }
+
+    /**
+     * @return latency, partial counts and failures of the federated source targets queried by this service instance
+     */
+    public List<TargetOutcome> getTargetOutcomes() {
+        return targetOutcomes;
+    }
+
+    /**
+     * Writes the collected query statistics on ADX_QUERY_STATS_TABLE, if configured.
+     * The statistics are best effort: a failure is logged and does not fail the caller
+     * @param context Azure function context
+     */
+    public void flushQueryStats(ExecutionContext context) {
+        List<QueryStats> pendingStats = new ArrayList<>(queryStats.subList(flushedQueryStats, queryStats.size()));
+        if (ADX_QUERY_STATS_TABLE == null || ADX_QUERY_STATS_TABLE.isEmpty() || pendingStats.isEmpty()) {
+            return;
+        }
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        String now = LocalDateTime.now().format(formatter);
+        StringBuilder csvData = new StringBuilder();
+        for (QueryStats stats : pendingStats) {
+            csvData.append(String.format("%s,%s,%s,%s,%d,%d,%d,%d,%d,%d,%d,%d,%d\n",
+                now,
+                stats.getQueryName().replace(',', ' '),
+                stats.getStartDate().format(formatter),
+                stats.getEndDate().format(formatter),
+                stats.getExecutionTimeMillis(),
+                stats.getCpuTimeMillis(),
+                stats.getMemoryPeakBytes(),
+                stats.getExtentsTotal(),
+                stats.getExtentsScanned(),
+                stats.getRowsTotal(),
+                stats.getRowsScanned(),
+                stats.getCacheHitBytes(),
+                stats.getCacheMissBytes()));
+        }
+        try {
+            ingestCsv(ADX_QUERY_STATS_TABLE, csvData.toString(), pendingStats.size(), null, context);
+            flushedQueryStats += pendingStats.size();
+        } catch (Exception e) {
+            StructuredLog.of(context).warning("adx.query_stats.not_saved", "stats", pendingStats.size(), "error", e.getMessage());
+        }
     }
 
     /**
@@ -85,40 +818,33 @@ public class PerfKpiService {
         boolean saveData, 
         ExecutionContext context) throws Exception {
 
-        
-        String perf02Query = String.format(
-            "let start = datetime(%s); " +
-            "let end = datetime(%s); " +
-            "%s | where insertedTimestamp between (start .. end) " +
-            "| where sottoTipoEvento == 'REQ' " +
-            "| where categoriaEvento == 'INTERFACCIA' " +
-            "| summarize count=count()" + 
-            "| project count",
-            startDate, endDate, ADX_SOURCE_TABLE
-        );
-        ConnectionStringBuilder csb = PerfKpiHelper.getConnectionStringBuilder();
-        Client kustoClient = ClientFactory.createClient(csb);
-        KustoOperationResult result = kustoClient.executeQuery(ADX_DB_NAME, perf02Query);
-        int count = 0;
-        KustoResultSetTable resultSet = null;
-        if (result.hasNext()) {
-            resultSet = result.getPrimaryResults();
-            if (resultSet.next()) {
-                count = resultSet.getInt("count");
+        // hourly counts of the materialized view when it covers the interval, raw events otherwise
+        Map<String, Long> faultCounts = readFaultCounts(startDate, endDate, context);
+        long count = 0;
+        if (faultCounts != null) {
+            count = faultCounts.get(KpiRegistry.PERF_02);
+        } else {
+            KustoOperationResult result = runKustoQuery(KpiRegistry.PERF_02, perf02Template, startDate, endDate);
+            if (result.hasNext()) {
+                KustoResultSetTable resultSet = result.getPrimaryResults();
+                if (resultSet.next()) {
+                    count = resultSet.getLong("count");
+                }
             }
         }
 
-        context.getLogger().info(String.format("executePerf02Kpi - " +
-                "PERF-02 Query Result[%s] startDate[%s] endDate[%s]", count, startDate, endDate));
+        StructuredLog log = StructuredLog.of(context);
+        log.info("kpi.computed", "kpiId", KpiRegistry.PERF_02, "start", startDate, "end", endDate, "value", count,
+            "from", faultCounts != null ? "view" : "events");
 
         // insert the result into the destination table
         if (System.getProperty("ENVIRONMENT") == null || "TEST".equalsIgnoreCase(System.getProperty("ENVIRONMENT"))) {
 
             // write kpi to db
             if (saveData) {
-                writePerfKpiData(startDate, endDate, "PERF-02", Integer.toString(count), context);
+                writePerfKpiData(startDate, endDate, "PERF-02", Long.toString(count), context);
             } else {
-                context.getLogger().info("executePerf02Kpi - PERF-02 skip data persistence");
+                log.fine("kpi.persistence.skipped", "kpiId", KpiRegistry.PERF_02);
             }
         }
 
@@ -141,49 +867,146 @@ public class PerfKpiService {
         boolean saveData, 
         ExecutionContext context) throws Exception {
 
-        String perf0E2Query = String.format(
-            "let start = datetime(%s);" + 
-            "let end = datetime(%s);" + 
-            "%s" + 
-            "| where insertedTimestamp between (start .. end)" + 
-            "      and sottoTipoEvento == 'RESP'" + 
-            "      and categoriaEvento == 'INTERFACCIA'" + 
-            "      and tipoEvento !in ('cdInfoWisp', 'mod3CancelV2', 'mod3CancelV1', 'parkedList-v1')" + 
-            "      and isnotempty(payload)" + 
-            "| extend payloadDec = base64_decode_tostring(payload)" + 
-            "| where payloadDec contains 'faultCode'" + 
-            "| summarize count=count()" + 
-            "| project count",
-            startDate, endDate, ADX_SOURCE_TABLE
-        );
-    
-        // Create connection and client
-        ConnectionStringBuilder csb = PerfKpiHelper.getConnectionStringBuilder();
-        Client kustoClient = ClientFactory.createClient(csb);
-
-        // Execute query
-        KustoOperationResult result = kustoClient.executeQuery(ADX_DB_NAME, perf0E2Query);
-        int count = 0;
-        KustoResultSetTable resultSet = null;
-        if (result.hasNext()) {
-            resultSet = result.getPrimaryResults();
-            if (resultSet.next()) {
-                count = resultSet.getInt("count");
+        // hourly counts of the materialized view when it covers the interval, raw events otherwise
+        Map<String, Long> faultCounts = readFaultCounts(startDate, endDate, context);
+        long count = 0;
+        if (faultCounts != null) {
+            count = faultCounts.get(KpiRegistry.PERF_02E);
+        } else {
+            KustoOperationResult result = runKustoQuery(KpiRegistry.PERF_02E,
+                perf02EStrategy == Perf02EStrategy.PREFILTER ? perf02EPrefilterTemplate : perf02ETemplate, startDate, endDate);
+            if (result.hasNext()) {
+                KustoResultSetTable resultSet = result.getPrimaryResults();
+                if (resultSet.next()) {
+                    count = resultSet.getLong("count");
+                }
             }
         }
 
-        context.getLogger().info(String.format("executePerf02EKpi - PERF-02E Query Result[%s] startDate[%s] endDate[%s]", count, startDate, endDate));
+        StructuredLog log = StructuredLog.of(context);
+        log.info("kpi.computed", "kpiId", KpiRegistry.PERF_02E, "start", startDate, "end", endDate, "value", count,
+            "from", faultCounts != null ? "view" : "events");
 
         // write kpi to db
         if (saveData) {
-            writePerfKpiData(startDate, endDate, "PERF-02E", Integer.toString(count), context);
+            writePerfKpiData(startDate, endDate, "PERF-02E", Long.toString(count), context);
         } else {
-            context.getLogger().info("executePerf02EKpi -  PERF-02E skip data persistence");
+            log.fine("kpi.persistence.skipped", "kpiId", KpiRegistry.PERF_02E);
         }        
 
         return String.valueOf(count);
     }
 
+    /**
+     * Reads PERF-02 and PERF-02E from the hourly counts of the fault counts materialized view
+     * @param startDate interval start
+     * @param endDate interval end
+     * @param context Azure function context
+     * @return the counts by kpi id, null if the view is disabled or does not cover the interval
+     */
+    private Map<String, Long> readFaultCounts(LocalDateTime startDate, LocalDateTime endDate, ExecutionContext context) {
+        if (!faultCountsViewEnabled || !faultCountsView.isEnabled()) {
+            return null;
+        }
+        try {
+            MaterializedViewStatus status = faultCountsView.status(this::showFaultCountsView);
+            LocalDateTime bucketEnd = faultCountsView.coveredEnd(status, startDate, endDate, LocalDateTime.now(ZoneOffset.UTC));
+            if (bucketEnd == null) {
+                MetricsRegistry.increment("adx.fault_counts_view.miss", 1);
+                return null;
+            }
+            KustoOperationResult result = runKustoQuery("FAULT_COUNTS_VIEW", faultCountsTemplate,
+                faultCountsTemplate.bindInterval(startDate, bucketEnd), startDate, endDate);
+            Map<String, Long> counts = new HashMap<>();
+            KustoResultSetTable resultSet = result.getPrimaryResults();
+            boolean hasRow = resultSet.next();
+            counts.put(KpiRegistry.PERF_02, hasRow ? resultSet.getLong(FaultCountsView.REQUESTS) : 0L);
+            counts.put(KpiRegistry.PERF_02E, hasRow ? resultSet.getLong(FaultCountsView.FAULTS) : 0L);
+            MetricsRegistry.increment("adx.fault_counts_view.hit", 1);
+            StructuredLog.of(context).fine("adx.fault_counts_view.read", "view", faultCountsView.getName(), "counts", counts,
+                "start", startDate, "end", bucketEnd);
+            return counts;
+        } catch (Exception e) {
+            // a dropped or unreadable view must not fail the kpi, the raw events are scanned instead
+            faultCountsView.invalidate();
+            StructuredLog.of(context).warning("adx.fault_counts_view.unavailable", "view", faultCountsView.getName(),
+                "error", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Creates the fault counts materialized view if missing, aligns its definition and enables it.
+     * A changed definition applies only to the new events, the view is then used from the next hour on
+     * @param context Azure function context
+     * @return the state of the view after the maintenance, null if the view is not configured
+     * @throws Exception
+     */
+    public MaterializedViewStatus maintainFaultCountsView(ExecutionContext context) throws Exception {
+        StructuredLog log = StructuredLog.of(context);
+        if (!faultCountsView.isEnabled()) {
+            log.info("adx.fault_counts_view.not_configured");
+            return null;
+        }
+        MaterializedViewStatus status = showFaultCountsView();
+        if (status == null) {
+            runKustoCommand("FAULT_COUNTS_VIEW_CREATE", faultCountsView.createCommand());
+            log.info("adx.fault_counts_view.created", "view", faultCountsView.getName());
+        } else {
+            if (!faultCountsView.hasCurrentDefinition(status)) {
+                LocalDateTime validFrom = FaultCountsView.nextHour(LocalDateTime.now(ZoneOffset.UTC));
+                runKustoCommand("FAULT_COUNTS_VIEW_ALTER", faultCountsView.alterCommand());
+                runKustoCommand("FAULT_COUNTS_VIEW_ALTER", faultCountsView.validFromCommand(validFrom));
+                log.info("adx.fault_counts_view.altered", "view", faultCountsView.getName(), "validFrom", validFrom);
+            }
+            if (!status.isEnabled()) {
+                runKustoCommand("FAULT_COUNTS_VIEW_ENABLE", faultCountsView.enableCommand());
+                log.info("adx.fault_counts_view.enabled", "view", faultCountsView.getName());
+            }
+        }
+        faultCountsView.invalidate();
+        return showFaultCountsView();
+    }
+
+    private MaterializedViewStatus showFaultCountsView() throws Exception {
+        KustoResultSetTable resultSet = runKustoCommand("FAULT_COUNTS_VIEW_SHOW", faultCountsView.showCommand()).getPrimaryResults();
+        if (!resultSet.next()) {
+            return null;
+        }
+        return MaterializedViewStatus.builder()
+            .name(resultSet.getString("Name"))
+            .query(resultSet.getString("Query"))
+            .enabled(Boolean.parseBoolean(String.valueOf(resultSet.getObject("IsEnabled"))))
+            .healthy(Boolean.parseBoolean(String.valueOf(resultSet.getObject("IsHealthy"))))
+            .effectiveDateTime(resultSet.getObject("EffectiveDateTime") != null ? resultSet.getKustoDateTime("EffectiveDateTime") : null)
+            .materializedTo(resultSet.getObject("MaterializedTo") != null ? resultSet.getKustoDateTime("MaterializedTo") : null)
+            .validFrom(FaultCountsView.parseValidFrom(resultSet.getString("DocString")))
+            .build();
+    }
+
+    /**
+     * Executes a management command on the ADX database
+     * @param commandName name of the command, used for tracing
+     * @param command command text
+     * @return the command result
+     * @throws Exception
+     */
+    private KustoOperationResult runKustoCommand(String commandName, String command) throws Exception {
+        Bulkhead adx = Bulkhead.of(Dependency.ADX);
+        ClientRequestProperties properties = new ClientRequestProperties();
+        properties.setTimeoutInMilliSec((long) adx.getTimeoutMillis());
+        properties.setClientRequestId("observability-bdi;" + UUID.randomUUID());
+        Client kustoClient = ClientFactory.createClient(PerfKpiHelper.getConnectionStringBuilder(), PerfKpiHelper.createHttpClient(adx));
+
+        return Tracing.trace("adx.command", SpanKind.CLIENT, span -> {
+            span.setAttribute("db.system", "kusto");
+            span.setAttribute("db.name", ADX_DB_NAME);
+            span.setAttribute("adx.command.name", commandName);
+            span.setAttribute("adx.client_request_id", properties.getClientRequestId());
+            return adx.call(() -> kustoClient.executeMgmt(ADX_DB_NAME, command, properties));
+        });
+    }
+
     /**
      * Computes the response time of some NDP primitives (PERF-03, PERF-04, PERF-05 e PERF-06)
      * by execution of a app insights query
@@ -200,114 +1023,147 @@ public class PerfKpiService {
         String kpiId, 
         boolean saveData,
         ExecutionContext context) throws Exception {
+        StructuredLog log = StructuredLog.of(context);
         try {
-            context.getLogger().info(String.format("executePerfKpi - %s calculating KPI for period: %s to %s", kpiId, startDate, endDate));
+            log.fine("kpi.started", "kpiId", kpiId, "start", startDate, "end", endDate);
+
+            // build the operation name for the specificKPI
+            String operationName = System.getenv(kpiId + "_OPERATION_NAME");
+            if (operationName == null || operationName.isEmpty()) {
+                throw new IllegalArgumentException("executePerfKpi - operationName not set for KPI: " + kpiId);
+            }
 
-            // get principal data
-            String tenantId = System.getenv("AZURE_AD_AI_TENANT_ID");
-            String clientId = System.getenv("AZURE_AD_AI_CLIENT_ID");
-            String clientSecret = System.getenv("AZURE_AD_AI_CLIENT_SECRET");
-            String appInsightsAppId = System.getenv("APP_INSIGHTS_APP_ID");
+            // build query Kusto for Application Insights, the interval is sent as timespan of the request
+            String query = KustoQueryTemplate.compile(Map.of(),
+                String.format(
+                    "requests " +
+                    "| where cloud_RoleName == %s " +
+                    "| where operation_Name == %s " +
+                    "| summarize avg_duration = avg(duration) " +
+                    "| extend avg_duration = iff(isnan(avg_duration), 0.0, avg_duration) " +
+                    "| project avg_duration",
+                    KpiRegistry.toKustoString(CLOUD_ROLE_NAME), KpiRegistry.toKustoString(operationName)
+                )).getText();
+
+            log.fine("appinsights.query", "kpiId", kpiId, "query", query);
+
+            JsonNode firstTable = queryAppInsights(query, toTimespan(startDate, endDate), kpiId, context);
+            String avgDuration = "0";
 
-            if (tenantId == null || clientId == null || clientSecret == null) {
-                throw new IllegalStateException("executePerfKpi - Service Principal variables not properly configured!");
+            JsonNode rowsNode = firstTable.path("rows");
+            if (rowsNode.isArray() && rowsNode.size() > 0) {
+                JsonNode firstRow = rowsNode.get(0);
+                if (firstRow.isArray() && firstRow.size() > 0) {
+                    avgDuration = firstRow.get(0).asText();
+                }
             }
 
-            if (appInsightsAppId == null || appInsightsAppId.isEmpty()) {
-                throw new IllegalStateException("executePerfKpi - APP_INSIGHTS_APP_ID not configured.");
+            if (System.getProperty("ENVIRONMENT") == null || "TEST".equalsIgnoreCase(System.getProperty("ENVIRONMENT"))) {
+                // write kpi to db
+                if (saveData) {
+                    writePerfKpiData(startDate, endDate, kpiId, avgDuration, context);
+                } else {
+                    log.fine("kpi.persistence.skipped", "kpiId", kpiId);
+                }                
             }
 
-            // get the token OAuth 2.0 from Azure AD for Application Insights
-            String accessToken = getAccessToken(tenantId, clientId, clientSecret);
+            log.info("kpi.computed", "kpiId", kpiId, "start", startDate, "end", endDate, "value", avgDuration);
 
-            // build the operation name for the specificKPI
-            String operationName = System.getenv(kpiId + "_OPERATION_NAME");
-            if (operationName == null || operationName.isEmpty()) {
-                throw new IllegalArgumentException("executePerfKpi - operationName not set for KPI: " + kpiId);
-            }
+            return avgDuration;
 
-            // format date in ISO 8601
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
-            String startDateStr = startDate.atOffset(java.time.ZoneOffset.UTC).format(formatter);
-            String endDateStr = endDate.atOffset(java.time.ZoneOffset.UTC).format(formatter);
-
-            // build query Kusto for Application Insights
-            String query = String.format(
-                "requests | where timestamp between (datetime('%s') .. datetime('%s')) " +
-                "| where cloud_RoleName == '%s' " +
-                "| where operation_Name == '%s' " +
-                "| summarize avg_duration = avg(duration) " +
-                "| extend avg_duration = iff(isnan(avg_duration), 0.0, avg_duration) " +
-                "| project avg_duration",
-                startDateStr, endDateStr, CLOUD_ROLE_NAME, operationName
-            );
+        } catch (Exception e) {
+            log.severe("kpi.failed", "kpiId", kpiId, "start", startDate, "end", endDate, "error", e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a query on Application Insights through the REST api
+     * @param query Kusto query
+     * @param timespan ISO 8601 interval the query is executed on
+     * @param label label of the query caller used in log and error messages (es. kpi id)
+     * @param context Azure function context
+     * @return the first table of the query result
+     * @throws Exception
+     */
+    private JsonNode queryAppInsights(String query, String timespan, String label, ExecutionContext context) throws Exception {
+
+        // get principal data
+        String tenantId = System.getenv("AZURE_AD_AI_TENANT_ID");
+        String clientId = System.getenv("AZURE_AD_AI_CLIENT_ID");
+        String clientSecret = System.getenv("AZURE_AD_AI_CLIENT_SECRET");
+        String appInsightsAppId = System.getenv("APP_INSIGHTS_APP_ID");
+
+        if (tenantId == null || clientId == null || clientSecret == null) {
+            throw new IllegalStateException("executePerfKpi - Service Principal variables not properly configured!");
+        }
 
-            context.getLogger().info(String.format("executePerfKpi - %s using query [%s]", kpiId, query));
+        if (appInsightsAppId == null || appInsightsAppId.isEmpty()) {
+            throw new IllegalStateException("executePerfKpi - APP_INSIGHTS_APP_ID not configured.");
+        }
+
+        // get the token OAuth 2.0 from Azure AD for Application Insights
+        String accessToken = getAccessToken(tenantId, clientId, clientSecret);
+
+        Bulkhead appInsights = Bulkhead.of(Dependency.APP_INSIGHTS);
+        return Tracing.trace("appinsights.query", SpanKind.CLIENT, span -> APP_INSIGHTS_HEDGER.call(appInsights, cancellation -> {
+            span.setAttribute("kpi.label", label);
+            span.setAttribute("appinsights.timespan", timespan);
 
             // build the api REST URL for Application Insights
-            String apiUrl = String.format("https://api.applicationinsights.io/v1/apps/%s/query", appInsightsAppId);
+            String apiUrl = String.format("%s/v1/apps/%s/query", APP_INSIGHTS_BASE_URL, appInsightsAppId);
 
-            // make the HTTP POST
+            // make the HTTP POST, the connection is closed if a hedged attempt answers first
             HttpURLConnection conn = (HttpURLConnection) new URL(apiUrl).openConnection();
+            cancellation.onCancel(conn::disconnect);
             conn.setRequestMethod("POST");
             conn.setRequestProperty("Authorization", "Bearer " + accessToken); // use the OAuth 2.0 token
             conn.setRequestProperty("Content-Type", "application/json");
+            conn.setConnectTimeout(appInsights.getConnectTimeoutMillis());
+            conn.setReadTimeout(appInsights.getTimeoutMillis());
             conn.setDoOutput(true);
 
             // extract the payload
-            String payload = String.format("{\"query\": \"%s\"}", query);
+            byte[] payload = JsonHelper.writeToBytes(generator -> {
+                generator.writeStartObject();
+                generator.writeStringField("query", query);
+                generator.writeStringField("timespan", timespan);
+                generator.writeEndObject();
+            });
             try (OutputStream os = conn.getOutputStream()) {
-                os.write(payload.getBytes(StandardCharsets.UTF_8));
+                os.write(payload);
                 os.flush();
             }
 
             // read response
             int responseCode = conn.getResponseCode();
+            span.setAttribute("http.response.status_code", responseCode);
             if (responseCode != 200) {
-                throw new RuntimeException(String.format("executePerfKpi - %s Error during API request: %s", kpiId, responseCode));
+                throw new RuntimeException(String.format("executePerfKpi - %s Error during API request: %s", label, responseCode));
             }
 
-            String responseBody;
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                responseBody = reader.lines().collect(Collectors.joining("\n"));
-            }
-            conn.disconnect();
-
             // parse the JSON response
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode rootNode = objectMapper.readTree(responseBody);
-            JsonNode tablesNode = rootNode.path("tables");
-            String avgDuration = "0";
-
-            if (tablesNode.isArray() && tablesNode.size() > 0) {
-                JsonNode firstTable = tablesNode.get(0);
-                JsonNode rowsNode = firstTable.path("rows");
-
-                if (rowsNode.isArray() && rowsNode.size() > 0) {
-                    JsonNode firstRow = rowsNode.get(0);
-                    if (firstRow.isArray() && firstRow.size() > 0) {
-                        avgDuration = firstRow.get(0).asText();
-                    }
-                }
-            }
-
-            if (System.getProperty("ENVIRONMENT") == null || "TEST".equalsIgnoreCase(System.getProperty("ENVIRONMENT"))) {
-                // write kpi to db
-                if (saveData) {
-                    writePerfKpiData(startDate, endDate, kpiId, avgDuration, context);
-                } else {
-                    context.getLogger().info(String.format("executePerfKpi - %s skip data persistence", kpiId));
-                }                
+            JsonNode rootNode;
+            try (InputStream is = conn.getInputStream()) {
+                rootNode = JsonHelper.readTree(is);
             }
+            conn.disconnect();
 
-            context.getLogger().info(String.format("executePerfKpi - %s record successfully inserted into ADX, average[%s]", kpiId, avgDuration));
-
-            return avgDuration;
+            JsonNode table = rootNode.path("tables").path(0);
+            span.setAttribute("appinsights.result.rows", table.path("rows").size());
+            return table;
+        }));
+    }
 
-        } catch (Exception e) {
-            context.getLogger().severe(String.format("executePerfKpi - %s Error executing KPI calculation: %s", kpiId, e.getMessage()));
-            throw e;
-        }
+    /**
+     * Formats an interval as ISO 8601 timespan (es. 2025-03-01T00:00:00Z/2025-03-31T23:59:59Z)
+     * @param startDate interval start
+     * @param endDate interval end
+     * @return the timespan
+     */
+    private String toTimespan(LocalDateTime startDate, LocalDateTime endDate) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        return startDate.atOffset(ZoneOffset.UTC).format(formatter) + "/" + endDate.atOffset(ZoneOffset.UTC).format(formatter);
     }
 
     /**
@@ -319,30 +1175,34 @@ public class PerfKpiService {
      * @throws Exception
      */
     private String getAccessToken(String tenantId, String clientId, String clientSecret) throws Exception {
-        String tokenUrl = String.format("https://login.microsoftonline.com/%s/oauth2/v2.0/token", tenantId);
-        String body = String.format(
-            "grant_type=client_credentials&client_id=%s&client_secret=%s&scope=https://api.applicationinsights.io/.default",
-            clientId, clientSecret
-        );
+        Bulkhead aad = Bulkhead.of(Dependency.AAD);
+        return Tracing.trace("aad.token", SpanKind.CLIENT, span -> aad.call(() -> {
+            String tokenUrl = String.format("%s/%s/oauth2/v2.0/token", AZURE_AD_LOGIN_URL, tenantId);
+            String body = String.format(
+                "grant_type=client_credentials&client_id=%s&client_secret=%s&scope=https://api.applicationinsights.io/.default",
+                clientId, clientSecret
+            );
 
-        HttpURLConnection conn = (HttpURLConnection) new URL(tokenUrl).openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        conn.setDoOutput(true);
+            HttpURLConnection conn = (HttpURLConnection) new URL(tokenUrl).openConnection();
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            conn.setConnectTimeout(aad.getConnectTimeoutMillis());
+            conn.setReadTimeout(aad.getTimeoutMillis());
+            conn.setDoOutput(true);
 
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(body.getBytes(StandardCharsets.UTF_8));
-            os.flush();
-        }
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(body.getBytes(StandardCharsets.UTF_8));
+                os.flush();
+            }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8));
-        String responseBody = reader.lines().collect(Collectors.joining("\n"));
-        reader.close();
-        conn.disconnect();
+            JsonNode rootNode;
+            try (InputStream is = conn.getInputStream()) {
+                rootNode = JsonHelper.readTree(is);
+            }
+            conn.disconnect();
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode rootNode = objectMapper.readTree(responseBody);
-        return rootNode.path("access_token").asText();
+            return rootNode.path("access_token").asText();
+        }));
     }
 
     /**
@@ -355,50 +1215,153 @@ public class PerfKpiService {
      */
     public String executePerf01Kpi(LocalDateTime startDate, LocalDateTime endDate, boolean saveData, ExecutionContext context) throws Exception {
 
-        DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        
-        String fromDate = startDate.format(FORMATTER);
-        String toDate = endDate.format(FORMATTER);
-        
-        context.getLogger().info(String.format("executePerf01Kpi - Invoking status page api startDate[%s] endDate[%s]", fromDate, toDate));
-        
-        // Building api url and http request
-        String url = String.format("%s?from=%s&to=%s", BETTERSTACK_API_URL, fromDate, toDate);
-        HttpClient client = HttpClient.newHttpClient();
-        java.net.http.HttpRequest request = java.net.http.HttpRequest.newBuilder()
-        .uri(URI.create(url))
-        .header("Authorization", "Bearer " + BETTERSTACK_API_KEY)
-        .GET()
-        .build();
-        
-        // Calliing api
-        java.net.http.HttpResponse<String> response = client.send(request, java.net.http.HttpResponse.BodyHandlers.ofString());
-        
-        if (response.statusCode() == 200) {
-            // Parse json response
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode rootNode = objectMapper.readTree(response.body());
-            String availabilty = rootNode.path("data")
-            .path("attributes")
-            .path("availability")
-            .asText();
-            
-            context.getLogger().info(String.format("executePerf01Kpi - PERF-01 writing the kpi on ADX, availability[%s]", availabilty));
+        String availabilty = fetchAvailability(startDate, endDate, context);
 
-            // write kpi to db
-            if (saveData) {
-                writePerfKpiData(startDate, endDate, "PERF-01", availabilty, context);
-            } else {
-                context.getLogger().info("executePerf01Kpi - PERF-01 skip data persistence");
-            }
+        StructuredLog log = StructuredLog.of(context);
+        log.info("kpi.computed", "kpiId", KpiRegistry.PERF_01, "start", startDate, "end", endDate, "value", availabilty);
 
-            return availabilty;
-            
+        // write kpi to db
+        if (saveData) {
+            writePerfKpiData(startDate, endDate, "PERF-01", availabilty, context);
         } else {
+            log.fine("kpi.persistence.skipped", "kpiId", KpiRegistry.PERF_01);
+        }
+
+        return availabilty;
+    }
+
+    /**
+     * Retrieves the availability of NDP from the betterstack api (status page).
+     * The availability is fetched one day at a time and cached in the {@link AvailabilityCache},
+     * the range is then composed as time-weighted availability of its days
+     * @param startDate date from
+     * @param endDate date to
+     * @param context Azure function context
+     * @return the availability percentage
+     * @throws Exception
+     */
+    private String fetchAvailability(LocalDateTime startDate, LocalDateTime endDate, ExecutionContext context) throws Exception {
+
+        return Tracing.trace("betterstack.availability", SpanKind.CLIENT, span -> {
+            AvailabilityCache cache = AvailabilityCache.getInstance();
+            List<DailyAvailability> days = new ArrayList<>();
+            List<LocalDate> missingDays = new ArrayList<>();
+
+            for (LocalDate day = startDate.toLocalDate(); !day.isAfter(endDate.toLocalDate()); day = day.plusDays(1)) {
+                DailyAvailability cached = cache.get(day);
+                if (cached != null) {
+                    days.add(cached);
+                } else {
+                    missingDays.add(day);
+                }
+            }
+
+            StructuredLog.of(context).info("betterstack.availability.fetch", "start", startDate.toLocalDate(), "end", endDate.toLocalDate(),
+                "cachedDays", days.size(), "missingDays", missingDays.size());
+            MetricsRegistry.increment("betterstack.availability.cache.hits", days.size());
+            MetricsRegistry.increment("betterstack.availability.cache.misses", missingDays.size());
+            span.setAttribute("betterstack.days.cached", days.size());
+            span.setAttribute("betterstack.days.fetched", missingDays.size());
+
+            if (!missingDays.isEmpty()) {
+                days.addAll(Bulkhead.of(Dependency.BETTERSTACK).call(() -> fetchDailyAvailability(missingDays, cache)));
+            }
+
+            return String.valueOf(AvailabilityCache.compose(days));
+        });
+    }
+
+    /**
+     * Calls the betterstack api for the given days concurrently, with at most BULKHEAD_BETTERSTACK_CONCURRENCY
+     * requests in flight across the process. On the first failure, or when the bulkhead deadline interrupts
+     * the wait, the requests still running are cancelled
+     * @param missingDays days to fetch
+     * @param cache cache receiving the fetched days
+     * @return the availability of the days
+     * @throws Exception
+     */
+    private List<DailyAvailability> fetchDailyAvailability(List<LocalDate> missingDays, AvailabilityCache cache) throws Exception {
+        Map<LocalDate, CompletableFuture<java.net.http.HttpResponse<String>>> responses = new LinkedHashMap<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        try {
+            for (LocalDate day : missingDays) {
+                BETTERSTACK_IN_FLIGHT.acquire();
+                if (failed.get()) {
+                    BETTERSTACK_IN_FLIGHT.release();
+                    break;
+                }
+                CompletableFuture<java.net.http.HttpResponse<String>> response;
+                try {
+                    response = BETTERSTACK_CLIENT.sendAsync(buildAvailabilityRequest(day),
+                        java.net.http.HttpResponse.BodyHandlers.ofString());
+                } catch (RuntimeException e) {
+                    BETTERSTACK_IN_FLIGHT.release();
+                    throw e;
+                }
+                responses.put(day, response);
+                response.whenComplete((result, error) -> {
+                    if (error != null || result.statusCode() != 200) {
+                        failed.set(true);
+                    }
+                    BETTERSTACK_IN_FLIGHT.release();
+                });
+            }
+
+            List<DailyAvailability> fetched = new ArrayList<>();
+            for (Map.Entry<LocalDate, CompletableFuture<java.net.http.HttpResponse<String>>> entry : responses.entrySet()) {
+                java.net.http.HttpResponse<String> response;
+                try {
+                    response = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                DailyAvailability availability = parseDailyAvailability(entry.getKey(), response);
+                cache.put(availability);
+                fetched.add(availability);
+            }
+            return fetched;
+        } finally {
+            // no-op for the completed requests
+            responses.values().forEach(response -> response.cancel(true));
+        }
+    }
+
+    private java.net.http.HttpRequest buildAvailabilityRequest(LocalDate day) {
+        // Building api url and http request, from and to are inclusive days
+        String url = String.format("%s?from=%s&to=%s", BETTERSTACK_API_URL, day, day);
+        return java.net.http.HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .header("Authorization", "Bearer " + BETTERSTACK_API_KEY)
+            .timeout(Bulkhead.of(Dependency.BETTERSTACK).getTimeout())
+            .GET()
+            .build();
+    }
+
+    private DailyAvailability parseDailyAvailability(LocalDate day, java.net.http.HttpResponse<String> response) throws IOException {
+
+        if (response.statusCode() != 200) {
             throw new RuntimeException(String.format("executePerf01Kpi - %s Error executing KPI calculation: %s - %s",
-            "PERF-01", response.statusCode(), response.body()));
+                "PERF-01", response.statusCode(), response.body()));
         }
-    }   
+
+        // the current day is measured up to now
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        long daySeconds = day.equals(now.toLocalDate())
+            ? Math.max(1, Duration.between(day.atStartOfDay(), now).getSeconds())
+            : 24 * 60 * 60;
+
+        // Parse json response, outage seconds are derived from the availability if the downtime is missing
+        JsonNode attributes = JsonHelper.readTree(response.body()).path("data").path("attributes");
+        double outageSeconds = attributes.hasNonNull("total_downtime")
+            ? attributes.get("total_downtime").asDouble()
+            : (100.0 - attributes.path("availability").asDouble()) / 100.0 * daySeconds;
+
+        return DailyAvailability.builder()
+            .day(day)
+            .outageSeconds(outageSeconds)
+            .daySeconds(daySeconds)
+            .build();
+    }
 
     /**
      * Utility method that save the computed kpis on ADX inside the custom table
@@ -415,20 +1378,102 @@ public class PerfKpiService {
             LocalDateTime endDate,
             String kpiName,
             String kpiValue, ExecutionContext context) throws Exception {
+        writePerfKpiData(ADX_PERF_TABLE, startDate, endDate, kpiName, kpiValue, context);
+    }
+
+    /**
+     * Utility method that save the computed kpis on ADX inside the given table
+     * @param tableName table name
+     * @param startDate date from
+     * @param endDate date to
+     * @param kpiName kpi to save
+     * @param kpiValue kpi value
+     * @param context Azure function context
+     * @throws Exception
+     */
+    public void writePerfKpiData(String tableName,
+            LocalDateTime startDate,
+            LocalDateTime endDate,
+            String kpiName,
+            String kpiValue, ExecutionContext context) throws Exception {
+
+        writePerfKpiRows(tableName, List.of(PerfKpiRow.builder()
+                .startDate(startDate)
+                .endDate(endDate)
+                .kpiId(kpiName)
+                .kpiValue(kpiValue)
+                .build()), context);
+    }
+
+    /**
+     * Save a batch of computed kpis on ADX inside the given table with a single ingestion.
+     * The ingestion mode is selected by ADX_INGESTION_MODE, see {@link IngestionMode}
+     * @param tableName table name
+     * @param rows kpis to save
+     * @param context Azure function context
+     * @throws Exception
+     */
+    public void writePerfKpiRows(String tableName, List<PerfKpiRow> rows, ExecutionContext context) throws Exception {
+        writePerfKpiRows(tableName, rows, null, context);
+    }
+
+    /**
+     * Writes kpi rows with an ingest-by tag: the rows are skipped if an extent of the table already has the tag,
+     * so the same rows can be written again without duplicates
+     * @param tableName table name
+     * @param rows kpis to write
+     * @param ingestTag ingest-by tag of the rows, null to always ingest them
+     * @param context Azure function context
+     * @throws Exception
+     */
+    public void writePerfKpiRows(String tableName, List<PerfKpiRow> rows, String ingestTag, ExecutionContext context) throws Exception {
+
+        if (rows.isEmpty()) {
+            return;
+        }
 
-        // Formatting date
-        LocalDateTime now = LocalDateTime.now();
+        ingestCsv(tableName, toCsv(rows, LocalDateTime.now()), rows.size(), ingestTag, context);
+    }
+
+    /**
+     * Formats kpi rows as the CSV ingested in the kpi tables
+     * @param rows kpis to format
+     * @param insertedAt insertion timestamp of the rows
+     * @return one line per row: insertion timestamp, start date, end date, kpi id, kpi value
+     */
+    public static String toCsv(List<PerfKpiRow> rows, LocalDateTime insertedAt) {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-        String csvData = String.format("%s,%s,%s,%s,%s\n",
-                now.format(formatter),
-                startDate.format(formatter),
-                endDate.format(formatter),
-                kpiName,
-                kpiValue);
+        StringBuilder csvData = new StringBuilder();
+        for (PerfKpiRow row : rows) {
+            csvData.append(String.format("%s,%s,%s,%s,%s\n",
+                insertedAt.format(formatter),
+                row.getStartDate().format(formatter),
+                row.getEndDate().format(formatter),
+                row.getKpiId(),
+                row.getKpiValue()));
+        }
+        return csvData.toString();
+    }
+
+    /**
+     * Ingests CSV rows into the given table with a single ingestion
+     * @param tableName table name
+     * @param csvData rows to ingest, one per line
+     * @param rowCount number of rows
+     * @param ingestTag ingest-by tag of the extent, null for none
+     * @param context Azure function context
+     * @throws Exception
+     */
+    private void ingestCsv(String tableName, String csvData, int rowCount, String ingestTag, ExecutionContext context) throws Exception {
 
-        context.getLogger()
-                .info(String.format("writePerfKpiData - Inserting data into [%s]: %s", ADX_PERF_TABLE, csvData));
+        byte[] data = csvData.getBytes(StandardCharsets.UTF_8);
+        // the ingest-by tags are only honoured by the queued ingestion
+        IngestionMode mode = ingestTag != null ? IngestionMode.QUEUED : selectIngestionMode(data.length);
+
+        StructuredLog log = StructuredLog.of(context);
+        log.fine("adx.ingest.started", "table", tableName, "mode", mode, "rows", rowCount, "bytes", data.length);
+        log.finest("adx.ingest.payload", "table", tableName, "data", csvData);
 
         // Creazione della connessione
         ConnectionStringBuilder csb = PerfKpiHelper.getConnectionStringBuilder();
@@ -437,27 +1482,65 @@ public class PerfKpiService {
             throw new IllegalStateException("Cluster URL is null! Ensure environment variables are set correctly.");
         }
 
-        // Ingestione dati come stream CSV
-        try (ByteArrayInputStream ingestStream = new ByteArrayInputStream(csvData.getBytes(StandardCharsets.UTF_8));
-        IngestClient ingestClient = IngestClientFactory.createClient(csb)) {
+        Tracing.trace("adx.ingest", SpanKind.CLIENT, span -> {
+            span.setAttribute("db.system", "kusto");
+            span.setAttribute("db.name", ADX_DB_NAME);
+            span.setAttribute("adx.table", tableName);
+            span.setAttribute("adx.ingestion.mode", mode.name());
+            span.setAttribute("adx.ingestion.rows", rowCount);
+            span.setAttribute("adx.ingestion.bytes", data.length);
+
+            long startTime = System.nanoTime();
+
+            // Ingestione dati come stream CSV
+            try (ByteArrayInputStream ingestStream = new ByteArrayInputStream(data);
+            IngestClient ingestClient = createIngestClient(mode, csb)) {
+
+                IngestionProperties ingestionProperties = new IngestionProperties(ADX_DB_NAME, tableName);
+                ingestionProperties.setDataFormat(IngestionProperties.DataFormat.CSV);
+                ingestionProperties.setFlushImmediately(true); // Forza il flush immediato (solo queued)
+                if (ingestTag != null) {
+                    ingestionProperties.setIngestByTags(List.of(ingestTag));
+                    ingestionProperties.setIngestIfNotExists(List.of(ingestTag));
+                }
 
-            IngestionProperties ingestionProperties = new IngestionProperties(ADX_DB_NAME, ADX_PERF_TABLE);
-            ingestionProperties.setDataFormat(IngestionProperties.DataFormat.CSV);
-            ingestionProperties.setFlushImmediately(true); // Forza il flush immediato
+                StreamSourceInfo sourceInfo = new StreamSourceInfo(ingestStream);
 
-            StreamSourceInfo sourceInfo = new StreamSourceInfo(ingestStream);
+                // Ingestione dati
+                Bulkhead.of(Dependency.ADX).call(() -> ingestClient.ingestFromStream(sourceInfo, ingestionProperties));
 
-            // Ingestione dati
-            ingestClient.ingestFromStream(sourceInfo, ingestionProperties);
+                long elapsed = (System.nanoTime() - startTime) / 1_000_000;
+                MetricsRegistry.recordTime("adx.ingestion." + mode.name().toLowerCase(), elapsed);
+                MetricsRegistry.increment("adx.ingestion.rows", rowCount);
 
-            context.getLogger().info(
-                    String.format("writePerfKpiData - %s successfully inserted into [%s]", kpiName, ADX_PERF_TABLE));
+                log.info("adx.ingest.completed", "table", tableName, "mode", mode, "rows", rowCount, "millis", elapsed);
 
-        } catch (Exception e) {
-            context.getLogger().severe(String.format("writePerfKpiData - Error inserting data into [%s]: %s",
-                    ADX_PERF_TABLE, e.getMessage()));
-            throw e;
+            } catch (Exception e) {
+                MetricsRegistry.increment("adx.ingestion." + mode.name().toLowerCase() + ".errors");
+                log.severe("adx.ingest.failed", "table", tableName, "mode", mode, "rows", rowCount, "error", e.getMessage());
+                throw e;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @param size size in bytes of the data to ingest
+     * @return the effective ingestion mode, AUTO is resolved on ADX_STREAMING_MAX_BYTES
+     */
+    IngestionMode selectIngestionMode(int size) {
+        if (ADX_INGESTION_MODE != IngestionMode.AUTO) {
+            return ADX_INGESTION_MODE;
+        }
+        return size <= ADX_STREAMING_MAX_BYTES ? IngestionMode.MANAGED_STREAMING : IngestionMode.QUEUED;
+    }
+
+    private IngestClient createIngestClient(IngestionMode mode, ConnectionStringBuilder csb) throws Exception {
+        if (mode == IngestionMode.MANAGED_STREAMING) {
+            // the engine connection string, the data management endpoint of the queued fallback is derived from it
+            return IngestClientFactory.createManagedStreamingIngestClient(csb);
         }
+        return IngestClientFactory.createClient(csb);
     }
 
 
@@ -471,69 +1554,163 @@ public class PerfKpiService {
      * @throws Exception
      */
     public String queryKpiAverages(LocalDateTime startDate, LocalDateTime endDate, ExecutionContext context) throws Exception {
-        String query = String.format(
-                "let start = datetime('%s');" +
-                "let end = datetime('%s');" +
-                "%s" +
-                "| where startDate>= start and endDate <= end" +
-                "| summarize " +
-                "    avg_PERF01 = avgif(kpiValue, kpiId contains \"PERF-01\")," +
-                "    sum_PERF02 = floor(sumif(kpiValue, kpiId contains \"PERF-02\"), 1)," +
-                "    sum_PERF02E = floor(sumif(kpiValue, kpiId contains \"PERF-02E\"), 1)," +
-                "    avg_PERF03 = floor(avgif(kpiValue, kpiId contains \"PERF-03\"), 1)," +
-                "    avg_PERF04 = floor(avgif(kpiValue, kpiId contains \"PERF-04\"), 1)," +
-                "    avg_PERF05 = floor(avgif(kpiValue, kpiId contains \"PERF-05\"), 1)," +
-                "    avg_PERF06 = floor(avgif(kpiValue, kpiId contains \"PERF-06\"), 1)" +
-                "| project avg_PERF01, sum_PERF02, sum_PERF02E, avg_PERF03, avg_PERF04, avg_PERF05, avg_PERF06",
-                startDate, endDate, System.getenv("ADX_PERF_TABLE")
-        );
-        
-        context.getLogger().info(String.format("queryKpiAverages - invoking app insigths query"));
-        
-        ConnectionStringBuilder csb = PerfKpiHelper.getConnectionStringBuilder();
-        Client client = ClientFactory.createClient(csb);
-        
-        KustoOperationResult result = client.executeQuery(ADX_DB_NAME, query);
+        return queryMonthlyKpis(startDate, endDate, context).toCsv();
+    }
+
+    /**
+     * Perform the query on ADX custom table in order to compute the kpi values to send to data lake
+     * @param startDate date from
+     * @param endDate date to
+     * @param context azure function context
+     * @return the kpi values of the interval
+     * @throws Exception
+     */
+    public KpiAverages queryMonthlyKpis(LocalDateTime startDate, LocalDateTime endDate, ExecutionContext context) throws Exception {
+        return KpiAverages.fromTotals(queryKpiTotals(startDate, endDate, context));
+    }
+
+    /**
+     * Perform the query on ADX custom table in order to aggregate the stored values of each kpi
+     * @param startDate date from
+     * @param endDate date to
+     * @param context azure function context
+     * @return the totals by kpi id, kpis without stored values are missing
+     * @throws Exception
+     */
+    public Map<String, KpiTotals> queryKpiTotals(LocalDateTime startDate, LocalDateTime endDate, ExecutionContext context) throws Exception {
+
+        StructuredLog log = StructuredLog.of(context);
+        log.fine("kpi.totals.started", "start", startDate, "end", endDate);
+
+        KustoOperationResult result = runKustoQuery("KPI_AVERAGES", kpiAveragesTemplate, startDate, endDate);
+        Map<String, KpiTotals> totals = new TreeMap<>();
         KustoResultSetTable resultSet = result.getPrimaryResults();
-        if (resultSet.next()) {
-            String avg_PERF01 = "100.00";
-            try {
-                avg_PERF01 = resultSet.getString("avg_PERF01");
-                double perf01d = Double.valueOf(avg_PERF01).doubleValue();
-                DecimalFormat df = new DecimalFormat("#.00");
-                avg_PERF01 = df.format(perf01d);
-            } catch (Exception e) {
-                context.getLogger().severe(String.format("queryKpiAverages - error while getting avg_PERF01 from resultset: %s", e.getMessage()));
-                avg_PERF01 = "0.00";
+        while (resultSet.next()) {
+            KpiTotals kpi = readKpiTotals(resultSet);
+            totals.put(kpi.getKpiId(), kpi);
+        }
+
+        log.info("kpi.totals.computed", "start", startDate, "end", endDate, "kpis", totals.keySet());
+        return totals;
+    }
+
+    /**
+     * Perform a single query on ADX custom table in order to compute the kpi values of each month
+     * of an interval, with the same rules of {@link #queryMonthlyKpis(LocalDateTime, LocalDateTime, ExecutionContext)}
+     * @param firstMonth first month of the interval
+     * @param lastMonth last month of the interval, included
+     * @param context azure function context
+     * @return the kpi values by month, in month order, months without data have zero values
+     * @throws Exception
+     */
+    public Map<YearMonth, KpiAverages> queryMonthlyKpis(YearMonth firstMonth, YearMonth lastMonth, ExecutionContext context) throws Exception {
+
+        if (lastMonth.isBefore(firstMonth)) {
+            throw new IllegalArgumentException(String.format("queryMonthlyKpis - last month [%s] is before first month [%s]", lastMonth, firstMonth));
+        }
+        StructuredLog log = StructuredLog.of(context);
+        log.fine("kpi.monthly_totals.started", "from", firstMonth, "to", lastMonth);
+
+        LocalDateTime startDate = firstMonth.atDay(1).atStartOfDay();
+        LocalDateTime endDate = lastMonth.plusMonths(1).atDay(1).atStartOfDay().minusSeconds(1);
+        KustoOperationResult result = runKustoQuery("KPI_AVERAGES_BY_MONTH", monthlyKpisTemplate, startDate, endDate);
+
+        Map<YearMonth, Map<String, KpiTotals>> totals = new TreeMap<>();
+        for (YearMonth month = firstMonth; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+            totals.put(month, new TreeMap<>());
+        }
+        KustoResultSetTable resultSet = result.getPrimaryResults();
+        while (resultSet.next()) {
+            YearMonth month = YearMonth.from(resultSet.getKustoDateTime("month"));
+            if (totals.containsKey(month)) {
+                KpiTotals kpi = readKpiTotals(resultSet);
+                totals.get(month).put(kpi.getKpiId(), kpi);
             }
+        }
 
-            String sum_PERF02 = "0"; 
-            String sum_PERF02E = "0"; 
-            String avg_PERF03 = "0"; 
-            String avg_PERF04 = "0"; 
-            String avg_PERF05 = "0"; 
-            String avg_PERF06 = "0"; 
-            
-            try {
-                sum_PERF02 = resultSet.getString("sum_PERF02") != null ? resultSet.getString("sum_PERF02") : "0";
-                sum_PERF02E = resultSet.getString("sum_PERF02E") != null ? resultSet.getString("sum_PERF02E") : "0";
-                avg_PERF03 = resultSet.getString("avg_PERF03") != null ? resultSet.getString("avg_PERF03") : "0";
-                avg_PERF04 = resultSet.getString("avg_PERF04") != null ? resultSet.getString("avg_PERF04") : "0";
-                avg_PERF05 = resultSet.getString("avg_PERF05") != null ? resultSet.getString("avg_PERF05") : "0";
-                avg_PERF06 = resultSet.getString("avg_PERF06") != null ? resultSet.getString("avg_PERF06") : "0";
-            } catch (Exception e) {
-                context.getLogger().severe(String.format("queryKpiAverages - error while getting kpi from resultset: %s", e.getMessage()));
-            }
-            
-            context.getLogger().severe(String.format("queryKpiAverages - kpi averages computed"));
-            
-            return String.format("%s,%s,%s,%s,%s,%s,%s",
-                avg_PERF01, sum_PERF02, sum_PERF02E, avg_PERF03, avg_PERF04, avg_PERF05, avg_PERF06);
-            
-        } else {
-            context.getLogger().severe(String.format("queryKpiAverages - the query produced no result, returning the default value"));
-            return "0.0,0.0,0.0,0.0,0.0,0.0,0.0"; // Default values
+        Map<YearMonth, KpiAverages> months = new TreeMap<>();
+        totals.forEach((month, kpis) -> months.put(month, KpiAverages.fromTotals(kpis)));
+        log.info("kpi.monthly_totals.computed", "from", firstMonth, "to", lastMonth, "months", months.size());
+        return months;
+    }
+
+    /**
+     * Reads the kpi values already stored on ADX custom table, no source is queried
+     * @param kpiId kpi to read, null for all the kpis
+     * @param startDate date from
+     * @param endDate date to
+     * @param context azure function context
+     * @return the stored rows of the interval, at most 10000, ordered by start date
+     * @throws Exception
+     */
+    public List<PerfKpiRow> queryStoredKpis(String kpiId, LocalDateTime startDate, LocalDateTime endDate, ExecutionContext context) throws Exception {
+
+        StructuredLog.of(context).fine("kpi.lookup.query", "kpiId", kpiId, "start", startDate, "end", endDate);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("start", startDate);
+        values.put("end", endDate);
+        values.put("kpi", kpiId != null ? kpiId : "");
+        KustoOperationResult result = runKustoQuery("KPI_LOOKUP", storedKpisTemplate, values, startDate, endDate);
+
+        List<PerfKpiRow> rows = new ArrayList<>();
+        KustoResultSetTable resultSet = result.getPrimaryResults();
+        while (resultSet.next()) {
+            rows.add(PerfKpiRow.builder()
+                .startDate(resultSet.getKustoDateTime("startDate"))
+                .endDate(resultSet.getKustoDateTime("endDate"))
+                .kpiId(resultSet.getString("kpiId"))
+                .kpiValue(resultSet.getString("kpiValue"))
+                .build());
+        }
+        return rows;
+    }
+
+    /**
+     * Counts re events kpis per time bucket, the incremental query of the rolling window
+     * @param kpis COUNT kpis of the re events
+     * @param bucket bucket size, in whole minutes
+     * @param startDate interval start
+     * @param endDate interval end
+     * @param context Azure function context
+     * @return the counts by bucket start and kpi id, the buckets without events are missing
+     * @throws Exception
+     */
+    public Map<LocalDateTime, Map<String, Long>> queryKpiBuckets(List<KpiDefinition> kpis, Duration bucket,
+            LocalDateTime startDate, LocalDateTime endDate, ExecutionContext context) throws Exception {
+
+        KustoQueryTemplate template = kpiQueryPlanner.bucketedTemplate(kpis, bucket);
+        KustoOperationResult result = runKustoQuery("KPI_BUCKETS", template, startDate, endDate);
+
+        Map<LocalDateTime, Map<String, Long>> buckets = new TreeMap<>();
+        KustoResultSetTable resultSet = result.getPrimaryResults();
+        while (resultSet.next()) {
+            Map<String, Long> counts = new HashMap<>();
+            for (KpiDefinition kpi : kpis) {
+                counts.put(kpi.getKpiId(), resultSet.getLong(kpi.getColumnName()));
+            }
+            buckets.put(resultSet.getKustoDateTime(KpiQueryPlanner.BUCKET_COLUMN), counts);
+        }
+        StructuredLog.of(context).fine("kpi.buckets.read", "kpis", kpis.stream().map(KpiDefinition::getKpiId).collect(Collectors.toList()),
+            "start", startDate, "end", endDate, "buckets", buckets.size());
+        return buckets;
+    }
+
+    private static KpiTotals readKpiTotals(KustoResultSetTable resultSet) {
+        return KpiTotals.builder()
+            .kpiId(resultSet.getString("kpiId"))
+            .count(((Number) resultSet.getObject("kpiCount")).longValue())
+            .sum(toDouble(resultSet.getObject("kpiSum")))
+            .average(toDouble(resultSet.getObject("kpiAvg")))
+            .build();
+    }
+
+    private static double toDouble(Object value) {
+        // null when none of the values of the kpi is numeric
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
         }
+        return value != null ? Double.parseDouble(value.toString()) : 0;
     }
 
     /**
@@ -544,36 +1721,173 @@ public class PerfKpiService {
      */
     public void sendToEventHub(String message, ExecutionContext context) throws Exception {
 
-        context.getLogger().severe(String.format("sendToEventHub - sending data to evh: %s", message));
+        StructuredLog log = StructuredLog.of(context);
+        log.fine("evh.send.started", "messages", 1, "chars", message.length());
+        log.finest("evh.send.payload", "message", message);
 
-        try {
+        sendToEventHub(message.getBytes(StandardCharsets.UTF_8), context);
+    }
 
-            if (EVENT_HUB_NAMESPACE == null || EVENT_HUB_NAME == null || EVENT_HUB_KEY_NAME == null || EVENT_HUB_KEY == null) {
-                throw new IllegalArgumentException(" sendToEventHub - Environment variables EVENT_HUB_NAMESPACE, EVENT_HUB_NAME, EVENT_HUB_KEY_NAME, or EVENT_HUB_KEY are not set.");
-            }
+    /**
+     * Send kpi message to evh
+     * @param message UTF-8 encoded message to send
+     * @param context Azure function context
+     * @throws Exception
+     */
+    public void sendToEventHub(byte[] message, ExecutionContext context) throws Exception {
+        sendToEventHub(List.of(message), context);
+    }
 
-            // Creating producer client
-            AzureNamedKeyCredential credential = new AzureNamedKeyCredential(EVENT_HUB_KEY_NAME, EVENT_HUB_KEY);
-            EventHubProducerClient producer = new EventHubClientBuilder()
-                .credential(EVENT_HUB_NAMESPACE, EVENT_HUB_NAME, credential)
-                .buildProducerClient();
+    /**
+     * Send kpi messages to evh, packed in as few batches as possible
+     * @param messages UTF-8 encoded messages to send
+     * @param context Azure function context
+     * @throws Exception
+     */
+    public void sendToEventHub(List<byte[]> messages, ExecutionContext context) throws Exception {
+
+        if (EVENT_HUB_NAMESPACE == null || EVENT_HUB_NAME == null || EVENT_HUB_KEY_NAME == null || EVENT_HUB_KEY == null) {
+            throw new IllegalArgumentException(" sendToEventHub - Environment variables EVENT_HUB_NAMESPACE, EVENT_HUB_NAME, EVENT_HUB_KEY_NAME, or EVENT_HUB_KEY are not set.");
+        }
+
+        Tracing.trace("eventhub.send", SpanKind.PRODUCER, span -> {
+            span.setAttribute("messaging.system", "eventhubs");
+            span.setAttribute("messaging.destination.name", EVENT_HUB_NAME);
+            span.setAttribute("messaging.batch.message_count", messages.size());
+
+            return Bulkhead.of(Dependency.EVENT_HUB).call(() -> {
+                try (EventHubProducerClient producer = createProducer()) {
+
+                    // Create a batch to send the messages, a new one is started when full
+                    EventDataBatch batch = producer.createBatch();
+                    int batches = 1;
+                    for (byte[] message : messages) {
+                        if (!batch.tryAdd(new EventData(message))) {
+                            producer.send(batch);
+                            batch = producer.createBatch();
+                            batches++;
+                            if (!batch.tryAdd(new EventData(message))) {
+                                throw new IllegalStateException("sendToEventHub - Event data is too large to fit in the batch.");
+                            }
+                        }
+                    }
+
+                    // Send data to evh
+                    producer.send(batch);
+                    span.setAttribute("eventhub.batches", batches);
+                    StructuredLog.of(context).info("evh.send.completed", "messages", messages.size(), "batches", batches);
+
+                } catch (Exception e) {
+                    StructuredLog.of(context).severe("evh.send.failed", "messages", messages.size(), "error", e.getMessage());
+                    throw e;
+                }
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Send kpi messages to evh packing as many messages as fit in each batch, a batch that cannot
+     * be sent does not stop the following ones
+     * @param messages UTF-8 encoded messages to send
+     * @param compress true to send the messages gzip compressed, with the Content-Encoding property set to gzip
+     * @param context Azure function context
+     * @return for each message the error of the batch it was sent in, null if sent
+     * @throws Exception
+     */
+    public List<String> sendPackedToEventHub(List<byte[]> messages, boolean compress, ExecutionContext context) throws Exception {
 
-            // Create a batch to send the message
-            EventDataBatch batch = producer.createBatch();
-            EventData eventData = new EventData(message);
+        if (EVENT_HUB_NAMESPACE == null || EVENT_HUB_NAME == null || EVENT_HUB_KEY_NAME == null || EVENT_HUB_KEY == null) {
+            throw new IllegalArgumentException(" sendPackedToEventHub - Environment variables EVENT_HUB_NAMESPACE, EVENT_HUB_NAME, EVENT_HUB_KEY_NAME, or EVENT_HUB_KEY are not set.");
+        }
 
-            if (!batch.tryAdd(eventData)) {
-                throw new IllegalStateException("sendToEventHub - Event data is too large to fit in the batch.");
+        return Tracing.trace("eventhub.send", SpanKind.PRODUCER, span -> {
+            span.setAttribute("messaging.system", "eventhubs");
+            span.setAttribute("messaging.destination.name", EVENT_HUB_NAME);
+            span.setAttribute("messaging.batch.message_count", messages.size());
+            span.setAttribute("eventhub.compressed", compress);
+
+            CreateBatchOptions options = new CreateBatchOptions();
+            if (EVENT_HUB_MAX_BATCH_BYTES > 0) {
+                options.setMaximumSizeInBytes(EVENT_HUB_MAX_BATCH_BYTES);
+            }
+            List<EventData> events = new ArrayList<>(messages.size());
+            List<String> errors = new ArrayList<>(messages.size());
+            long payloadBytes = 0;
+            long sentBytes = 0;
+            for (byte[] message : messages) {
+                byte[] body = compress ? PerfKpiHelper.gzip(message) : message;
+                payloadBytes += message.length;
+                sentBytes += body.length;
+                EventData event = new EventData(body).setContentType("application/json");
+                if (compress) {
+                    event.getProperties().put("Content-Encoding", "gzip");
+                }
+                events.add(event);
+                errors.add(null);
             }
 
-            // Send data to evh
-            producer.send(batch);
-            context.getLogger().info("sendToEventHub - Data successfully sent to Event Hub");
+            Bulkhead.of(Dependency.EVENT_HUB).call(() -> {
+                try (EventHubProducerClient producer = createProducer()) {
+                    EventDataBatch batch = producer.createBatch(options);
+                    List<Integer> batched = new ArrayList<>();
+                    int batches = 0;
+                    for (int i = 0; i < events.size(); i++) {
+                        if (!batch.tryAdd(events.get(i))) {
+                            if (!batched.isEmpty()) {
+                                sendBatch(producer, batch, batched, errors, context);
+                                batches++;
+                                batched.clear();
+                                batch = producer.createBatch(options);
+                            }
+                            if (!batch.tryAdd(events.get(i))) {
+                                errors.set(i, "Event data is too large to fit in the batch");
+                                continue;
+                            }
+                        }
+                        batched.add(i);
+                    }
+                    if (!batched.isEmpty()) {
+                        sendBatch(producer, batch, batched, errors, context);
+                        batches++;
+                    }
+                    span.setAttribute("eventhub.batches", batches);
+                }
+                return null;
+            });
+
+            MetricsRegistry.increment("eventhub.payload_bytes", payloadBytes);
+            MetricsRegistry.increment("eventhub.sent_bytes", sentBytes);
+            long failed = errors.stream().filter(e -> e != null).count();
+            StructuredLog.of(context).info("evh.send.completed", "messages", messages.size() - failed, "failed", failed,
+                "bytes", sentBytes, "payloadBytes", payloadBytes, "compressed", compress);
+            return errors;
+        });
+    }
 
+    private void sendBatch(EventHubProducerClient producer, EventDataBatch batch, List<Integer> batched,
+            List<String> errors, ExecutionContext context) {
+        try {
+            producer.send(batch);
         } catch (Exception e) {
-            context.getLogger().severe(String.format("sendToEventHub - Error while sending data to Event Hub: %s", e.getMessage()));
-            throw e;
+            // one line per failed batch is enough to diagnose, the total of the failed messages is logged on completion
+            StructuredLog.of(context).sampled(Level.SEVERE, "evh.batch.failed", "messages", batched.size(), "error", e.getMessage());
+            for (int index : batched) {
+                errors.set(index, e.getMessage());
+            }
         }
+    }
 
+    private EventHubProducerClient createProducer() {
+        AzureNamedKeyCredential credential = new AzureNamedKeyCredential(EVENT_HUB_KEY_NAME, EVENT_HUB_KEY);
+        // the retries of a send must fit in the deadline of the event hub bulkhead
+        Bulkhead eventHub = Bulkhead.of(Dependency.EVENT_HUB);
+        AmqpRetryOptions retryOptions = new AmqpRetryOptions()
+                .setMaxRetries(EVENT_HUB_MAX_RETRIES)
+                .setTryTimeout(Duration.ofMillis(eventHub.getTimeoutMillis() / (EVENT_HUB_MAX_RETRIES + 1)));
+        return new EventHubClientBuilder()
+                .credential(EVENT_HUB_NAMESPACE, EVENT_HUB_NAME, credential)
+                .retryOptions(retryOptions)
+                .buildProducerClient();
     }
 }
@@ -0,0 +1,267 @@
+package it.gov.pagopa.observability.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.models.KpiDefinition;
+import it.gov.pagopa.observability.models.RollingBucket;
+import it.gov.pagopa.observability.models.RollingWindow;
+
+/**
+ * In-memory ring buffer of the re events kpi counts of the last ROLLING_WINDOW_HOURS, one slot every
+ * ROLLING_WINDOW_BUCKET_MINUTES. A refresh only queries the buckets since the previous one, going back
+ * ROLLING_WINDOW_LATE_MINUTES for the late events, so the whole window is scanned once per instance.
+ * The reads never query ADX: a stale window is refreshed in background and served as it is meanwhile
+ */
+public class RollingKpiWindow {
+
+    private static final StructuredLog LOG = StructuredLog.of(Logger.getLogger(RollingKpiWindow.class.getName()));
+
+    private static final RollingKpiWindow INSTANCE = new RollingKpiWindow(
+        Arrays.stream(env("ROLLING_WINDOW_KPIS", "PERF-02,PERF-02E").split(",")).map(String::trim).collect(Collectors.toList()),
+        Duration.ofMinutes(intEnv("ROLLING_WINDOW_BUCKET_MINUTES", 5)),
+        Duration.ofHours(intEnv("ROLLING_WINDOW_HOURS", 24)),
+        Duration.ofMinutes(intEnv("ROLLING_WINDOW_LATE_MINUTES", 15)),
+        Duration.ofSeconds(intEnv("ROLLING_WINDOW_MAX_AGE_SECONDS", 600)));
+
+    static {
+        MetricsRegistry.gauge("kpi.rolling.age_seconds", INSTANCE::ageSeconds);
+    }
+
+    /**
+     * Loads the kpi counts per bucket of an interval, es. {@link PerfKpiService#queryKpiBuckets}
+     */
+    @FunctionalInterface
+    public interface BucketLoader {
+        Map<LocalDateTime, Map<String, Long>> load(LocalDateTime start, LocalDateTime end) throws Exception;
+    }
+
+    private final List<String> kpiIds;
+    private final Duration bucket;
+    private final Duration lateness;
+    private final Duration maxAge;
+    private final int capacity;
+
+    // ring buffer: slot i holds the bucket starting at starts[i], counts[k][i] of kpi k
+    private final LocalDateTime[] starts;
+    private final long[][] counts;
+    private LocalDateTime refreshedAt;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rolling-kpi-window");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RollingKpiWindow(List<String> kpiIds, Duration bucket, Duration window, Duration lateness, Duration maxAge) {
+        if (bucket.toMinutes() < 1 || bucket.toMinutes() > 60 || 60 % bucket.toMinutes() != 0) {
+            throw new IllegalArgumentException("RollingKpiWindow - bucket must be a divisor of 60 minutes");
+        }
+        this.kpiIds = List.copyOf(kpiIds);
+        this.bucket = bucket;
+        this.lateness = lateness;
+        this.maxAge = maxAge;
+        this.capacity = (int) (window.toMinutes() / bucket.toMinutes());
+        this.starts = new LocalDateTime[capacity];
+        this.counts = new long[kpiIds.size()][capacity];
+    }
+
+    public static RollingKpiWindow getInstance() {
+        return INSTANCE;
+    }
+
+    public List<String> getKpiIds() {
+        return kpiIds;
+    }
+
+    public Duration getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return the hours covered by the ring buffer
+     */
+    public long getHours() {
+        return capacity * bucket.toMinutes() / 60;
+    }
+
+    /**
+     * @param time a UTC time
+     * @return the start of the bucket containing the time
+     */
+    public LocalDateTime bucketStart(LocalDateTime time) {
+        LocalDateTime hour = time.withMinute(0).withSecond(0).withNano(0);
+        return hour.plusMinutes(time.getMinute() / bucket.toMinutes() * bucket.toMinutes());
+    }
+
+    private int slot(LocalDateTime bucketStart) {
+        long index = bucketStart.toEpochSecond(ZoneOffset.UTC) / bucket.getSeconds();
+        return (int) Math.floorMod(index, (long) capacity);
+    }
+
+    /**
+     * Loads the buckets since the previous refresh (the whole window on the first one) into the ring buffer
+     * @param loader query of the kpi counts per bucket
+     * @param now current UTC time
+     * @return false if another refresh was already running
+     * @throws Exception if the query fails, the buffer is left as it was
+     */
+    public boolean refresh(BucketLoader loader, LocalDateTime now) throws Exception {
+        if (!refreshing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            LocalDateTime current = bucketStart(now);
+            LocalDateTime oldest = current.minus(bucket.multipliedBy(capacity - 1L));
+            LocalDateTime from;
+            synchronized (this) {
+                from = refreshedAt == null ? oldest : bucketStart(refreshedAt.minus(lateness));
+            }
+            if (from.isBefore(oldest)) {
+                from = oldest;
+            }
+
+            long startTime = System.nanoTime();
+            Map<LocalDateTime, Map<String, Long>> loaded = loader.load(from, now);
+            MetricsRegistry.recordTime("kpi.rolling.refresh", (System.nanoTime() - startTime) / 1_000_000);
+
+            synchronized (this) {
+                // the buckets missing from the result had no events
+                for (LocalDateTime start = from; !start.isAfter(current); start = start.plus(bucket)) {
+                    int slot = slot(start);
+                    Map<String, Long> values = loaded.getOrDefault(start, Map.of());
+                    starts[slot] = start;
+                    for (int k = 0; k < kpiIds.size(); k++) {
+                        counts[k][slot] = values.getOrDefault(kpiIds.get(k), 0L);
+                    }
+                }
+                refreshedAt = now;
+            }
+            LOG.fine("kpi.rolling.refreshed", "from", from, "to", now, "buckets", loaded.size());
+            return true;
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * Starts a refresh in background if the window is older than ROLLING_WINDOW_MAX_AGE_SECONDS,
+     * es. on the instances where the refresh timer does not run
+     * @param loader query of the kpi counts per bucket
+     * @param now current UTC time
+     */
+    public void refreshIfStale(BucketLoader loader, LocalDateTime now) {
+        if (!isStale(now) || refreshing.get()) {
+            return;
+        }
+        background.execute(() -> {
+            try {
+                refresh(loader, LocalDateTime.now(ZoneOffset.UTC));
+            } catch (Exception e) {
+                MetricsRegistry.increment("kpi.rolling.refresh.errors");
+                LOG.warning("kpi.rolling.refresh_failed", "error", e.getMessage());
+            }
+        });
+    }
+
+    public synchronized boolean isStale(LocalDateTime now) {
+        return refreshedAt == null || refreshedAt.plus(maxAge).isBefore(now);
+    }
+
+    public synchronized boolean isLoaded() {
+        return refreshedAt != null;
+    }
+
+    private synchronized double ageSeconds() {
+        return refreshedAt == null ? -1 : Duration.between(refreshedAt, LocalDateTime.now(ZoneOffset.UTC)).getSeconds();
+    }
+
+    /**
+     * @param hours hours of the window, at most the ones kept in memory
+     * @param kpis kpis to return, all the window kpis if null
+     * @param withBuckets tells if the counts of each bucket are returned too
+     * @param now current UTC time
+     * @return the totals of the last hours, up to the last refresh
+     */
+    public synchronized RollingWindow snapshot(int hours, List<String> kpis, boolean withBuckets, LocalDateTime now) {
+        if (hours < 1 || hours > getHours()) {
+            throw new IllegalArgumentException(String.format("RollingKpiWindow - hours must be between 1 and %d", getHours()));
+        }
+        List<String> selected = kpis != null ? kpis : kpiIds;
+        for (String kpiId : selected) {
+            if (!kpiIds.contains(kpiId)) {
+                throw new IllegalArgumentException(String.format("RollingKpiWindow - kpi %s is not in the rolling window %s", kpiId, kpiIds));
+            }
+        }
+
+        int size = (int) (hours * 60 / bucket.toMinutes());
+        LocalDateTime current = bucketStart(now);
+        LocalDateTime first = current.minus(bucket.multipliedBy(size - 1L));
+        Map<String, Long> totals = new LinkedHashMap<>();
+        selected.forEach(kpiId -> totals.put(kpiId, 0L));
+        List<RollingBucket> buckets = withBuckets ? new ArrayList<>() : null;
+        int missing = 0;
+
+        for (LocalDateTime start = first; !start.isAfter(current); start = start.plus(bucket)) {
+            int slot = slot(start);
+            if (!start.equals(starts[slot])) {
+                missing++;
+                continue;
+            }
+            Map<String, Long> values = new LinkedHashMap<>();
+            for (String kpiId : selected) {
+                long count = counts[kpiIds.indexOf(kpiId)][slot];
+                values.put(kpiId, count);
+                totals.merge(kpiId, count, Long::sum);
+            }
+            if (buckets != null) {
+                buckets.add(RollingBucket.builder().start(start).counts(values).build());
+            }
+        }
+
+        Long requests = totals.get(KpiRegistry.PERF_02);
+        Long faults = totals.get(KpiRegistry.PERF_02E);
+        return RollingWindow.builder()
+            .start(first)
+            .end(current.plus(bucket))
+            .bucketMinutes(bucket.toMinutes())
+            .refreshedAt(refreshedAt)
+            .missingBuckets(missing)
+            .totals(totals)
+            .errorRate(requests != null && faults != null && requests > 0 ? (double) faults / requests : null)
+            .buckets(buckets)
+            .build();
+    }
+
+    /**
+     * @param registry kpi registry
+     * @return the definitions of the window kpis, COUNT kpis of the re events
+     */
+    public List<KpiDefinition> definitions(KpiRegistry registry) {
+        return kpiIds.stream().map(registry::get).collect(Collectors.toList());
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+
+    private static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,267 @@
+package it.gov.pagopa.observability.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import com.microsoft.azure.functions.ExecutionContext;
+
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.models.KpiAggregate;
+import it.gov.pagopa.observability.models.KpiDefinition;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.Perf02EStrategy;
+import it.gov.pagopa.observability.models.QueryPriority;
+import it.gov.pagopa.observability.models.QueryStats;
+import it.gov.pagopa.observability.models.ShadowComparison;
+import it.gov.pagopa.observability.models.ShadowKpiReport;
+
+/**
+ * Runs a candidate execution path next to the reference one (the per-kpi methods of {@link PerfKpiService})
+ * on the same interval and compares values, latency and ADX cpu. Nothing is persisted by either path,
+ * the comparisons are aggregated in memory and exposed as report
+ */
+public class ShadowExecutionService {
+
+    public static final String PLANNER = "PLANNER";
+    public static final String PERF02E_PREFILTER = "PERF02E_PREFILTER";
+
+    private static final Map<String, Map<String, KpiStats>> STATS = new TreeMap<>();
+
+    /**
+     * Execution path under evaluation, it must not persist anything
+     */
+    public interface ShadowCandidate {
+        Map<String, String> execute(PerfKpiService service, List<KpiRequest> requests, ExecutionContext context) throws Exception;
+    }
+
+    private static class KpiStats {
+        private long runs;
+        private long mismatches;
+        private double maxAbsoluteDifference;
+        private double maxRelativeDifference;
+        private long referenceMillis;
+        private long candidateMillis;
+        private long referenceCpuMillis;
+        private long candidateCpuMillis;
+        private ShadowComparison lastMismatch;
+    }
+
+    private final Supplier<PerfKpiService> serviceFactory;
+    private final Map<String, ShadowCandidate> candidates = new LinkedHashMap<>();
+    private final int minRuns;
+    private final double tolerance;
+
+    public ShadowExecutionService(Supplier<PerfKpiService> serviceFactory, int minRuns, double tolerance) {
+        this.serviceFactory = serviceFactory;
+        this.minRuns = minRuns;
+        this.tolerance = tolerance;
+        // kpis merged by source into a single query
+        candidates.put(PLANNER, (service, requests, context) -> service.executeKpis(requests, false, context));
+        // PERF-02E payloads prefiltered on their base64 encoding
+        candidates.put(PERF02E_PREFILTER, (service, requests, context) -> {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (KpiRequest request : requests) {
+                if (!KpiRegistry.PERF_02E.equals(request.getDefinition().getKpiId())) {
+                    throw new IllegalArgumentException(String.format("Candidate [%s] only computes [%s]",
+                        PERF02E_PREFILTER, KpiRegistry.PERF_02E));
+                }
+                service.setPerf02EStrategy(Perf02EStrategy.PREFILTER);
+                values.put(KpiRegistry.PERF_02E,
+                    service.executePerf02EKpi(request.getStartDate(), request.getEndDate(), false, context));
+            }
+            return values;
+        });
+    }
+
+    public static ShadowExecutionService fromEnvironment() {
+        String minRuns = System.getenv("SHADOW_MIN_RUNS");
+        String tolerance = System.getenv("SHADOW_TOLERANCE");
+        return new ShadowExecutionService(PerfKpiService::new,
+            minRuns != null && !minRuns.isEmpty() ? Integer.parseInt(minRuns) : 10,
+            tolerance != null && !tolerance.isEmpty() ? Double.parseDouble(tolerance) : 1e-6);
+    }
+
+    /**
+     * @return the names of the candidate paths
+     */
+    public List<String> getCandidates() {
+        return new ArrayList<>(candidates.keySet());
+    }
+
+    /**
+     * Computes each kpi with the reference path and with the candidate, one kpi at a time
+     * so that latency and cost are comparable per kpi
+     * @param candidate candidate path name
+     * @param requests kpis and intervals
+     * @param priority priority of the ADX queries of both paths
+     * @param context Azure function context
+     * @return a comparison per kpi
+     * @throws Exception if one of the paths fails
+     */
+    public List<ShadowComparison> run(String candidate, List<KpiRequest> requests, QueryPriority priority,
+            ExecutionContext context) throws Exception {
+
+        ShadowCandidate candidatePath = candidates.get(candidate);
+        if (candidatePath == null) {
+            throw new IllegalArgumentException(String.format("Unknown shadow candidate [%s], expected one of %s",
+                candidate, candidates.keySet()));
+        }
+
+        List<ShadowComparison> comparisons = new ArrayList<>();
+        for (KpiRequest request : requests) {
+            KpiDefinition kpi = request.getDefinition();
+
+            PerfKpiService referenceService = serviceFactory.get();
+            referenceService.setQueryPriority(priority);
+            referenceService.setPerf02EStrategy(Perf02EStrategy.DECODE_ALL);
+            referenceService.setFaultCountsViewEnabled(false);
+            long referenceStart = System.nanoTime();
+            String referenceValue = executeReference(referenceService, request, context);
+            long referenceMillis = (System.nanoTime() - referenceStart) / 1_000_000;
+
+            PerfKpiService candidateService = serviceFactory.get();
+            candidateService.setQueryPriority(priority);
+            long candidateStart = System.nanoTime();
+            String candidateValue = candidatePath.execute(candidateService, List.of(request), context).get(kpi.getKpiId());
+            long candidateMillis = (System.nanoTime() - candidateStart) / 1_000_000;
+
+            ShadowComparison comparison = compare(kpi, referenceValue, candidateValue, tolerance).toBuilder()
+                .candidate(candidate)
+                .startDate(request.getStartDate().toString())
+                .endDate(request.getEndDate().toString())
+                .referenceMillis(referenceMillis)
+                .candidateMillis(candidateMillis)
+                .referenceCpuMillis(cpuMillis(referenceService.getQueryStats()))
+                .candidateCpuMillis(cpuMillis(candidateService.getQueryStats()))
+                .build();
+
+            StructuredLog.of(context).info("shadow.compared", "kpiId", kpi.getKpiId(), "candidate", candidate,
+                "start", request.getStartDate(), "end", request.getEndDate(),
+                "reference", referenceValue, "value", candidateValue, "match", comparison.isMatch(),
+                "referenceMillis", referenceMillis, "candidateMillis", candidateMillis,
+                "referenceCpuMillis", comparison.getReferenceCpuMillis(), "candidateCpuMillis", comparison.getCandidateCpuMillis());
+
+            record(comparison);
+            comparisons.add(comparison);
+        }
+        return comparisons;
+    }
+
+    /**
+     * Compares the values of the two paths, counts must be identical while averages and
+     * availability may differ by the relative tolerance (floating point summation order)
+     * @param kpi kpi definition
+     * @param referenceValue value of the reference path
+     * @param candidateValue value of the candidate path
+     * @param tolerance relative tolerance for non count kpis
+     * @return the comparison, without latency and cost
+     */
+    public static ShadowComparison compare(KpiDefinition kpi, String referenceValue, String candidateValue, double tolerance) {
+        ShadowComparison.ShadowComparisonBuilder comparison = ShadowComparison.builder()
+            .kpiId(kpi.getKpiId())
+            .referenceValue(referenceValue)
+            .candidateValue(candidateValue);
+        try {
+            double reference = Double.parseDouble(referenceValue);
+            double value = Double.parseDouble(candidateValue);
+            double absoluteDifference = Math.abs(reference - value);
+            double relativeDifference = reference != 0 ? absoluteDifference / Math.abs(reference) : absoluteDifference;
+            boolean match = kpi.getAggregate() == KpiAggregate.COUNT
+                ? absoluteDifference == 0
+                : relativeDifference <= tolerance;
+            return comparison
+                .match(match)
+                .absoluteDifference(absoluteDifference)
+                .relativeDifference(relativeDifference)
+                .build();
+        } catch (NullPointerException | NumberFormatException e) {
+            return comparison
+                .match(referenceValue != null && referenceValue.equals(candidateValue))
+                .build();
+        }
+    }
+
+    /**
+     * @return the aggregated comparisons by candidate and kpi
+     */
+    public List<ShadowKpiReport> report() {
+        List<ShadowKpiReport> reports = new ArrayList<>();
+        synchronized (STATS) {
+            STATS.forEach((candidate, kpis) -> kpis.forEach((kpiId, stats) -> {
+                double avgReferenceMillis = (double) stats.referenceMillis / stats.runs;
+                double avgCandidateMillis = (double) stats.candidateMillis / stats.runs;
+                ShadowKpiReport.Verdict verdict = stats.mismatches > 0
+                    ? ShadowKpiReport.Verdict.UNSAFE
+                    : stats.runs >= minRuns ? ShadowKpiReport.Verdict.SAFE : ShadowKpiReport.Verdict.INSUFFICIENT_DATA;
+                reports.add(ShadowKpiReport.builder()
+                    .kpiId(kpiId)
+                    .candidate(candidate)
+                    .runs(stats.runs)
+                    .mismatches(stats.mismatches)
+                    .maxAbsoluteDifference(stats.maxAbsoluteDifference)
+                    .maxRelativeDifference(stats.maxRelativeDifference)
+                    .avgReferenceMillis(avgReferenceMillis)
+                    .avgCandidateMillis(avgCandidateMillis)
+                    .avgReferenceCpuMillis((double) stats.referenceCpuMillis / stats.runs)
+                    .avgCandidateCpuMillis((double) stats.candidateCpuMillis / stats.runs)
+                    .faster(avgCandidateMillis < avgReferenceMillis)
+                    .verdict(verdict)
+                    .lastMismatch(stats.lastMismatch)
+                    .build());
+            }));
+        }
+        return reports;
+    }
+
+    /**
+     * Aggregates a comparison in the report
+     * @param comparison comparison of a shadow run
+     */
+    public static void record(ShadowComparison comparison) {
+        synchronized (STATS) {
+            KpiStats stats = STATS.computeIfAbsent(comparison.getCandidate(), c -> new TreeMap<>())
+                .computeIfAbsent(comparison.getKpiId(), k -> new KpiStats());
+            stats.runs++;
+            stats.maxAbsoluteDifference = Math.max(stats.maxAbsoluteDifference, comparison.getAbsoluteDifference());
+            stats.maxRelativeDifference = Math.max(stats.maxRelativeDifference, comparison.getRelativeDifference());
+            stats.referenceMillis += comparison.getReferenceMillis();
+            stats.candidateMillis += comparison.getCandidateMillis();
+            stats.referenceCpuMillis += comparison.getReferenceCpuMillis();
+            stats.candidateCpuMillis += comparison.getCandidateCpuMillis();
+            if (!comparison.isMatch()) {
+                stats.mismatches++;
+                stats.lastMismatch = comparison;
+                MetricsRegistry.increment(String.format("shadow.mismatches.%s.%s", comparison.getCandidate(), comparison.getKpiId()));
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (STATS) {
+            STATS.clear();
+        }
+    }
+
+    private String executeReference(PerfKpiService service, KpiRequest request, ExecutionContext context) throws Exception {
+        KpiDefinition kpi = request.getDefinition();
+        switch (kpi.getKpiId()) {
+            case KpiRegistry.PERF_01:
+                return service.executePerf01Kpi(request.getStartDate(), request.getEndDate(), false, context);
+            case KpiRegistry.PERF_02:
+                return service.executePerf02Kpi(request.getStartDate(), request.getEndDate(), false, context);
+            case KpiRegistry.PERF_02E:
+                return service.executePerf02EKpi(request.getStartDate(), request.getEndDate(), false, context);
+            default:
+                return service.executePerfKpi(request.getStartDate(), request.getEndDate(), kpi.getKpiId(), false, context);
+        }
+    }
+
+    private static long cpuMillis(List<QueryStats> stats) {
+        return stats.stream().mapToLong(QueryStats::getCpuTimeMillis).sum();
+    }
+}
@@ -0,0 +1,200 @@
+package it.gov.pagopa.observability.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.opentelemetry.context.Context;
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+import it.gov.pagopa.observability.models.SourceTarget;
+import it.gov.pagopa.observability.models.TargetOutcome;
+
+/**
+ * Re events split across clusters, databases and tables (es. by region or by time), configured by
+ * ADX_SOURCE_TARGETS as a JSON array of {name, clusterUrl, database, table, from, to}. The missing
+ * cluster, database and table default to ADX_CLUSTER_URL, ADX_DATABASE_NAME and ADX_SOURCE_TABLE.
+ * The counts of a plan are queried on the targets holding the interval in parallel and summed, a run
+ * with a failed target fails unless ADX_FEDERATION_ALLOW_PARTIAL is set
+ */
+public class SourceFederation {
+
+    private static final SourceFederation INSTANCE = fromEnvironment();
+
+    /**
+     * Counts the kpis of a plan on a target
+     */
+    @FunctionalInterface
+    public interface TargetQuery {
+        Map<String, Long> count(SourceTarget target, LocalDateTime startDate, LocalDateTime endDate) throws Exception;
+    }
+
+    private final List<SourceTarget> targets;
+    private final boolean allowPartial;
+    private final ExecutorService executor;
+
+    public SourceFederation(List<SourceTarget> targets, boolean allowPartial, int threads) {
+        Set<String> names = new HashSet<>();
+        for (SourceTarget target : targets) {
+            if (target.getName() == null || !names.add(target.getName())) {
+                throw new IllegalArgumentException(String.format("SourceFederation - target names must be set and unique: %s", target.getName()));
+            }
+            if (target.getFrom() != null && target.getTo() != null && !target.getFrom().isBefore(target.getTo())) {
+                throw new IllegalArgumentException(String.format("SourceFederation - target %s: from must be before to", target.getName()));
+            }
+        }
+        this.targets = List.copyOf(targets);
+        this.allowPartial = allowPartial;
+        this.executor = targets.isEmpty() ? null : Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "source-federation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static SourceFederation getInstance() {
+        return INSTANCE;
+    }
+
+    static SourceFederation fromEnvironment() {
+        String threads = System.getenv("ADX_FEDERATION_THREADS");
+        return new SourceFederation(
+            parseTargets(System.getenv("ADX_SOURCE_TARGETS"), System.getenv("ADX_CLUSTER_URL"),
+                System.getenv("ADX_DATABASE_NAME"), System.getenv("ADX_SOURCE_TABLE")),
+            "true".equalsIgnoreCase(System.getenv("ADX_FEDERATION_ALLOW_PARTIAL")),
+            threads != null && !threads.isEmpty() ? Integer.parseInt(threads) : 8);
+    }
+
+    /**
+     * @param json JSON array of the targets, no federation if null or empty
+     * @param defaultCluster cluster of the targets not declaring one
+     * @param defaultDatabase database of the targets not declaring one
+     * @param defaultTable table of the targets not declaring one
+     * @return the targets
+     * @throws IllegalArgumentException on an invalid configuration
+     */
+    public static List<SourceTarget> parseTargets(String json, String defaultCluster, String defaultDatabase, String defaultTable) {
+        List<SourceTarget> targets = new ArrayList<>();
+        if (json == null || json.isBlank()) {
+            return targets;
+        }
+        JsonNode array;
+        try {
+            array = JsonHelper.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("SourceFederation - ADX_SOURCE_TARGETS is not valid JSON: " + e.getMessage());
+        }
+        if (!array.isArray()) {
+            throw new IllegalArgumentException("SourceFederation - ADX_SOURCE_TARGETS must be a JSON array");
+        }
+        for (JsonNode node : array) {
+            targets.add(SourceTarget.builder()
+                .name(node.path("name").asText(null))
+                .clusterUrl(node.path("clusterUrl").asText(defaultCluster))
+                .database(node.path("database").asText(defaultDatabase))
+                .table(node.path("table").asText(defaultTable))
+                .from(node.hasNonNull("from") ? LocalDateTime.parse(node.get("from").asText()) : null)
+                .to(node.hasNonNull("to") ? LocalDateTime.parse(node.get("to").asText()) : null)
+                .build());
+        }
+        return targets;
+    }
+
+    public boolean isEnabled() {
+        return !targets.isEmpty();
+    }
+
+    public List<SourceTarget> getTargets() {
+        return targets;
+    }
+
+    /**
+     * @param startDate interval start
+     * @param endDate interval end (included)
+     * @return the targets holding a part of the interval
+     */
+    public List<SourceTarget> targetsFor(LocalDateTime startDate, LocalDateTime endDate) {
+        return targets.stream()
+            .filter(t -> (t.getFrom() == null || !endDate.isBefore(t.getFrom())) && (t.getTo() == null || startDate.isBefore(t.getTo())))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Counts the kpis on every target holding a part of the interval, in parallel, and sums the partial counts.
+     * The interval is clipped to the time range of each target, so that time split targets are not counted twice
+     * @param kpiIds kpis counted by the query
+     * @param startDate interval start
+     * @param endDate interval end (included)
+     * @param query count query of a target
+     * @param outcomes receives the outcome of each target, failed ones included
+     * @return the merged counts by kpi id
+     * @throws IllegalStateException if a target failed and partial results are not allowed, or all targets failed
+     */
+    public Map<String, Long> count(List<String> kpiIds, LocalDateTime startDate, LocalDateTime endDate, TargetQuery query,
+            List<TargetOutcome> outcomes) throws InterruptedException {
+
+        List<SourceTarget> selected = targetsFor(startDate, endDate);
+        Map<SourceTarget, Future<TargetOutcome>> futures = new LinkedHashMap<>();
+        for (SourceTarget target : selected) {
+            LocalDateTime start = target.getFrom() != null && target.getFrom().isAfter(startDate) ? target.getFrom() : startDate;
+            // to is excluded, end is included
+            LocalDateTime end = target.getTo() != null && !target.getTo().isAfter(endDate) ? target.getTo().minusNanos(1000) : endDate;
+            Callable<TargetOutcome> call = () -> {
+                long startTime = System.nanoTime();
+                TargetOutcome.TargetOutcomeBuilder outcome = TargetOutcome.builder()
+                    .target(target.getName())
+                    .kpis(String.join(",", kpiIds))
+                    .startDate(start)
+                    .endDate(end);
+                try {
+                    outcome.counts(query.count(target, start, end));
+                } catch (Exception e) {
+                    MetricsRegistry.increment("adx.federation.errors." + target.getName());
+                    outcome.error(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                }
+                long millis = (System.nanoTime() - startTime) / 1_000_000;
+                MetricsRegistry.recordTime("adx.federation." + target.getName(), millis);
+                return outcome.millis(millis).build();
+            };
+            futures.put(target, executor.submit(Context.current().wrap(call)));
+        }
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        kpiIds.forEach(kpiId -> counts.put(kpiId, 0L));
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<SourceTarget, Future<TargetOutcome>> entry : futures.entrySet()) {
+            TargetOutcome outcome;
+            try {
+                outcome = entry.getValue().get();
+            } catch (ExecutionException e) {
+                outcome = TargetOutcome.builder().target(entry.getKey().getName()).error(String.valueOf(e.getCause())).build();
+            }
+            outcomes.add(outcome);
+            if (outcome.getError() != null) {
+                failed.add(outcome.getTarget());
+                continue;
+            }
+            for (String kpiId : kpiIds) {
+                counts.merge(kpiId, outcome.getCounts().getOrDefault(kpiId, 0L), Long::sum);
+            }
+        }
+
+        if (!failed.isEmpty() && (!allowPartial || failed.size() == selected.size())) {
+            throw new IllegalStateException(String.format("SourceFederation - targets %s failed, counts of %s to %s not computed",
+                failed, startDate, endDate));
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,499 @@
+package it.gov.pagopa.observability.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.opentelemetry.api.trace.SpanKind;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+import it.gov.pagopa.observability.helper.StandaloneExecutionContext;
+import it.gov.pagopa.observability.helper.StructuredLog;
+import it.gov.pagopa.observability.helper.Tracing;
+import it.gov.pagopa.observability.models.PerfKpiRow;
+
+/**
+ * Write-behind stage for the kpi rows and the Event Hub messages.
+ * Each entry is journaled (fsync) on an append-only JSON lines file before returning to the caller,
+ * a background task drains the pending entries in batches and appends an ack line for the sent ones.
+ * Every entry is sent and acked on its own: a failed entry is retried with an exponential backoff, its attempts
+ * are journaled, and after SPOOL_MAX_ATTEMPTS it is moved to the dead letter file next to the journal.
+ * On startup the entries without ack are replayed, the file is compacted when nothing is pending.
+ * The kpi rows of an entry are ingested with an ingest-by tag from its key, so an entry replayed after a crash
+ * between the ingestion and the ack is not ingested twice.
+ * A compaction writes a new file next to the journal and atomically replaces it, so a crash leaves either one whole.
+ * Enabled by SPOOL_DIR, the directory has to be on a persistent volume to survive restarts
+ */
+public class WriteBehindSpool {
+
+    private static final StructuredLog LOG = StructuredLog.of(Logger.getLogger(WriteBehindSpool.class.getName()));
+
+    private static final String SPOOL_FILE = "perf-kpi-spool.jsonl";
+    private static final String TYPE_KPI = "KPI";
+    private static final String TYPE_EVENT_HUB = "EVH";
+
+    private static WriteBehindSpool instance;
+
+    /**
+     * Destination of the kpi rows
+     */
+    public interface KpiSink {
+        void write(String tableName, List<PerfKpiRow> rows, String ingestTag) throws Exception;
+    }
+
+    /**
+     * Destination of the Event Hub messages
+     */
+    public interface MessageSink {
+        /**
+         * @param messages messages to send
+         * @return the error of each message, null if the message was sent
+         */
+        List<String> send(List<byte[]> messages) throws Exception;
+    }
+
+    private static class Entry {
+        private long id;
+        /** stable across compactions, unlike the id */
+        private String key;
+        private String type;
+        private String tableName;
+        private List<PerfKpiRow> rows;
+        private byte[] payload;
+        private int attempts;
+        /** not before this time, entries failed on a previous drain */
+        private long retryAt;
+    }
+
+    private final Path file;
+    private final KpiSink kpiSink;
+    private final MessageSink messageSink;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    private final Object drainLock = new Object();
+    private FileChannel channel;
+    private long nextId;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param file journal file
+     * @param kpiSink destination of the kpi rows
+     * @param messageSink destination of the Event Hub messages
+     * @param batchSize maximum number of entries of a drain
+     * @param maxAttempts failed sends of an entry before it is dead lettered
+     * @param backoffMillis delay before the first retry of an entry, doubled on each further failure
+     * @throws IOException if the journal can't be replayed
+     */
+    public WriteBehindSpool(Path file, KpiSink kpiSink, MessageSink messageSink, int batchSize, int maxAttempts,
+            long backoffMillis) throws IOException {
+        this.file = file;
+        this.kpiSink = kpiSink;
+        this.messageSink = messageSink;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        replay();
+    }
+
+    /**
+     * @return the process wide spool configured by SPOOL_DIR, null if the spool is disabled
+     * @throws IOException if the spool file can't be opened
+     */
+    public static synchronized WriteBehindSpool getInstance() throws IOException {
+        String spoolDir = System.getenv("SPOOL_DIR");
+        if (spoolDir == null || spoolDir.isEmpty()) {
+            return null;
+        }
+        if (instance == null) {
+            String batchSize = System.getenv("SPOOL_BATCH_SIZE");
+            String drainInterval = System.getenv("SPOOL_DRAIN_INTERVAL_MS");
+            String maxAttempts = System.getenv("SPOOL_MAX_ATTEMPTS");
+            String backoff = System.getenv("SPOOL_RETRY_BACKOFF_MS");
+
+            PerfKpiService service = new PerfKpiService();
+            StandaloneExecutionContext context = new StandaloneExecutionContext("WriteBehindSpool");
+
+            Files.createDirectories(Paths.get(spoolDir));
+            instance = new WriteBehindSpool(Paths.get(spoolDir, SPOOL_FILE),
+                (tableName, rows, ingestTag) -> service.writePerfKpiRows(tableName, rows, ingestTag, context),
+                messages -> service.sendPackedToEventHub(messages, false, context),
+                batchSize != null && !batchSize.isEmpty() ? Integer.parseInt(batchSize) : 500,
+                maxAttempts != null && !maxAttempts.isEmpty() ? Integer.parseInt(maxAttempts) : 10,
+                backoff != null && !backoff.isEmpty() ? Long.parseLong(backoff) : 5000);
+            instance.start(drainInterval != null && !drainInterval.isEmpty() ? Long.parseLong(drainInterval) : 5000);
+        }
+        return instance;
+    }
+
+    /**
+     * Journals kpi rows to be written on the given table
+     * @param tableName target table
+     * @param rows kpi rows
+     * @throws IOException if the entry can't be journaled
+     */
+    public void appendRows(String tableName, List<PerfKpiRow> rows) throws IOException {
+        Entry entry = new Entry();
+        entry.type = TYPE_KPI;
+        entry.tableName = tableName;
+        entry.rows = rows;
+        append(entry);
+    }
+
+    /**
+     * Journals a message to be sent to Event Hub
+     * @param payload UTF-8 encoded message
+     * @throws IOException if the entry can't be journaled
+     */
+    public void appendMessage(byte[] payload) throws IOException {
+        Entry entry = new Entry();
+        entry.type = TYPE_EVENT_HUB;
+        entry.payload = payload;
+        append(entry);
+    }
+
+    /**
+     * @return number of journaled entries not yet sent
+     */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Starts the background drain
+     * @param intervalMillis delay between two drains
+     */
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-spool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                drain();
+            } catch (Exception e) {
+                LOG.severe("spool.drain.failed", "error", e.getMessage());
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends up to SPOOL_BATCH_SIZE pending entries not waiting for a retry: the kpi rows with one write per entry,
+     * the messages with one send reporting the outcome of each message. Only the sent entries are acked,
+     * the failed ones stay pending until their backoff expires or they are dead lettered
+     * @return number of entries sent
+     * @throws IOException if the ack or the attempts can't be journaled
+     */
+    public int drain() throws IOException {
+        synchronized (drainLock) {
+            long now = System.currentTimeMillis();
+            List<Entry> batch;
+            synchronized (this) {
+                batch = new ArrayList<>();
+                for (Entry entry : pending.values()) {
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                    if (entry.retryAt <= now) {
+                        batch.add(entry);
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+
+            // entries failed on a previous drain are retried, the attempt is traced
+            int attempt = batch.stream().mapToInt(entry -> entry.attempts).max().orElse(0);
+            return Tracing.trace("spool.drain", SpanKind.INTERNAL, span -> {
+                span.setAttribute("spool.entries", batch.size());
+                span.setAttribute("retry.attempt", attempt);
+
+                long startTime = System.nanoTime();
+                List<Long> sent = new ArrayList<>();
+                Map<Entry, String> failed = new LinkedHashMap<>();
+
+                List<Entry> messages = new ArrayList<>();
+                for (Entry entry : batch) {
+                    if (!TYPE_KPI.equals(entry.type)) {
+                        messages.add(entry);
+                        continue;
+                    }
+                    try {
+                        kpiSink.write(entry.tableName, entry.rows, "spool|" + entry.key);
+                        sent.add(entry.id);
+                    } catch (Exception e) {
+                        failed.put(entry, String.valueOf(e.getMessage()));
+                    }
+                }
+
+                if (!messages.isEmpty()) {
+                    List<byte[]> payloads = new ArrayList<>();
+                    messages.forEach(entry -> payloads.add(entry.payload));
+                    List<String> errors;
+                    try {
+                        errors = messageSink.send(payloads);
+                    } catch (Exception e) {
+                        errors = Collections.nCopies(payloads.size(), String.valueOf(e.getMessage()));
+                    }
+                    for (int i = 0; i < messages.size(); i++) {
+                        if (errors.get(i) == null) {
+                            sent.add(messages.get(i).id);
+                        } else {
+                            failed.put(messages.get(i), errors.get(i));
+                        }
+                    }
+                }
+
+                List<Long> done = new ArrayList<>(sent);
+                done.addAll(retryLater(failed, now));
+                ack(done);
+                MetricsRegistry.recordTime("spool.drain", (System.nanoTime() - startTime) / 1_000_000);
+                MetricsRegistry.increment("spool.drained", sent.size());
+                span.setAttribute("spool.sent", sent.size());
+                span.setAttribute("spool.failed", failed.size());
+                return sent.size();
+            });
+        }
+    }
+
+    /**
+     * Journals a failed attempt of the entries and schedules their retry
+     * @param failed failed entries and their errors
+     * @param now time of the attempt
+     * @return the ids of the entries moved to the dead letter file, to be acked
+     * @throws IOException if the attempts or the dead letters can't be journaled
+     */
+    private synchronized List<Long> retryLater(Map<Entry, String> failed, long now) throws IOException {
+        List<Long> deadLettered = new ArrayList<>();
+        if (failed.isEmpty()) {
+            return deadLettered;
+        }
+        writeLine(JsonHelper.writeToString(generator -> {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("failed");
+            for (Entry entry : failed.keySet()) {
+                generator.writeNumber(entry.id);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }));
+        for (Map.Entry<Entry, String> failure : failed.entrySet()) {
+            Entry entry = failure.getKey();
+            entry.attempts++;
+            MetricsRegistry.increment("spool.drain.errors");
+            if (entry.attempts >= maxAttempts) {
+                deadLetter(entry, failure.getValue());
+                deadLettered.add(entry.id);
+            } else {
+                entry.retryAt = now + (backoffMillis << Math.min(entry.attempts - 1, 6));
+                // the same error repeats on every drain while the sink is down
+                LOG.sampled(Level.WARNING, "spool.drain.retry", "type", entry.type, "table", entry.tableName,
+                    "attempts", entry.attempts, "error", failure.getValue());
+            }
+        }
+        return deadLettered;
+    }
+
+    private void deadLetter(Entry entry, String error) throws IOException {
+        Path deadLetters = file.resolveSibling(file.getFileName() + ".dead");
+        try (FileChannel out = FileChannel.open(deadLetters, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap((toLine(entry, entry.id, error) + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        }
+        MetricsRegistry.increment("spool.dead_lettered");
+        LOG.severe("spool.entry.dead_lettered", "type", entry.type, "table", entry.tableName, "attempts", entry.attempts,
+            "file", deadLetters, "error", error);
+    }
+
+    private synchronized void append(Entry entry) throws IOException {
+        entry.id = nextId++;
+        entry.key = UUID.randomUUID().toString();
+        writeLine(toLine(entry, entry.id, null));
+        pending.put(entry.id, entry);
+        MetricsRegistry.increment("spool.appended");
+    }
+
+    private static String toLine(Entry entry, long id, String error) throws IOException {
+        return JsonHelper.writeToString(generator -> {
+            generator.writeStartObject();
+            generator.writeNumberField("id", id);
+            generator.writeStringField("key", entry.key);
+            generator.writeStringField("type", entry.type);
+            if (entry.attempts > 0) {
+                generator.writeNumberField("attempts", entry.attempts);
+            }
+            if (error != null) {
+                generator.writeStringField("error", error);
+            }
+            if (TYPE_KPI.equals(entry.type)) {
+                generator.writeStringField("table", entry.tableName);
+                generator.writeArrayFieldStart("rows");
+                for (PerfKpiRow row : entry.rows) {
+                    generator.writeStartObject();
+                    generator.writeStringField("startDate", row.getStartDate().toString());
+                    generator.writeStringField("endDate", row.getEndDate().toString());
+                    generator.writeStringField("kpiId", row.getKpiId());
+                    generator.writeStringField("kpiValue", row.getKpiValue());
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            } else {
+                generator.writeBinaryField("payload", entry.payload);
+            }
+            generator.writeEndObject();
+        });
+    }
+
+    private synchronized void ack(List<Long> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        ids.forEach(pending::remove);
+        // the ack is journaled before any compaction, a failed compaction leaves a consistent journal
+        writeLine(JsonHelper.writeToString(generator -> {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("ack");
+            for (Long id : ids) {
+                generator.writeNumber(id);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }));
+        if (pending.isEmpty()) {
+            // nothing left to replay, compact the file
+            compact(List.of());
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private synchronized void replay() throws IOException {
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                try {
+                    JsonNode node = JsonHelper.readTree(line);
+                    if (node.has("ack")) {
+                        node.get("ack").forEach(id -> pending.remove(id.asLong()));
+                    } else if (node.has("failed")) {
+                        node.get("failed").forEach(id -> {
+                            Entry entry = pending.get(id.asLong());
+                            if (entry != null) {
+                                entry.attempts++;
+                            }
+                        });
+                    } else {
+                        Entry entry = parseEntry(node);
+                        pending.put(entry.id, entry);
+                    }
+                } catch (Exception e) {
+                    // torn write of the last line before a crash, the caller never got the ok
+                    LOG.sampled(Level.WARNING, "spool.replay.line_skipped", "error", e.getMessage());
+                }
+            }
+        }
+
+        // rewrite the file with the pending entries only, ids are reassigned
+        List<Entry> entries = new ArrayList<>(pending.values());
+        compact(entries);
+        if (!entries.isEmpty()) {
+            LOG.info("spool.replay.restored", "entries", entries.size(), "file", file);
+        }
+    }
+
+    /**
+     * Replaces the journal with the given entries. The new content is written and synced on a sibling file
+     * first, then moved over the journal: until the move the previous journal is left as it was
+     * @param entries entries still pending, their ids are reassigned
+     * @throws IOException if the new journal can't be written, the previous one is kept
+     */
+    private synchronized void compact(List<Entry> entries) throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long id = 0;
+            for (Entry entry : entries) {
+                ByteBuffer buffer = ByteBuffer.wrap((toLine(entry, id++, null) + "\n").getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(true);
+        }
+
+        // the current channel keeps appending to the previous journal if the move fails
+        Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        pending.clear();
+        nextId = 0;
+        for (Entry entry : entries) {
+            entry.id = nextId++;
+            pending.put(entry.id, entry);
+        }
+    }
+
+    private Entry parseEntry(JsonNode node) throws IOException {
+        Entry entry = new Entry();
+        entry.id = node.get("id").asLong();
+        // entries journaled before the keys were introduced get one on replay
+        entry.key = node.hasNonNull("key") ? node.get("key").asText() : UUID.randomUUID().toString();
+        entry.type = node.get("type").asText();
+        entry.attempts = node.path("attempts").asInt(0);
+        if (TYPE_KPI.equals(entry.type)) {
+            entry.tableName = node.get("table").asText();
+            entry.rows = new ArrayList<>();
+            for (JsonNode row : node.get("rows")) {
+                entry.rows.add(PerfKpiRow.builder()
+                    .startDate(LocalDateTime.parse(row.get("startDate").asText()))
+                    .endDate(LocalDateTime.parse(row.get("endDate").asText()))
+                    .kpiId(row.get("kpiId").asText())
+                    .kpiValue(row.get("kpiValue").asText())
+                    .build());
+            }
+        } else {
+            entry.payload = node.get("payload").binaryValue();
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,54 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.models.DailyAvailability;
+import it.gov.pagopa.observability.service.AvailabilityCache;
+
+public class AvailabilityCacheTest {
+
+    private static final long DAY_SECONDS = 24 * 60 * 60;
+
+    @BeforeEach
+    void setUp() {
+        AvailabilityCache.getInstance().clear();
+    }
+
+    private DailyAvailability day(LocalDate day, double outageSeconds, long daySeconds) {
+        return DailyAvailability.builder().day(day).outageSeconds(outageSeconds).daySeconds(daySeconds).build();
+    }
+
+    @Test
+    void testComposeIsTimeWeighted() {
+        LocalDate day = LocalDate.of(2025, 3, 1);
+        // 864s of outage over two full days is 0.5% of the range
+        assertEquals(99.5, AvailabilityCache.compose(List.of(
+            day(day, 864, DAY_SECONDS),
+            day(day.plusDays(1), 0, DAY_SECONDS))), 0.0001);
+        // a partial day weighs less than a full one
+        assertEquals(99.0, AvailabilityCache.compose(List.of(
+            day(day, 0, DAY_SECONDS / 2),
+            day(day.plusDays(1), 1296, DAY_SECONDS))), 0.0001);
+        assertEquals(100.0, AvailabilityCache.compose(List.of(day(day, 0, DAY_SECONDS))), 0.0001);
+    }
+
+    @Test
+    void testCurrentDayIsNotCached() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        AvailabilityCache cache = AvailabilityCache.getInstance();
+        cache.put(day(today, 0, 3600));
+        cache.put(day(today.minusDays(1), 10, DAY_SECONDS));
+
+        assertNull(cache.get(today));
+        assertNotNull(cache.get(today.minusDays(1)));
+    }
+}
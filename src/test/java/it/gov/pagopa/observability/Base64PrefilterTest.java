@@ -0,0 +1,122 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.Base64Prefilter;
+
+/**
+ * The PERF-02E count with the prefilter must be identical to the count decoding every payload:
+ * decoded payload contains 'faultCode', case insensitive as the Kusto contains operator
+ */
+public class Base64PrefilterTest {
+
+    private static final String TOKEN = "faultCode";
+    private static final Pattern PREFILTER = Pattern.compile(Base64Prefilter.regex(TOKEN));
+
+    private static final List<String> SAMPLES = List.of(
+        "<soapenv:Fault><faultCode>PPT_STAZIONE_INT_PA_TIMEOUT</faultCode></soapenv:Fault>",
+        "{\"outcome\":\"KO\",\"fault\":{\"faultCode\":\"PPT_SINTASSI_EXTRAXSD\",\"faultString\":\"Errore\"}}",
+        "<nodoInviaRPTRisposta><esito>OK</esito></nodoInviaRPTRisposta>",
+        "<FAULTCODE>upper case</FAULTCODE>",
+        "<x>FaultCode</x>",
+        "faultCode",
+        "afaultCode",
+        "abfaultCode",
+        "faultCod e",
+        "fault Code",
+        "faultCod",
+        "<outcome>KO</outcome><description>nessun faultcode</description>",
+        "àèì faultCode ù",
+        "");
+
+    @Test
+    void testSamplesAreEquivalent() {
+        for (String sample : SAMPLES) {
+            assertEquivalent(sample);
+        }
+        // the prefilter drops the payloads without the token
+        assertFalse(PREFILTER.matcher(encode("<nodoInviaRPTRisposta><esito>OK</esito></nodoInviaRPTRisposta>")).find());
+        assertTrue(PREFILTER.matcher(encode("<FAULTCODE>upper case</FAULTCODE>")).find());
+    }
+
+    @Test
+    void testRandomPayloadsCountIsIdentical() {
+        Random random = new Random(42);
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789<>/\"{}:, _-";
+        int legacyCount = 0;
+        int prefilteredCount = 0;
+        int decoded = 0;
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder payload = new StringBuilder();
+            int length = random.nextInt(200);
+            for (int j = 0; j < length; j++) {
+                payload.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            if (random.nextInt(4) == 0) {
+                // token at a random offset with random casing
+                StringBuilder token = new StringBuilder();
+                for (char c : TOKEN.toCharArray()) {
+                    token.append(random.nextBoolean() ? Character.toUpperCase(c) : Character.toLowerCase(c));
+                }
+                payload.insert(random.nextInt(payload.length() + 1), token);
+            } else if (random.nextInt(4) == 0) {
+                // near misses
+                payload.insert(random.nextInt(payload.length() + 1), TOKEN.substring(0, 1 + random.nextInt(TOKEN.length() - 1)));
+            }
+
+            String encoded = encode(payload.toString());
+            boolean legacy = legacy(encoded);
+            boolean survives = PREFILTER.matcher(encoded).find();
+            if (legacy) {
+                legacyCount++;
+                assertTrue(survives, "prefilter dropped a payload containing the token: " + payload);
+            }
+            if (survives) {
+                decoded++;
+                if (legacy(encoded)) {
+                    prefilteredCount++;
+                }
+            }
+        }
+        assertEquals(legacyCount, prefilteredCount);
+        // only a small share of the payloads without the token are decoded
+        assertTrue(decoded - legacyCount < (20_000 - legacyCount) / 20);
+    }
+
+    @Test
+    void testPatternShape() {
+        List<String> patterns = Base64Prefilter.alignmentPatterns(TOKEN);
+
+        assertEquals(3, patterns.size());
+        // exact case token aligned on a base64 quantum: "faultCode" is encoded as "ZmF1bHRDb2Rl"
+        assertTrue(Pattern.compile(patterns.get(0)).matcher("ZmF1bHRDb2Rl").matches());
+        assertTrue(Base64Prefilter.kustoPredicate("payload", TOKEN).startsWith("payload matches regex @'"));
+    }
+
+    private static void assertEquivalent(String payload) {
+        String encoded = encode(payload);
+        boolean legacy = legacy(encoded);
+        boolean prefiltered = PREFILTER.matcher(encoded).find() && legacy(encoded);
+        assertEquals(legacy, prefiltered, payload);
+    }
+
+    /** today's predicate: base64_decode_tostring(payload) contains 'faultCode' */
+    private static boolean legacy(String encoded) {
+        String decoded = new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+        return decoded.toLowerCase().contains(TOKEN.toLowerCase());
+    }
+
+    private static String encode(String payload) {
+        return Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
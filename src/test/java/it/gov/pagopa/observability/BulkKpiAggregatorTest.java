@@ -0,0 +1,51 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.PerfKpiHelper;
+
+public class BulkKpiAggregatorTest {
+
+    @Test
+    void testParseQuarterRangeAcrossYears() {
+        List<YearMonth> quarters = BulkKpiAggregator.parseQuarterRange("2023-Q3", "2024q2", 40);
+
+        assertEquals(4, quarters.size());
+        assertEquals(YearMonth.of(2023, 7), quarters.get(0));
+        assertEquals(YearMonth.of(2023, 10), quarters.get(1));
+        assertEquals(YearMonth.of(2024, 1), quarters.get(2));
+        assertEquals(YearMonth.of(2024, 4), quarters.get(3));
+    }
+
+    @Test
+    void testParseQuarterRangeRejectsInvalidRanges() {
+        assertThrows(IllegalArgumentException.class, () -> BulkKpiAggregator.parseQuarterRange("2024-Q5", "2024-Q4", 40));
+        assertThrows(IllegalArgumentException.class, () -> BulkKpiAggregator.parseQuarterRange(null, null, 40));
+        assertThrows(IllegalArgumentException.class, () -> BulkKpiAggregator.parseQuarterRange("2024-Q2", "2024-Q1", 40));
+        assertThrows(IllegalArgumentException.class, () -> BulkKpiAggregator.parseQuarterRange("2020-Q1", "2024-Q4", 8));
+    }
+
+    @Test
+    void testGzip() throws Exception {
+        byte[] message = "[{\"year\":\"2024\",\"quarter\":\"Q1\",\"month\":\"01\"},{\"year\":\"2024\",\"quarter\":\"Q1\",\"month\":\"02\"}]"
+            .repeat(20).getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = PerfKpiHelper.gzip(message);
+
+        assertTrue(compressed.length < message.length);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(message, in.readAllBytes());
+        }
+    }
+}
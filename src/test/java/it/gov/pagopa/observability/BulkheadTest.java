@@ -0,0 +1,73 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.Bulkhead;
+
+public class BulkheadTest {
+
+    @Test
+    void testSaturatedBulkheadFailsFastWithoutAffectingOthers() throws Exception {
+        Bulkhead hung = new Bulkhead("hung", 1, 0, 100, 5_000);
+        Bulkhead healthy = new Bulkhead("healthy", 1, 0, 100, 5_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> pending = caller.submit(() -> hung.call(() -> {
+                started.countDown();
+                release.await();
+                return "late";
+            }));
+            assertEquals(true, started.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            assertThrows(IllegalStateException.class, () -> hung.call(() -> "rejected"));
+            assertEquals(true, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+            assertEquals("ok", healthy.call(() -> "ok"));
+
+            release.countDown();
+            assertEquals("late", pending.get(5, TimeUnit.SECONDS));
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    void testCallExceedingTheDeadlineIsInterrupted() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("slow", 1, 0, 100, 50);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        assertThrows(TimeoutException.class, () -> bulkhead.call(() -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        }));
+        assertEquals(true, interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testCallExceptionIsRethrown() {
+        Bulkhead bulkhead = new Bulkhead("failing", 1, 1, 100, 5_000);
+
+        IOException e = assertThrows(IOException.class, () -> bulkhead.call(() -> {
+            throw new IOException("connection reset");
+        }));
+        assertEquals("connection reset", e.getMessage());
+    }
+}
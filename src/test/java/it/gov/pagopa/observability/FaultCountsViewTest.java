@@ -0,0 +1,105 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.models.MaterializedViewStatus;
+import it.gov.pagopa.observability.service.FaultCountsView;
+
+public class FaultCountsViewTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 10, 12, 30);
+
+    private final FaultCountsView view = new FaultCountsView("ReEventInterfaceHourly", "ReEvent",
+        LocalDateTime.of(2024, 1, 1, 0, 0), 60_000);
+
+    private MaterializedViewStatus status() {
+        return MaterializedViewStatus.builder()
+            .name("ReEventInterfaceHourly")
+            .query(view.definition().replace("|", "\n| "))
+            .enabled(true)
+            .healthy(true)
+            .effectiveDateTime(LocalDateTime.of(2024, 1, 1, 0, 0))
+            .materializedTo(NOW.minusMinutes(5))
+            .build();
+    }
+
+    @Test
+    void testHourAlignedIntervalsAreCovered() {
+        LocalDateTime start = LocalDateTime.of(2024, 6, 10, 10, 0);
+
+        // hourly trigger interval, end on the hour boundary
+        assertEquals(start.plusHours(1), view.coveredEnd(status(), start, start.plusHours(1), NOW));
+        // monthly interval, end on the last second of the month
+        assertEquals(LocalDateTime.of(2024, 6, 1, 0, 0), view.coveredEnd(status(),
+            LocalDateTime.of(2024, 5, 1, 0, 0), LocalDateTime.of(2024, 5, 31, 23, 59, 59), NOW));
+
+        assertNull(view.coveredEnd(status(), start.plusMinutes(10), start.plusHours(1), NOW));
+        assertNull(view.coveredEnd(status(), start, start.plusMinutes(90), NOW));
+        // the current hour is not complete yet
+        assertNull(view.coveredEnd(status(), start, start.plusHours(3), NOW));
+    }
+
+    @Test
+    void testViewStateLimitsTheCoverage() {
+        LocalDateTime start = LocalDateTime.of(2024, 6, 10, 10, 0);
+
+        assertNull(view.coveredEnd(null, start, start.plusHours(1), NOW));
+        assertNull(view.coveredEnd(status().toBuilder().healthy(false).build(), start, start.plusHours(1), NOW));
+        assertNull(view.coveredEnd(status().toBuilder().enabled(false).build(), start, start.plusHours(1), NOW));
+        assertNull(view.coveredEnd(status().toBuilder().query("ReEvent | count").build(), start, start.plusHours(1), NOW));
+        assertNull(view.coveredEnd(status(), LocalDateTime.of(2023, 12, 31, 23, 0), LocalDateTime.of(2024, 1, 1, 1, 0), NOW));
+
+        // rows materialized before an altered definition are not used
+        MaterializedViewStatus altered = status().toBuilder()
+            .validFrom(FaultCountsView.parseValidFrom("validFrom=2024-06-10T11:00:00"))
+            .build();
+        assertNull(view.coveredEnd(altered, start, start.plusHours(1), NOW));
+        assertEquals(start.plusHours(2), view.coveredEnd(altered, start.plusHours(1), start.plusHours(2), NOW));
+    }
+
+    @Test
+    void testHoursNotMaterializedYetAreNotCovered() {
+        // the hourly run right after the hour closes, the view has materialized up to a few minutes before it
+        LocalDateTime start = LocalDateTime.of(2024, 6, 10, 11, 0);
+        MaterializedViewStatus lagging = status().toBuilder().materializedTo(LocalDateTime.of(2024, 6, 10, 11, 50)).build();
+
+        assertNull(view.coveredEnd(lagging, start, start.plusHours(1), NOW));
+        assertEquals(start, view.coveredEnd(lagging, start.minusHours(1), start, NOW));
+        assertNull(view.coveredEnd(status().toBuilder().materializedTo(null).build(), start.minusHours(1), start, NOW));
+    }
+
+    @Test
+    void testCommands() {
+        String create = view.createCommand();
+        assertTrue(create.startsWith(".create async ifnotexists materialized-view with (backfill=true, effectiveDateTime=datetime(2024-01-01T00:00:00)) ReEventInterfaceHourly on table ReEvent {"));
+        assertTrue(create.contains(view.definition()));
+        assertTrue(view.definition().contains("base64_decode_tostring(payload) contains 'faultCode'"));
+        assertTrue(view.definition().endsWith("by hour = bin(insertedTimestamp, 1h)"));
+        assertEquals(".alter materialized-view ReEventInterfaceHourly docstring 'validFrom=2024-06-10T13:00:00'",
+            view.validFromCommand(FaultCountsView.nextHour(NOW)));
+        assertEquals(NOW.plusMinutes(30), FaultCountsView.nextHour(NOW));
+        assertEquals(NOW.plusMinutes(30), FaultCountsView.nextHour(NOW.plusMinutes(30)));
+        assertFalse(new FaultCountsView("", "ReEvent", null, 0).isEnabled());
+    }
+
+    @Test
+    void testStatusIsReusedUntilInvalidated() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        view.status(() -> { loads.incrementAndGet(); return status(); });
+        view.status(() -> { loads.incrementAndGet(); return status(); });
+        assertEquals(1, loads.get());
+
+        view.invalidate();
+        view.status(() -> { loads.incrementAndGet(); return null; });
+        assertNull(view.status(() -> { loads.incrementAndGet(); return status(); }));
+        assertEquals(2, loads.get());
+    }
+}
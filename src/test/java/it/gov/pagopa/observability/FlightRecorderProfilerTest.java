@@ -0,0 +1,66 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.FlightRecorderProfiler;
+import it.gov.pagopa.observability.models.ProfileSummary;
+
+public class FlightRecorderProfilerTest {
+
+    private Path outputDir;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        outputDir = Files.createTempDirectory("jfr");
+    }
+
+    @Test
+    void testInvalidSessionsAreRejected() {
+        FlightRecorderProfiler profiler = new FlightRecorderProfiler(outputDir, Duration.ofSeconds(5), 1024 * 1024, 2, 5);
+        assertThrows(IllegalArgumentException.class, () -> profiler.record(Duration.ofSeconds(6), "default"));
+        assertThrows(IllegalArgumentException.class, () -> profiler.record(Duration.ZERO, "default"));
+        assertThrows(IllegalArgumentException.class, () -> profiler.record(Duration.ofSeconds(1), "custom"));
+    }
+
+    @Test
+    void testRecordingIsSummarizedAndPruned() throws Exception {
+        FlightRecorderProfiler profiler = new FlightRecorderProfiler(outputDir, Duration.ofSeconds(5), 10 * 1024 * 1024, 1, 5);
+        Thread worker = new Thread(() -> {
+            List<byte[]> garbage = new ArrayList<>();
+            long end = System.nanoTime() + 1_500_000_000L;
+            while (System.nanoTime() < end) {
+                garbage.add(new byte[4096]);
+                if (garbage.size() > 1000) {
+                    garbage.clear();
+                }
+            }
+        });
+        worker.start();
+        profiler.record(Duration.ofMillis(200), "default");
+        ProfileSummary summary = profiler.record(Duration.ofSeconds(1), "profile");
+        worker.join();
+
+        assertTrue(Files.exists(Path.of(summary.getPath())));
+        assertEquals("profile", summary.getSettings());
+        assertTrue(summary.getSizeBytes() > 0);
+        assertTrue(summary.getEvents() > 0);
+        assertTrue(summary.getDurationMillis() >= 1000);
+        assertTrue(summary.getHotMethods().size() <= 5);
+        assertTrue(summary.getAllocatedBytes() > 0);
+        try (Stream<Path> files = Files.list(outputDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.Bulkhead;
+import it.gov.pagopa.observability.helper.Hedger;
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+
+public class HedgerTest {
+
+    @Test
+    void testHedgeWinsOverSlowAttemptWhichIsCancelled() throws Exception {
+        Hedger hedger = new Hedger("test.hedge.win", true, 20, 20, 95, 1.0);
+        Bulkhead bulkhead = new Bulkhead("hedge-win", 2, 0, 100, 5_000);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch cancelled = new CountDownLatch(1);
+
+        String result = hedger.call(bulkhead, cancellation -> {
+            if (attempts.incrementAndGet() == 1) {
+                CountDownLatch hung = new CountDownLatch(1);
+                cancellation.onCancel(() -> {
+                    cancelled.countDown();
+                    hung.countDown();
+                });
+                hung.await();
+                return "slow";
+            }
+            return "fast";
+        });
+
+        assertEquals("fast", result);
+        assertEquals(true, cancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, MetricsRegistry.counter("test.hedge.win.hedge.sent"));
+        assertEquals(1, MetricsRegistry.counter("test.hedge.win.hedge.won"));
+        assertEquals(1.0, hedger.hedgeRate(), 0.0);
+    }
+
+    @Test
+    void testCapLimitsDuplicates() throws Exception {
+        Hedger hedger = new Hedger("test.hedge.cap", true, 1, 1, 95, 0.0);
+        Bulkhead bulkhead = new Bulkhead("hedge-cap", 2, 0, 100, 5_000);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = hedger.call(bulkhead, cancellation -> {
+            attempts.incrementAndGet();
+            Thread.sleep(50);
+            return "only";
+        });
+
+        assertEquals("only", result);
+        assertEquals(1, attempts.get());
+        assertEquals(1, MetricsRegistry.counter("test.hedge.cap.hedge.capped"));
+        assertEquals(0.0, hedger.hedgeRate(), 0.0);
+    }
+
+    @Test
+    void testFailureIsRethrownWhenAllAttemptsFail() {
+        Hedger hedger = new Hedger("test.hedge.fail", true, 1, 1, 95, 1.0);
+        Bulkhead bulkhead = new Bulkhead("hedge-fail", 2, 0, 100, 5_000);
+
+        assertThrows(IOException.class, () -> hedger.call(bulkhead, cancellation -> {
+            Thread.sleep(20);
+            throw new IOException("503");
+        }));
+    }
+}
@@ -0,0 +1,106 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.batch.BatchOptions;
+import it.gov.pagopa.observability.batch.BatchResult;
+import it.gov.pagopa.observability.batch.KpiBatchRunner;
+import it.gov.pagopa.observability.helper.StandaloneExecutionContext;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.QueryPriority;
+import it.gov.pagopa.observability.service.KpiRegistry;
+
+public class KpiBatchRunnerTest {
+
+    private final KpiRegistry registry = new KpiRegistry("BDI_PERF_KPI", "apim", kpiId -> "operation");
+
+    @Test
+    void testOptionsAreParsed() {
+        BatchOptions options = BatchOptions.parse("--from=2024-01-01 00:00:00", "--to=2024-04-01 00:00:00",
+            "--kpis=PERF-02, PERF-02E", "--workers=8", "--output=file", "--checkpoint=run.checkpoint");
+        assertEquals(ChronoUnit.MONTHS, options.getStep());
+        assertEquals(List.of("PERF-02", "PERF-02E"), options.getKpiIds());
+        assertEquals(8, options.getWorkers());
+        assertEquals(BatchOptions.Output.FILE, options.getOutput());
+        assertEquals(QueryPriority.BACKFILL, options.getPriority());
+        assertEquals(3, new KpiBatchRunner(options, registry, null, null).slots().size());
+        assertNull(BatchOptions.parse("--from=2024-01-01 00:00:00", "--to=2024-01-02 00:00:00").getKpiIds());
+
+        assertThrows(IllegalArgumentException.class, () -> BatchOptions.parse("--from=2024-01-01 00:00:00"));
+        assertThrows(IllegalArgumentException.class, () -> BatchOptions.parse("--from=2024-01-02 00:00:00", "--to=2024-01-01 00:00:00"));
+        assertThrows(IllegalArgumentException.class, () -> BatchOptions.parse("--from=2024-01-01 00:00:00", "--to=2024-01-02 00:00:00", "--step=MINUTES"));
+        assertThrows(IllegalArgumentException.class, () -> BatchOptions.parse("from=2024-01-01 00:00:00"));
+    }
+
+    @Test
+    void testIngestTagIdentifiesTheComputedRows() {
+        LocalDateTime slot = LocalDateTime.of(2024, 1, 1, 0, 0);
+        String tag = KpiBatchRunner.ingestTag("BDI_PERF_KPI", slot, ChronoUnit.DAYS, List.of("PERF-02E", "PERF-02", "PERF-02"), null);
+
+        assertEquals("batch|BDI_PERF_KPI|DAYS|PERF-02,PERF-02E|20240101000000", tag);
+        // the same slot of a run with other kpis, another step or a new run id is ingested again
+        assertNotEquals(tag, KpiBatchRunner.ingestTag("BDI_PERF_KPI", slot, ChronoUnit.DAYS, List.of("PERF-02"), null));
+        assertNotEquals(tag, KpiBatchRunner.ingestTag("BDI_PERF_KPI", slot, ChronoUnit.MONTHS, List.of("PERF-02", "PERF-02E"), null));
+        assertEquals(tag + "|recompute-1", KpiBatchRunner.ingestTag("BDI_PERF_KPI", slot, ChronoUnit.DAYS,
+            List.of("PERF-02", "PERF-02E"), BatchOptions.parse("--from=2024-01-01 00:00:00", "--to=2024-01-02 00:00:00",
+                "--runId=recompute-1").getRunId()));
+    }
+
+    @Test
+    void testFailedSlotsAreResumedFromTheCheckpoint() throws Exception {
+        Path dir = Files.createTempDirectory("batch");
+        BatchOptions options = BatchOptions.parse("--from=2024-05-01 00:00:00", "--to=2024-05-04 00:00:00", "--step=DAYS",
+            "--kpis=PERF-02,PERF-02E", "--workers=3", "--output=FILE", "--outputDir=" + dir.resolve("out"),
+            "--checkpoint=" + dir.resolve("run.checkpoint"));
+
+        AtomicBoolean failSecondDay = new AtomicBoolean(true);
+        KpiBatchRunner.KpiEngine engine = (requests, context) -> {
+            KpiRequest first = requests.get(0);
+            if (first.getStartDate().getDayOfMonth() == 2 && failSecondDay.get()) {
+                throw new IllegalStateException("cluster unavailable");
+            }
+            Map<String, String> values = new HashMap<>();
+            requests.forEach(r -> values.put(r.getDefinition().getKpiId(), String.valueOf(r.getStartDate().getDayOfMonth())));
+            return values;
+        };
+
+        KpiBatchRunner runner = new KpiBatchRunner(options, registry, engine, KpiBatchRunner.fileWriter(options.getOutputDir()));
+        BatchResult first = runner.run(new StandaloneExecutionContext("KpiBatchRunnerTest"));
+        assertEquals(3, first.getSlots());
+        assertEquals(2, first.getCompleted());
+        assertEquals(List.of(LocalDateTime.of(2024, 5, 2, 0, 0)), first.getFailed());
+        assertEquals(4, first.getRows());
+
+        failSecondDay.set(false);
+        BatchResult resumed = runner.run(new StandaloneExecutionContext("KpiBatchRunnerTest"));
+        assertEquals(2, resumed.getSkipped());
+        assertEquals(1, resumed.getCompleted());
+        assertTrue(resumed.getFailed().isEmpty());
+
+        Path table = options.getOutputDir().resolve("BDI_PERF_KPI");
+        try (Stream<Path> files = Files.list(table)) {
+            assertEquals(3, files.count());
+        }
+        List<String> lines = Files.readAllLines(table.resolve("20240502000000.csv"), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith(",2024-05-02 00:00:00,2024-05-02 23:59:59,PERF-02,2"));
+        assertEquals(3, Files.readAllLines(dir.resolve("run.checkpoint")).size());
+    }
+}
@@ -0,0 +1,100 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.models.KpiProgress;
+import it.gov.pagopa.observability.service.KpiJobRegistry;
+import it.gov.pagopa.observability.service.KpiRegistry;
+
+public class KpiJobRegistryTest {
+
+    private final KpiJobRegistry registry = new KpiJobRegistry(1, 60_000);
+
+    private static void await(KpiJobRegistry.Job job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (job.getStatus() == KpiJobRegistry.Status.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void linesArePolledAsTheyAreAppended() throws Exception {
+        CountDownLatch firstKpi = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        KpiJobRegistry.Job job = registry.start(running -> {
+            running.append(KpiProgress.builder().kpiId(KpiRegistry.PERF_02).startDate(LocalDateTime.of(2024, 6, 1, 0, 0))
+                .value("100").millis(5).build());
+            firstKpi.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            running.append(KpiProgress.builder().kpiId(KpiRegistry.PERF_02E).value("1").millis(50).build());
+            return "{\"status\":\"200 OK\"}";
+        });
+
+        assertTrue(firstKpi.await(5, TimeUnit.SECONDS));
+        List<String> first = job.linesSince(0);
+        assertEquals(1, first.size());
+        assertTrue(first.get(0).contains("\"kpiId\":\"PERF-02\""));
+        assertTrue(first.get(0).contains("\"value\":\"100\""));
+        assertTrue(first.get(0).contains("\"startDate\":\"2024-06-01T00:00\""));
+        assertEquals(KpiJobRegistry.Status.RUNNING, job.getStatus());
+
+        release.countDown();
+        await(job);
+        assertEquals(KpiJobRegistry.Status.COMPLETED, job.getStatus());
+        List<String> rest = job.linesSince(first.size());
+        assertEquals(2, rest.size());
+        assertTrue(rest.get(0).contains("PERF-02E"));
+        assertEquals("{\"status\":\"200 OK\"}", rest.get(1));
+        assertTrue(job.linesSince(3).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> job.linesSince(-1));
+    }
+
+    @Test
+    void failedTaskEndsWithTheErrorResponse() throws Exception {
+        KpiJobRegistry.Job job = registry.start(running -> {
+            running.append(KpiProgress.builder().kpiId(KpiRegistry.PERF_02).error("timeout").build());
+            throw new IllegalStateException("plan failed");
+        });
+
+        await(job);
+        assertEquals(KpiJobRegistry.Status.FAILED, job.getStatus());
+        List<String> lines = job.linesSince(0);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"error\":\"timeout\""));
+        assertTrue(lines.get(1).contains("plan failed"));
+    }
+
+    @Test
+    void runningJobsAreBounded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        KpiJobRegistry.Job job = registry.start(running -> {
+            release.await(5, TimeUnit.SECONDS);
+            return "{}";
+        });
+
+        assertThrows(IllegalStateException.class, () -> registry.start(running -> "{}"));
+        assertEquals(job, registry.get(job.getId()));
+        assertNull(registry.get("unknown"));
+        release.countDown();
+        await(job);
+        registry.start(running -> "{}");
+    }
+
+    @Test
+    void expiredJobsAreDropped() throws Exception {
+        KpiJobRegistry expiring = new KpiJobRegistry(1, 0);
+        KpiJobRegistry.Job job = expiring.start(running -> "{}");
+
+        assertNull(expiring.get(job.getId()));
+    }
+}
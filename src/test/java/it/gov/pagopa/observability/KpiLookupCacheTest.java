@@ -0,0 +1,63 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.models.CachedResponse;
+import it.gov.pagopa.observability.service.KpiLookupCache;
+
+public class KpiLookupCacheTest {
+
+    @Test
+    void testLeastRecentlyUsedIsEvictedByEntriesAndBytes() {
+        KpiLookupCache cache = new KpiLookupCache(2, 10, 60_000);
+
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertNotNull(cache.get("a"));
+        cache.put("c", "cccc");
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+
+        cache.put("d", "dddddddd");
+        assertEquals(1, cache.size());
+        assertEquals(8, cache.bytes());
+
+        CachedResponse oversized = cache.put("e", "eeeeeeeeeeee");
+        assertNotNull(oversized.getEtag());
+        assertNull(cache.get("e"));
+        assertNotNull(cache.get("d"));
+    }
+
+    @Test
+    void testEntriesExpire() throws Exception {
+        KpiLookupCache cache = new KpiLookupCache(10, 1024, 20);
+
+        cache.put("a", "value");
+        Thread.sleep(40);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    void testEtagAndConditionalMatch() {
+        String etag = KpiLookupCache.etag("{\"kpis\":[]}");
+
+        assertEquals(etag, KpiLookupCache.etag("{\"kpis\":[]}"));
+        assertFalse(etag.equals(KpiLookupCache.etag("{\"kpis\":[1]}")));
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertTrue(KpiLookupCache.matches(etag, etag));
+        assertTrue(KpiLookupCache.matches("\"other\", W/" + etag, etag));
+        assertTrue(KpiLookupCache.matches("*", etag));
+        assertFalse(KpiLookupCache.matches("\"other\"", etag));
+        assertFalse(KpiLookupCache.matches(null, etag));
+    }
+}
@@ -0,0 +1,113 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.models.KpiQueryPlan;
+import it.gov.pagopa.observability.models.KpiRequest;
+import it.gov.pagopa.observability.models.KpiSource;
+import it.gov.pagopa.observability.service.KpiQueryPlanner;
+import it.gov.pagopa.observability.service.KpiRegistry;
+
+public class KpiQueryPlannerTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 3, 1, 0, 0, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2025, 3, 31, 23, 59, 59);
+
+    private KpiRegistry registry;
+    private KpiQueryPlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, String> operationNames = Map.of(
+            "PERF-03", "op-03", "PERF-04", "op-04", "PERF-05", "op-05", "PERF-06", "op-06");
+        registry = new KpiRegistry("BDI_PERF_KPI", "pagopa-d-apim West Europe", operationNames::get);
+        planner = new KpiQueryPlanner("ReEvent");
+    }
+
+    private List<KpiRequest> requests(List<String> kpiIds, LocalDateTime startDate, LocalDateTime endDate) {
+        return kpiIds.stream()
+            .map(id -> KpiRequest.builder().definition(registry.get(id)).startDate(startDate).endDate(endDate).build())
+            .toList();
+    }
+
+    @Test
+    void testAllKpisAreMergedBySource() {
+        List<KpiQueryPlan> plans = planner.plan(requests(registry.getKpiIds(), START, END));
+
+        assertEquals(3, plans.size());
+        assertEquals(KpiSource.STATUS_PAGE, plans.get(0).getSource());
+        assertNull(plans.get(0).getQuery());
+
+        KpiQueryPlan reEvent = plans.get(1);
+        assertEquals(KpiSource.RE_EVENT, reEvent.getSource());
+        assertEquals(2, reEvent.getKpis().size());
+        assertTrue(reEvent.getQuery().contains("| where categoriaEvento == 'INTERFACCIA'"));
+        assertTrue(reEvent.getQuery().contains("| where (sottoTipoEvento == 'REQ') or (sottoTipoEvento == 'RESP')"));
+        assertTrue(reEvent.getQuery().contains("PERF_02 = countif(sottoTipoEvento == 'REQ')"));
+        assertTrue(reEvent.getQuery().contains("PERF_02E = countif(sottoTipoEvento == 'RESP' and "));
+        assertTrue(reEvent.getQuery().startsWith("declare query_parameters(start:datetime, end:datetime); ReEvent"));
+        assertTrue(reEvent.getQuery().endsWith("| project PERF_02, PERF_02E"));
+
+        KpiQueryPlan appInsights = plans.get(2);
+        assertEquals(KpiSource.APP_INSIGHTS, appInsights.getSource());
+        assertEquals(4, appInsights.getKpis().size());
+        assertTrue(appInsights.getQuery().startsWith("requests | where cloud_RoleName == 'pagopa-d-apim West Europe'"));
+        assertTrue(appInsights.getQuery().contains("PERF_03 = avgif(duration, operation_Name == 'op-03')"));
+        assertTrue(appInsights.getQuery().contains("PERF_06 = iff(isnan(PERF_06), 0.0, PERF_06)"));
+    }
+
+    @Test
+    void testSingleKpiUsesUnconditionalAggregate() {
+        List<KpiQueryPlan> plans = planner.plan(requests(List.of(KpiRegistry.PERF_02), START, END));
+
+        assertEquals(1, plans.size());
+        String query = plans.get(0).getQuery();
+        assertTrue(query.contains("| where sottoTipoEvento == 'REQ'"));
+        assertTrue(query.contains("| summarize PERF_02 = count()"));
+        assertFalse(query.contains("countif"));
+    }
+
+    @Test
+    void testDifferentIntervalsAreNotMerged() {
+        List<KpiRequest> requests = new java.util.ArrayList<>(requests(List.of(KpiRegistry.PERF_02), START, END));
+        requests.addAll(requests(List.of(KpiRegistry.PERF_02E), START, START.plusHours(1)));
+
+        List<KpiQueryPlan> plans = planner.plan(requests);
+
+        assertEquals(2, plans.size());
+        assertEquals(END, plans.get(0).getEndDate());
+        assertEquals(START.plusHours(1), plans.get(1).getEndDate());
+        assertFalse(plans.get(0).getQuery().contains("2025"));
+    }
+
+    @Test
+    void testTemplateIsCompiledOnce() {
+        KpiQueryPlan march = planner.plan(requests(registry.getKpiIds(), START, END)).get(1);
+        KpiQueryPlan april = planner.plan(requests(registry.getKpiIds(), START.plusMonths(1), END.plusMonths(1))).get(1);
+
+        // the interval is bound as parameter, the query text does not change
+        assertSame(march.getTemplate(), april.getTemplate());
+        assertEquals("2025-03-01T00:00", String.valueOf(march.getStartDate()));
+    }
+
+    @Test
+    void testUnconfiguredOperationName() {
+        KpiRegistry partial = new KpiRegistry("BDI_PERF_KPI", "role", id -> null);
+
+        assertThrows(IllegalArgumentException.class, () -> partial.get(KpiRegistry.PERF_03));
+        assertThrows(IllegalArgumentException.class, () -> partial.get("PERF-99"));
+        assertEquals(KpiRegistry.PERF_02, partial.get(KpiRegistry.PERF_02).getKpiId());
+    }
+}
@@ -0,0 +1,50 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.helper.KustoQueryStats;
+import it.gov.pagopa.observability.models.QueryStats;
+
+public class KustoQueryStatsTest {
+
+    private static final String PAYLOAD = "{"
+        + "\"ExecutionTime\":1.2345,"
+        + "\"resource_usage\":{"
+        + "  \"cache\":{\"shards\":{\"hot\":{\"hitbytes\":2048,\"missbytes\":512,\"retrievebytes\":0}}},"
+        + "  \"cpu\":{\"user\":\"00:00:03.5\",\"kernel\":\"00:00:00\",\"total cpu\":\"1.00:01:03.2500000\"},"
+        + "  \"memory\":{\"peak_per_node\":104857600}},"
+        + "\"input_dataset_statistics\":{"
+        + "  \"extents\":{\"total\":120,\"scanned\":30},"
+        + "  \"rows\":{\"total\":5000000,\"scanned\":1250000}}"
+        + "}";
+
+    @Test
+    void testParseResourceConsumption() throws Exception {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 1, 0, 0);
+        QueryStats stats = KustoQueryStats.parse("PERF-02E", start, start.plusHours(1), JsonHelper.readTree(PAYLOAD));
+
+        assertEquals("PERF-02E", stats.getQueryName());
+        assertEquals(1235, stats.getExecutionTimeMillis());
+        // 1 day, 1 minute and 3.25 seconds
+        assertEquals(86_400_000L + 60_000L + 3_250L, stats.getCpuTimeMillis());
+        assertEquals(104857600, stats.getMemoryPeakBytes());
+        assertEquals(120, stats.getExtentsTotal());
+        assertEquals(30, stats.getExtentsScanned());
+        assertEquals(1250000, stats.getRowsScanned());
+        assertEquals(2048, stats.getCacheHitBytes());
+        assertEquals(512, stats.getCacheMissBytes());
+    }
+
+    @Test
+    void testMissingSectionsDefaultToZero() throws Exception {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 1, 0, 0);
+        QueryStats stats = KustoQueryStats.parse("PERF-02", start, start.plusHours(1), JsonHelper.readTree("{}"));
+        assertEquals(0, stats.getCpuTimeMillis());
+        assertEquals(0, stats.getExtentsScanned());
+    }
+}
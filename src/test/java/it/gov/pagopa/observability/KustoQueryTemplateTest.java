@@ -0,0 +1,57 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.microsoft.azure.kusto.data.ClientRequestProperties;
+
+import it.gov.pagopa.observability.helper.KustoQueryTemplate;
+
+public class KustoQueryTemplateTest {
+
+    @Test
+    void testCompileDeclaresParameters() {
+        KustoQueryTemplate template = KustoQueryTemplate.compileInterval("ReEvent | where insertedTimestamp between (start .. end) | count");
+
+        assertEquals("declare query_parameters(start:datetime, end:datetime); ReEvent | where insertedTimestamp between (start .. end) | count",
+            template.getText());
+        assertSame(template, KustoQueryTemplate.compileInterval("ReEvent | where insertedTimestamp between (start .. end) | count"));
+    }
+
+    @Test
+    void testBindInterval() {
+        KustoQueryTemplate template = KustoQueryTemplate.compileInterval("BDI_PERF_KPI | where startDate >= start and endDate <= end");
+
+        ClientRequestProperties properties = template.bindInterval(
+            LocalDateTime.of(2025, 3, 1, 0, 0, 0), LocalDateTime.of(2025, 3, 31, 23, 59, 59));
+
+        assertEquals("datetime(2025-03-01T00:00:00.0000000Z)", properties.getParameter("start"));
+        assertEquals("datetime(2025-03-31T23:59:59.0000000Z)", properties.getParameter("end"));
+    }
+
+    @Test
+    void testStringParameterIsNotPartOfTheText() {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("kpi", "string");
+        KustoQueryTemplate template = KustoQueryTemplate.compile(parameters, "BDI_PERF_KPI | where kpiId == kpi");
+
+        ClientRequestProperties properties = template.bind(Map.of("kpi", "PERF-02'E"));
+
+        assertEquals("declare query_parameters(kpi:string); BDI_PERF_KPI | where kpiId == kpi", template.getText());
+        assertEquals("PERF-02'E", properties.getParameter("kpi"));
+    }
+
+    @Test
+    void testUnboundParameter() {
+        KustoQueryTemplate template = KustoQueryTemplate.compileInterval("ReEvent | where insertedTimestamp between (start .. end)");
+
+        assertThrows(IllegalArgumentException.class, () -> template.bind(Map.of("start", LocalDateTime.now())));
+    }
+}
@@ -0,0 +1,28 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.MetricsRegistry;
+
+public class MetricsRegistryTest {
+
+    @Test
+    void testTimerPercentiles() {
+        for (int i = 1; i <= 100; i++) {
+            MetricsRegistry.recordTime("test.timer.percentiles", i);
+        }
+        assertEquals(100, MetricsRegistry.timerCount("test.timer.percentiles"));
+        assertEquals(50, MetricsRegistry.percentile("test.timer.percentiles", 50));
+        assertEquals(95, MetricsRegistry.percentile("test.timer.percentiles", 95));
+        assertEquals(0, MetricsRegistry.percentile("test.timer.missing", 95));
+    }
+
+    @Test
+    void testCounter() {
+        MetricsRegistry.increment("test.counter");
+        MetricsRegistry.increment("test.counter", 4);
+        assertEquals(5, MetricsRegistry.counter("test.counter"));
+    }
+}
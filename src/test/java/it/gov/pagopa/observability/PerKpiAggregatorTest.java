@@ -0,0 +1,92 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.models.KpiAverages;
+import it.gov.pagopa.observability.models.KpiTotals;
+
+public class PerKpiAggregatorTest {
+
+    @Test
+    void testSerializeToJson() throws Exception {
+        KpiAverages march = KpiAverages.builder()
+            .perf01("99.95").perf02("667316").perf02E("73159").perf03("172").perf04("185").perf05("540").perf06("214")
+            .build();
+
+        byte[] payload = PerKpiAggregator.serializeToJson("2025", "Q1", List.of(KpiAverages.empty(), KpiAverages.empty(), march));
+
+        JsonNode root = JsonHelper.readTree(new String(payload, StandardCharsets.UTF_8));
+        assertEquals(3, root.size());
+        assertEquals("01", root.get(0).get("month").asText());
+        JsonNode third = root.get(2);
+        assertEquals("2025", third.get("year").asText());
+        assertEquals("Q1", third.get("quarter").asText());
+        assertEquals("03", third.get("month").asText());
+        assertEquals("99.95", third.get("PERF_01").asText());
+        assertEquals("73159", third.get("PERF_02E").asText());
+        assertEquals("214", third.get("PERF_06").asText());
+        assertEquals("99.95,667316,73159,172,185,540,214", march.toCsv());
+    }
+
+    @Test
+    void testQuarterMonthsAreInCalendarOrder() {
+        LocalDateTime now = LocalDateTime.of(2025, 2, 14, 10, 30);
+
+        assertEquals(List.of(LocalDateTime.of(2024, 4, 1, 0, 0), LocalDateTime.of(2024, 5, 1, 0, 0), LocalDateTime.of(2024, 6, 1, 0, 0)),
+            PerKpiAggregator.quarterMonths("2024", "q2", now));
+        assertEquals(List.of(LocalDateTime.of(2024, 11, 1, 0, 0), LocalDateTime.of(2024, 12, 1, 0, 0), LocalDateTime.of(2025, 1, 1, 0, 0)),
+            PerKpiAggregator.quarterMonths(null, "LAST", now));
+    }
+
+    @Test
+    void testSingleAndBulkQuarterPayloadsAreIdentical() throws Exception {
+        Map<YearMonth, KpiAverages> months = new HashMap<>();
+        for (int month = 1; month <= 3; month++) {
+            months.put(YearMonth.of(2025, month), KpiAverages.builder()
+                .perf01("99.9" + month).perf02("100" + month).perf02E("10" + month).perf03("1" + month).perf04("2" + month)
+                .perf05("3" + month).perf06("4" + month).build());
+        }
+        LocalDateTime createDate = LocalDateTime.of(2025, 4, 2, 8, 0);
+
+        List<KpiAverages> single = new ArrayList<>();
+        for (LocalDateTime month : PerKpiAggregator.quarterMonths("2025", "Q1", createDate)) {
+            single.add(months.get(YearMonth.from(month)));
+        }
+        List<KpiAverages> bulk = BulkKpiAggregator.quarterData(months, BulkKpiAggregator.parseQuarter("2025-Q1"));
+
+        byte[] payload = PerKpiAggregator.serializeToJson("2025", "Q1", single, createDate);
+        assertArrayEquals(PerKpiAggregator.serializeToJson("2025", "Q1", bulk, createDate), payload);
+        JsonNode root = JsonHelper.readTree(new String(payload, StandardCharsets.UTF_8));
+        assertEquals("03", root.get(2).get("month").asText());
+        assertEquals("99.93", root.get(2).get("PERF_01").asText());
+    }
+
+    @Test
+    void testKpiAveragesFromExactTotals() {
+        Map<String, KpiTotals> totals = Map.of(
+            "PERF-01", KpiTotals.builder().kpiId("PERF-01").count(2).sum(199.9).average(99.95).build(),
+            "PERF-02", KpiTotals.builder().kpiId("PERF-02").count(31).sum(667316.7).average(21526.3).build(),
+            "PERF-02E", KpiTotals.builder().kpiId("PERF-02E").count(31).sum(73159).average(2360).build(),
+            "PERF-03", KpiTotals.builder().kpiId("PERF-03").count(31).sum(5332).average(172.9).build());
+
+        KpiAverages averages = KpiAverages.fromTotals(totals);
+
+        // PERF-02 is no longer blended with PERF-02E, kpis without values are zero
+        assertEquals("99.95,667316,73159,172,0,0,0", averages.toCsv());
+        assertEquals("0.00,0,0,0,0,0,0", KpiAverages.fromTotals(Map.of()).toCsv());
+    }
+}
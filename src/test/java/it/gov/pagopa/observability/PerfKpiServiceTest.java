@@ -33,6 +33,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.microsoft.azure.kusto.data.Client;
 import com.microsoft.azure.kusto.data.ClientFactory;
+import com.microsoft.azure.kusto.data.ClientRequestProperties;
 import com.microsoft.azure.kusto.data.KustoOperationResult;
 import com.microsoft.azure.kusto.data.KustoResultSetTable;
 import com.microsoft.azure.kusto.data.auth.ConnectionStringBuilder;
@@ -139,7 +140,7 @@ public class PerfKpiServiceTest {
         LocalDateTime startDate = LocalDateTime.now().minusDays(1);
         LocalDateTime endDate = LocalDateTime.now();
     
-        lenient().when(kustoClient.executeQuery(anyString(), anyString())).thenReturn(kustoOperationResult);
+        lenient().when(kustoClient.executeQuery(anyString(), anyString(), any(ClientRequestProperties.class))).thenReturn(kustoOperationResult);
         when(kustoOperationResult.hasNext()).thenReturn(true);
         when(kustoOperationResult.getPrimaryResults()).thenReturn(kustoResultSetTable);
         when(kustoResultSetTable.next()).thenReturn(true);
@@ -148,9 +149,10 @@ public class PerfKpiServiceTest {
         doAnswer(invocation -> {
             String dbName = invocation.getArgument(0);
             String query = invocation.getArgument(1);
-            System.out.println("execute() chiamato con: " + dbName + ", " + query);
+            ClientRequestProperties properties = invocation.getArgument(2);
+            System.out.println("execute() chiamato con: " + dbName + ", " + query + ", " + properties);
             return kustoOperationResult;
-        }).when(kustoClient).executeQuery(anyString(), anyString());
+        }).when(kustoClient).executeQuery(anyString(), anyString(), any(ClientRequestProperties.class));
     
         String result = perfKpiService.executePerf02Kpi(startDate, endDate, true, context);
     
@@ -0,0 +1,100 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.QueryGovernor;
+import it.gov.pagopa.observability.models.QueryPriority;
+
+public class QueryGovernorTest {
+
+    private Thread waitFor(QueryGovernor governor, QueryPriority priority, List<QueryPriority> order, CountDownLatch done) {
+        Thread thread = new Thread(() -> {
+            try (QueryGovernor.Permit permit = governor.acquire(priority)) {
+                order.add(priority);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitQueued(QueryGovernor governor, int expected) throws InterruptedException {
+        while (governor.queued() < expected) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void testHigherPriorityIsServedFirst() throws Exception {
+        QueryGovernor governor = new QueryGovernor(1, 60_000, 10_000);
+        List<QueryPriority> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+
+        QueryGovernor.Permit running = governor.acquire(QueryPriority.INTERACTIVE);
+        waitFor(governor, QueryPriority.BACKFILL, order, done);
+        awaitQueued(governor, 1);
+        waitFor(governor, QueryPriority.SCHEDULED, order, done);
+        awaitQueued(governor, 2);
+        waitFor(governor, QueryPriority.INTERACTIVE, order, done);
+        awaitQueued(governor, 3);
+
+        running.close();
+        done.await();
+        assertEquals(List.of(QueryPriority.INTERACTIVE, QueryPriority.SCHEDULED, QueryPriority.BACKFILL), order);
+    }
+
+    @Test
+    void testAgingPreventsStarvation() throws Exception {
+        QueryGovernor governor = new QueryGovernor(1, 20, 10_000);
+        List<QueryPriority> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+
+        QueryGovernor.Permit running = governor.acquire(QueryPriority.INTERACTIVE);
+        waitFor(governor, QueryPriority.BACKFILL, order, done);
+        awaitQueued(governor, 1);
+        // after more than two aging periods the backfill outranks a fresh interactive query
+        Thread.sleep(200);
+        waitFor(governor, QueryPriority.INTERACTIVE, order, done);
+        awaitQueued(governor, 2);
+
+        running.close();
+        done.await();
+        assertEquals(List.of(QueryPriority.BACKFILL, QueryPriority.INTERACTIVE), order);
+    }
+
+    @Test
+    void testQueueTimeout() throws Exception {
+        QueryGovernor governor = new QueryGovernor(1, 1000, 50);
+        QueryGovernor.Permit running = governor.acquire(QueryPriority.INTERACTIVE);
+        assertThrows(IllegalStateException.class, () -> governor.acquire(QueryPriority.BACKFILL));
+        assertEquals(0, governor.queued());
+        running.close();
+        governor.acquire(QueryPriority.BACKFILL).close();
+    }
+
+    @Test
+    void testSlotHandedToAnInterruptedWaiterIsNotLost() throws Exception {
+        // the interrupt and the hand over race, whichever wins the slot must come back
+        for (int i = 0; i < 50; i++) {
+            QueryGovernor governor = new QueryGovernor(1, 1000, 200);
+            QueryGovernor.Permit running = governor.acquire(QueryPriority.INTERACTIVE);
+            Thread waiter = waitFor(governor, QueryPriority.BACKFILL, new CopyOnWriteArrayList<>(), new CountDownLatch(1));
+            awaitQueued(governor, 1);
+
+            waiter.interrupt();
+            running.close();
+            waiter.join();
+            assertEquals(0, governor.queued());
+            governor.acquire(QueryPriority.INTERACTIVE).close();
+        }
+    }
+}
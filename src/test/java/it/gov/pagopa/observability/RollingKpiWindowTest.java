@@ -0,0 +1,103 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.models.RollingWindow;
+import it.gov.pagopa.observability.service.KpiQueryPlanner;
+import it.gov.pagopa.observability.service.KpiRegistry;
+import it.gov.pagopa.observability.service.RollingKpiWindow;
+
+public class RollingKpiWindowTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 6, 10, 12, 7, 30);
+
+    private final RollingKpiWindow window = new RollingKpiWindow(List.of(KpiRegistry.PERF_02, KpiRegistry.PERF_02E),
+        Duration.ofMinutes(5), Duration.ofHours(2), Duration.ofMinutes(10), Duration.ofMinutes(10));
+
+    private final List<LocalDateTime[]> queries = new ArrayList<>();
+
+    // 10 requests and 1 fault in every bucket
+    private Map<LocalDateTime, Map<String, Long>> load(LocalDateTime start, LocalDateTime end) {
+        queries.add(new LocalDateTime[] { start, end });
+        Map<LocalDateTime, Map<String, Long>> buckets = new TreeMap<>();
+        for (LocalDateTime bucket = start; bucket.isBefore(end); bucket = bucket.plusMinutes(5)) {
+            buckets.put(bucket, Map.of(KpiRegistry.PERF_02, 10L, KpiRegistry.PERF_02E, 1L));
+        }
+        return buckets;
+    }
+
+    @Test
+    void testRefreshesAreIncremental() throws Exception {
+        assertTrue(window.refresh(this::load, NOW));
+        assertEquals(LocalDateTime.of(2024, 6, 10, 10, 10), queries.get(0)[0]);
+
+        window.refresh(this::load, NOW.plusMinutes(5));
+        // from the previous refresh, minus the late events allowance
+        assertEquals(LocalDateTime.of(2024, 6, 10, 11, 55), queries.get(1)[0]);
+        assertEquals(NOW.plusMinutes(5), queries.get(1)[1]);
+
+        // after a long outage the query is capped to the window
+        window.refresh(this::load, NOW.plusHours(5));
+        assertEquals(LocalDateTime.of(2024, 6, 10, 15, 10), queries.get(2)[0]);
+    }
+
+    @Test
+    void testSnapshotIsServedFromTheBuffer() throws Exception {
+        assertTrue(window.isStale(NOW));
+        window.refresh(this::load, NOW);
+
+        RollingWindow lastHour = window.snapshot(1, null, true, NOW);
+        assertEquals(LocalDateTime.of(2024, 6, 10, 11, 10), lastHour.getStart());
+        assertEquals(LocalDateTime.of(2024, 6, 10, 12, 10), lastHour.getEnd());
+        assertEquals(0, lastHour.getMissingBuckets());
+        assertEquals(12, lastHour.getBuckets().size());
+        assertEquals(Long.valueOf(120), lastHour.getTotals().get(KpiRegistry.PERF_02));
+        assertEquals(Long.valueOf(12), lastHour.getTotals().get(KpiRegistry.PERF_02E));
+        assertEquals(0.1, lastHour.getErrorRate(), 1e-9);
+
+        RollingWindow faults = window.snapshot(2, List.of(KpiRegistry.PERF_02E), false, NOW);
+        assertEquals(Long.valueOf(24), faults.getTotals().get(KpiRegistry.PERF_02E));
+        assertNull(faults.getErrorRate());
+        assertNull(faults.getBuckets());
+
+        // buckets not refreshed yet are reported as missing, the evicted ones are not counted
+        RollingWindow later = window.snapshot(2, null, false, NOW.plusMinutes(30));
+        assertEquals(6, later.getMissingBuckets());
+        assertEquals(Long.valueOf(180), later.getTotals().get(KpiRegistry.PERF_02));
+
+        assertThrows(IllegalArgumentException.class, () -> window.snapshot(3, null, false, NOW));
+        assertThrows(IllegalArgumentException.class, () -> window.snapshot(1, List.of(KpiRegistry.PERF_03), false, NOW));
+    }
+
+    @Test
+    void testSnapshotIsWrittenWithIsoTimes() throws Exception {
+        window.refresh(this::load, NOW);
+
+        String json = JsonHelper.writer().writeValueAsString(window.snapshot(1, null, true, NOW));
+        assertTrue(json.contains("\"start\":\"2024-06-10T11:10\""));
+        assertTrue(json.contains("\"refreshedAt\":\"2024-06-10T12:07:30\""));
+    }
+
+    @Test
+    void testBucketedQuery() {
+        KpiRegistry registry = new KpiRegistry("BDI_PERF_KPI", "apim", kpiId -> "operation");
+        KpiQueryPlanner planner = new KpiQueryPlanner("ReEvent");
+        String query = planner.bucketedTemplate(window.definitions(registry), Duration.ofMinutes(5)).getText();
+        assertTrue(query.contains(" by bucket = bin(insertedTimestamp, 5m) | project bucket, PERF_02, PERF_02E"));
+        assertThrows(IllegalArgumentException.class,
+            () -> planner.bucketedTemplate(List.of(registry.get(KpiRegistry.PERF_03)), Duration.ofMinutes(5)));
+    }
+}
@@ -0,0 +1,74 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.SampleEstimator;
+import it.gov.pagopa.observability.models.KpiEstimate;
+import it.gov.pagopa.observability.service.KpiQueryPlanner;
+import it.gov.pagopa.observability.service.KpiRegistry;
+
+public class SampleEstimatorTest {
+
+    @Test
+    void testCountIntervalCoversTheTotal() {
+        // 200 simulated runs sampling 5% of 100k rows, the 95% interval misses the total about 10 times
+        Random random = new Random(42);
+        int misses = 0;
+        for (int run = 0; run < 200; run++) {
+            long sampled = 0;
+            for (int row = 0; row < 100_000; row++) {
+                if (random.nextDouble() < 0.05) {
+                    sampled++;
+                }
+            }
+            KpiEstimate estimate = SampleEstimator.count(KpiRegistry.PERF_02E, sampled, 0.05);
+            if (100_000 < estimate.getLower() || 100_000 > estimate.getUpper()) {
+                misses++;
+            }
+        }
+        assertTrue(misses < 25, "misses: " + misses);
+
+        KpiEstimate exact = SampleEstimator.count(KpiRegistry.PERF_02E, 1234, 1.0);
+        assertEquals(1234.0, exact.getValue());
+        assertEquals(exact.getLower(), exact.getUpper());
+        assertEquals(0.0, SampleEstimator.count(KpiRegistry.PERF_02E, 0, 0.1).getUpper());
+    }
+
+    @Test
+    void testMeanInterval() {
+        KpiEstimate estimate = SampleEstimator.mean(KpiRegistry.PERF_03, 10_000, 120.0, 50.0, 0.1);
+        assertEquals(120.0, estimate.getValue());
+        assertEquals(120.0 - 0.93, estimate.getLower(), 0.01);
+        assertEquals(120.0 + 0.93, estimate.getUpper(), 0.01);
+        assertEquals(0.0, SampleEstimator.mean(KpiRegistry.PERF_03, 0, Double.NaN, Double.NaN, 0.1).getValue());
+    }
+
+    @Test
+    void testSampledQueries() {
+        KpiRegistry registry = new KpiRegistry("BDI_PERF_KPI", "apim", kpiId -> "operation");
+        KpiQueryPlanner planner = new KpiQueryPlanner("ReEvent");
+
+        String faults = planner.estimateTemplate(registry.get(KpiRegistry.PERF_02E), 0.1).getText();
+        assertTrue(faults.startsWith("declare query_parameters(start:datetime, end:datetime, rate:real); ReEvent"
+            + " | where insertedTimestamp between (start .. end) | where rand() < rate | where categoriaEvento == 'INTERFACCIA'"));
+        assertTrue(faults.endsWith(" | summarize sampled = count()"));
+
+        String durations = planner.estimateTemplate(registry.get(KpiRegistry.PERF_03), 0.25).getText();
+        assertTrue(durations.startsWith("requests | where rand() < 0.250000 | where cloud_RoleName == 'apim'"));
+        assertTrue(durations.endsWith("p50 = percentile(duration, 50), p95 = percentile(duration, 95)"));
+        // the rate is part of the App Insights text, such templates are not kept while the re events ones are
+        assertNotSame(planner.estimateTemplate(registry.get(KpiRegistry.PERF_03), 0.25), planner.estimateTemplate(registry.get(KpiRegistry.PERF_03), 0.25));
+        assertSame(planner.estimateTemplate(registry.get(KpiRegistry.PERF_02E), 0.1), planner.estimateTemplate(registry.get(KpiRegistry.PERF_02E), 0.2));
+
+        assertThrows(IllegalArgumentException.class, () -> planner.estimateTemplate(registry.get(KpiRegistry.PERF_01), 0.1));
+        assertThrows(IllegalArgumentException.class, () -> planner.estimateTemplate(registry.get(KpiRegistry.PERF_02), 0));
+    }
+}
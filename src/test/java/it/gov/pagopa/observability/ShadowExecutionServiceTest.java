@@ -0,0 +1,66 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.models.ShadowComparison;
+import it.gov.pagopa.observability.models.ShadowKpiReport;
+import it.gov.pagopa.observability.service.KpiRegistry;
+import it.gov.pagopa.observability.service.ShadowExecutionService;
+
+public class ShadowExecutionServiceTest {
+
+    private KpiRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, String> operationNames = Map.of(
+            "PERF-03", "op-03", "PERF-04", "op-04", "PERF-05", "op-05", "PERF-06", "op-06");
+        registry = new KpiRegistry("BDI_PERF_KPI", "pagopa-d-apim West Europe", operationNames::get);
+        ShadowExecutionService.clear();
+    }
+
+    @Test
+    void testCountsMustBeIdentical() {
+        assertTrue(ShadowExecutionService.compare(registry.get("PERF-02"), "1000", "1000", 1e-6).isMatch());
+        ShadowComparison comparison = ShadowExecutionService.compare(registry.get("PERF-02"), "1000000", "1000001", 1e-6);
+        assertFalse(comparison.isMatch());
+        assertEquals(1.0, comparison.getAbsoluteDifference(), 0.0);
+    }
+
+    @Test
+    void testAveragesWithinTolerance() {
+        assertTrue(ShadowExecutionService.compare(registry.get("PERF-03"), "120.5", "120.50000001", 1e-6).isMatch());
+        assertFalse(ShadowExecutionService.compare(registry.get("PERF-03"), "120.5", "121.5", 1e-6).isMatch());
+        assertFalse(ShadowExecutionService.compare(registry.get("PERF-03"), "120.5", null, 1e-6).isMatch());
+    }
+
+    @Test
+    void testReportVerdict() {
+        ShadowExecutionService service = new ShadowExecutionService(() -> null, 2, 1e-6);
+        ShadowComparison match = ShadowExecutionService.compare(registry.get("PERF-02"), "10", "10", 1e-6).toBuilder()
+            .candidate("PLANNER").referenceMillis(300).candidateMillis(100).build();
+        ShadowExecutionService.record(match);
+        assertEquals(ShadowKpiReport.Verdict.INSUFFICIENT_DATA, service.report().get(0).getVerdict());
+
+        ShadowExecutionService.record(match);
+        ShadowKpiReport report = service.report().get(0);
+        assertEquals(ShadowKpiReport.Verdict.SAFE, report.getVerdict());
+        assertTrue(report.isFaster());
+        assertEquals(300.0, report.getAvgReferenceMillis(), 0.0);
+        assertEquals(100.0, report.getAvgCandidateMillis(), 0.0);
+
+        ShadowExecutionService.record(ShadowExecutionService.compare(registry.get("PERF-02"), "10", "11", 1e-6).toBuilder()
+            .candidate("PLANNER").build());
+        List<ShadowKpiReport> reports = service.report();
+        assertEquals(ShadowKpiReport.Verdict.UNSAFE, reports.get(0).getVerdict());
+        assertEquals("11", reports.get(0).getLastMismatch().getCandidateValue());
+    }
+}
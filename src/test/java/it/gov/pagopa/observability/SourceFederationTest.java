@@ -0,0 +1,125 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.JsonHelper;
+import it.gov.pagopa.observability.models.SourceTarget;
+import it.gov.pagopa.observability.models.TargetOutcome;
+import it.gov.pagopa.observability.service.KpiRegistry;
+import it.gov.pagopa.observability.service.SourceFederation;
+
+public class SourceFederationTest {
+
+    private static final LocalDateTime SPLIT = LocalDateTime.of(2024, 6, 1, 0, 0);
+    private static final List<String> KPIS = List.of(KpiRegistry.PERF_02, KpiRegistry.PERF_02E);
+
+    // a region split by time in two tables plus a second region on its own cluster
+    private static final String TARGETS = "[" +
+        "{\"name\":\"weu-old\",\"table\":\"ReEventOld\",\"to\":\"2024-06-01T00:00:00\"}," +
+        "{\"name\":\"weu\",\"from\":\"2024-06-01T00:00:00\"}," +
+        "{\"name\":\"itn\",\"clusterUrl\":\"https://itn.kusto.windows.net\",\"database\":\"re\"}]";
+
+    private final Map<String, LocalDateTime[]> queried = new ConcurrentHashMap<>();
+
+    private Map<String, Long> count(SourceTarget target, LocalDateTime start, LocalDateTime end) {
+        queried.put(target.getName(), new LocalDateTime[] { start, end });
+        if ("itn".equals(target.getName())) {
+            return Map.of(KpiRegistry.PERF_02, 5_000_000_000L, KpiRegistry.PERF_02E, 3L);
+        }
+        return Map.of(KpiRegistry.PERF_02, 100L, KpiRegistry.PERF_02E, 1L);
+    }
+
+    private static SourceFederation federation(boolean allowPartial) {
+        return new SourceFederation(SourceFederation.parseTargets(TARGETS, "https://weu.kusto.windows.net", "re", "ReEvent"),
+            allowPartial, 4);
+    }
+
+    @Test
+    void parseTargetsAppliesDefaults() {
+        List<SourceTarget> targets = SourceFederation.parseTargets(TARGETS, "https://weu.kusto.windows.net", "re", "ReEvent");
+
+        assertEquals(3, targets.size());
+        assertEquals("ReEventOld", targets.get(0).getTable());
+        assertEquals("https://weu.kusto.windows.net", targets.get(0).getClusterUrl());
+        assertNull(targets.get(0).getFrom());
+        assertEquals(SPLIT, targets.get(1).getFrom());
+        assertEquals("ReEvent", targets.get(2).getTable());
+        assertEquals("https://itn.kusto.windows.net", targets.get(2).getClusterUrl());
+        assertTrue(SourceFederation.parseTargets("", null, null, null).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> SourceFederation.parseTargets("{}", null, null, null));
+    }
+
+    @Test
+    void duplicateNamesAreRejected() {
+        String json = "[{\"name\":\"weu\"},{\"name\":\"weu\"}]";
+        assertThrows(IllegalArgumentException.class,
+            () -> new SourceFederation(SourceFederation.parseTargets(json, "c", "d", "t"), false, 1));
+    }
+
+    @Test
+    void countsAreSummedExactly() throws Exception {
+        List<TargetOutcome> outcomes = new ArrayList<>();
+        Map<String, Long> counts = federation(false).count(KPIS, SPLIT.minusHours(1), SPLIT.plusHours(1).minusSeconds(1),
+            this::count, outcomes);
+
+        assertEquals(Long.valueOf(5_000_000_200L), counts.get(KpiRegistry.PERF_02));
+        assertEquals(Long.valueOf(5L), counts.get(KpiRegistry.PERF_02E));
+        assertEquals(3, outcomes.size());
+        outcomes.forEach(outcome -> assertNull(outcome.getError()));
+        assertTrue(JsonHelper.writer().writeValueAsString(outcomes).contains("\"startDate\":\"2024-06-01T00:00\""));
+    }
+
+    @Test
+    void intervalIsClippedToTheTargetTimeRange() throws Exception {
+        federation(false).count(KPIS, SPLIT.minusHours(1), SPLIT.plusHours(1).minusSeconds(1), this::count, new ArrayList<>());
+
+        assertEquals(SPLIT.minusHours(1), queried.get("weu-old")[0]);
+        assertTrue(queried.get("weu-old")[1].isBefore(SPLIT));
+        assertEquals(SPLIT, queried.get("weu")[0]);
+        assertEquals(SPLIT.plusHours(1).minusSeconds(1), queried.get("weu")[1]);
+    }
+
+    @Test
+    void targetsOutsideTheIntervalAreNotQueried() throws Exception {
+        federation(false).count(KPIS, SPLIT.plusDays(1), SPLIT.plusDays(1).plusHours(1), this::count, new ArrayList<>());
+
+        assertEquals(2, queried.size());
+        assertTrue(queried.containsKey("weu"));
+        assertTrue(queried.containsKey("itn"));
+    }
+
+    @Test
+    void failedTargetFailsTheRunUnlessPartialIsAllowed() throws Exception {
+        SourceFederation.TargetQuery failing = (target, start, end) -> {
+            if ("itn".equals(target.getName())) {
+                throw new IllegalStateException("cluster unreachable");
+            }
+            return count(target, start, end);
+        };
+        LocalDateTime end = SPLIT.plusHours(1).minusSeconds(1);
+
+        List<TargetOutcome> outcomes = new ArrayList<>();
+        assertThrows(IllegalStateException.class, () -> federation(false).count(KPIS, SPLIT, end, failing, outcomes));
+        assertEquals(2, outcomes.size());
+
+        List<TargetOutcome> partial = new ArrayList<>();
+        Map<String, Long> counts = federation(true).count(KPIS, SPLIT, end, failing, partial);
+        assertEquals(Long.valueOf(100L), counts.get(KpiRegistry.PERF_02));
+        TargetOutcome failed = partial.stream().filter(o -> "itn".equals(o.getTarget())).findFirst().orElseThrow();
+        assertEquals("cluster unreachable", failed.getError());
+        assertNull(failed.getCounts());
+        assertNotNull(partial.stream().filter(o -> "weu".equals(o.getTarget())).findFirst().orElseThrow().getCounts());
+    }
+}
@@ -0,0 +1,103 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.helper.StandaloneExecutionContext;
+import it.gov.pagopa.observability.helper.StructuredLog;
+
+public class StructuredLogTest {
+
+    private static List<String> capture(Logger logger) {
+        List<String> lines = new ArrayList<>();
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                lines.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return lines;
+    }
+
+    @Test
+    void testEventsAreFormattedAsKeyValues() {
+        String line = StructuredLog.format("kpi.computed", 1, "kpiId", "PERF-02", "start", LocalDateTime.of(2024, 5, 1, 0, 0),
+            "value", 42, "error", "Bad \"request\"\nretry");
+        assertEquals("event=kpi.computed kpiId=PERF-02 start=2024-05-01T00:00 value=42 error=\"Bad \\\"request\\\"\\nretry\"", line);
+        assertEquals("event=evh.batch.failed messages=3 sampleEvery=100", StructuredLog.format("evh.batch.failed", 100, "messages", 3));
+        assertThrows(IllegalArgumentException.class, () -> StructuredLog.format("kpi.computed", 1, "kpiId"));
+    }
+
+    @Test
+    void testLevelAliasesAndUnknownLevels() {
+        assertEquals(Level.WARNING, StructuredLog.parseLevel("WARN", Level.INFO));
+        assertEquals(Level.WARNING, StructuredLog.parseLevel("warning", Level.INFO));
+        assertEquals(Level.FINE, StructuredLog.parseLevel("Debug", Level.INFO));
+        assertEquals(Level.INFO, StructuredLog.parseLevel("VERBOSE", Level.INFO));
+        assertEquals(Level.INFO, StructuredLog.parseLevel(null, Level.INFO));
+    }
+
+    @Test
+    void testDisabledLevelsAreNotFormatted() {
+        StandaloneExecutionContext context = new StandaloneExecutionContext("StructuredLogTest.levels");
+        List<String> lines = capture(context.getLogger());
+        AtomicInteger evaluations = new AtomicInteger();
+        Supplier<String> payload = () -> {
+            evaluations.incrementAndGet();
+            return "payload";
+        };
+
+        StructuredLog log = StructuredLog.of(context);
+        log.fine("evh.send.started", "message", payload);
+        log.finest("evh.send.payload", "message", payload);
+        assertEquals(0, evaluations.get());
+        assertTrue(lines.isEmpty());
+
+        log.info("evh.send.completed", "message", payload);
+        assertEquals(1, evaluations.get());
+        assertEquals(List.of("event=evh.send.completed message=payload"), lines);
+    }
+
+    @Test
+    void testSampledEventsAndRunBytes() {
+        StandaloneExecutionContext context = new StandaloneExecutionContext("StructuredLogTest.sampling");
+        List<String> lines = capture(context.getLogger());
+
+        StructuredLog log = StructuredLog.begin(context);
+        for (int i = 0; i < 250; i++) {
+            log.sampled(Level.WARNING, "test.sampled." + context.getInvocationId(), "attempt", i);
+        }
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(1).contains("attempt=100 "));
+
+        long bytes = lines.stream().mapToLong(String::length).sum();
+        assertEquals(bytes, log.runBytes());
+        assertEquals(bytes, log.end());
+        assertEquals(0, log.runBytes());
+        assertFalse(lines.get(0).isEmpty());
+    }
+}
@@ -0,0 +1,73 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.opentelemetry.api.GlobalOpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+
+import it.gov.pagopa.observability.helper.Tracing;
+
+public class TracingTest {
+
+    private InMemorySpanExporter exporter;
+
+    @BeforeEach
+    void setUp() {
+        exporter = InMemorySpanExporter.create();
+        Tracing.install(OpenTelemetrySdk.builder()
+            .setTracerProvider(SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+                .build())
+            .build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        Tracing.install(GlobalOpenTelemetry.get());
+    }
+
+    @Test
+    void testNestedSpans() {
+        String value = Tracing.trace("CollectPerfData", SpanKind.SERVER, server -> {
+            server.setAttribute("kpi.ids", "PERF-02");
+            return Tracing.trace("adx.query", SpanKind.CLIENT, client -> {
+                client.setAttribute("adx.result.rows", 1L);
+                return "10";
+            });
+        });
+
+        assertEquals("10", value);
+        List<SpanData> spans = exporter.getFinishedSpanItems();
+        assertEquals(2, spans.size());
+        SpanData client = spans.get(0);
+        SpanData server = spans.get(1);
+        assertEquals("adx.query", client.getName());
+        assertEquals(server.getSpanContext().getSpanId(), client.getParentSpanId());
+        assertEquals("PERF-02", server.getAttributes().get(AttributeKey.stringKey("kpi.ids")));
+        assertEquals(Long.valueOf(1), client.getAttributes().get(AttributeKey.longKey("adx.result.rows")));
+    }
+
+    @Test
+    void testFailureIsRecorded() {
+        assertThrows(IllegalStateException.class, () -> Tracing.trace("eventhub.send", SpanKind.PRODUCER, span -> {
+            throw new IllegalStateException("too large");
+        }));
+
+        SpanData span = exporter.getFinishedSpanItems().get(0);
+        assertEquals(StatusCode.ERROR, span.getStatus().getStatusCode());
+    }
+}
@@ -0,0 +1,164 @@
+package it.gov.pagopa.observability;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import it.gov.pagopa.observability.models.PerfKpiRow;
+import it.gov.pagopa.observability.service.WriteBehindSpool;
+
+public class WriteBehindSpoolTest {
+
+    private Path file;
+    private List<PerfKpiRow> writtenRows;
+    private List<byte[]> sentMessages;
+    private List<String> ingestTags;
+    private boolean failing;
+    private String poison;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempDirectory("spool").resolve("spool.jsonl");
+        writtenRows = new ArrayList<>();
+        sentMessages = new ArrayList<>();
+        ingestTags = new ArrayList<>();
+        failing = false;
+        poison = null;
+    }
+
+    private WriteBehindSpool newSpool() throws Exception {
+        return new WriteBehindSpool(file,
+            (tableName, rows, ingestTag) -> {
+                ingestTags.add(ingestTag);
+                if (failing) {
+                    throw new IllegalStateException("ADX unavailable");
+                }
+                writtenRows.addAll(rows);
+            },
+            messages -> {
+                List<String> errors = new ArrayList<>();
+                for (byte[] message : messages) {
+                    if (new String(message, StandardCharsets.UTF_8).equals(poison)) {
+                        errors.add("Event data is too large to fit in the batch");
+                    } else {
+                        sentMessages.add(message);
+                        errors.add(null);
+                    }
+                }
+                return errors;
+            },
+            100, 3, 0);
+    }
+
+    private PerfKpiRow row(String kpiId, String value) {
+        LocalDateTime start = LocalDateTime.of(2025, 3, 1, 0, 0);
+        return PerfKpiRow.builder().startDate(start).endDate(start.plusDays(1)).kpiId(kpiId).kpiValue(value).build();
+    }
+
+    @Test
+    void testDrainSendsAndCompacts() throws Exception {
+        WriteBehindSpool spool = newSpool();
+        spool.appendRows("BDI_PERF_KPI", List.of(row("PERF-02", "10")));
+        spool.appendRows("BDI_PERF_KPI", List.of(row("PERF-03", "1.5")));
+        spool.appendMessage("{\"year\":\"2025\"}".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(3, spool.pendingCount());
+        assertEquals(3, spool.drain());
+        assertEquals(0, spool.pendingCount());
+        assertEquals(2, writtenRows.size());
+        assertArrayEquals("{\"year\":\"2025\"}".getBytes(StandardCharsets.UTF_8), sentMessages.get(0));
+        assertEquals(0, Files.size(file));
+    }
+
+    @Test
+    void testFailedWriteIsReplayedOnRestart() throws Exception {
+        failing = true;
+        WriteBehindSpool spool = newSpool();
+        spool.appendRows("BDI_PERF_KPI", List.of(row("PERF-02", "10")));
+        spool.appendMessage("evh".getBytes(StandardCharsets.UTF_8));
+
+        // the message is sent, the kpi row stays pending
+        assertEquals(1, spool.drain());
+        assertEquals(1, spool.pendingCount());
+
+        failing = false;
+        WriteBehindSpool restarted = newSpool();
+        assertEquals(1, restarted.pendingCount());
+        assertEquals(1, restarted.drain());
+        assertEquals("PERF-02", writtenRows.get(0).getKpiId());
+        // the replayed entry keeps its ingest-by tag, an ingestion before the crash is not repeated by ADX
+        assertEquals(2, ingestTags.size());
+        assertTrue(ingestTags.get(0).startsWith("spool|"));
+        assertEquals(ingestTags.get(0), ingestTags.get(1));
+        assertEquals(LocalDateTime.of(2025, 3, 2, 0, 0), writtenRows.get(0).getEndDate());
+        assertEquals(1, sentMessages.size());
+    }
+
+    @Test
+    void testFailedCompactionKeepsTheJournal() throws Exception {
+        failing = true;
+        WriteBehindSpool spool = newSpool();
+        spool.appendRows("BDI_PERF_KPI", List.of(row("PERF-02", "10")));
+        spool.appendMessage("evh".getBytes(StandardCharsets.UTF_8));
+        spool.drain();
+
+        // the compacted file can't be created, as if the disk failed right after the previous journal was dropped
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        Files.createDirectories(compacted.resolve("busy"));
+        assertThrows(IOException.class, this::newSpool);
+        // the row is still in the journal and the running spool keeps working on it
+        assertEquals(1, spool.pendingCount());
+        failing = false;
+        assertThrows(IOException.class, spool::drain);
+        assertEquals(1, writtenRows.size());
+
+        // the acks were journaled before the failed compaction, nothing is replayed twice
+        Files.delete(compacted.resolve("busy"));
+        Files.delete(compacted);
+        WriteBehindSpool restarted = newSpool();
+        assertEquals(0, restarted.pendingCount());
+        assertEquals(0, restarted.drain());
+        assertEquals(1, writtenRows.size());
+        assertEquals(1, sentMessages.size());
+        assertEquals(0, Files.size(file));
+    }
+
+    @Test
+    void testPoisonMessageIsDeadLetteredWithoutResendingTheOthers() throws Exception {
+        poison = "too large";
+        WriteBehindSpool spool = newSpool();
+        spool.appendMessage("first".getBytes(StandardCharsets.UTF_8));
+        spool.appendMessage(poison.getBytes(StandardCharsets.UTF_8));
+        spool.appendMessage("third".getBytes(StandardCharsets.UTF_8));
+
+        // the messages around the poison one are sent and acked once
+        assertEquals(2, spool.drain());
+        assertEquals(1, spool.pendingCount());
+        assertEquals(0, spool.drain());
+        assertEquals(2, sentMessages.size());
+
+        // the attempts survive a restart, the third failure moves the entry to the dead letter file
+        WriteBehindSpool restarted = newSpool();
+        assertEquals(1, restarted.pendingCount());
+        assertEquals(0, restarted.drain());
+        assertEquals(0, restarted.pendingCount());
+        assertEquals(2, sentMessages.size());
+        List<String> deadLetters = Files.readAllLines(file.resolveSibling(file.getFileName() + ".dead"));
+        assertEquals(1, deadLetters.size());
+        assertTrue(deadLetters.get(0).contains("\"attempts\":3"));
+        assertTrue(deadLetters.get(0).contains("too large to fit"));
+        assertEquals(0, Files.size(file));
+    }
+}
@@ -0,0 +1,71 @@
+#!/usr/bin/env bash
+# Trains the AppCDS archive of the function app (startup/app.jsa) during the image build.
+# The functions host is started against the local stand-ins of it.gov.pagopa.observability.helper.StartupTrainer,
+# every function is called a few times and the Java worker dumps the loaded classes when it exits.
+# With CDS_MEASURE=true the cold start is measured with and without the archive, see startup/cds-report.txt
+set -euo pipefail
+
+ROOT=${AzureWebJobsScriptRoot:-/home/site/wwwroot}
+ARCHIVE=$ROOT/startup/app.jsa
+REPORT=$ROOT/startup/cds-report.txt
+STANDIN=http://localhost:${STANDIN_PORT:-7199}
+
+export ADX_CLUSTER_URL=$STANDIN ADX_ACCESS_TOKEN=startup-training \
+    ADX_DATABASE_NAME=training ADX_SOURCE_TABLE=ReEvent ADX_PERF_TABLE=BDI_PERF_KPI \
+    APP_INSIGHTS_BASE_URL=$STANDIN AZURE_AD_LOGIN_URL=$STANDIN APP_INSIGHTS_APP_ID=training \
+    AZURE_AD_AI_TENANT_ID=training AZURE_AD_AI_CLIENT_ID=training AZURE_AD_AI_CLIENT_SECRET=training \
+    BETTERSTACK_API_URL=$STANDIN/betterstack BETTERSTACK_API_KEY=training \
+    EVENT_HUB_NAMESPACE=localhost EVENT_HUB_NAME=training EVENT_HUB_KEY_NAME=training EVENT_HUB_KEY=dHJhaW5pbmc= BULKHEAD_EVENT_HUB_TIMEOUT_MS=500 \
+    FAULT_COUNTS_VIEW_SCHEDULE="0 0 0 1 1 *" ROLLING_WINDOW_SCHEDULE="0 0 0 1 1 *" SPOOL_RECOVERY_SCHEDULE="0 0 0 1 1 *" LOG_LEVEL=WARNING
+export AzureWebJobs__FaultCountsViewMaintenance__Disabled=true AzureWebJobs__RollingKpiWindowRefresh__Disabled=true
+
+worker_pid() {
+    pgrep -f azure-functions-java-worker || true
+}
+
+HOST_PID=
+
+# SIGTERM exits the worker through its shutdown hooks, the dynamic archive is written then
+stop_host() {
+    local worker
+    worker=$(worker_pid)
+    if [ -n "$worker" ]; then
+        kill -TERM $worker 2> /dev/null || true
+        while kill -0 $worker 2> /dev/null; do sleep 0.2; done
+    fi
+    if [ -n "$HOST_PID" ]; then
+        kill -TERM $HOST_PID 2> /dev/null || true
+        wait $HOST_PID || true
+        HOST_PID=
+    fi
+}
+# the host never outlives the script, whatever step fails
+trap stop_host EXIT
+
+# $1 label of the run, $2 JAVA_OPTS of the worker
+run() {
+    JAVA_OPTS="$2" /azure-functions-host/Microsoft.Azure.WebJobs.Script.WebHost > "/tmp/host-$1.log" 2>&1 &
+    HOST_PID=$!
+    # a failed training (es. host not ready in time) must not fail the image build, it only costs the archive
+    java -cp "$ROOT/*:$ROOT/lib/*" it.gov.pagopa.observability.helper.StartupTrainer "$1" "$REPORT" \
+        || echo "train.sh - $1 run failed, see /tmp/host-$1.log" >&2
+    stop_host
+}
+
+mkdir -p "$ROOT/startup"
+rm -f "$ARCHIVE" "$REPORT"
+
+if [ "${CDS_MEASURE:-false}" = "true" ]; then
+    run baseline "-Xshare:auto"
+fi
+
+run training "-XX:ArchiveClassesAtExit=$ARCHIVE"
+if [ ! -s "$ARCHIVE" ]; then
+    # the image still works without the archive, -Xshare:auto ignores a missing file
+    echo "train.sh - no AppCDS archive written, see /tmp/host-training.log" >&2
+    exit 0
+fi
+
+if [ "${CDS_MEASURE:-false}" = "true" ]; then
+    run appcds "-XX:SharedArchiveFile=$ARCHIVE -Xshare:auto"
+fi